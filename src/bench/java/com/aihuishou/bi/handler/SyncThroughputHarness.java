@@ -0,0 +1,319 @@
+package com.aihuishou.bi.handler;
+
+import com.aihuishou.bi.Config;
+import com.aihuishou.bi.sync.SyncMetrics;
+import com.aihuishou.bi.sync.TableMetrics;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import com.google.common.collect.ImmutableList;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * 端到端拷贝吞吐的基准: 用两个嵌入式 H2 文件库作为源库和目标库, 按几种典型的表结构生成数据,
+ * 逐个走完整的 {@link Handler#sync} (建表、读取、写入、建索引), 把每种结构的 rows/s、MB/s、峰值堆内存和 GC 时间写入 JSON 报告,
+ * 用来对比不同版本之间的吞吐变化. Spring 上下文只装配 {@link Config} 和 {@link Handler}, 配置与正式运行相同,
+ * 状态文件放在临时目录, 不影响当前目录. H2 的 TEXT/BLOB 是 LOB 类型, 这里用长 VARCHAR/VARBINARY 代替.
+ * MB/s 按写入端已提交页的 Page.getSizeInBytes 计算; 峰值堆内存包含 H2 自身的页缓存.
+ * 运行: mvn -Pbenchmark test-compile exec:exec@harness [-Dharness.rows=200000] [-Dharness.report=target/sync-harness.json]
+ * 参数: 窄表行数 报告路径 [--sync.xxx=yyy ...], 其余形状的行数按各自的比例缩放, 额外的参数覆盖 application.yml
+ */
+public class SyncThroughputHarness {
+    private static final String SCHEMA = "PUBLIC";
+
+    private static final List<Shape> SHAPES = ImmutableList.of(
+            new Shape("narrow_ints", 1.0, narrowInts()),
+            new Shape("wide_200", 0.05, wide(200)),
+            new Shape("text_heavy", 0.05, textHeavy()),
+            new Shape("blob_heavy", 0.05, blobHeavy()),
+            new Shape("null_heavy", 0.5, nullHeavy()));
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 200_000;
+        Path report = Paths.get(args.length > 1 ? args[1] : "target/sync-harness.json");
+        List<String> overrides = args.length > 2 ? Arrays.asList(args).subList(2, args.length) : ImmutableList.of();
+
+        // 系统属性优先于 application.yml, 命令行上的覆盖又优先于系统属性
+        Path dir = Files.createTempDirectory("sync-harness");
+        setDataSource("source", dir.resolve("source"));
+        setDataSource("target", dir.resolve("target"));
+        System.setProperty("database", SCHEMA);
+        System.setProperty("sync.tuning-file", dir.resolve("tuning.properties").toString());
+        System.setProperty("sync.schema-file", dir.resolve("schemas.properties").toString());
+        System.setProperty("sync.checkpoint-file", dir.resolve("checkpoints.properties").toString());
+        System.setProperty("sync.incremental.state-file", dir.resolve("watermarks.properties").toString());
+        System.setProperty("sync.binlog.state-file", dir.resolve("binlog.properties").toString());
+        System.setProperty("sync.spill.directory", dir.resolve("spill").toString());
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(HarnessConfiguration.class)
+                .web(WebApplicationType.NONE)
+                .run(overrides.toArray(new String[0]))) {
+            Handler handler = context.getBean(Handler.class);
+            SyncMetrics metrics = context.getBean(SyncMetrics.class);
+            DataSource source = context.getBean("sourceDataSource", DataSource.class);
+            DataSource target = context.getBean("targetDataSource", DataSource.class);
+            // 源库的列元数据按库缓存, 第一次同步时载入, 所以所有源表要在第一次同步之前建好
+            for (Shape shape : SHAPES) {
+                createSource(source, shape, shape.getRows(rows));
+            }
+            for (Shape shape : SHAPES) {
+                results.add(run(handler, metrics, source, target, shape, shape.getRows(rows)));
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+
+        Map<String, Object> output = new LinkedHashMap<>();
+        output.put("time", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date()));
+        output.put("javaVersion", System.getProperty("java.version"));
+        output.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+        output.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        output.put("overrides", overrides);
+        output.put("results", results);
+        if (report.getParent() != null) {
+            Files.createDirectories(report.getParent());
+        }
+        Files.write(report, JSON.toJSONString(output, SerializerFeature.PrettyFormat).getBytes(StandardCharsets.UTF_8));
+        System.out.println("report: " + report.toAbsolutePath());
+        for (Map<String, Object> result : results) {
+            System.out.println(result);
+        }
+    }
+
+    private static void createSource(DataSource source, Shape shape, long rows) throws SQLException {
+        String table = shape.name.toUpperCase();
+        try (Connection connection = source.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS " + table);
+            statement.execute("CREATE TABLE " + table + " (" + shape.definition.columns + ")");
+            statement.execute("INSERT INTO " + table + " SELECT " + shape.definition.values + " FROM SYSTEM_RANGE(1, " + rows + ")");
+        }
+    }
+
+    private static Map<String, Object> run(Handler handler, SyncMetrics metrics, DataSource source, DataSource target, Shape shape, long rows) throws Exception {
+        String table = shape.name.toUpperCase();
+        TableMetrics tableMetrics = metrics.table(SCHEMA + "." + table);
+        long writtenBytes = tableMetrics.getWrittenBytes();
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = getHeapPools();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+        long gcMillis = getGcMillis();
+        long gcCount = getGcCount();
+        long start = System.nanoTime();
+
+        handler.sync(SCHEMA, SCHEMA, table);
+
+        long elapsed = System.nanoTime() - start;
+        gcMillis = getGcMillis() - gcMillis;
+        gcCount = getGcCount() - gcCount;
+        long peakHeap = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        writtenBytes = tableMetrics.getWrittenBytes() - writtenBytes;
+        long targetRows = count(target, table);
+        if (targetRows != rows) {
+            throw new IllegalStateException(shape.name + " copied " + targetRows + " of " + rows + " rows");
+        }
+
+        double seconds = elapsed / 1_000_000_000.0;
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("shape", shape.name);
+        result.put("rows", rows);
+        result.put("bytes", writtenBytes);
+        result.put("seconds", seconds);
+        result.put("rowsPerSecond", rows / seconds);
+        result.put("mbPerSecond", writtenBytes / seconds / (1024 * 1024));
+        result.put("peakHeapBytes", peakHeap);
+        result.put("gcMillis", gcMillis);
+        result.put("gcCount", gcCount);
+
+        // 下一个形状不受这张表的数据和缓存影响
+        for (DataSource dataSource : ImmutableList.of(source, target)) {
+            try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+                statement.execute("DROP TABLE IF EXISTS " + table);
+            }
+        }
+        return result;
+    }
+
+    private static void setDataSource(String name, Path file) {
+        System.setProperty("spring." + name + ".url", "jdbc:h2:file:" + file.toAbsolutePath() + ";MODE=MySQL");
+        System.setProperty("spring." + name + ".username", "sa");
+        System.setProperty("spring." + name + ".password", "");
+        System.setProperty("spring." + name + ".driver-class-name", "org.h2.Driver");
+    }
+
+    private static long count(DataSource dataSource, String table) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    private static List<MemoryPoolMXBean> getHeapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+    private static long getGcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+
+    private static long getGcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static Definition narrowInts() {
+        return new Definition(
+                "ID BIGINT PRIMARY KEY, A INT, B INT, C INT, D INT, E BIGINT",
+                "X, MOD(X, 1000), MOD(X * 7, 100000), X / 3, -X, X * 1000003");
+    }
+
+    /**
+     * 主键之外按 INT/VARCHAR/DECIMAL/DOUBLE/TIMESTAMP 轮流
+     */
+    private static Definition wide(int columns) {
+        StringBuilder definition = new StringBuilder("ID BIGINT PRIMARY KEY");
+        StringBuilder values = new StringBuilder("X");
+        for (int i = 1; i < columns; i++) {
+            String column = "C" + i;
+            switch (i % 5) {
+                case 0:
+                    definition.append(", ").append(column).append(" INT");
+                    values.append(", MOD(X + ").append(i).append(", 100000)");
+                    break;
+                case 1:
+                    definition.append(", ").append(column).append(" VARCHAR(32)");
+                    values.append(", CONCAT('v").append(i).append("-', X)");
+                    break;
+                case 2:
+                    definition.append(", ").append(column).append(" DECIMAL(12,2)");
+                    values.append(", X * 1.25 + ").append(i);
+                    break;
+                case 3:
+                    definition.append(", ").append(column).append(" DOUBLE");
+                    values.append(", X / ").append(i).append(".0");
+                    break;
+                default:
+                    definition.append(", ").append(column).append(" TIMESTAMP");
+                    values.append(", DATEADD('SECOND', X + ").append(i).append(", TIMESTAMP '2019-01-01 00:00:00')");
+                    break;
+            }
+        }
+        return new Definition(definition.toString(), values.toString());
+    }
+
+    /**
+     * 每行约 6KB 文本, 三列长度不同
+     */
+    private static Definition textHeavy() {
+        return new Definition(
+                "ID BIGINT PRIMARY KEY, TITLE VARCHAR(255), BODY VARCHAR(65535), NOTE VARCHAR(65535)",
+                "X, CONCAT('title-', X), CONCAT(X, REPEAT('lorem ipsum dolor sit amet, ', 150)), CONCAT(REPEAT('备注', 500), X)");
+    }
+
+    /**
+     * 每行约 8KB 二进制
+     */
+    private static Definition blobHeavy() {
+        return new Definition(
+                "ID BIGINT PRIMARY KEY, NAME VARCHAR(64), DATA VARBINARY(65535)",
+                "X, CONCAT('file-', X), STRINGTOUTF8(CONCAT(X, REPEAT('0123456789abcdef', 512)))");
+    }
+
+    /**
+     * 20 个可空列, 约 90% 为 NULL
+     */
+    private static Definition nullHeavy() {
+        StringBuilder definition = new StringBuilder("ID BIGINT PRIMARY KEY");
+        StringBuilder values = new StringBuilder("X");
+        for (int i = 1; i <= 20; i++) {
+            String type = i % 3 == 0 ? "VARCHAR(64)" : i % 3 == 1 ? "BIGINT" : "DECIMAL(18,4)";
+            String value = i % 3 == 0 ? "CONCAT('n', X)" : i % 3 == 1 ? "X * " + i : "X / 7.0";
+            definition.append(", N").append(i).append(' ').append(type);
+            values.append(", CASE WHEN MOD(X + ").append(i).append(", 10) = 0 THEN ").append(value).append(" END");
+        }
+        return new Definition(definition.toString(), values.toString());
+    }
+
+    @Configuration
+    @EnableConfigurationProperties
+    @Import({Config.class, Handler.class})
+    static class HarnessConfiguration {
+        /**
+         * 不启用自动配置, 指标只计数不导出
+         */
+        @Bean
+        public MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+
+    private static final class Shape {
+        private final String name;
+        private final double rowFactor;
+        private final Definition definition;
+
+        private Shape(String name, double rowFactor, Definition definition) {
+            this.name = name;
+            this.rowFactor = rowFactor;
+            this.definition = definition;
+        }
+
+        private long getRows(long narrowRows) {
+            return Math.max(1, (long) (narrowRows * rowFactor));
+        }
+    }
+
+    private static final class Definition {
+        private final String columns;
+        private final String values;
+
+        private Definition(String columns, String values) {
+            this.columns = columns;
+            this.values = values;
+        }
+    }
+}
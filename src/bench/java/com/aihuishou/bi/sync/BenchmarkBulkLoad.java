@@ -0,0 +1,258 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.PageBuilder;
+import com.facebook.presto.spi.block.BlockBuilder;
+import com.facebook.presto.spi.type.DecimalType;
+import com.facebook.presto.spi.type.Type;
+import com.google.common.collect.ImmutableList;
+import io.airlift.slice.Slices;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.postgresql.copy.CopyIn;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.List;
+import java.util.Random;
+
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.DateType.DATE;
+import static com.facebook.presto.spi.type.DoubleType.DOUBLE;
+import static com.facebook.presto.spi.type.IntegerType.INTEGER;
+import static com.facebook.presto.spi.type.TimestampType.TIMESTAMP;
+import static com.facebook.presto.spi.type.VarcharType.createVarcharType;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * 各目标库批量写入端的开销, 表为 BIGINT/INT/VARCHAR/DECIMAL/DOUBLE/DATE/TIMESTAMP 七列, 约 5% 为 NULL.
+ * mode=h2-jdbc 为 {@link JdbcPageSink} 的批量 INSERT, mode=h2-direct 为 {@link H2DirectPageSink}, 两者都写入嵌入式 H2 内存库, 每轮清空;
+ * mode=pg-copy 为 {@link PostgresCopyPageSink}, 写入进程内的 CopyIn 替身, 只计编码和缓冲的开销, 不含网络和服务端.
+ * 每次调用写入 ROWS 行, 按 tuner 的提交行数提交, 结果为 ns/行.
+ * 运行: mvn -Pbenchmark test-compile exec:exec -Dbenchmark=BenchmarkBulkLoad
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(NANOSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@OperationsPerInvocation(BenchmarkBulkLoad.ROWS)
+public class BenchmarkBulkLoad {
+    static final int ROWS = 4096;
+    private static final String URL = "jdbc:h2:mem:bulk;DB_CLOSE_DELAY=-1";
+    private static final List<Type> TYPES = ImmutableList.of(
+            BIGINT, INTEGER, createVarcharType(64), DecimalType.createDecimalType(12, 2), DOUBLE, DATE, TIMESTAMP);
+
+    @Param({"h2-jdbc", "h2-direct", "pg-copy"})
+    private String mode;
+
+    private Page page;
+    private MetaInfo metaInfo;
+    private List<JdbcColumnHandle> columnHandles;
+    private CommitAwarePageSink sink;
+    private long appendedRows;
+
+    @Setup
+    public void setup() throws SQLException {
+        page = createPage();
+        metaInfo = new MetaInfo();
+        metaInfo.setMysqlDb("bench");
+        metaInfo.setTargetDb("PUBLIC");
+        metaInfo.setTable("T");
+        ImmutableList.Builder<JdbcColumnHandle> columns = ImmutableList.builder();
+        for (int i = 0; i < TYPES.size(); i++) {
+            columns.add(new JdbcColumnHandle("bench", "C" + i, new JdbcTypeHandle(Types.OTHER, 0, 0), TYPES.get(i)));
+        }
+        columnHandles = columns.build();
+        if (mode.equals("pg-copy")) {
+            checkState(countCopyRows() == ROWS, "copy stream does not decode to %s rows", ROWS);
+            return;
+        }
+        try (Connection connection = DriverManager.getConnection(URL);
+             Statement statement = connection.createStatement()) {
+            Dialect dialect = Dialect.forConnection(connection);
+            StringBuilder sql = new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(dialect.quote(metaInfo.getTargetDb(), metaInfo.getTable())).append(" (");
+            for (int i = 0; i < TYPES.size(); i++) {
+                sql.append(i == 0 ? "" : ", ").append(dialect.quote("C" + i)).append(' ').append(dialect.toSqlType(TYPES.get(i)));
+            }
+            statement.execute(sql.append(")").toString());
+        }
+        CommitAwarePageSink check = createSink();
+        check.appendPage(page);
+        check.finish();
+        checkState(truncate() == ROWS, "expected %s rows in target", ROWS);
+    }
+
+    @Setup(Level.Iteration)
+    public void openSink() throws SQLException {
+        if (!mode.equals("pg-copy")) {
+            truncate();
+        }
+        appendedRows = 0;
+        sink = createSink();
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeSink() {
+        sink.finish();
+    }
+
+    @Benchmark
+    public long append() {
+        appendedRows += ROWS;
+        sink.appendPage(page);
+        return sink.getCommittedRows();
+    }
+
+    private CommitAwarePageSink createSink() throws SQLException {
+        AdaptiveTuner tuner = new AdaptiveTuner("bench.t", new TableTuning(), null, 1);
+        TableMetrics metrics = new TableMetrics("t");
+        switch (mode) {
+            case "h2-jdbc":
+                return new JdbcPageSink(metaInfo, columnHandles, DriverManager.getConnection(URL), tuner, ImmutableList.of(), metrics, TemporalCodec.UNSHIFTED);
+            case "h2-direct":
+                Connection connection = DriverManager.getConnection(URL);
+                return new H2DirectPageSink(metaInfo, columnHandles, connection, tuner, metrics, TemporalCodec.UNSHIFTED, Dialect.forConnection(connection));
+            default:
+                // 替身丢弃数据, 结束 COPY 时报告自上次提交以来追加的行数, 与真实服务端一致
+                PostgresCopyPageSink[] created = new PostgresCopyPageSink[1];
+                created[0] = new PostgresCopyPageSink(metaInfo, columnHandles, createConnection(),
+                        sql -> createCopyIn(null, () -> appendedRows - created[0].getCommittedRows()),
+                        tuner, metrics, TemporalCodec.UNSHIFTED, new PostgresDialect());
+                return created[0];
+        }
+    }
+
+    /**
+     * 把一页写入一次 COPY, 按字段长度逐行走完整个二进制流, 确认文件头、行数和文件尾都正确
+     */
+    private long countCopyRows() throws SQLException {
+        ByteArrayOutputStream copied = new ByteArrayOutputStream();
+        PostgresCopyPageSink check = new PostgresCopyPageSink(metaInfo, columnHandles, createConnection(), sql -> createCopyIn(copied, () -> ROWS),
+                new AdaptiveTuner("bench.t", new TableTuning(), null, 1), new TableMetrics("t"), TemporalCodec.UNSHIFTED, new PostgresDialect());
+        check.appendPage(page);
+        check.finish();
+        ByteBuffer buffer = ByteBuffer.wrap(copied.toByteArray());
+        buffer.position(11 + 4 + 4);
+        long rows = 0;
+        for (short fields = buffer.getShort(); fields != -1; fields = buffer.getShort()) {
+            checkState(fields == TYPES.size(), "unexpected field count %s", fields);
+            for (int i = 0; i < fields; i++) {
+                int length = buffer.getInt();
+                buffer.position(buffer.position() + Math.max(length, 0));
+            }
+            rows++;
+        }
+        checkState(!buffer.hasRemaining(), "bytes after trailer");
+        return rows;
+    }
+
+    private long truncate() throws SQLException {
+        try (Connection connection = DriverManager.getConnection(URL);
+             Statement statement = connection.createStatement()) {
+            String table = Dialect.forConnection(connection).quote(metaInfo.getTargetDb(), metaInfo.getTable());
+            long rows;
+            try (ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+                resultSet.next();
+                rows = resultSet.getLong(1);
+            }
+            statement.execute("TRUNCATE TABLE " + table);
+            return rows;
+        }
+    }
+
+    /**
+     * @param output 收到的字节写到这里, 为 null 时丢弃
+     */
+    private static CopyIn createCopyIn(ByteArrayOutputStream output, RowCount rowCount) {
+        return (CopyIn) Proxy.newProxyInstance(BenchmarkBulkLoad.class.getClassLoader(), new Class<?>[] {CopyIn.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "writeToCopy":
+                    if (output != null) {
+                        output.write((byte[]) args[0], (Integer) args[1], (Integer) args[2]);
+                    }
+                    return null;
+                case "endCopy":
+                    return rowCount.get();
+                case "isActive":
+                    return false;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    /**
+     * PostgresCopyPageSink 只用到 setAutoCommit、commit、rollback 和 close
+     */
+    private static Connection createConnection() {
+        return (Connection) Proxy.newProxyInstance(BenchmarkBulkLoad.class.getClassLoader(), new Class<?>[] {Connection.class}, (proxy, method, args) -> null);
+    }
+
+    private interface RowCount {
+        long get();
+    }
+
+    private static Page createPage() {
+        Random random = new Random(0);
+        PageBuilder pageBuilder = new PageBuilder(TYPES);
+        for (int row = 0; row < ROWS; row++) {
+            pageBuilder.declarePosition();
+            for (int channel = 0; channel < TYPES.size(); channel++) {
+                BlockBuilder block = pageBuilder.getBlockBuilder(channel);
+                Type type = TYPES.get(channel);
+                if (channel > 0 && random.nextInt(20) == 0) {
+                    block.appendNull();
+                } else if (type == BIGINT) {
+                    type.writeLong(block, row);
+                } else if (type == INTEGER) {
+                    type.writeLong(block, random.nextInt(1_000_000));
+                } else if (type instanceof DecimalType) {
+                    type.writeLong(block, random.nextInt(100_000_000) - 50_000_000);
+                } else if (type == DOUBLE) {
+                    type.writeDouble(block, random.nextDouble() * 1000);
+                } else if (type == DATE) {
+                    type.writeLong(block, 17_000 + random.nextInt(1000));
+                } else if (type == TIMESTAMP) {
+                    type.writeLong(block, 1_500_000_000_000L + random.nextInt(1_000_000_000));
+                } else {
+                    type.writeSlice(block, Slices.utf8Slice("name-" + random.nextInt() + (random.nextInt(4) == 0 ? "名称" : "")));
+                }
+            }
+        }
+        return pageBuilder.build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(".*" + BenchmarkBulkLoad.class.getSimpleName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,202 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.PageBuilder;
+import com.facebook.presto.spi.block.Block;
+import com.facebook.presto.spi.block.BlockBuilder;
+import com.facebook.presto.spi.type.DecimalType;
+import com.facebook.presto.spi.type.TimestampType;
+import com.facebook.presto.spi.type.Type;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Shorts;
+import com.google.common.primitives.SignedBytes;
+import org.joda.time.DateTimeZone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Random;
+
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.BooleanType.BOOLEAN;
+import static com.facebook.presto.spi.type.Chars.isCharType;
+import static com.facebook.presto.spi.type.DateType.DATE;
+import static com.facebook.presto.spi.type.DecimalType.createDecimalType;
+import static com.facebook.presto.spi.type.Decimals.encodeShortScaledValue;
+import static com.facebook.presto.spi.type.Decimals.readBigDecimal;
+import static com.facebook.presto.spi.type.DoubleType.DOUBLE;
+import static com.facebook.presto.spi.type.IntegerType.INTEGER;
+import static com.facebook.presto.spi.type.RealType.REAL;
+import static com.facebook.presto.spi.type.SmallintType.SMALLINT;
+import static com.facebook.presto.spi.type.TimestampType.TIMESTAMP;
+import static com.facebook.presto.spi.type.TinyintType.TINYINT;
+import static com.facebook.presto.spi.type.VarbinaryType.VARBINARY;
+import static com.facebook.presto.spi.type.VarcharType.createVarcharType;
+import static com.facebook.presto.spi.type.Varchars.isVarcharType;
+import static io.airlift.slice.Slices.utf8Slice;
+import static java.lang.Float.intBitsToFloat;
+import static java.lang.Math.toIntExact;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.joda.time.chrono.ISOChronology.getInstanceUTC;
+
+/**
+ * 50 列宽表上 JdbcPageSink 的参数绑定开销: 原来逐单元格的类型 if/else 链 vs 按列预先确定的 ColumnBinder.
+ * 运行: mvn -Pbenchmark test-compile exec:exec -Dbenchmark=BenchmarkColumnBinders
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(NANOSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@OperationsPerInvocation(BenchmarkColumnBinders.ROWS * BenchmarkColumnBinders.COLUMNS)
+public class BenchmarkColumnBinders {
+    static final int ROWS = 1024;
+    static final int COLUMNS = 50;
+
+    private List<Type> types;
+    private Page page;
+    private ColumnBinder[] binders;
+    private InMemoryPreparedStatement statement;
+
+    @Setup
+    public void setup() {
+        ImmutableList.Builder<Type> builder = ImmutableList.builder();
+        Type[] shape = {BIGINT, INTEGER, createVarcharType(64), createDecimalType(12, 2), DOUBLE, DATE, TIMESTAMP, createVarcharType(255), BIGINT, INTEGER};
+        for (int i = 0; i < COLUMNS; i++) {
+            builder.add(shape[i % shape.length]);
+        }
+        types = builder.build();
+        page = createPage(types, ROWS);
+        binders = ColumnBinders.createColumnBinders(types, TemporalCodec.UNSHIFTED);
+        statement = new InMemoryPreparedStatement(COLUMNS);
+    }
+
+    @Benchmark
+    public long typeChain() throws SQLException {
+        for (int position = 0; position < page.getPositionCount(); position++) {
+            for (int channel = 0; channel < page.getChannelCount(); channel++) {
+                appendColumn(statement, types, page, position, channel);
+            }
+            statement.addBatch();
+        }
+        statement.clearBatch();
+        return statement.getChecksum();
+    }
+
+    @Benchmark
+    public long columnBinders() throws SQLException {
+        Block[] blocks = new Block[page.getChannelCount()];
+        for (int channel = 0; channel < blocks.length; channel++) {
+            blocks[channel] = page.getBlock(channel);
+        }
+        for (int position = 0; position < page.getPositionCount(); position++) {
+            for (int channel = 0; channel < blocks.length; channel++) {
+                if (blocks[channel].isNull(position)) {
+                    statement.setObject(channel + 1, null);
+                } else {
+                    binders[channel].bind(statement, channel + 1, blocks[channel], position);
+                }
+            }
+            statement.addBatch();
+        }
+        statement.clearBatch();
+        return statement.getChecksum();
+    }
+
+    /**
+     * 重构前 JdbcPageSink.appendColumn 的实现, 作为对照
+     */
+    private static void appendColumn(PreparedStatement statement, List<Type> columnTypes, Page page, int position, int channel) throws SQLException {
+        Block block = page.getBlock(channel);
+        int parameter = channel + 1;
+
+        if (block.isNull(position)) {
+            statement.setObject(parameter, null);
+            return;
+        }
+        Type type = columnTypes.get(channel);
+        if (BOOLEAN.equals(type)) {
+            statement.setBoolean(parameter, type.getBoolean(block, position));
+        } else if (BIGINT.equals(type)) {
+            statement.setLong(parameter, type.getLong(block, position));
+        } else if (INTEGER.equals(type)) {
+            statement.setInt(parameter, toIntExact(type.getLong(block, position)));
+        } else if (SMALLINT.equals(type)) {
+            statement.setShort(parameter, Shorts.checkedCast(type.getLong(block, position)));
+        } else if (TINYINT.equals(type)) {
+            statement.setByte(parameter, SignedBytes.checkedCast(type.getLong(block, position)));
+        } else if (DOUBLE.equals(type)) {
+            statement.setDouble(parameter, type.getDouble(block, position));
+        } else if (REAL.equals(type)) {
+            statement.setFloat(parameter, intBitsToFloat(toIntExact(type.getLong(block, position))));
+        } else if (type instanceof DecimalType) {
+            statement.setBigDecimal(parameter, readBigDecimal((DecimalType) type, block, position));
+        } else if (isVarcharType(type) || isCharType(type)) {
+            statement.setString(parameter, type.getSlice(block, position).toStringUtf8());
+        } else if (VARBINARY.equals(type)) {
+            statement.setBytes(parameter, type.getSlice(block, position).getBytes());
+        } else if (DATE.equals(type)) {
+            long utcMillis = DAYS.toMillis(type.getLong(block, position));
+            long localMillis = getInstanceUTC().getZone().getMillisKeepLocal(DateTimeZone.getDefault(), utcMillis);
+            statement.setDate(parameter, new Date(localMillis));
+        } else if (type instanceof TimestampType) {
+            statement.setTimestamp(parameter, new Timestamp(type.getLong(block, position)));
+        } else {
+            throw new UnsupportedOperationException("Unsupported column type: " + type.getDisplayName());
+        }
+    }
+
+    static Page createPage(List<Type> types, int rows) {
+        Random random = new Random(42);
+        PageBuilder pageBuilder = new PageBuilder(types);
+        for (int row = 0; row < rows; row++) {
+            pageBuilder.declarePosition();
+            for (int channel = 0; channel < types.size(); channel++) {
+                Type type = types.get(channel);
+                BlockBuilder output = pageBuilder.getBlockBuilder(channel);
+                if (random.nextInt(20) == 0) {
+                    output.appendNull();
+                } else if (type instanceof DecimalType) {
+                    type.writeLong(output, encodeShortScaledValue(BigDecimal.valueOf(random.nextInt(1_000_000), 2), ((DecimalType) type).getScale()));
+                } else if (isVarcharType(type)) {
+                    type.writeSlice(output, utf8Slice("value-" + random.nextInt()));
+                } else if (DOUBLE.equals(type)) {
+                    type.writeDouble(output, random.nextDouble());
+                } else if (DATE.equals(type)) {
+                    type.writeLong(output, 17000 + random.nextInt(1000));
+                } else if (TIMESTAMP.equals(type)) {
+                    type.writeLong(output, 1_500_000_000_000L + random.nextInt());
+                } else {
+                    type.writeLong(output, random.nextInt());
+                }
+            }
+        }
+        return pageBuilder.build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(".*" + BenchmarkColumnBinders.class.getSimpleName() + ".*")
+                .build();
+        new Runner(options).run();
+    }
+}
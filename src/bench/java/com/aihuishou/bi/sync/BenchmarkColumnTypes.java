@@ -0,0 +1,291 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.block.Block;
+import com.facebook.presto.spi.type.Type;
+import com.google.common.collect.ImmutableList;
+import io.airlift.slice.Slice;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * 按列类型分别测量单元格在读取链路上的开销, 每种类型一张单列表, 每次调用处理 ROWS 行, 所以结果即 ns/单元格:
+ * read: StandardReadMappings 的读取函数从 ResultSet 取值并转换为 Presto 的表示;
+ * buildPage: JdbcPageSource 从 ResultSet 构建 Page;
+ * bind: ColumnBinder 把 Page 中的值绑定到 PreparedStatement.
+ * ResultSet 和 PreparedStatement 都是内存中的替身, 不包含驱动和网络的开销. 单列表每行一个单元格,
+ * GC profiler 的 gc.alloc.rate.norm 即每行分配的字节数. TIME 列写入端不支持绑定, 不在此列.
+ * 运行: mvn -Pbenchmark test-compile exec:exec -Dbenchmark=BenchmarkColumnTypes
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(NANOSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@OperationsPerInvocation(BenchmarkColumnTypes.ROWS)
+public class BenchmarkColumnTypes {
+    // 与 JdbcPageSource 每次 getNextPage 读取的行数相同, 单列的页不会提前写满
+    static final int ROWS = 4096;
+
+    @Param({"boolean", "tinyint", "smallint", "integer", "bigint", "real", "double",
+            "decimal_short", "decimal_long", "char", "varchar", "varbinary", "date", "timestamp"})
+    private String type;
+
+    private Type columnType;
+    private ReadFunction readFunction;
+    private InMemoryResultSet resultSet;
+    private JdbcPageSource pageSource;
+    private Page page;
+    private ColumnBinder binder;
+    private InMemoryPreparedStatement statement;
+
+    @Setup
+    public void setup() {
+        JdbcTypeHandle typeHandle = getTypeHandle(type);
+        ReadMapping readMapping = StandardReadMappings.jdbcTypeToPrestoType(typeHandle)
+                .orElseThrow(() -> new IllegalArgumentException("unmapped type: " + type));
+        columnType = readMapping.getType();
+        readFunction = readMapping.getReadFunction();
+        Object[][] values = {createValues(type, ROWS)};
+        resultSet = new InMemoryResultSet(values, true);
+
+        List<JdbcColumnHandle> columnHandles = ImmutableList.of(new JdbcColumnHandle("bench", "c", typeHandle, columnType));
+        MetaInfo metaInfo = new MetaInfo();
+        metaInfo.setMysqlDb("bench");
+        metaInfo.setTargetDb("bench");
+        metaInfo.setTable("t");
+        // 读取端的 fetch size 调节只影响替身的 setFetchSize, 不影响结果
+        AdaptiveTuner tuner = new AdaptiveTuner("bench.t", new TableTuning(), null, 1);
+        pageSource = new JdbcPageSource(metaInfo, columnHandles, new JdbcSplit(ImmutableList.of()),
+                createConnection(new InMemoryPreparedStatement(0, new InMemoryResultSet(values, true))), tuner);
+        page = pageSource.getNextPage();
+        checkState(page != null && page.getPositionCount() == ROWS, "expected a full page of %s rows", ROWS);
+
+        binder = ColumnBinders.createColumnBinders(ImmutableList.of(columnType), TemporalCodec.UNSHIFTED)[0];
+        statement = new InMemoryPreparedStatement(1);
+    }
+
+    @Benchmark
+    public long read() throws SQLException {
+        long checksum = 0;
+        Class<?> javaType = columnType.getJavaType();
+        for (int row = 0; row < ROWS; row++) {
+            resultSet.next();
+            if (javaType == long.class) {
+                checksum += ((LongReadFunction) readFunction).readLong(resultSet, 1);
+            } else if (javaType == double.class) {
+                checksum += (long) ((DoubleReadFunction) readFunction).readDouble(resultSet, 1);
+            } else if (javaType == boolean.class) {
+                checksum += ((BooleanReadFunction) readFunction).readBoolean(resultSet, 1) ? 1 : 0;
+            } else {
+                Slice value = ((SliceReadFunction) readFunction).readSlice(resultSet, 1);
+                checksum += value == null ? 0 : value.length();
+            }
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    public Page buildPage() {
+        return pageSource.getNextPage();
+    }
+
+    @Benchmark
+    public long bind() throws SQLException {
+        Block block = page.getBlock(0);
+        for (int position = 0; position < ROWS; position++) {
+            if (block.isNull(position)) {
+                statement.setObject(1, null);
+            } else {
+                binder.bind(statement, 1, block, position);
+            }
+            statement.addBatch();
+        }
+        statement.clearBatch();
+        return statement.getChecksum();
+    }
+
+    private static JdbcTypeHandle getTypeHandle(String type) {
+        switch (type) {
+            case "boolean":
+                return new JdbcTypeHandle(Types.BOOLEAN, 1, 0);
+            case "tinyint":
+                return new JdbcTypeHandle(Types.TINYINT, 3, 0);
+            case "smallint":
+                return new JdbcTypeHandle(Types.SMALLINT, 5, 0);
+            case "integer":
+                return new JdbcTypeHandle(Types.INTEGER, 10, 0);
+            case "bigint":
+                return new JdbcTypeHandle(Types.BIGINT, 19, 0);
+            case "real":
+                return new JdbcTypeHandle(Types.REAL, 12, 0);
+            case "double":
+                return new JdbcTypeHandle(Types.DOUBLE, 22, 0);
+            case "decimal_short":
+                return new JdbcTypeHandle(Types.DECIMAL, 12, 2);
+            case "decimal_long":
+                return new JdbcTypeHandle(Types.DECIMAL, 30, 4);
+            case "char":
+                return new JdbcTypeHandle(Types.CHAR, 16, 0);
+            case "varchar":
+                return new JdbcTypeHandle(Types.VARCHAR, 64, 0);
+            case "varbinary":
+                return new JdbcTypeHandle(Types.VARBINARY, 32, 0);
+            case "date":
+                return new JdbcTypeHandle(Types.DATE, 10, 0);
+            case "timestamp":
+                return new JdbcTypeHandle(Types.TIMESTAMP, 19, 0);
+            default:
+                throw new IllegalArgumentException("unknown type: " + type);
+        }
+    }
+
+    /**
+     * 按 MySQL Connector/J 对该类型返回的 Java 对象生成数据, 约 5% 为 NULL
+     */
+    static Object[] createValues(String type, int rows) {
+        Random random = new Random(42);
+        Object[] values = new Object[rows];
+        for (int row = 0; row < rows; row++) {
+            if (random.nextInt(20) == 0) {
+                continue;
+            }
+            switch (type) {
+                case "boolean":
+                    values[row] = random.nextBoolean();
+                    break;
+                case "tinyint":
+                    values[row] = random.nextInt(256) - 128;
+                    break;
+                case "smallint":
+                    values[row] = random.nextInt(65536) - 32768;
+                    break;
+                case "integer":
+                    values[row] = random.nextInt();
+                    break;
+                case "bigint":
+                    values[row] = random.nextLong();
+                    break;
+                case "real":
+                    values[row] = random.nextFloat() * 1000;
+                    break;
+                case "double":
+                    values[row] = random.nextDouble() * 1_000_000;
+                    break;
+                case "decimal_short":
+                    values[row] = BigDecimal.valueOf(random.nextInt(1_000_000_000), 2);
+                    break;
+                case "decimal_long":
+                    values[row] = new BigDecimal(new BigInteger(96, random), 4);
+                    break;
+                case "char":
+                    values[row] = String.format("%016d", random.nextInt(Integer.MAX_VALUE));
+                    break;
+                case "varchar":
+                    // 混入多字节字符, 覆盖 UTF-8 编码
+                    values[row] = (random.nextInt(4) == 0 ? "回收订单-" : "order-") + random.nextInt();
+                    break;
+                case "varbinary":
+                    values[row] = ("bin-" + random.nextLong()).getBytes(UTF_8);
+                    break;
+                case "date":
+                    values[row] = Date.valueOf(java.time.LocalDate.ofEpochDay(17000 + random.nextInt(1000)));
+                    break;
+                case "timestamp":
+                    values[row] = new Timestamp(1_500_000_000_000L + random.nextInt());
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown type: " + type);
+            }
+        }
+        return values;
+    }
+
+    static Connection createConnection(InMemoryPreparedStatement statement) {
+        return createConnection(statement, "in-memory");
+    }
+
+    /**
+     * JdbcPageSource 只用到 setAutoCommit、prepareStatement 和 getMetaData().getDatabaseProductName(), 其余调用直接报错;
+     * product 为 MySQL 时 {@link ReadOptions#forConnection} 还会经 createStatement 查询 character_set_results, 替身返回 utf8mb4
+     * @param product 数据库产品名, 决定 {@link ReadOptions}
+     */
+    static Connection createConnection(InMemoryPreparedStatement statement, String product) {
+        DatabaseMetaData metaData = (DatabaseMetaData) Proxy.newProxyInstance(BenchmarkColumnTypes.class.getClassLoader(), new Class<?>[] {DatabaseMetaData.class}, (proxy, method, args) -> {
+            if (method.getName().equals("getDatabaseProductName")) {
+                return product;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        return (Connection) Proxy.newProxyInstance(BenchmarkColumnTypes.class.getClassLoader(), new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "prepareStatement":
+                    return statement;
+                case "createStatement":
+                    return createCharsetStatement();
+                case "getMetaData":
+                    return metaData;
+                case "setAutoCommit":
+                case "close":
+                    return null;
+                case "toString":
+                    return "in-memory connection";
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static Statement createCharsetStatement() {
+        return (Statement) Proxy.newProxyInstance(BenchmarkColumnTypes.class.getClassLoader(), new Class<?>[] {Statement.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "executeQuery":
+                    return new InMemoryResultSet(new Object[][] {{"utf8mb4"}}, false);
+                case "close":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(".*" + BenchmarkColumnTypes.class.getSimpleName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,162 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.block.Block;
+import com.facebook.presto.spi.type.DecimalType;
+import com.facebook.presto.spi.type.Type;
+import com.google.common.collect.ImmutableList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+import java.util.Random;
+
+import static com.facebook.presto.spi.type.Decimals.readBigDecimal;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * 金额类宽表 (8 个 DECIMAL 列, 6 个短 decimal、2 个长 decimal, 约 5% 为 NULL) 在读取和绑定两端的开销.
+ * decimal 值按 MySQL 文本协议保存为 byte[] 文本, getBigDecimal 与驱动一样先解码成字符串再解析:
+ * codec=big_decimal 为标准路径, 读取时 getBigDecimal 后按 scale 编码, 绑定时 readBigDecimal;
+ * codec=text 为 {@link DecimalCodec}, 读取时直接从文本解析非标度值, 短 decimal 绑定时不经过 BigInteger.
+ * 每次调用处理 ROWS 行, 结果为 ns/行, GC profiler 的 gc.alloc.rate.norm 即每行分配的字节数.
+ * 运行: mvn -Pbenchmark test-compile exec:exec -Dbenchmark=BenchmarkDecimalCodec
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(NANOSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@OperationsPerInvocation(BenchmarkDecimalCodec.ROWS)
+public class BenchmarkDecimalCodec {
+    static final int ROWS = 4096;
+    private static final JdbcTypeHandle[] COLUMNS = {
+            new JdbcTypeHandle(Types.DECIMAL, 12, 2),
+            new JdbcTypeHandle(Types.DECIMAL, 12, 2),
+            new JdbcTypeHandle(Types.DECIMAL, 10, 4),
+            new JdbcTypeHandle(Types.DECIMAL, 18, 0),
+            new JdbcTypeHandle(Types.DECIMAL, 16, 6),
+            new JdbcTypeHandle(Types.DECIMAL, 8, 2),
+            new JdbcTypeHandle(Types.DECIMAL, 30, 4),
+            new JdbcTypeHandle(Types.DECIMAL, 24, 8)};
+
+    @Param({"big_decimal", "text"})
+    private String codec;
+
+    private List<Type> types;
+    private JdbcPageSource pageSource;
+    private Page page;
+    private ColumnBinder[] binders;
+    private InMemoryPreparedStatement statement;
+
+    @Setup
+    public void setup() {
+        ReadOptions options = new ReadOptions(codec.equals("text"), false);
+        ImmutableList.Builder<JdbcColumnHandle> columnHandles = ImmutableList.builder();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            Type type = StandardReadMappings.jdbcTypeToPrestoType(COLUMNS[i], options).get().getType();
+            columnHandles.add(new JdbcColumnHandle("bench", "c" + i, COLUMNS[i], type));
+        }
+        types = columnHandles.build().stream().map(JdbcColumnHandle::getColumnType).collect(toImmutableList());
+        Object[][] values = new Object[COLUMNS.length][];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            values[i] = createValues((DecimalType) types.get(i), i);
+        }
+
+        MetaInfo metaInfo = new MetaInfo();
+        metaInfo.setMysqlDb("bench");
+        metaInfo.setTargetDb("bench");
+        metaInfo.setTable("t");
+        AdaptiveTuner tuner = new AdaptiveTuner("bench.t", new TableTuning(), null, 1);
+        String product = codec.equals("text") ? "MySQL" : "in-memory";
+        pageSource = new JdbcPageSource(metaInfo, columnHandles.build(), new JdbcSplit(ImmutableList.of()),
+                BenchmarkColumnTypes.createConnection(new InMemoryPreparedStatement(0, new InMemoryResultSet(values, true)), product), tuner);
+        page = pageSource.getNextPage();
+        checkState(page != null && page.getPositionCount() == ROWS, "expected a full page of %s rows", ROWS);
+
+        if (codec.equals("text")) {
+            binders = ColumnBinders.createColumnBinders(types, TemporalCodec.UNSHIFTED);
+        } else {
+            binders = types.stream()
+                    .map(type -> (ColumnBinder) (statement, parameter, block, position) -> statement.setBigDecimal(parameter, readBigDecimal((DecimalType) type, block, position)))
+                    .toArray(ColumnBinder[]::new);
+        }
+        statement = new InMemoryPreparedStatement(COLUMNS.length);
+    }
+
+    @Benchmark
+    public Page buildPage() {
+        return pageSource.getNextPage();
+    }
+
+    @Benchmark
+    public long bind() throws SQLException {
+        Block[] blocks = new Block[page.getChannelCount()];
+        for (int channel = 0; channel < blocks.length; channel++) {
+            blocks[channel] = page.getBlock(channel);
+        }
+        for (int position = 0; position < ROWS; position++) {
+            for (int channel = 0; channel < blocks.length; channel++) {
+                if (blocks[channel].isNull(position)) {
+                    statement.setObject(channel + 1, null);
+                } else {
+                    binders[channel].bind(statement, channel + 1, blocks[channel], position);
+                }
+            }
+            statement.addBatch();
+        }
+        statement.clearBatch();
+        return statement.getChecksum();
+    }
+
+    /**
+     * 驱动返回的文本总是带满 scale 位小数, 与 MySQL 一致
+     */
+    private static Object[] createValues(DecimalType type, int seed) {
+        Random random = new Random(seed);
+        Object[] values = new Object[ROWS];
+        for (int row = 0; row < ROWS; row++) {
+            if (random.nextInt(20) == 0) {
+                continue;
+            }
+            // 每位十进制约 3.3 位二进制, 不会超出列的精度
+            int bits = type.getPrecision() * 3;
+            BigInteger unscaled = new BigInteger(bits, random);
+            if (random.nextInt(10) == 0) {
+                unscaled = unscaled.negate();
+            }
+            values[row] = new BigDecimal(unscaled, type.getScale()).toPlainString().getBytes(US_ASCII);
+        }
+        return values;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(".*" + BenchmarkDecimalCodec.class.getSimpleName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
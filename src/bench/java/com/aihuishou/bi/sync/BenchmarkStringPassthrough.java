@@ -0,0 +1,159 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.block.Block;
+import com.facebook.presto.spi.type.Type;
+import com.google.common.collect.ImmutableList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * 文本为主的宽表 (CHAR、VARCHAR、TEXT 共 6 列, 混入中文, 约 5% 为 NULL) 在读取和绑定两端的开销.
+ * 单元格按驱动收到的 UTF-8 字节保存, getString 与驱动一样每次解码:
+ * mode=string 为标准路径, 读取时 getString 后编码成 Slice, 绑定时 toStringUtf8 后 setString;
+ * mode=raw 为源端结果集和目标列都是 UTF-8 时的直通路径, 读取时 getBytes 直接作为 Slice, 绑定时 setBytes.
+ * 每次调用处理 ROWS 行, 结果为 ns/行, GC profiler 的 gc.alloc.rate.norm 即每行分配的字节数.
+ * 替身 PreparedStatement 不含驱动把 String 编码回字节的开销, bind 的差距在真实驱动上只会更大.
+ * 运行: mvn -Pbenchmark test-compile exec:exec -Dbenchmark=BenchmarkStringPassthrough
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(NANOSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@OperationsPerInvocation(BenchmarkStringPassthrough.ROWS)
+public class BenchmarkStringPassthrough {
+    static final int ROWS = 4096;
+    private static final JdbcTypeHandle[] COLUMNS = {
+            new JdbcTypeHandle(Types.CHAR, 16, 0),
+            new JdbcTypeHandle(Types.VARCHAR, 32, 0),
+            new JdbcTypeHandle(Types.VARCHAR, 64, 0),
+            new JdbcTypeHandle(Types.VARCHAR, 128, 0),
+            new JdbcTypeHandle(Types.VARCHAR, 255, 0),
+            new JdbcTypeHandle(Types.LONGVARCHAR, 65535, 0)};
+
+    @Param({"string", "raw"})
+    private String mode;
+
+    private JdbcPageSource pageSource;
+    private Page page;
+    private ColumnBinder[] binders;
+    private InMemoryPreparedStatement statement;
+
+    @Setup
+    public void setup() {
+        boolean raw = mode.equals("raw");
+        ReadOptions options = new ReadOptions(false, raw);
+        ImmutableList.Builder<JdbcColumnHandle> columnHandles = ImmutableList.builder();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            Type type = StandardReadMappings.jdbcTypeToPrestoType(COLUMNS[i], options).get().getType();
+            columnHandles.add(new JdbcColumnHandle("bench", "c" + i, COLUMNS[i], type));
+        }
+        List<Type> types = columnHandles.build().stream().map(JdbcColumnHandle::getColumnType).collect(toImmutableList());
+        Object[][] values = new Object[COLUMNS.length][];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            values[i] = createValues(COLUMNS[i], i);
+        }
+
+        MetaInfo metaInfo = new MetaInfo();
+        metaInfo.setMysqlDb("bench");
+        metaInfo.setTargetDb("bench");
+        metaInfo.setTable("t");
+        AdaptiveTuner tuner = new AdaptiveTuner("bench.t", new TableTuning(), null, 1);
+        // 替身以 MySQL 身份查询 character_set_results 时返回 utf8mb4
+        String product = raw ? "MySQL" : "in-memory";
+        pageSource = new JdbcPageSource(metaInfo, columnHandles.build(), new JdbcSplit(ImmutableList.of()),
+                BenchmarkColumnTypes.createConnection(new InMemoryPreparedStatement(0, new InMemoryResultSet(values, true)), product), tuner);
+        page = pageSource.getNextPage();
+        checkState(page != null && page.getPositionCount() == ROWS, "expected a full page of %s rows", ROWS);
+
+        binders = types.stream()
+                .map(type -> ColumnBinders.createColumnBinder(type, raw, TemporalCodec.UNSHIFTED))
+                .toArray(ColumnBinder[]::new);
+        statement = new InMemoryPreparedStatement(COLUMNS.length);
+    }
+
+    @Benchmark
+    public Page buildPage() {
+        return pageSource.getNextPage();
+    }
+
+    @Benchmark
+    public long bind() throws SQLException {
+        Block[] blocks = new Block[page.getChannelCount()];
+        for (int channel = 0; channel < blocks.length; channel++) {
+            blocks[channel] = page.getBlock(channel);
+        }
+        for (int position = 0; position < ROWS; position++) {
+            for (int channel = 0; channel < blocks.length; channel++) {
+                if (blocks[channel].isNull(position)) {
+                    statement.setObject(channel + 1, null);
+                } else {
+                    binders[channel].bind(statement, channel + 1, blocks[channel], position);
+                }
+            }
+            statement.addBatch();
+        }
+        statement.clearBatch();
+        return statement.getChecksum();
+    }
+
+    /**
+     * 长度随机, 不超过列宽的一半和 20 个字符 (整页不超过 PageBuilder 的上限), 约四分之一为中文, CHAR 列补齐末尾空格, 覆盖去空格的路径
+     */
+    private static Object[] createValues(JdbcTypeHandle column, int seed) {
+        Random random = new Random(seed);
+        Object[] values = new Object[ROWS];
+        int maxLength = Math.min(column.getColumnSize() / 2, 20);
+        for (int row = 0; row < ROWS; row++) {
+            if (random.nextInt(20) == 0) {
+                continue;
+            }
+            StringBuilder value = new StringBuilder();
+            int length = 1 + random.nextInt(maxLength);
+            for (int i = 0; i < length; i++) {
+                value.append(random.nextInt(4) == 0 ? (char) ('一' + random.nextInt(0x5000)) : (char) ('a' + random.nextInt(26)));
+            }
+            if (column.getJdbcType() == Types.CHAR) {
+                while (value.length() < column.getColumnSize()) {
+                    value.append(' ');
+                }
+            }
+            values[row] = value.toString().getBytes(UTF_8);
+        }
+        return values;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(".*" + BenchmarkStringPassthrough.class.getSimpleName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,178 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.block.Block;
+import com.facebook.presto.spi.type.Type;
+import com.google.common.collect.ImmutableList;
+import org.joda.time.DateTimeZone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Random;
+
+import static com.facebook.presto.spi.type.DateType.DATE;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.joda.time.DateTimeZone.UTC;
+
+/**
+ * 日志类宽表 (4 个 DATETIME 列、2 个 DATE 列, 约 5% 为 NULL) 在读取和绑定两端的开销.
+ * 日期时间按 MySQL 驱动 getBytes 返回的文本保存为 byte[], getTimestamp/getDate 与驱动一样每次解析:
+ * codec=legacy 为之前的路径, 读取时 getTimestamp 后按 JVM 时区换算, 绑定时 new Timestamp/new Date;
+ * codec=text 为 {@link TemporalCodec}, 读取时直接从文本解析本地时间, 绑定时写成文本 setString.
+ * 每次调用处理 ROWS 行, 结果为 ns/行, GC profiler 的 gc.alloc.rate.norm 即每行分配的字节数.
+ * 替身 PreparedStatement 不含驱动格式化 Timestamp (Connector/J 5.1 每次新建 SimpleDateFormat) 的开销, bind 的差距在真实驱动上只会更大.
+ * 运行: mvn -Pbenchmark test-compile exec:exec -Dbenchmark=BenchmarkTemporalCodec
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(NANOSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@OperationsPerInvocation(BenchmarkTemporalCodec.ROWS)
+public class BenchmarkTemporalCodec {
+    static final int ROWS = 4096;
+    private static final JdbcTypeHandle[] COLUMNS = {
+            new JdbcTypeHandle(Types.TIMESTAMP, 19, 0),
+            new JdbcTypeHandle(Types.TIMESTAMP, 19, 0),
+            new JdbcTypeHandle(Types.TIMESTAMP, 19, 0),
+            new JdbcTypeHandle(Types.TIMESTAMP, 19, 0),
+            new JdbcTypeHandle(Types.DATE, 10, 0),
+            new JdbcTypeHandle(Types.DATE, 10, 0)};
+
+    @Param({"legacy", "text"})
+    private String codec;
+
+    private JdbcPageSource pageSource;
+    private Page page;
+    private ColumnBinder[] binders;
+    private InMemoryPreparedStatement statement;
+
+    @Setup
+    public void setup() throws SQLException {
+        boolean text = codec.equals("text");
+        ReadOptions options = new ReadOptions(text, false);
+        ImmutableList.Builder<JdbcColumnHandle> columnHandles = ImmutableList.builder();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            Type type = StandardReadMappings.jdbcTypeToPrestoType(COLUMNS[i], options).get().getType();
+            columnHandles.add(new JdbcColumnHandle("bench", "c" + i, COLUMNS[i], type));
+        }
+        List<Type> types = columnHandles.build().stream().map(JdbcColumnHandle::getColumnType).collect(toImmutableList());
+        Object[][] values = new Object[COLUMNS.length][];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            values[i] = createValues(COLUMNS[i], i);
+        }
+
+        MetaInfo metaInfo = new MetaInfo();
+        metaInfo.setMysqlDb("bench");
+        metaInfo.setTargetDb("bench");
+        metaInfo.setTable("t");
+        AdaptiveTuner tuner = new AdaptiveTuner("bench.t", new TableTuning(), null, 1);
+        String product = text ? "MySQL" : "in-memory";
+        pageSource = new JdbcPageSource(metaInfo, columnHandles.build(), new JdbcSplit(ImmutableList.of()),
+                BenchmarkColumnTypes.createConnection(new InMemoryPreparedStatement(0, new InMemoryResultSet(values, true)), product), tuner);
+        page = pageSource.getNextPage();
+        checkState(page != null && page.getPositionCount() == ROWS, "expected a full page of %s rows", ROWS);
+
+        if (text) {
+            TemporalCodec temporalCodec = TemporalCodec.UNSHIFTED.forTarget(BenchmarkColumnTypes.createConnection(null, "MySQL"));
+            binders = types.stream()
+                    .map(type -> ColumnBinders.createColumnBinder(type, false, temporalCodec))
+                    .toArray(ColumnBinder[]::new);
+        } else {
+            // 之前的实现: TIMESTAMP 为 UTC 时刻, DATE 换算成 JVM 时区的零点
+            DateTimeZone zone = DateTimeZone.getDefault();
+            binders = types.stream()
+                    .map(type -> DATE.equals(type)
+                            ? (ColumnBinder) (statement, parameter, block, position) ->
+                            statement.setDate(parameter, new Date(UTC.getMillisKeepLocal(zone, DAYS.toMillis(type.getLong(block, position)))))
+                            : (ColumnBinder) (statement, parameter, block, position) ->
+                            statement.setTimestamp(parameter, new Timestamp(type.getLong(block, position))))
+                    .toArray(ColumnBinder[]::new);
+        }
+        statement = new InMemoryPreparedStatement(COLUMNS.length);
+    }
+
+    @Benchmark
+    public Page buildPage() {
+        return pageSource.getNextPage();
+    }
+
+    @Benchmark
+    public long bind() throws SQLException {
+        Block[] blocks = new Block[page.getChannelCount()];
+        for (int channel = 0; channel < blocks.length; channel++) {
+            blocks[channel] = page.getBlock(channel);
+        }
+        for (int position = 0; position < ROWS; position++) {
+            for (int channel = 0; channel < blocks.length; channel++) {
+                if (blocks[channel].isNull(position)) {
+                    statement.setObject(channel + 1, null);
+                } else {
+                    binders[channel].bind(statement, channel + 1, blocks[channel], position);
+                }
+            }
+            statement.addBatch();
+        }
+        statement.clearBatch();
+        return statement.getChecksum();
+    }
+
+    /**
+     * 2015 年起约 5 年内的随机时刻, 与 Connector/J 一样 DATETIME 带 ".0" 或毫秒
+     */
+    private static Object[] createValues(JdbcTypeHandle column, int seed) {
+        Random random = new Random(seed);
+        Object[] values = new Object[ROWS];
+        LocalDateTime start = LocalDateTime.of(2015, 1, 1, 0, 0);
+        for (int row = 0; row < ROWS; row++) {
+            if (random.nextInt(20) == 0) {
+                continue;
+            }
+            LocalDateTime dateTime = start.plusSeconds(random.nextInt(5 * 365 * 24 * 3600));
+            if (column.getJdbcType() == Types.DATE) {
+                LocalDate date = dateTime.toLocalDate();
+                values[row] = date.toString().getBytes(US_ASCII);
+            } else {
+                if (random.nextInt(4) == 0) {
+                    dateTime = dateTime.plusNanos(random.nextInt(1000) * 1_000_000L);
+                }
+                values[row] = Timestamp.valueOf(dateTime).toString().getBytes(US_ASCII);
+            }
+        }
+        return values;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(".*" + BenchmarkTemporalCodec.class.getSimpleName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
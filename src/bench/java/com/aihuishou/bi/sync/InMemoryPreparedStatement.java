@@ -0,0 +1,610 @@
+package com.aihuishou.bi.sync;
+
+import java.math.BigDecimal;
+import java.sql.*;
+
+/**
+ * 只在内存中记录参数的 PreparedStatement, 用于基准测试绑定开销, 不涉及网络和驱动的序列化.
+ * 给定 ResultSet 时 executeQuery 返回它, 用于基准测试读取端
+ */
+public class InMemoryPreparedStatement implements PreparedStatement {
+    private final long[] longs;
+    private final Object[] objects;
+    private int batchSize;
+    private long checksum;
+    private boolean closed;
+    private final ResultSet resultSet;
+
+    public InMemoryPreparedStatement(int parameterCount) {
+        this(parameterCount, null);
+    }
+
+    public InMemoryPreparedStatement(int parameterCount, ResultSet resultSet) {
+        this.longs = new long[parameterCount + 1];
+        this.objects = new Object[parameterCount + 1];
+        this.resultSet = resultSet;
+    }
+
+    /**
+     * 基准测试返回该值, 防止 JIT 把绑定过程当作死代码消除
+     */
+    public long getChecksum() {
+        return checksum;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    private void setPrimitive(int parameterIndex, long value) {
+        longs[parameterIndex] = value;
+        objects[parameterIndex] = null;
+    }
+
+    private void setReference(int parameterIndex, Object value) {
+        objects[parameterIndex] = value;
+    }
+
+    @Override
+    public void setNull(int parameterIndex, int sqlType) {
+        setReference(parameterIndex, null);
+    }
+
+    @Override
+    public void setBoolean(int parameterIndex, boolean x) {
+        setPrimitive(parameterIndex, x ? 1 : 0);
+    }
+
+    @Override
+    public void setByte(int parameterIndex, byte x) {
+        setPrimitive(parameterIndex, x);
+    }
+
+    @Override
+    public void setShort(int parameterIndex, short x) {
+        setPrimitive(parameterIndex, x);
+    }
+
+    @Override
+    public void setInt(int parameterIndex, int x) {
+        setPrimitive(parameterIndex, x);
+    }
+
+    @Override
+    public void setLong(int parameterIndex, long x) {
+        setPrimitive(parameterIndex, x);
+    }
+
+    @Override
+    public void setFloat(int parameterIndex, float x) {
+        setPrimitive(parameterIndex, Float.floatToRawIntBits(x));
+    }
+
+    @Override
+    public void setDouble(int parameterIndex, double x) {
+        setPrimitive(parameterIndex, Double.doubleToRawLongBits(x));
+    }
+
+    @Override
+    public void setBigDecimal(int parameterIndex, BigDecimal x) {
+        setReference(parameterIndex, x);
+    }
+
+    @Override
+    public void setString(int parameterIndex, String x) {
+        setReference(parameterIndex, x);
+    }
+
+    @Override
+    public void setBytes(int parameterIndex, byte[] x) {
+        setReference(parameterIndex, x);
+    }
+
+    @Override
+    public void setDate(int parameterIndex, Date x) {
+        setReference(parameterIndex, x);
+    }
+
+    @Override
+    public void setTime(int parameterIndex, Time x) {
+        setReference(parameterIndex, x);
+    }
+
+    @Override
+    public void setTimestamp(int parameterIndex, Timestamp x) {
+        setReference(parameterIndex, x);
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x) {
+        setReference(parameterIndex, x);
+    }
+
+    @Override
+    public void clearParameters() {
+        for (int i = 0; i < objects.length; i++) {
+            longs[i] = 0;
+            objects[i] = null;
+        }
+    }
+
+    @Override
+    public void addBatch() {
+        batchSize++;
+        for (int i = 0; i < longs.length; i++) {
+            checksum += longs[i];
+            if (objects[i] != null) {
+                checksum++;
+            }
+        }
+    }
+
+    @Override
+    public void clearBatch() {
+        batchSize = 0;
+    }
+
+    @Override
+    public int[] executeBatch() {
+        int[] counts = new int[batchSize];
+        batchSize = 0;
+        return counts;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> arg0) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> arg0) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ResultSet executeQuery(String arg0) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int executeUpdate(String arg0) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getMaxFieldSize() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setMaxFieldSize(int arg0) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getMaxRows() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setMaxRows(int arg0) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setEscapeProcessing(boolean arg0) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getQueryTimeout() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setQueryTimeout(int arg0) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void cancel() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setCursorName(String arg0) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean execute(String arg0) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getUpdateCount() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean getMoreResults() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setFetchDirection(int arg0) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getFetchDirection() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setFetchSize(int rows) {
+    }
+
+    @Override
+    public int getFetchSize() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getResultSetConcurrency() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getResultSetType() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void addBatch(String arg0) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean getMoreResults(int arg0) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ResultSet getGeneratedKeys() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int executeUpdate(String arg0, int arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int executeUpdate(String arg0, int[] arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int executeUpdate(String arg0, String[] arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean execute(String arg0, int arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean execute(String arg0, int[] arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean execute(String arg0, String[] arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getResultSetHoldability() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setPoolable(boolean arg0) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isPoolable() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void closeOnCompletion() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isCloseOnCompletion() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long getLargeUpdateCount() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setLargeMaxRows(long arg0) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long getLargeMaxRows() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long[] executeLargeBatch() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long executeLargeUpdate(String arg0) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long executeLargeUpdate(String arg0, int arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long executeLargeUpdate(String arg0, int[] arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long executeLargeUpdate(String arg0, String[] arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ResultSet executeQuery() throws SQLException {
+        if (resultSet == null) {
+            throw new UnsupportedOperationException();
+        }
+        return resultSet;
+    }
+
+    @Override
+    public int executeUpdate() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setAsciiStream(int arg0, java.io.InputStream arg1, int arg2) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setUnicodeStream(int arg0, java.io.InputStream arg1, int arg2) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setBinaryStream(int arg0, java.io.InputStream arg1, int arg2) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setObject(int arg0, Object arg1, int arg2) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean execute() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setCharacterStream(int arg0, java.io.Reader arg1, int arg2) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setRef(int arg0, Ref arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setBlob(int arg0, Blob arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setClob(int arg0, Clob arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setArray(int arg0, Array arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ResultSetMetaData getMetaData() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setDate(int arg0, Date arg1, java.util.Calendar arg2) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setTime(int arg0, Time arg1, java.util.Calendar arg2) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setTimestamp(int arg0, Timestamp arg1, java.util.Calendar arg2) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setNull(int arg0, int arg1, String arg2) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setURL(int arg0, java.net.URL arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ParameterMetaData getParameterMetaData() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setRowId(int arg0, RowId arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setNString(int arg0, String arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setNCharacterStream(int arg0, java.io.Reader arg1, long arg2) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setNClob(int arg0, NClob arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setClob(int arg0, java.io.Reader arg1, long arg2) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setBlob(int arg0, java.io.InputStream arg1, long arg2) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setNClob(int arg0, java.io.Reader arg1, long arg2) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setSQLXML(int arg0, SQLXML arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setObject(int arg0, Object arg1, int arg2, int arg3) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setAsciiStream(int arg0, java.io.InputStream arg1, long arg2) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setBinaryStream(int arg0, java.io.InputStream arg1, long arg2) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setCharacterStream(int arg0, java.io.Reader arg1, long arg2) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setAsciiStream(int arg0, java.io.InputStream arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setBinaryStream(int arg0, java.io.InputStream arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setCharacterStream(int arg0, java.io.Reader arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setNCharacterStream(int arg0, java.io.Reader arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setClob(int arg0, java.io.Reader arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setBlob(int arg0, java.io.InputStream arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setNClob(int arg0, java.io.Reader arg1) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setObject(int arg0, Object arg1, SQLType arg2, int arg3) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setObject(int arg0, Object arg1, SQLType arg2) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long executeLargeUpdate() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+}
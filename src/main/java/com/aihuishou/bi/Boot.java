@@ -1,5 +1,7 @@
 package com.aihuishou.bi;
 
+import com.aihuishou.bi.sync.BinlogSettings;
+import com.aihuishou.bi.sync.SnapshotSettings;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
@@ -14,8 +16,30 @@ public class Boot implements CommandLineRunner {
     @Autowired
     private com.aihuishou.bi.handler.Handler handler;
 
+    @Autowired
+    private BinlogSettings binlogSettings;
+
+    @Autowired
+    private SnapshotSettings snapshotSettings;
+
     @Override
     public void run(String... args) throws Exception {
-        handler.fetch(database);
+        if (binlogSettings.isEnabled()) {
+            handler.follow(database);
+            return;
+        }
+        switch (snapshotSettings.getMode()) {
+            case "none":
+                handler.fetch(database);
+                break;
+            case "export":
+                handler.exportSnapshot(database);
+                break;
+            case "import":
+                handler.importSnapshot(database);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown sync.snapshot.mode: " + snapshotSettings.getMode());
+        }
     }
 }
@@ -1,6 +1,26 @@
 package com.aihuishou.bi;
 
+import com.aihuishou.bi.sync.BinlogPositionStore;
+import com.aihuishou.bi.sync.BinlogSettings;
+import com.aihuishou.bi.sync.CopyCheckpoint;
+import com.aihuishou.bi.sync.FanOutSettings;
+import com.aihuishou.bi.sync.IncrementalTables;
+import com.aihuishou.bi.sync.LoadGovernorSettings;
+import com.aihuishou.bi.sync.MemoryPool;
+import com.aihuishou.bi.sync.RepairTables;
+import com.aihuishou.bi.sync.SchemaFingerprintStore;
+import com.aihuishou.bi.sync.SchemaMetadataCache;
+import com.aihuishou.bi.sync.SnapshotSettings;
+import com.aihuishou.bi.sync.SpillSettings;
+import com.aihuishou.bi.sync.SyncMetrics;
+import com.aihuishou.bi.sync.TimeZoneSettings;
+import com.aihuishou.bi.sync.TuningStore;
+import com.aihuishou.bi.sync.WatermarkStore;
 import com.alibaba.druid.pool.DruidDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -22,4 +42,128 @@ public class Config {
     public DataSource targetDataSource() {
         return new DruidDataSource();
     }
+
+    /**
+     * 所有表共享的在途页内存预算, 未配置时取最大堆的四分之一
+     */
+    @Bean
+    public MemoryPool memoryPool(@Value("${sync.memory-budget-mb:0}") long budgetMb) {
+        long maxBytes = budgetMb > 0 ? budgetMb * 1024 * 1024 : Runtime.getRuntime().maxMemory() / 4;
+        return new MemoryPool(maxBytes);
+    }
+
+    /**
+     * 各表各阶段的行数、字节数、缓冲区深度和写入耗时, 另外导出在途页内存预算的占用
+     */
+    @Bean
+    public SyncMetrics syncMetrics(MeterRegistry registry, MemoryPool memoryPool) {
+        Gauge.builder("sync.memory.pool.max", memoryPool, MemoryPool::getMaxBytes)
+                .description("Memory budget for in-flight pages")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("sync.memory.pool.reserved", memoryPool, MemoryPool::getReservedBytes)
+                .description("Bytes reserved by in-flight pages of all tables")
+                .baseUnit("bytes")
+                .register(registry);
+        return new SyncMetrics(registry);
+    }
+
+    @Bean
+    @ConfigurationProperties(prefix = "sync.spill")
+    public SpillSettings spillSettings() {
+        return new SpillSettings();
+    }
+
+    /**
+     * spring.target 之外同时写入的目标库
+     */
+    @Bean
+    @ConfigurationProperties(prefix = "sync.fan-out")
+    public FanOutSettings fanOutSettings() {
+        return new FanOutSettings();
+    }
+
+    @Bean
+    @ConfigurationProperties(prefix = "sync.snapshot")
+    public SnapshotSettings snapshotSettings() {
+        return new SnapshotSettings();
+    }
+
+    @Bean
+    @ConfigurationProperties(prefix = "sync.time-zone")
+    public TimeZoneSettings timeZoneSettings() {
+        return new TimeZoneSettings();
+    }
+
+    @Bean
+    @ConfigurationProperties(prefix = "sync.governor")
+    public LoadGovernorSettings loadGovernorSettings() {
+        return new LoadGovernorSettings();
+    }
+
+    /**
+     * 源库的列元数据, 每个库第一次用到时一次读出所有表
+     */
+    @Bean
+    public SchemaMetadataCache sourceMetadataCache(@Qualifier("sourceDataSource") DataSource sourceDataSource) {
+        return new SchemaMetadataCache(sourceDataSource);
+    }
+
+    /**
+     * 各表上次建表时的源表结构指纹
+     */
+    @Bean
+    public SchemaFingerprintStore schemaFingerprintStore(@Value("${sync.schema-file:sync-schemas.properties}") String file) {
+        return new SchemaFingerprintStore(file);
+    }
+
+    /**
+     * 各表收敛后的 fetch size 和提交批量, 下次拷贝时作为初始值
+     */
+    @Bean
+    public TuningStore tuningStore(@Value("${sync.tuning-file:sync-tuning.properties}") String file) {
+        return new TuningStore(file);
+    }
+
+    /**
+     * 全量拷贝中各分片已提交到的主键, 进程中途退出后从这里继续
+     */
+    @Bean
+    public CopyCheckpoint copyCheckpoint(@Value("${sync.checkpoint-file:sync-checkpoints.properties}") String file) {
+        return new CopyCheckpoint(file);
+    }
+
+    @Bean
+    @ConfigurationProperties(prefix = "sync.incremental")
+    public IncrementalTables incrementalTables() {
+        return new IncrementalTables();
+    }
+
+    /**
+     * 增量拷贝表的高水位, 只在整表拷贝成功后更新
+     */
+    @Bean
+    public WatermarkStore watermarkStore(IncrementalTables incrementalTables) {
+        return new WatermarkStore(incrementalTables.getStateFile());
+    }
+
+    @Bean
+    @ConfigurationProperties(prefix = "sync.repair")
+    public RepairTables repairTables() {
+        return new RepairTables();
+    }
+
+    @Bean
+    @ConfigurationProperties(prefix = "sync.binlog")
+    public BinlogSettings binlogSettings() {
+        return new BinlogSettings();
+    }
+
+    /**
+     * binlog 模式已应用到的位置, 所有应用线程提交后才更新
+     */
+    @Bean
+    public BinlogPositionStore binlogPositionStore(BinlogSettings binlogSettings) {
+        return new BinlogPositionStore(binlogSettings.getStateFile());
+    }
 }
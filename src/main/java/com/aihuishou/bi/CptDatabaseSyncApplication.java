@@ -3,12 +3,20 @@ package com.aihuishou.bi;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
 
 @SpringBootApplication(exclude= {DataSourceAutoConfiguration.class})
 public class CptDatabaseSyncApplication {
 
+    /**
+     * 开启指标端口时 HTTP 线程不是守护线程, 一次性拷贝结束后关闭上下文让进程退出; binlog 模式在 Boot 中一直运行
+     */
     public static void main(String[] args) {
-        SpringApplication.run(CptDatabaseSyncApplication.class, args);
+        ConfigurableApplicationContext context = SpringApplication.run(CptDatabaseSyncApplication.class, args);
+        if (context instanceof WebServerApplicationContext) {
+            context.close();
+        }
     }
 
 }
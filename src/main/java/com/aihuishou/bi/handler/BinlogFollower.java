@@ -0,0 +1,423 @@
+package com.aihuishou.bi.handler;
+
+import com.aihuishou.bi.sync.ApplyRunner;
+import com.aihuishou.bi.sync.BinlogPositionStore;
+import com.aihuishou.bi.sync.BinlogSettings;
+import com.aihuishou.bi.sync.BinlogTable;
+import com.aihuishou.bi.sync.Dialect;
+import com.aihuishou.bi.sync.JdbcColumnHandle;
+import com.aihuishou.bi.sync.FanOutSettings;
+import com.aihuishou.bi.sync.M2H2SchemaConverter;
+import com.aihuishou.bi.sync.MetaInfo;
+import com.aihuishou.bi.sync.RowChange;
+import com.aihuishou.bi.utils.Utils;
+import com.github.shyiko.mysql.binlog.BinaryLogClient;
+import com.github.shyiko.mysql.binlog.BinaryLogFileReader;
+import com.github.shyiko.mysql.binlog.event.DeleteRowsEventData;
+import com.github.shyiko.mysql.binlog.event.Event;
+import com.github.shyiko.mysql.binlog.event.EventHeaderV4;
+import com.github.shyiko.mysql.binlog.event.EventType;
+import com.github.shyiko.mysql.binlog.event.QueryEventData;
+import com.github.shyiko.mysql.binlog.event.RotateEventData;
+import com.github.shyiko.mysql.binlog.event.TableMapEventData;
+import com.github.shyiko.mysql.binlog.event.UpdateRowsEventData;
+import com.github.shyiko.mysql.binlog.event.WriteRowsEventData;
+import com.github.shyiko.mysql.binlog.event.deserialization.EventDeserializer;
+import com.google.common.collect.ImmutableList;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import static com.github.shyiko.mysql.binlog.event.deserialization.EventDeserializer.CompatibilityMode.CHAR_AND_BINARY_AS_BYTE_ARRAY;
+import static com.github.shyiko.mysql.binlog.event.deserialization.EventDeserializer.CompatibilityMode.DATE_AND_TIME_AS_LONG;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * 持续把源库 row 格式 binlog 中的增删改应用到目标表:
+ * 1. 事件来自复制连接 (BinaryLogClient), 或按文件名顺序回放 dir 目录下的 binlog 文件
+ * 2. 每行按主键哈希分给一个应用线程, 同一主键的变更保持原有顺序; 插入和更新按主键 upsert, 删除按主键 delete,
+ *    更新改了主键时先删除旧主键再 upsert 新行
+ * 3. 每隔 checkpoint-seconds 在事务边界发 barrier, 所有应用线程提交后保存 binlog 位置, 重启时从这里继续
+ * 4. binlog 行只有值没有列名, 按源表当前的列顺序对应到目标表的列; 遇到 DDL 后重新读取表结构,
+ *    源表结构与全量拷贝时不同则停止, 需要重新全量拷贝该表
+ * 要求 binlog_format=ROW 且 binlog_row_image=FULL, 目标表已由全量拷贝建好并带有主键
+ */
+public class BinlogFollower {
+    private static final int QUEUE_CAPACITY = 10000;
+
+    private final Handler handler;
+    private final BinlogSettings settings;
+    private final BinlogPositionStore positionStore;
+    private final String database;
+    private final List<BlockingQueue<RowChange>> queues;
+    private final List<ApplyRunner> runners;
+    private final Map<Long, Optional<BinlogTable>> tables = new HashMap<>();
+
+    private String currentFile;
+    private String committedFile;
+    private long committedPosition;
+    private String savedFile;
+    private long savedPosition;
+    private long lastCheckpoint = System.currentTimeMillis();
+    private long insertedRows;
+    private long updatedRows;
+    private long deletedRows;
+    private volatile Throwable failure;
+
+    public BinlogFollower(Handler handler, BinlogSettings settings, BinlogPositionStore positionStore, String database) {
+        this.handler = handler;
+        this.settings = settings;
+        this.positionStore = positionStore;
+        this.database = database;
+        int threads = Math.max(settings.getApplyThreads(), 1);
+        ImmutableList.Builder<BlockingQueue<RowChange>> queues = ImmutableList.builder();
+        ImmutableList.Builder<ApplyRunner> runners = ImmutableList.builder();
+        for (int i = 0; i < threads; i++) {
+            BlockingQueue<RowChange> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            ApplyRunner runner = new ApplyRunner(handler.getTargetDataSource(), queue, Math.max(settings.getBatchRows(), 1),
+                    handler.getTargetGovernor(FanOutSettings.PRIMARY_TARGET));
+            runner.setName("applyRunner-" + database + "-" + i);
+            queues.add(queue);
+            runners.add(runner);
+        }
+        this.queues = queues.build();
+        this.runners = runners.build();
+    }
+
+    public void run() throws Exception {
+        for (ApplyRunner runner : runners) {
+            runner.start();
+        }
+        try {
+            if (settings.isReplay()) {
+                replay();
+            } else {
+                stream();
+            }
+            checkpoint();
+        } finally {
+            for (ApplyRunner runner : runners) {
+                runner.shutdown();
+            }
+            for (ApplyRunner runner : runners) {
+                runner.join();
+            }
+        }
+        checkFailures();
+        System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " binlog apply end at " + savedFile + ":" + savedPosition);
+    }
+
+    /**
+     * 按文件名顺序回放目录下的 binlog 文件, 已保存位置之前的事件跳过
+     */
+    private void replay() throws Exception {
+        File[] files = new File(settings.getDir()).listFiles(BinlogFollower::isBinlogFile);
+        if (files == null) {
+            throw new IllegalArgumentException("binlog dir not found: " + settings.getDir());
+        }
+        Arrays.sort(files, Comparator.comparing(File::getName));
+        Optional<String> startFile = positionStore.getFile(database);
+        long startPosition = positionStore.getPosition(database);
+        for (File file : files) {
+            if (startFile.isPresent() && file.getName().compareTo(startFile.get()) < 0) {
+                continue;
+            }
+            long skipUntil = startFile.isPresent() && file.getName().equals(startFile.get()) ? startPosition : 0;
+            currentFile = file.getName();
+            System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " replay " + file + " from " + Math.max(skipUntil, 4));
+            try (BinaryLogFileReader reader = new BinaryLogFileReader(file, createEventDeserializer())) {
+                Event event;
+                while ((event = reader.readEvent()) != null) {
+                    if (((EventHeaderV4) event.getHeader()).getNextPosition() > skipUntil) {
+                        handle(event);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 作为从库连接源库, 没有保存的位置时从当前位置开始. 连接在断开前一直阻塞, 应用失败时主动断开
+     */
+    private void stream() throws Exception {
+        BinaryLogClient client = new BinaryLogClient(settings.getHost(), settings.getPort(), settings.getUser(), settings.getPassword());
+        client.setServerId(settings.getServerId());
+        client.setEventDeserializer(createEventDeserializer());
+        Optional<String> startFile = positionStore.getFile(database);
+        if (startFile.isPresent()) {
+            client.setBinlogFilename(startFile.get());
+            client.setBinlogPosition(positionStore.getPosition(database));
+        }
+        client.registerEventListener(event -> {
+            if (failure != null) {
+                return;
+            }
+            try {
+                handle(event);
+            } catch (Throwable e) {
+                e.printStackTrace();
+                failure = e;
+                try {
+                    client.disconnect();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+        });
+        client.connect();
+        if (failure != null) {
+            throw new RuntimeException("binlog apply failed", failure);
+        }
+    }
+
+    private void handle(Event event) throws Exception {
+        EventHeaderV4 header = event.getHeader();
+        EventType type = header.getEventType();
+        if (type == EventType.ROTATE) {
+            currentFile = ((RotateEventData) event.getData()).getBinlogFilename();
+        } else if (type == EventType.TABLE_MAP) {
+            TableMapEventData tableMap = event.getData();
+            Optional<BinlogTable> table = tables.get(tableMap.getTableId());
+            if (table == null || (table.isPresent() && !table.get().matches(tableMap.getColumnTypes()))) {
+                tables.put(tableMap.getTableId(), loadTable(tableMap));
+            }
+        } else if (EventType.isWrite(type)) {
+            WriteRowsEventData data = event.getData();
+            Optional<BinlogTable> table = getTable(data.getTableId());
+            if (table.isPresent()) {
+                checkFullImage(table.get(), data.getIncludedColumns());
+                for (Serializable[] row : data.getRows()) {
+                    dispatch(RowChange.upsert(table.get(), row), table.get().getKey(row));
+                    insertedRows++;
+                }
+            }
+        } else if (EventType.isUpdate(type)) {
+            UpdateRowsEventData data = event.getData();
+            Optional<BinlogTable> table = getTable(data.getTableId());
+            if (table.isPresent()) {
+                checkFullImage(table.get(), data.getIncludedColumnsBeforeUpdate());
+                checkFullImage(table.get(), data.getIncludedColumns());
+                for (Map.Entry<Serializable[], Serializable[]> row : data.getRows()) {
+                    Serializable[] oldKey = table.get().getKey(row.getKey());
+                    Serializable[] newKey = table.get().getKey(row.getValue());
+                    if (!Arrays.deepEquals(oldKey, newKey)) {
+                        dispatch(RowChange.delete(table.get(), oldKey), oldKey);
+                    }
+                    dispatch(RowChange.upsert(table.get(), row.getValue()), newKey);
+                    updatedRows++;
+                }
+            }
+        } else if (EventType.isDelete(type)) {
+            DeleteRowsEventData data = event.getData();
+            Optional<BinlogTable> table = getTable(data.getTableId());
+            if (table.isPresent()) {
+                checkFullImage(table.get(), data.getIncludedColumns());
+                for (Serializable[] row : data.getRows()) {
+                    Serializable[] key = table.get().getKey(row);
+                    dispatch(RowChange.delete(table.get(), key), key);
+                    deletedRows++;
+                }
+            }
+        } else if (type == EventType.XID) {
+            committed(header);
+        } else if (type == EventType.QUERY) {
+            String sql = ((QueryEventData) event.getData()).getSql().trim();
+            if ("COMMIT".equalsIgnoreCase(sql)) {
+                // 非事务引擎的语句以 COMMIT 结束, 没有 XID
+                committed(header);
+            } else if (!"BEGIN".equalsIgnoreCase(sql)) {
+                schemaChanged(sql);
+            }
+        }
+    }
+
+    /**
+     * ROW 格式下除 BEGIN/COMMIT 以外的 QUERY 事件都是 DDL 等语句, 之后的 TABLE_MAP 重新按源表当前结构加载.
+     * table id 在表结构变化后通常会变, 但不保证, 所以按 id 缓存的表全部丢弃
+     */
+    private void schemaChanged(String sql) {
+        if (tables.isEmpty()) {
+            return;
+        }
+        System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " reload table schemas after: "
+                + (sql.length() > 200 ? sql.substring(0, 200) + "..." : sql));
+        tables.clear();
+        handler.getSourceMetadataCache().invalidate(database);
+    }
+
+    private void committed(EventHeaderV4 header) throws InterruptedException {
+        committedFile = currentFile;
+        committedPosition = header.getNextPosition();
+        if (System.currentTimeMillis() - lastCheckpoint >= SECONDS.toMillis(settings.getCheckpointSeconds())) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * 所有应用线程提交手上的批次后, 保存最近一个事务边界的位置
+     */
+    private void checkpoint() throws InterruptedException {
+        lastCheckpoint = System.currentTimeMillis();
+        if (committedFile == null || (committedFile.equals(savedFile) && committedPosition == savedPosition)) {
+            return;
+        }
+        CountDownLatch latch = new CountDownLatch(queues.size());
+        for (BlockingQueue<RowChange> queue : queues) {
+            put(queue, RowChange.barrier(latch));
+        }
+        while (!latch.await(1, SECONDS)) {
+            checkFailures();
+        }
+        checkFailures();
+        positionStore.save(database, committedFile, committedPosition);
+        savedFile = committedFile;
+        savedPosition = committedPosition;
+        System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " binlog applied to " + savedFile + ":" + savedPosition
+                + ", inserted: " + insertedRows + ", updated: " + updatedRows + ", deleted: " + deletedRows);
+    }
+
+    private void dispatch(RowChange change, Serializable[] key) throws InterruptedException {
+        put(queues.get(Math.floorMod(Arrays.deepHashCode(key), queues.size())), change);
+    }
+
+    private void put(BlockingQueue<RowChange> queue, RowChange change) throws InterruptedException {
+        while (!queue.offer(change, 1, SECONDS)) {
+            checkFailures();
+        }
+    }
+
+    private void checkFailures() {
+        for (ApplyRunner runner : runners) {
+            if (runner.getFailure() != null) {
+                throw new RuntimeException("apply failed, runner: " + runner.getName(), runner.getFailure());
+            }
+        }
+    }
+
+    private Optional<BinlogTable> getTable(long tableId) {
+        return tables.getOrDefault(tableId, Optional.empty());
+    }
+
+    /**
+     * 目标表的列取自目标表, binlog 中值的顺序取自源表当前的列定义; 全量拷贝时记录了源表结构指纹的表, 指纹必须仍然相同
+     */
+    private Optional<BinlogTable> loadTable(TableMapEventData tableMap) throws SQLException {
+        if (!database.equals(tableMap.getDatabase()) || !settings.contains(tableMap.getTable())) {
+            return Optional.empty();
+        }
+        DataSource targetDataSource = handler.getTargetDataSource();
+        Dialect dialect;
+        try (Connection connection = targetDataSource.getConnection()) {
+            dialect = Dialect.forConnection(connection);
+        }
+        String targetDb = dialect.normalize(database);
+        MetaInfo metaInfo = handler.getMetaInfo(targetDb, targetDb, dialect.normalize(tableMap.getTable()));
+        M2H2SchemaConverter schemaConverter = new M2H2SchemaConverter(metaInfo);
+        if (!schemaConverter.existsInTarget(targetDataSource)) {
+            System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " " + tableMap.getTable() + " not in target, changes skipped");
+            return Optional.empty();
+        }
+        schemaConverter.getColumns(targetDataSource);
+        schemaConverter.getPrimaryKey(targetDataSource);
+        List<String> primaryKey = schemaConverter.getPrimaryKey();
+        if (primaryKey.isEmpty()) {
+            throw new IllegalStateException("target table has no primary key: " + tableMap.getTable() + ", exclude it with sync.binlog.tables");
+        }
+        checkSourceSchema(handler.getMetaInfo(database, targetDb, tableMap.getTable()), schemaConverter.getColumnHandles());
+        String tableKey = database + "." + tableMap.getTable();
+        System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " apply " + tableMap.getTable()
+                + " (table id " + tableMap.getTableId() + ") on key " + primaryKey);
+        return Optional.of(new BinlogTable(metaInfo, schemaConverter.getColumnHandles(), primaryKey, getSourceColumnNames(tableMap.getTable()), tableMap.getColumnTypes(),
+                handler.getSyncMetrics().table(tableKey), handler.getTemporalCodec().getSourceZone()));
+    }
+
+    /**
+     * 源表新增或修改了列之后目标表已经过时: 源表中能拷贝的列目标表都要有, 且源表结构指纹与上次全量拷贝时相同
+     */
+    private void checkSourceSchema(MetaInfo sourceMetaInfo, List<JdbcColumnHandle> targetColumns) throws SQLException {
+        M2H2SchemaConverter sourceConverter = new M2H2SchemaConverter(sourceMetaInfo);
+        sourceConverter.getColumns(handler.getSourceMetadataCache());
+        for (JdbcColumnHandle column : sourceConverter.getColumnHandles()) {
+            if (targetColumns.stream().noneMatch(target -> target.getColumnName().equalsIgnoreCase(column.getColumnName()))) {
+                throw new IllegalStateException("column " + column.getColumnName() + " of source table " + sourceMetaInfo.getTable()
+                        + " is not in the target table, its schema changed, copy the table again");
+            }
+        }
+        // 升级前拷贝的表没有记录指纹, 只能按列名检查
+        Optional<String> savedFingerprint = handler.getSchemaFingerprintStore().get(Handler.getTableKey(sourceMetaInfo));
+        if (savedFingerprint.isPresent()) {
+            sourceConverter.getPrimaryKey(handler.getSourceDataSource());
+            if (!savedFingerprint.get().equals(sourceConverter.getFingerprint())) {
+                throw new IllegalStateException("schema of source table " + sourceMetaInfo.getTable() + " changed since it was copied, copy the table again");
+            }
+        }
+    }
+
+    /**
+     * 源表所有列的列名, 包括不支持拷贝的类型, 顺序与 binlog 行中的值相同
+     */
+    private List<String> getSourceColumnNames(String table) throws SQLException {
+        ImmutableList.Builder<String> columns = ImmutableList.builder();
+        try (Connection connection = handler.getSourceDataSource().getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT column_name FROM information_schema.columns WHERE table_schema = ? AND table_name = ? ORDER BY ordinal_position")) {
+            statement.setString(1, database);
+            statement.setString(2, table);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    columns.add(resultSet.getString(1));
+                }
+            }
+        }
+        return columns.build();
+    }
+
+    /**
+     * row image 为 FULL 时行事件包含 TABLE_MAP 中的全部列, 为 MINIMAL/NOBLOB 时只有部分列, 无法整行 upsert
+     */
+    private static void checkFullImage(BinlogTable table, BitSet includedColumns) {
+        if (includedColumns.cardinality() != table.getBinlogColumnCount()) {
+            throw new IllegalStateException("row event of " + table.getMetaInfo().getTable() + " has " + includedColumns.cardinality() + " of "
+                    + table.getBinlogColumnCount() + " columns, binlog_row_image must be FULL");
+        }
+    }
+
+    private static EventDeserializer createEventDeserializer() {
+        EventDeserializer eventDeserializer = new EventDeserializer();
+        eventDeserializer.setCompatibilityMode(DATE_AND_TIME_AS_LONG, CHAR_AND_BINARY_AS_BYTE_ARRAY);
+        return eventDeserializer;
+    }
+
+    /**
+     * 以 binlog 魔数开头的文件, 排除 mysql-bin.index 等
+     */
+    private static boolean isBinlogFile(File file) {
+        if (!file.isFile()) {
+            return false;
+        }
+        byte[] header = new byte[BinaryLogFileReader.MAGIC_HEADER.length];
+        try (InputStream input = Files.newInputStream(file.toPath())) {
+            return input.read(header) == header.length && Arrays.equals(header, BinaryLogFileReader.MAGIC_HEADER);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
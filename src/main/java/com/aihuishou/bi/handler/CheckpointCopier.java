@@ -0,0 +1,69 @@
+package com.aihuishou.bi.handler;
+
+import com.aihuishou.bi.sync.CopyCheckpoint;
+import com.aihuishou.bi.sync.JdbcColumnHandle;
+import com.aihuishou.bi.sync.JdbcSplit;
+import com.aihuishou.bi.sync.KeyRange;
+import com.aihuishou.bi.sync.KeyRangeSplitter;
+import com.aihuishou.bi.sync.M2H2SchemaConverter;
+import com.aihuishou.bi.sync.MetaInfo;
+import com.aihuishou.bi.sync.SplitCheckpointer;
+import com.aihuishou.bi.sync.TableProgress;
+import com.aihuishou.bi.utils.Utils;
+import com.google.common.collect.ImmutableList;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+/**
+ * 按主键顺序全量拷贝, 各分片已提交到的主键记入断点, 成功后删除断点.
+ * 从断点继续时跳过已完成的分片, 断点之后的行可能已经提交过, 所以按主键 upsert
+ */
+public class CheckpointCopier {
+    private final Handler handler;
+    private final CopyCheckpoint copyCheckpoint;
+
+    public CheckpointCopier(Handler handler, CopyCheckpoint copyCheckpoint) {
+        this.handler = handler;
+        this.copyCheckpoint = copyCheckpoint;
+    }
+
+    public void copy(MetaInfo metaInfo, M2H2SchemaConverter schemaConverter, JdbcColumnHandle key, TableProgress progress) throws InterruptedException, SQLException {
+        String tableKey = Handler.getTableKey(metaInfo);
+        Optional<List<CopyCheckpoint.SplitProgress>> saved = schemaConverter.isTargetRebuilt() ? Optional.empty() : copyCheckpoint.get(tableKey);
+        List<CopyCheckpoint.SplitProgress> splits;
+        List<String> upsertKey;
+        if (saved.isPresent()) {
+            splits = saved.get().stream().filter(split -> !split.isDone()).collect(toImmutableList());
+            upsertKey = schemaConverter.getPrimaryKey();
+            System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " " + metaInfo.getTable()
+                    + " resume from checkpoint, remaining splits: " + splits.size() + "/" + saved.get().size());
+        } else {
+            KeyRangeSplitter splitter = new KeyRangeSplitter(metaInfo, schemaConverter.getColumnHandles());
+            List<KeyRange> ranges = splitter.getSplits(handler.getSourceDataSource(), handler.getSplitCount(progress.getEstimatedRows())).stream()
+                    .map(split -> split.getRanges().stream()
+                            .filter(range -> range.getColumn().getColumnName().equalsIgnoreCase(key.getColumnName()))
+                            .findFirst()
+                            .orElse(KeyRange.range(key, Optional.empty(), Optional.empty(), false)))
+                    .collect(toImmutableList());
+            splits = copyCheckpoint.start(tableKey, ranges);
+            upsertKey = ImmutableList.of();
+        }
+        if (!splits.isEmpty()) {
+            SplitCheckpointer checkpointer = new SplitCheckpointer(copyCheckpoint, tableKey, key, schemaConverter.getColumnHandles().indexOf(key), splits);
+            List<JdbcSplit> jdbcSplits = IntStream.range(0, splits.size())
+                    .mapToObj(split -> new JdbcSplit(ImmutableList.of(checkpointer.getRange(split))))
+                    .collect(toImmutableList());
+            try {
+                handler.copySplits(metaInfo, schemaConverter.getColumnHandles(), jdbcSplits, upsertKey, schemaConverter.getPrimaryKey(), progress, checkpointer);
+            } finally {
+                copyCheckpoint.flush();
+            }
+        }
+        copyCheckpoint.remove(tableKey);
+    }
+}
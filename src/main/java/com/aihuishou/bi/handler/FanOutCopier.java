@@ -0,0 +1,74 @@
+package com.aihuishou.bi.handler;
+
+import com.aihuishou.bi.sync.AdaptiveTuner;
+import com.aihuishou.bi.sync.FanOutMigrator;
+import com.aihuishou.bi.sync.FanOutTarget;
+import com.aihuishou.bi.sync.JdbcSplit;
+import com.aihuishou.bi.sync.KeyRangeSplitter;
+import com.aihuishou.bi.sync.M2H2SchemaConverter;
+import com.aihuishou.bi.sync.MemoryPool;
+import com.aihuishou.bi.sync.MetaInfo;
+import com.aihuishou.bi.sync.PageBuffer;
+import com.aihuishou.bi.sync.SpillSettings;
+import com.aihuishou.bi.sync.TableMetrics;
+import com.aihuishou.bi.sync.TableProgress;
+import com.aihuishou.bi.sync.TuningStore;
+import com.google.common.collect.ImmutableList;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 读取一次源表, 同时写入所有目标库. 源缓冲区的读取指标记在 库名.表名 下, 各目标的写入指标、缓冲区和提交批量记在 库名.表名@目标名 下,
+ * 表的进度按主目标库统计
+ */
+public class FanOutCopier {
+    private final Handler handler;
+    private final SpillSettings spillSettings;
+
+    public FanOutCopier(Handler handler, SpillSettings spillSettings) {
+        this.handler = handler;
+        this.spillSettings = spillSettings;
+    }
+
+    public void copy(MetaInfo metaInfo, M2H2SchemaConverter schemaConverter, TableProgress progress) throws InterruptedException, SQLException {
+        MemoryPool memoryPool = handler.getMemoryPool();
+        TuningStore tuningStore = handler.getTuningStore();
+        Map<String, DataSource> targetDataSources = handler.getTargetDataSources();
+        KeyRangeSplitter splitter = new KeyRangeSplitter(metaInfo, schemaConverter.getColumnHandles());
+        List<JdbcSplit> splits = splitter.getSplits(handler.getSourceDataSource(), handler.getSplitCount(progress.getEstimatedRows()));
+        String tuningKey = Handler.getTableKey(metaInfo);
+        PageBuffer buffer = new PageBuffer(memoryPool, metaInfo.getTable(), handler.getSyncMetrics().table(tuningKey));
+        int writerCount = handler.getWritersPerTable();
+        AdaptiveTuner tuner = new AdaptiveTuner(tuningKey, tuningStore.get(tuningKey), buffer, writerCount);
+        List<FanOutTarget> targets = new ArrayList<>();
+        // 同时拷贝的所有表的所有目标平分内存预算, 一个慢目标最多积压自己的一份
+        long targetBytes = memoryPool.getMaxBytes() / handler.getParallelism() / targetDataSources.size();
+        for (Map.Entry<String, DataSource> entry : targetDataSources.entrySet()) {
+            String targetKey = tuningKey + "@" + entry.getKey();
+            String tag = metaInfo.getTable() + "@" + entry.getKey();
+            TableMetrics metrics = handler.getSyncMetrics().table(targetKey);
+            PageBuffer targetBuffer = new PageBuffer(memoryPool, tag, metrics, spillSettings.createSpillFile(metaInfo.getTable() + "-" + entry.getKey(), metrics), targetBytes);
+            AdaptiveTuner targetTuner = new AdaptiveTuner(targetKey, tuningStore.get(targetKey), targetBuffer, writerCount);
+            TableProgress targetProgress = targets.isEmpty() ? progress : new TableProgress(metaInfo.getTable(), progress.getEstimatedRows(), progress.getDataLength());
+            targets.add(new FanOutTarget(entry.getKey(), entry.getValue(), handler.getPageSinkFactory(ImmutableList.of(), schemaConverter.getPrimaryKey(), metrics),
+                    targetBuffer, targetTuner, targetProgress, handler.getTargetGovernor(entry.getKey())));
+        }
+        try {
+            new FanOutMigrator(metaInfo, schemaConverter.getColumnHandles(), splits, writerCount, buffer, tuner, targets, handler.getRetryPolicy(), handler.getSourceGovernor())
+                    .transferTable(handler.getSourceDataSource());
+        } finally {
+            buffer.close();
+            targets.forEach(target -> target.getBuffer().close());
+        }
+        tuner.logSettled();
+        tuningStore.save(tuningKey, tuner.getSettled());
+        for (FanOutTarget target : targets) {
+            target.getTuner().logSettled();
+            tuningStore.save(tuningKey + "@" + target.getName(), target.getTuner().getSettled());
+        }
+    }
+}
@@ -1,19 +1,58 @@
 package com.aihuishou.bi.handler;
 
+import com.aihuishou.bi.sync.AdaptiveTuner;
+import com.aihuishou.bi.sync.BinlogPositionStore;
+import com.aihuishou.bi.sync.BinlogSettings;
+import com.aihuishou.bi.sync.CopyCheckpoint;
+import com.aihuishou.bi.sync.Dialect;
+import com.aihuishou.bi.sync.FanOutSettings;
+import com.aihuishou.bi.sync.IncrementalTables;
+import com.aihuishou.bi.sync.JdbcColumnHandle;
+import com.aihuishou.bi.sync.JdbcPageSink;
+import com.aihuishou.bi.sync.JdbcSplit;
+import com.aihuishou.bi.sync.KeyRangeSplitter;
+import com.aihuishou.bi.sync.LoadGovernor;
+import com.aihuishou.bi.sync.LoadGovernorSettings;
 import com.aihuishou.bi.sync.M2H2DataMigrator;
 import com.aihuishou.bi.sync.M2H2SchemaConverter;
+import com.aihuishou.bi.sync.MemoryPool;
 import com.aihuishou.bi.sync.MetaInfo;
+import com.aihuishou.bi.sync.MysqlLoadDataPageSink;
+import com.aihuishou.bi.sync.PageBuffer;
+import com.aihuishou.bi.sync.PageSinkFactory;
+import com.aihuishou.bi.sync.RepairTables;
+import com.aihuishou.bi.sync.RetryPolicy;
+import com.aihuishou.bi.sync.SchemaFingerprintStore;
+import com.aihuishou.bi.sync.SchemaMetadataCache;
+import com.aihuishou.bi.sync.SnapshotSettings;
+import com.aihuishou.bi.sync.SpillSettings;
+import com.aihuishou.bi.sync.SplitCheckpointer;
+import com.aihuishou.bi.sync.SyncMetrics;
+import com.aihuishou.bi.sync.TableMetrics;
+import com.aihuishou.bi.sync.TableProgress;
+import com.aihuishou.bi.sync.TemporalCodec;
+import com.aihuishou.bi.sync.TimeZoneSettings;
+import com.aihuishou.bi.sync.TuningStore;
+import com.aihuishou.bi.sync.WatermarkStore;
 import com.aihuishou.bi.utils.Utils;
-import com.facebook.presto.spi.Page;
+import com.alibaba.druid.pool.DruidDataSource;
+import com.google.common.collect.ImmutableList;
 import org.apache.commons.dbutils.QueryRunner;
-import org.apache.commons.dbutils.handlers.ColumnListHandler;
+import org.apache.commons.dbutils.handlers.MapListHandler;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
 import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 @Component
 public class Handler {
@@ -24,12 +63,136 @@ public class Handler {
     @Resource(name = "targetDataSource")
     private DataSource targetDataSource;
 
+    @Resource
+    private MemoryPool memoryPool;
+
+    @Resource
+    private SyncMetrics syncMetrics;
+
+    @Resource
+    private SpillSettings spillSettings;
+
+    @Resource
+    private SnapshotSettings snapshotSettings;
+
+    @Resource
+    private FanOutSettings fanOutSettings;
+
+    @Resource
+    private TimeZoneSettings timeZoneSettings;
+
+    @Resource
+    private LoadGovernorSettings loadGovernorSettings;
+
+    @Resource
+    private SchemaMetadataCache sourceMetadataCache;
+
+    @Resource
+    private SchemaFingerprintStore schemaFingerprintStore;
+
+    @Resource
+    private TuningStore tuningStore;
+
+    @Resource
+    private IncrementalTables incrementalTables;
+
+    @Resource
+    private WatermarkStore watermarkStore;
+
+    @Resource
+    private RepairTables repairTables;
+
+    @Resource
+    private CopyCheckpoint copyCheckpoint;
+
+    @Resource
+    private BinlogSettings binlogSettings;
+
+    @Resource
+    private BinlogPositionStore binlogPositionStore;
+
+    @Value("${sync.parallelism:8}")
+    private int parallelism;
+
+    @Value("${sync.lookahead:2}")
+    private int lookahead;
+
+    @Value("${sync.splits-per-table:4}")
+    private int splitsPerTable;
+
+    @Value("${sync.min-rows-per-split:1000000}")
+    private long minRowsPerSplit;
+
+    @Value("${sync.writers-per-table:1}")
+    private int writersPerTable;
+
+    @Value("${sync.sink:jdbc}")
+    private String sink;
+
+    @Value("${sync.load-data-chunk-mb:16}")
+    private int loadDataChunkMb;
+
+    @Value("${sync.report-interval-seconds:10}")
+    private int reportIntervalSeconds;
+
+    @Value("${sync.keyset-chunk-rows:100000}")
+    private int keysetChunkRows;
+
+    @Value("${sync.retry.max-retries:5}")
+    private int maxRetries;
+
+    @Value("${sync.retry.backoff-ms:1000}")
+    private long retryBackoffMs;
+
+    // 同一个连接池上的所有表共用一个限速
+    private LoadGovernor sourceGovernor;
+    private final ConcurrentMap<String, LoadGovernor> targetGovernors = new ConcurrentHashMap<>();
+
     public void fetch(String database) throws Exception {
-        String sql = "select table_name from information_schema.tables where table_schema=?;";
-        List<String> list = new QueryRunner(sourceDataSource).query(sql, new ColumnListHandler<>("table_name"), database);
-        for(String table : list) {
-            sync(database, database, table);
+        checkTimeZones(!repairTables.getTables().isEmpty(), "sync.repair");
+        if (fanOutSettings.isEnabled()) {
+            System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " fan-out to " + getTargetDataSources().keySet()
+                    + ", every table is rebuilt and fully copied, incremental/repair/checkpoint are not used");
+        }
+        new TableScheduler(this, getParallelism(), lookahead, reportIntervalSeconds).run(database, database, getTableStats(database));
+    }
+
+    /**
+     * 把源库各表读一次, 写成快照文件, 不写目标库; 之后可以用 {@link #importSnapshot(String)} 导入任意多个目标库
+     */
+    public void exportSnapshot(String database) throws Exception {
+        SnapshotExporter exporter = new SnapshotExporter(this, snapshotSettings);
+        new TableScheduler(this, getParallelism(), lookahead, reportIntervalSeconds, exporter).run(database, database, getTableStats(database));
+    }
+
+    /**
+     * 从快照文件重建目标库中的表, 不访问源库
+     */
+    public void importSnapshot(String database) throws Exception {
+        SnapshotImporter importer = new SnapshotImporter(this, snapshotSettings);
+        new TableScheduler(this, getParallelism(), lookahead, reportIntervalSeconds, importer).run(database, database, importer.getTables(database));
+    }
+
+    private List<TableStats> getTableStats(String database) throws SQLException {
+        String sql = "select table_name, table_rows, data_length from information_schema.tables where table_schema=?;";
+        List<Map<String, Object>> rows = new QueryRunner(sourceDataSource).query(sql, new MapListHandler(), database);
+        List<TableStats> tables = new ArrayList<>();
+        for (Map<String, Object> row : rows) {
+            TableStats stats = new TableStats();
+            stats.setTable((String) row.get("table_name"));
+            stats.setTableRows(toLong(row.get("table_rows")));
+            stats.setDataLength(toLong(row.get("data_length")));
+            tables.add(stats);
         }
+        return tables;
+    }
+
+    /**
+     * 持续应用源库 binlog 中的变更, 目标表需要先由 fetch 全量拷贝建好; 回放目录时处理完所有文件后返回
+     */
+    public void follow(String database) throws Exception {
+        checkTimeZones(true, "binlog mode");
+        new BinlogFollower(this, binlogSettings, binlogPositionStore, database).run();
     }
 
     /**
@@ -40,21 +203,325 @@ public class Handler {
      * @throws Exception
      */
     public void sync(String sourceDb, String targetDb, String table) throws Exception {
+        checkTimeZones(repairTables.contains(table), "sync.repair");
         MetaInfo metaInfo = getMetaInfo(sourceDb, targetDb, table);
+        M2H2SchemaConverter schemaConverter = prepare(metaInfo);
+        TableProgress progress = new TableProgress(table, 0, 0);
+        progress.start();
+        transfer(metaInfo, schemaConverter, progress);
+        progress.finish();
+    }
+
+    /**
+     * 读取源表元数据并重建目标表, 调度器会在前面的表拷贝期间提前执行. 列元数据来自库级缓存, 一个库只查询一次.
+     * 源表结构与上次建表时相同时 (见 {@link M2H2SchemaConverter#getFingerprint()}):
+     * 配置了水位列的表在已有水位且目标表存在时保留目标表, 只做增量拷贝;
+     * 配置了分块校验的表在目标表存在时保留目标表, 只重新拷贝不一致的块;
+     * 其他表有上次中断留下的断点且目标表存在时保留目标表, 从断点继续;
+     * 没有二级索引的表只清空数据, 不删表建表. 结构变化后一律重建.
+     * 目标表总是带上源表的主键, 之后的增量、校验和 binlog 应用都按主键定位行; 二级索引等数据拷贝完成后再建.
+     * 配置了 sync.fan-out 时每个目标库都重建
+     */
+    public M2H2SchemaConverter prepare(MetaInfo metaInfo) throws SQLException {
         M2H2SchemaConverter schemaConverter = new M2H2SchemaConverter(metaInfo);
-        schemaConverter.getColumns(sourceDataSource);
+        schemaConverter.getColumns(sourceMetadataCache);
+        schemaConverter.getPrimaryKey(sourceDataSource);
+        String tableKey = getTableKey(metaInfo);
+        String fingerprint = schemaConverter.getFingerprint();
+        if (fanOutSettings.isEnabled()) {
+            // 各目标库的状态可能不一致, 扇出时一律重建
+            for (DataSource dataSource : getTargetDataSources().values()) {
+                schemaConverter.truncateTable(dataSource);
+                schemaConverter.createTableInTarget(dataSource);
+            }
+            schemaFingerprintStore.save(tableKey, fingerprint);
+            return schemaConverter;
+        }
+        Optional<String> savedFingerprint = schemaFingerprintStore.get(tableKey);
+        // 升级前建的表没有记录指纹, 按结构未变处理
+        boolean schemaUnchanged = savedFingerprint.map(fingerprint::equals).orElse(true);
+        if (!schemaUnchanged) {
+            System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " " + metaInfo.getTable() + " schema changed, rebuild target table");
+        }
+        Optional<String> watermarkColumn = incrementalTables.getWatermarkColumn(metaInfo.getTable());
+        boolean keepTarget = false;
+        if (watermarkColumn.isPresent()) {
+            if (schemaConverter.getPrimaryKey().isEmpty()) {
+                throw new IllegalStateException("incremental table has no primary key: " + metaInfo.getTable());
+            }
+            String watermarkKey = IncrementalCopier.getWatermarkKey(metaInfo, watermarkColumn.get());
+            keepTarget = schemaUnchanged && watermarkStore.get(watermarkKey).isPresent() && schemaConverter.existsInTarget(targetDataSource);
+            if (!keepTarget) {
+                // 目标表要重建, 旧水位作废, 这次全量拷贝成功后再记录
+                watermarkStore.remove(watermarkKey);
+            }
+        } else if (repairTables.contains(metaInfo.getTable())) {
+            if (getRangeKey(schemaConverter).isPresent()) {
+                keepTarget = schemaUnchanged && schemaConverter.existsInTarget(targetDataSource);
+            } else {
+                System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " " + metaInfo.getTable()
+                        + " has no single integer/date primary key, repair falls back to full copy");
+            }
+        } else if (getCheckpointKey(metaInfo, schemaConverter).isPresent()) {
+            keepTarget = schemaUnchanged && copyCheckpoint.get(tableKey).isPresent() && schemaConverter.existsInTarget(targetDataSource);
+        }
+        if (keepTarget) {
+            if (!savedFingerprint.isPresent()) {
+                schemaFingerprintStore.save(tableKey, fingerprint);
+            }
+            return schemaConverter;
+        }
+        // 有二级索引的表仍然删表重建, 拷贝完成后再建索引比写入时维护索引快
+        if (savedFingerprint.isPresent() && schemaUnchanged && schemaConverter.getIndexes().isEmpty()
+                && schemaConverter.existsInTarget(targetDataSource) && schemaConverter.truncateTarget(targetDataSource)) {
+            return schemaConverter;
+        }
         // 清空 H2分支表
         schemaConverter.truncateTable(targetDataSource);
         // 创建 H2分支表
         schemaConverter.createTableInTarget(targetDataSource);
-        BlockingQueue<Page> queue = new LinkedBlockingQueue<>(1000);
-        M2H2DataMigrator m2H2DataMigrator = new M2H2DataMigrator(metaInfo, schemaConverter.getColumnHandles(), queue);
-        // 复制表数据 到 H2分支表
-        m2H2DataMigrator.transferTable(sourceDataSource, targetDataSource);
-        System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " Done\n");
+        schemaFingerprintStore.save(tableKey, fingerprint);
+        return schemaConverter;
+    }
+
+    /**
+     * 拷贝数据, 之后再建立二级索引
+     */
+    public void transfer(MetaInfo metaInfo, M2H2SchemaConverter schemaConverter, TableProgress progress) throws Exception {
+        if (fanOutSettings.isEnabled()) {
+            new FanOutCopier(this, spillSettings).copy(metaInfo, schemaConverter, progress);
+            for (DataSource dataSource : getTargetDataSources().values()) {
+                schemaConverter.createIndexesInTarget(dataSource);
+            }
+        } else {
+            copyData(metaInfo, schemaConverter, progress);
+            schemaConverter.createIndexesInTarget(targetDataSource);
+        }
+        System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " " + metaInfo.getTable() + " Done\n");
+    }
+
+    private void copyData(MetaInfo metaInfo, M2H2SchemaConverter schemaConverter, TableProgress progress) throws Exception {
+        Optional<JdbcColumnHandle> repairKey = repairTables.contains(metaInfo.getTable()) ? getRangeKey(schemaConverter) : Optional.empty();
+        if (repairKey.isPresent() && !schemaConverter.isTargetRebuilt()) {
+            int repairParallelism = Math.max(1, Math.min(repairTables.getParallelism(), Math.min(splitsPerTable, writersPerTable)));
+            new TableRepairer(this, repairTables.getChunkRows(), repairParallelism, Math.max(splitsPerTable, 1))
+                    .repair(metaInfo, schemaConverter.getColumnHandles(), repairKey.get(), progress);
+            return;
+        }
+        Optional<JdbcColumnHandle> checkpointKey = getCheckpointKey(metaInfo, schemaConverter);
+        if (checkpointKey.isPresent()) {
+            new CheckpointCopier(this, copyCheckpoint).copy(metaInfo, schemaConverter, checkpointKey.get(), progress);
+            return;
+        }
+        Optional<String> watermarkColumn = incrementalTables.getWatermarkColumn(metaInfo.getTable());
+        if (watermarkColumn.isPresent()) {
+            new IncrementalCopier(this, watermarkStore).copy(metaInfo, schemaConverter, watermarkColumn.get(), progress);
+            return;
+        }
+        KeyRangeSplitter splitter = new KeyRangeSplitter(metaInfo, schemaConverter.getColumnHandles());
+        List<JdbcSplit> splits = splitter.getSplits(sourceDataSource, getSplitCount(progress.getEstimatedRows()));
+        copySplits(metaInfo, schemaConverter.getColumnHandles(), splits, ImmutableList.of(), schemaConverter.getPrimaryKey(), progress);
+    }
+
+    /**
+     * 并行读取各分片并写入目标表, 任意一端失败时抛出异常
+     * @param primaryKey 目标表的主键, 非空时 commit 出错后按主键 upsert 重写
+     */
+    void copySplits(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, List<JdbcSplit> splits, List<String> upsertKey, List<String> primaryKey,
+                    TableProgress progress) throws InterruptedException, SQLException {
+        copySplits(metaInfo, columnHandles, splits, upsertKey, primaryKey, progress, null);
+    }
+
+    void copySplits(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, List<JdbcSplit> splits, List<String> upsertKey, List<String> primaryKey, TableProgress progress,
+                    SplitCheckpointer checkpointer) throws InterruptedException, SQLException {
+        String tuningKey = getTableKey(metaInfo);
+        TableMetrics metrics = syncMetrics.table(tuningKey);
+        PageBuffer buffer = new PageBuffer(memoryPool, metaInfo.getTable(), metrics, spillSettings.createSpillFile(metaInfo.getTable(), metrics));
+        int writerCount = getWritersPerTable();
+        AdaptiveTuner tuner = new AdaptiveTuner(tuningKey, tuningStore.get(tuningKey), buffer, writerCount);
+        M2H2DataMigrator m2H2DataMigrator = new M2H2DataMigrator(metaInfo, columnHandles, splits, writerCount, getPageSinkFactory(upsertKey, primaryKey, metrics), buffer, tuner, progress,
+                checkpointer, keysetChunkRows, getRetryPolicy(), getSourceGovernor(), getTargetGovernor(FanOutSettings.PRIMARY_TARGET));
+        try {
+            // 复制表数据 到 H2分支表
+            m2H2DataMigrator.transferTable(sourceDataSource, targetDataSource);
+        } finally {
+            buffer.close();
+        }
+        // 只保存成功拷贝的表的结果
+        tuner.logSettled();
+        tuningStore.save(tuningKey, tuner.getSettled());
+    }
+
+    /**
+     * jdbc: 批量 INSERT, 任意目标库可用; load-data: MySQL 的 LOAD DATA LOCAL INFILE, 按 load-data-chunk-mb 分块提交;
+     * bulk: 按每个目标库的方言选择最快的批量写入方式 (MySQL 同 load-data, PostgreSQL 为二进制 COPY, H2 为 INSERT ... DIRECT), 扇出时各目标库可以不同.
+     * upsertKey 非空时为增量拷贝, 重复主键以源库数据覆盖. 写入耗时记入 metrics.
+     * commit 出错时这一批可能已经提交, 重写时要覆盖已提交的行: upsertKey 非空时写入端本身就按主键覆盖,
+     * 否则目标表有主键 (primaryKey 非空) 时改用按主键 upsert 的写入端重写, 没有主键时不重试
+     */
+    PageSinkFactory getPageSinkFactory(List<String> upsertKey, List<String> primaryKey, TableMetrics metrics) {
+        PageSinkFactory factory = createPageSinkFactory(upsertKey, metrics);
+        if (!upsertKey.isEmpty()) {
+            return PageSinkFactory.withReplay(factory, factory);
+        }
+        if (!primaryKey.isEmpty()) {
+            return PageSinkFactory.withReplay(factory, createPageSinkFactory(primaryKey, metrics));
+        }
+        return factory;
+    }
+
+    private static Set<String> getUtf8mb4Columns(ConcurrentMap<String, Set<String>> cache, MetaInfo metaInfo, Connection connection) {
+        try {
+            String url = connection.getMetaData().getURL();
+            Set<String> columns = cache.get(url);
+            if (columns == null) {
+                columns = JdbcPageSink.findUtf8mb4Columns(connection, metaInfo);
+                cache.put(url, columns);
+            }
+            return columns;
+        } catch (SQLException e) {
+            Utils.close(connection, null, null);
+            throw new RuntimeException("sql error ", e);
+        }
+    }
+
+    private PageSinkFactory createPageSinkFactory(List<String> upsertKey, TableMetrics metrics) {
+        TemporalCodec temporalCodec = timeZoneSettings.createTemporalCodec();
+        // 每个缓冲区预分配 1.25 个分块, 所有表的 load-data 缓冲区合计不超过内存预算的四分之一
+        long chunkBytes = Math.min(loadDataChunkMb * 1024L * 1024L, memoryPool.getMaxBytes() / 5 / ((long) getParallelism() * getWritersPerTable()));
+        switch (sink) {
+            case "jdbc":
+                // 同一个表的写入端按目标库共用 utf8mb4 列的查询结果, 不随每个写入端重复查询
+                ConcurrentMap<String, Set<String>> utf8mb4Columns = new ConcurrentHashMap<>();
+                return (metaInfo, columnHandles, connection, tuner) -> new JdbcPageSink(metaInfo, columnHandles, connection, tuner, upsertKey, metrics, temporalCodec,
+                        getUtf8mb4Columns(utf8mb4Columns, metaInfo, connection));
+            case "bulk":
+                return (metaInfo, columnHandles, connection, tuner) -> {
+                    try {
+                        return Dialect.forConnection(connection).createBulkPageSink(metaInfo, columnHandles, connection, tuner, upsertKey, metrics, temporalCodec, chunkBytes, memoryPool);
+                    } catch (SQLException e) {
+                        Utils.close(connection, null, null);
+                        throw new RuntimeException("sql error ", e);
+                    }
+                };
+            case "load-data":
+                boolean replace = !upsertKey.isEmpty();
+                return (metaInfo, columnHandles, connection, tuner) -> new MysqlLoadDataPageSink(metaInfo, columnHandles, connection, chunkBytes, replace, metrics, temporalCodec, memoryPool);
+            default:
+                throw new IllegalArgumentException("unknown sync.sink: " + sink);
+        }
+    }
+
+    /**
+     * 源库和目标库时区不同时目标表中的日期时间与源表不再相同, 按值比较或按主键回放的模式都无法使用
+     */
+    private void checkTimeZones(boolean required, String feature) {
+        TemporalCodec temporalCodec = timeZoneSettings.createTemporalCodec();
+        if (required && temporalCodec.isShifting()) {
+            throw new IllegalArgumentException(feature + " requires sync.time-zone.source and target to be the same zone, got "
+                    + temporalCodec.getSourceZone() + " and " + temporalCodec.getTargetZone());
+        }
+    }
+
+    /**
+     * 分块校验和断点续传要求单列主键, 并且类型可以用 long 表示区间
+     */
+    private static Optional<JdbcColumnHandle> getRangeKey(M2H2SchemaConverter schemaConverter) {
+        if (schemaConverter.getPrimaryKey().size() != 1) {
+            return Optional.empty();
+        }
+        String columnName = schemaConverter.getPrimaryKey().get(0);
+        return schemaConverter.getColumnHandles().stream()
+                .filter(handle -> handle.getColumnName().equalsIgnoreCase(columnName))
+                .filter(handle -> KeyRangeSplitter.isRangeType(handle.getColumnType()))
+                .findFirst();
+    }
+
+    /**
+     * 增量表和校验修复表有各自的续传方式, 不记录断点
+     */
+    private Optional<JdbcColumnHandle> getCheckpointKey(MetaInfo metaInfo, M2H2SchemaConverter schemaConverter) {
+        if (!copyCheckpoint.isEnabled()
+                || incrementalTables.getWatermarkColumn(metaInfo.getTable()).isPresent()
+                || repairTables.contains(metaInfo.getTable())) {
+            return Optional.empty();
+        }
+        return getRangeKey(schemaConverter);
+    }
+
+    static String getTableKey(MetaInfo metaInfo) {
+        return metaInfo.getMysqlDb() + "." + metaInfo.getTable();
+    }
+
+    DataSource getSourceDataSource() {
+        return sourceDataSource;
+    }
+
+    DataSource getTargetDataSource() {
+        return targetDataSource;
+    }
+
+    /**
+     * spring.target 和 sync.fan-out 中的所有目标库, 名称 -> 连接池
+     */
+    Map<String, DataSource> getTargetDataSources() {
+        return fanOutSettings.getTargetDataSources(targetDataSource);
+    }
+
+    /**
+     * 源库上所有读取线程共用的限速
+     */
+    synchronized LoadGovernor getSourceGovernor() {
+        if (sourceGovernor == null) {
+            sourceGovernor = loadGovernorSettings.createSourceGovernor(sourceDataSource);
+        }
+        return sourceGovernor;
     }
 
-    private MetaInfo getMetaInfo(String sourceDb, String targetDb, String table) {
+    /**
+     * 某个目标库上所有写入线程共用的限速
+     * @param name {@link #getTargetDataSources()} 中的名称
+     */
+    LoadGovernor getTargetGovernor(String name) {
+        return targetGovernors.computeIfAbsent(name, key -> loadGovernorSettings.createTargetGovernor(key, getTargetDataSources().get(key)));
+    }
+
+    MemoryPool getMemoryPool() {
+        return memoryPool;
+    }
+
+    SchemaMetadataCache getSourceMetadataCache() {
+        return sourceMetadataCache;
+    }
+
+    SchemaFingerprintStore getSchemaFingerprintStore() {
+        return schemaFingerprintStore;
+    }
+
+    TuningStore getTuningStore() {
+        return tuningStore;
+    }
+
+    int getWritersPerTable() {
+        return Math.max(writersPerTable, 1);
+    }
+
+    RetryPolicy getRetryPolicy() {
+        return new RetryPolicy(maxRetries, retryBackoffMs);
+    }
+
+    SyncMetrics getSyncMetrics() {
+        return syncMetrics;
+    }
+
+    /**
+     * sync.time-zone 配置的源库和目标库时区
+     */
+    TemporalCodec getTemporalCodec() {
+        return timeZoneSettings.createTemporalCodec();
+    }
+
+    MetaInfo getMetaInfo(String sourceDb, String targetDb, String table) {
         MetaInfo metaInfo = new MetaInfo();
         // 源
         metaInfo.setMysqlDb(sourceDb);
@@ -63,4 +530,37 @@ public class Handler {
         metaInfo.setTable(table);
         return metaInfo;
     }
+
+    /**
+     * TABLE_ROWS 达到 min-rows-per-split 的整数倍才切分, 直接调用 sync 时行数未知, 不切分
+     */
+    int getSplitCount(long estimatedRows) {
+        if (minRowsPerSplit <= 0) {
+            return splitsPerTable;
+        }
+        return (int) Math.max(1, Math.min(splitsPerTable, estimatedRows / minRowsPerSplit));
+    }
+
+    /**
+     * 每个表拷贝时在源库最多占用 splits-per-table 个连接, 每个目标库占用 writers-per-table 个连接, 另外预留一个连接给元数据查询和建表.
+     * 读取线程在启动前就拿到连接, 连接池不足时多个表互相等待会死锁, 所以按最坏情况计算
+     */
+    int getParallelism() {
+        int limit = Math.min(parallelism, getPoolLimit(sourceDataSource) / Math.max(splitsPerTable, 1));
+        for (DataSource dataSource : getTargetDataSources().values()) {
+            limit = Math.min(limit, getPoolLimit(dataSource) / Math.max(writersPerTable, 1));
+        }
+        return Math.max(limit, 1);
+    }
+
+    private static int getPoolLimit(DataSource dataSource) {
+        if (dataSource instanceof DruidDataSource) {
+            return ((DruidDataSource) dataSource).getMaxActive() - 1;
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    private static long toLong(Object value) {
+        return value == null ? 0 : ((Number) value).longValue();
+    }
 }
@@ -0,0 +1,73 @@
+package com.aihuishou.bi.handler;
+
+import com.aihuishou.bi.sync.JdbcColumnHandle;
+import com.aihuishou.bi.sync.JdbcSplit;
+import com.aihuishou.bi.sync.KeyRange;
+import com.aihuishou.bi.sync.KeyRangeSplitter;
+import com.aihuishou.bi.sync.M2H2SchemaConverter;
+import com.aihuishou.bi.sync.MetaInfo;
+import com.aihuishou.bi.sync.TableProgress;
+import com.aihuishou.bi.sync.WatermarkStore;
+import com.aihuishou.bi.utils.Utils;
+import com.google.common.collect.ImmutableList;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Optional;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+/**
+ * 按水位列增量拷贝: 先取当前最大值作为新水位, 只读取 [旧水位, 新水位] 的数据并按主键 upsert;
+ * 等于旧水位的行可能在上次拷贝之后才写入, 所以下界包含旧水位. 没有旧水位时全量拷贝. 源表上的删除不会同步.
+ * 拷贝成功后才保存新水位, 失败的表下次仍从旧水位开始
+ */
+public class IncrementalCopier {
+    private final Handler handler;
+    private final WatermarkStore watermarkStore;
+
+    public IncrementalCopier(Handler handler, WatermarkStore watermarkStore) {
+        this.handler = handler;
+        this.watermarkStore = watermarkStore;
+    }
+
+    public void copy(MetaInfo metaInfo, M2H2SchemaConverter schemaConverter, String watermarkColumn, TableProgress progress) throws InterruptedException, SQLException {
+        KeyRangeSplitter splitter = new KeyRangeSplitter(metaInfo, schemaConverter.getColumnHandles());
+        List<JdbcSplit> splits = splitter.getSplits(handler.getSourceDataSource(), handler.getSplitCount(progress.getEstimatedRows()));
+        JdbcColumnHandle column = getWatermarkColumnHandle(schemaConverter, watermarkColumn);
+        String watermarkKey = getWatermarkKey(metaInfo, watermarkColumn);
+        Optional<Long> oldWatermark = watermarkStore.get(watermarkKey);
+        Optional<Long> newWatermark = splitter.getMax(handler.getSourceDataSource(), column);
+        List<String> upsertKey = ImmutableList.of();
+        if (oldWatermark.isPresent()) {
+            if (!newWatermark.isPresent()) {
+                System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " " + metaInfo.getTable() + " is empty, nothing to copy");
+                return;
+            }
+            KeyRange range = new KeyRange(column, oldWatermark, true, newWatermark, true, false);
+            splits = splits.stream().map(split -> split.withRange(range)).collect(toImmutableList());
+            upsertKey = schemaConverter.getPrimaryKey();
+            System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " " + metaInfo.getTable()
+                    + " incremental on " + column.getColumnName() + " [" + oldWatermark.get() + ", " + newWatermark.get() + "]");
+        }
+        handler.copySplits(metaInfo, schemaConverter.getColumnHandles(), splits, upsertKey, schemaConverter.getPrimaryKey(), progress);
+        if (newWatermark.isPresent()) {
+            watermarkStore.save(watermarkKey, newWatermark.get());
+        }
+    }
+
+    static String getWatermarkKey(MetaInfo metaInfo, String watermarkColumn) {
+        return metaInfo.getMysqlDb() + "." + metaInfo.getTable() + "." + watermarkColumn;
+    }
+
+    private static JdbcColumnHandle getWatermarkColumnHandle(M2H2SchemaConverter schemaConverter, String columnName) {
+        JdbcColumnHandle column = schemaConverter.getColumnHandles().stream()
+                .filter(handle -> handle.getColumnName().equalsIgnoreCase(columnName))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("watermark column not found: " + columnName));
+        if (!KeyRangeSplitter.isRangeType(column.getColumnType())) {
+            throw new IllegalArgumentException("watermark column must be an integer, date or timestamp: " + column);
+        }
+        return column;
+    }
+}
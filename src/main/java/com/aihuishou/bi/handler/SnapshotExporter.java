@@ -0,0 +1,130 @@
+package com.aihuishou.bi.handler;
+
+import com.aihuishou.bi.sync.AdaptiveTuner;
+import com.aihuishou.bi.sync.FetchRunner;
+import com.aihuishou.bi.sync.JdbcPageSource;
+import com.aihuishou.bi.sync.JdbcSplit;
+import com.aihuishou.bi.sync.KeyRangeSplitter;
+import com.aihuishou.bi.sync.M2H2SchemaConverter;
+import com.aihuishou.bi.sync.MetaInfo;
+import com.aihuishou.bi.sync.PageBuffer;
+import com.aihuishou.bi.sync.PageSerde;
+import com.aihuishou.bi.sync.ReadMapping;
+import com.aihuishou.bi.sync.SnapshotSettings;
+import com.aihuishou.bi.sync.SnapshotWriteRunner;
+import com.aihuishou.bi.sync.TableMetrics;
+import com.aihuishou.bi.sync.TableProgress;
+import com.aihuishou.bi.sync.TableSnapshot;
+import com.aihuishou.bi.utils.Utils;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.MoreFiles;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.util.List;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+
+/**
+ * 导出快照: 与正常拷贝一样按主键区间并行读取源表, 写入端换成每个线程一个数据文件.
+ * 先写到 表名.exporting 目录, 数据文件和 manifest.json 都写完后再替换旧快照, 导入端不会读到写了一半的快照
+ */
+public class SnapshotExporter implements TableScheduler.Task {
+    private final Handler handler;
+    private final Path root;
+    private final PageSerde serde;
+
+    public SnapshotExporter(Handler handler, SnapshotSettings settings) {
+        this.handler = handler;
+        this.root = Paths.get(settings.getDirectory());
+        this.serde = PageSerde.create(settings.getCompression());
+    }
+
+    @Override
+    public M2H2SchemaConverter prepare(MetaInfo metaInfo) throws Exception {
+        M2H2SchemaConverter schemaConverter = new M2H2SchemaConverter(metaInfo);
+        schemaConverter.getColumns(handler.getSourceMetadataCache());
+        schemaConverter.getPrimaryKey(handler.getSourceDataSource());
+        return schemaConverter;
+    }
+
+    @Override
+    public void transfer(MetaInfo metaInfo, M2H2SchemaConverter schemaConverter, TableProgress progress) throws Exception {
+        Path directory = root.resolve(metaInfo.getMysqlDb()).resolve(metaInfo.getTable());
+        Path staging = directory.resolveSibling(metaInfo.getTable() + ".exporting");
+        deleteIfExists(staging);
+        Files.createDirectories(staging);
+
+        KeyRangeSplitter splitter = new KeyRangeSplitter(metaInfo, schemaConverter.getColumnHandles());
+        List<JdbcSplit> splits = splitter.getSplits(handler.getSourceDataSource(), handler.getSplitCount(progress.getEstimatedRows()));
+        String tableKey = Handler.getTableKey(metaInfo);
+        TableMetrics metrics = handler.getSyncMetrics().table(tableKey);
+        PageBuffer buffer = new PageBuffer(handler.getMemoryPool(), metaInfo.getTable(), metrics);
+        int writerCount = handler.getWritersPerTable();
+        AdaptiveTuner tuner = new AdaptiveTuner(tableKey, handler.getTuningStore().get(tableKey), buffer, writerCount);
+
+        List<ReadMapping> readMappings;
+        try (Connection connection = handler.getSourceDataSource().getConnection()) {
+            readMappings = JdbcPageSource.getReadMappings(connection, metaInfo, schemaConverter.getColumnHandles());
+        }
+        ImmutableList.Builder<FetchRunner> fetchRunnersBuilder = ImmutableList.builder();
+        for (int i = 0; i < splits.size(); i++) {
+            FetchRunner fetchRunner = new FetchRunner(handler.getSourceDataSource(), metaInfo, schemaConverter.getColumnHandles(), readMappings, splits.get(i), buffer, tuner,
+                    progress, handler.getSourceGovernor());
+            fetchRunner.setName("fetchRunner-" + metaInfo.getTable() + "-" + i);
+            fetchRunnersBuilder.add(fetchRunner);
+        }
+        ImmutableList.Builder<SnapshotWriteRunner> writeRunnersBuilder = ImmutableList.builder();
+        ImmutableList.Builder<String> files = ImmutableList.builder();
+        for (int i = 0; i < writerCount; i++) {
+            String file = TableSnapshot.getDataFileName(i);
+            SnapshotWriteRunner writeRunner = new SnapshotWriteRunner(staging.resolve(file), serde, buffer, progress);
+            writeRunner.setName("snapshotWriter-" + metaInfo.getTable() + "-" + i);
+            writeRunnersBuilder.add(writeRunner);
+            files.add(file);
+        }
+        List<FetchRunner> fetchRunners = fetchRunnersBuilder.build();
+        List<SnapshotWriteRunner> writeRunners = writeRunnersBuilder.build();
+        for (FetchRunner fetchRunner : fetchRunners) {
+            fetchRunner.start();
+        }
+        for (SnapshotWriteRunner writeRunner : writeRunners) {
+            writeRunner.start();
+        }
+        for (FetchRunner fetchRunner : fetchRunners) {
+            fetchRunner.join();
+        }
+        for (SnapshotWriteRunner writeRunner : writeRunners) {
+            writeRunner.join();
+        }
+
+        for (FetchRunner fetchRunner : fetchRunners) {
+            if (fetchRunner.getFailure() != null) {
+                throw new RuntimeException("fetch failed, table: " + metaInfo.getTable(), fetchRunner.getFailure());
+            }
+        }
+        long rows = 0;
+        for (SnapshotWriteRunner writeRunner : writeRunners) {
+            if (writeRunner.getFailure() != null) {
+                throw new RuntimeException("snapshot write failed, table: " + metaInfo.getTable(), writeRunner.getFailure());
+            }
+            rows += writeRunner.getRows();
+        }
+
+        new TableSnapshot(metaInfo.getMysqlDb(), metaInfo.getTable(), schemaConverter.getColumnHandles(), schemaConverter.getPrimaryKey(),
+                schemaConverter.getIndexes(), schemaConverter.getCollation(), rows, files.build())
+                .save(staging);
+        deleteIfExists(directory);
+        Files.move(staging, directory, ATOMIC_MOVE);
+        System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " " + metaInfo.getTable() + " exported " + rows + " rows to " + directory);
+    }
+
+    private static void deleteIfExists(Path directory) throws IOException {
+        if (Files.exists(directory)) {
+            MoreFiles.deleteRecursively(directory);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.aihuishou.bi.handler;
+
+import com.aihuishou.bi.sync.AdaptiveTuner;
+import com.aihuishou.bi.sync.FanOutSettings;
+import com.aihuishou.bi.sync.H2Runner;
+import com.aihuishou.bi.sync.M2H2SchemaConverter;
+import com.aihuishou.bi.sync.MetaInfo;
+import com.aihuishou.bi.sync.PageBuffer;
+import com.aihuishou.bi.sync.RetryPolicy;
+import com.aihuishou.bi.sync.SnapshotReadRunner;
+import com.aihuishou.bi.sync.SnapshotSettings;
+import com.aihuishou.bi.sync.TableMetrics;
+import com.aihuishou.bi.sync.TableProgress;
+import com.aihuishou.bi.sync.TableSnapshot;
+import com.aihuishou.bi.utils.Utils;
+import com.google.common.collect.ImmutableList;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 导入快照: 按快照中的表结构重建目标表, 每个数据文件一个读取线程通过内存映射读回页,
+ * 写入端与正常拷贝相同 (jdbc 或 load-data, 多个写入线程各自提交), 全部写完后建二级索引. 不访问源库
+ */
+public class SnapshotImporter implements TableScheduler.Task {
+    private final Handler handler;
+    private final Path root;
+
+    public SnapshotImporter(Handler handler, SnapshotSettings settings) {
+        this.handler = handler;
+        this.root = Paths.get(settings.getDirectory());
+    }
+
+    /**
+     * 快照目录下已经导出完成的表, 行数取自 manifest, 大小为数据文件的总长度
+     */
+    public List<TableStats> getTables(String database) throws IOException {
+        List<TableStats> tables = new ArrayList<>();
+        try (DirectoryStream<Path> directories = Files.newDirectoryStream(root.resolve(database), Files::isDirectory)) {
+            for (Path directory : directories) {
+                if (!TableSnapshot.exists(directory)) {
+                    continue;
+                }
+                TableSnapshot snapshot = TableSnapshot.load(directory);
+                long dataLength = 0;
+                for (String file : snapshot.getFiles()) {
+                    dataLength += Files.size(directory.resolve(file));
+                }
+                TableStats stats = new TableStats();
+                stats.setTable(snapshot.getTable());
+                stats.setTableRows(snapshot.getRows());
+                stats.setDataLength(dataLength);
+                tables.add(stats);
+            }
+        }
+        return tables;
+    }
+
+    @Override
+    public M2H2SchemaConverter prepare(MetaInfo metaInfo) throws Exception {
+        TableSnapshot snapshot = TableSnapshot.load(getDirectory(metaInfo));
+        M2H2SchemaConverter schemaConverter = new M2H2SchemaConverter(metaInfo);
+        schemaConverter.useSnapshot(snapshot);
+        DataSource targetDataSource = handler.getTargetDataSource();
+        schemaConverter.truncateTable(targetDataSource);
+        schemaConverter.createTableInTarget(targetDataSource);
+        handler.getSchemaFingerprintStore().save(Handler.getTableKey(metaInfo), schemaConverter.getFingerprint());
+        return schemaConverter;
+    }
+
+    @Override
+    public void transfer(MetaInfo metaInfo, M2H2SchemaConverter schemaConverter, TableProgress progress) throws Exception {
+        Path directory = getDirectory(metaInfo);
+        TableSnapshot snapshot = TableSnapshot.load(directory);
+        String tableKey = Handler.getTableKey(metaInfo);
+        TableMetrics metrics = handler.getSyncMetrics().table(tableKey);
+        PageBuffer buffer = new PageBuffer(handler.getMemoryPool(), metaInfo.getTable(), metrics);
+        int writerCount = handler.getWritersPerTable();
+        AdaptiveTuner tuner = new AdaptiveTuner(tableKey, handler.getTuningStore().get(tableKey), buffer, writerCount);
+
+        ImmutableList.Builder<SnapshotReadRunner> readRunnersBuilder = ImmutableList.builder();
+        for (int i = 0; i < snapshot.getFiles().size(); i++) {
+            SnapshotReadRunner readRunner = new SnapshotReadRunner(directory.resolve(snapshot.getFiles().get(i)), buffer);
+            readRunner.setName("snapshotReader-" + metaInfo.getTable() + "-" + i);
+            readRunnersBuilder.add(readRunner);
+        }
+        ImmutableList.Builder<H2Runner> h2RunnersBuilder = ImmutableList.builder();
+        for (int i = 0; i < writerCount; i++) {
+            H2Runner h2Runner = new H2Runner(handler.getTargetDataSource(), metaInfo, schemaConverter.getColumnHandles(),
+                    handler.getPageSinkFactory(ImmutableList.of(), schemaConverter.getPrimaryKey(), metrics), buffer, tuner, progress, null, handler.getRetryPolicy(),
+                    handler.getTargetGovernor(FanOutSettings.PRIMARY_TARGET));
+            h2Runner.setName("h2Runner-" + metaInfo.getTable() + "-" + i);
+            h2RunnersBuilder.add(h2Runner);
+        }
+        List<SnapshotReadRunner> readRunners = readRunnersBuilder.build();
+        List<H2Runner> h2Runners = h2RunnersBuilder.build();
+        for (SnapshotReadRunner readRunner : readRunners) {
+            readRunner.start();
+        }
+        for (H2Runner h2Runner : h2Runners) {
+            h2Runner.start();
+        }
+        for (SnapshotReadRunner readRunner : readRunners) {
+            readRunner.join();
+        }
+        for (H2Runner h2Runner : h2Runners) {
+            h2Runner.join();
+        }
+
+        for (SnapshotReadRunner readRunner : readRunners) {
+            if (readRunner.getFailure() != null) {
+                throw new RuntimeException("snapshot read failed, table: " + metaInfo.getTable(), readRunner.getFailure());
+            }
+        }
+        for (H2Runner h2Runner : h2Runners) {
+            if (h2Runner.getFailure() != null) {
+                throw new RuntimeException("write failed, table: " + metaInfo.getTable(), h2Runner.getFailure());
+            }
+        }
+        if (progress.getRows() != snapshot.getRows()) {
+            throw new IllegalStateException(metaInfo.getTable() + " imported " + progress.getRows() + " of " + snapshot.getRows() + " rows in snapshot");
+        }
+        schemaConverter.createIndexesInTarget(handler.getTargetDataSource());
+        System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " " + metaInfo.getTable() + " imported " + snapshot.getRows() + " rows from " + directory);
+    }
+
+    private Path getDirectory(MetaInfo metaInfo) {
+        return root.resolve(metaInfo.getMysqlDb()).resolve(metaInfo.getTable());
+    }
+}
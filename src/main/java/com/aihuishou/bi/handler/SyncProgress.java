@@ -0,0 +1,62 @@
+package com.aihuishou.bi.handler;
+
+import com.aihuishou.bi.sync.TableProgress;
+import com.aihuishou.bi.utils.Utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * 整个同步任务的进度, 按 DATA_LENGTH 加权估算总体剩余时间
+ */
+public class SyncProgress {
+    private final List<TableProgress> tables = Collections.synchronizedList(new ArrayList<>());
+    private final long startMillis = System.currentTimeMillis();
+
+    public TableProgress register(TableStats stats) {
+        TableProgress progress = new TableProgress(stats.getTable(), stats.getTableRows(), stats.getDataLength());
+        tables.add(progress);
+        return progress;
+    }
+
+    public void report() {
+        List<TableProgress> snapshot;
+        synchronized (tables) {
+            snapshot = new ArrayList<>(tables);
+        }
+        long totalBytes = 0;
+        double doneBytes = 0;
+        int finished = 0;
+        for (TableProgress table : snapshot) {
+            // 空表的 DATA_LENGTH 也按 1 计, 避免全部是小表时无法估算
+            long weight = Math.max(table.getDataLength(), 1);
+            totalBytes += weight;
+            doneBytes += weight * table.getFractionDone();
+            if (table.isFinished()) {
+                finished++;
+            }
+            if (table.isRunning()) {
+                System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " table " + table.getTable()
+                        + " rows: " + table.getRows() + "/" + table.getEstimatedRows()
+                        + " fetched: " + table.getFetchedRows()
+                        + " rate: " + table.getRows() * 1000 / table.getElapsedMillis() + " rows/s"
+                        + " eta: " + formatEta(table.getEtaMillis()));
+            }
+        }
+        long elapsed = Math.max(System.currentTimeMillis() - startMillis, 1);
+        long eta = doneBytes > 0 ? (long) ((totalBytes - doneBytes) * elapsed / doneBytes) : -1;
+        System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " tables: " + finished + "/" + snapshot.size()
+                + String.format(" progress: %.1f%%", totalBytes > 0 ? doneBytes * 100 / totalBytes : 0.0)
+                + " eta: " + formatEta(eta));
+    }
+
+    private static String formatEta(long millis) {
+        if (millis < 0) {
+            return "unknown";
+        }
+        return MILLISECONDS.toSeconds(millis) + "s";
+    }
+}
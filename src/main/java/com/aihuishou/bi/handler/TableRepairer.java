@@ -0,0 +1,130 @@
+package com.aihuishou.bi.handler;
+
+import com.aihuishou.bi.sync.ChunkChecksum;
+import com.aihuishou.bi.sync.FanOutSettings;
+import com.aihuishou.bi.sync.JdbcColumnHandle;
+import com.aihuishou.bi.sync.JdbcSplit;
+import com.aihuishou.bi.sync.KeyRange;
+import com.aihuishou.bi.sync.LoadGovernor;
+import com.aihuishou.bi.sync.MetaInfo;
+import com.aihuishou.bi.sync.TableChecksummer;
+import com.aihuishou.bi.sync.TableProgress;
+import com.aihuishou.bi.utils.Utils;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 分块校验并修复一个已存在的目标表:
+ * 1. 沿源表主键切块, 两端并行计算每块的行数和哈希
+ * 2. 不一致的相邻块合并成区间, 先删除目标端区间内的行 (包括源端已经删除的行), 再按原有的读写流程从源端重新拷贝
+ * 校验每块之前按块的行数从两端的限速取令牌, 与拷贝共用同一个 {@link LoadGovernor}
+ */
+public class TableRepairer {
+    private final Handler handler;
+    private final int chunkRows;
+    private final int parallelism;
+    private final int splitsPerBatch;
+
+    public TableRepairer(Handler handler, int chunkRows, int parallelism, int splitsPerBatch) {
+        this.handler = handler;
+        this.chunkRows = chunkRows;
+        this.parallelism = parallelism;
+        this.splitsPerBatch = splitsPerBatch;
+    }
+
+    public void repair(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, JdbcColumnHandle keyColumn, TableProgress progress) throws Exception {
+        DataSource sourceDataSource = handler.getSourceDataSource();
+        DataSource targetDataSource = handler.getTargetDataSource();
+        LoadGovernor sourceGovernor = handler.getSourceGovernor();
+        LoadGovernor targetGovernor = handler.getTargetGovernor(FanOutSettings.PRIMARY_TARGET);
+        TableChecksummer checksummer = new TableChecksummer(metaInfo, columnHandles, keyColumn, sourceDataSource, targetDataSource);
+        List<JdbcSplit> chunks = checksummer.getChunks(sourceDataSource, chunkRows);
+        System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " " + metaInfo.getTable() + " checksum " + chunks.size()
+                + " chunks on " + keyColumn.getColumnName() + (checksummer.isServerSide() ? ", server side" : ", client side"));
+
+        List<JdbcSplit> differing = new ArrayList<>();
+        ExecutorService sourceExecutor = Executors.newFixedThreadPool(parallelism,
+                new ThreadFactoryBuilder().setNameFormat("checksum-" + metaInfo.getTable() + "-src-%d").build());
+        ExecutorService targetExecutor = Executors.newFixedThreadPool(parallelism,
+                new ThreadFactoryBuilder().setNameFormat("checksum-" + metaInfo.getTable() + "-tgt-%d").build());
+        try {
+            List<Future<ChunkChecksum>> sourceChecksums = new ArrayList<>();
+            List<Future<ChunkChecksum>> targetChecksums = new ArrayList<>();
+            for (JdbcSplit chunk : chunks) {
+                sourceChecksums.add(sourceExecutor.submit(() -> {
+                    sourceGovernor.acquire(chunkRows, 0);
+                    return checksummer.getSourceChecksum(sourceDataSource, chunk);
+                }));
+                targetChecksums.add(targetExecutor.submit(() -> {
+                    targetGovernor.acquire(chunkRows, 0);
+                    return checksummer.getTargetChecksum(targetDataSource, chunk);
+                }));
+            }
+            for (int i = 0; i < chunks.size(); i++) {
+                ChunkChecksum source = getChecksum(sourceChecksums.get(i));
+                ChunkChecksum target = getChecksum(targetChecksums.get(i));
+                if (!source.equals(target)) {
+                    System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " " + metaInfo.getTable()
+                            + " chunk differs " + chunks.get(i) + " source: " + source + " target: " + target);
+                    differing.add(chunks.get(i));
+                }
+            }
+        } finally {
+            sourceExecutor.shutdownNow();
+            targetExecutor.shutdownNow();
+        }
+
+        List<JdbcSplit> ranges = mergeAdjacent(differing);
+        System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " " + metaInfo.getTable() + " "
+                + differing.size() + " of " + chunks.size() + " chunks differ, recopy " + ranges.size() + " ranges");
+        for (List<JdbcSplit> batch : Lists.partition(ranges, splitsPerBatch)) {
+            long deleted = 0;
+            for (JdbcSplit range : batch) {
+                deleted += checksummer.deleteTargetChunk(targetDataSource, range);
+            }
+            System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " " + metaInfo.getTable()
+                    + " deleted " + deleted + " target rows in " + batch.size() + " ranges");
+            handler.copySplits(metaInfo, columnHandles, batch, ImmutableList.of(), ImmutableList.of(keyColumn.getColumnName()), progress);
+        }
+    }
+
+    private static ChunkChecksum getChecksum(Future<ChunkChecksum> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("checksum failed", e.getCause());
+        }
+    }
+
+    /**
+     * 块按主键顺序排列, 前一块的上界等于后一块的下界时合并, 减少删除和读取语句的数量
+     */
+    private static List<JdbcSplit> mergeAdjacent(List<JdbcSplit> chunks) {
+        List<JdbcSplit> merged = new ArrayList<>();
+        KeyRange current = null;
+        for (JdbcSplit chunk : chunks) {
+            KeyRange range = chunk.getRanges().get(0);
+            if (current != null && current.getHigh().isPresent() && current.getHigh().equals(range.getLow())) {
+                current = KeyRange.range(current.getColumn(), current.getLow(), range.getHigh(), false);
+                continue;
+            }
+            if (current != null) {
+                merged.add(JdbcSplit.fullTable().withRange(current));
+            }
+            current = range;
+        }
+        if (current != null) {
+            merged.add(JdbcSplit.fullTable().withRange(current));
+        }
+        return merged;
+    }
+}
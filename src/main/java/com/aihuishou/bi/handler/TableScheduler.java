@@ -0,0 +1,139 @@
+package com.aihuishou.bi.handler;
+
+import com.aihuishou.bi.sync.M2H2SchemaConverter;
+import com.aihuishou.bi.sync.MetaInfo;
+import com.aihuishou.bi.sync.TableProgress;
+import com.aihuishou.bi.utils.Utils;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * 多表并行调度:
+ * 1. 按 DATA_LENGTH/TABLE_ROWS 从大到小排序, 大表最先开始, 缩短整体耗时
+ * 2. 单线程预先读取后续表的元数据并建表, 与正在拷贝的表重叠执行
+ * 3. 固定大小的拷贝线程池, 大小由调用方根据连接池上限决定
+ * 每个表的两个阶段默认为 {@link Handler#prepare} 和 {@link Handler#transfer}, 快照的导出和导入换成各自的 {@link Task}
+ */
+public class TableScheduler {
+    private static final Comparator<TableStats> LARGEST_FIRST = Comparator
+            .comparingLong(TableStats::getDataLength)
+            .thenComparingLong(TableStats::getTableRows)
+            .reversed();
+
+    private final Handler handler;
+    private final int parallelism;
+    private final int lookahead;
+    private final int reportIntervalSeconds;
+    private final Task task;
+
+    public TableScheduler(Handler handler, int parallelism, int lookahead, int reportIntervalSeconds) {
+        this(handler, parallelism, lookahead, reportIntervalSeconds, new Task() {
+            @Override
+            public M2H2SchemaConverter prepare(MetaInfo metaInfo) throws Exception {
+                return handler.prepare(metaInfo);
+            }
+
+            @Override
+            public void transfer(MetaInfo metaInfo, M2H2SchemaConverter schemaConverter, TableProgress progress) throws Exception {
+                handler.transfer(metaInfo, schemaConverter, progress);
+            }
+        });
+    }
+
+    public TableScheduler(Handler handler, int parallelism, int lookahead, int reportIntervalSeconds, Task task) {
+        this.handler = handler;
+        this.parallelism = parallelism;
+        this.lookahead = lookahead;
+        this.reportIntervalSeconds = reportIntervalSeconds;
+        this.task = task;
+    }
+
+    public void run(String sourceDb, String targetDb, List<TableStats> tables) throws InterruptedException {
+        List<TableStats> ordered = new ArrayList<>(tables);
+        ordered.sort(LARGEST_FIRST);
+        System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " schedule " + ordered.size()
+                + " tables, parallelism: " + parallelism + ", lookahead: " + lookahead);
+
+        SyncProgress progress = new SyncProgress();
+        ExecutorService prepareExecutor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("prepare-%d").build());
+        ExecutorService copyExecutor = Executors.newFixedThreadPool(parallelism,
+                new ThreadFactoryBuilder().setNameFormat("copy-%d").build());
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("progress").setDaemon(true).build());
+        // 间隔不是正数时不定期输出进度, 只在结束时汇总
+        if (reportIntervalSeconds > 0) {
+            reporter.scheduleAtFixedRate(() -> report(progress), reportIntervalSeconds, reportIntervalSeconds, SECONDS);
+        }
+
+        // 已预处理但尚未拷贝完成的表数量上限, 避免预处理线程把所有目标表提前清空
+        Semaphore window = new Semaphore(parallelism + lookahead);
+        List<TableStats> submitted = new ArrayList<>();
+        List<Future<?>> copies = new ArrayList<>();
+        try {
+            for (TableStats stats : ordered) {
+                window.acquire();
+                MetaInfo metaInfo = handler.getMetaInfo(sourceDb, targetDb, stats.getTable());
+                TableProgress tableProgress = progress.register(stats);
+                Future<M2H2SchemaConverter> prepared = prepareExecutor.submit(() -> task.prepare(metaInfo));
+                copies.add(copyExecutor.submit(() -> {
+                    try {
+                        M2H2SchemaConverter schemaConverter = prepared.get();
+                        // 等待预处理的时间不计入拷贝耗时, 否则速率偏低、剩余时间偏高
+                        tableProgress.start();
+                        task.transfer(metaInfo, schemaConverter, tableProgress);
+                        return null;
+                    } finally {
+                        tableProgress.finish();
+                        window.release();
+                    }
+                }));
+                submitted.add(stats);
+            }
+
+            int failed = 0;
+            for (int i = 0; i < copies.size(); i++) {
+                try {
+                    copies.get(i).get();
+                } catch (ExecutionException e) {
+                    failed++;
+                    System.err.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " sync failed, table: " + submitted.get(i).getTable());
+                    e.getCause().printStackTrace();
+                }
+            }
+            report(progress);
+            if (failed > 0) {
+                throw new IllegalStateException(failed + " of " + copies.size() + " tables failed");
+            }
+        } finally {
+            prepareExecutor.shutdownNow();
+            copyExecutor.shutdownNow();
+            reporter.shutdownNow();
+        }
+    }
+
+    /**
+     * prepare 在预处理线程上提前执行, transfer 在拷贝线程池中执行
+     */
+    public interface Task {
+        M2H2SchemaConverter prepare(MetaInfo metaInfo) throws Exception;
+
+        void transfer(MetaInfo metaInfo, M2H2SchemaConverter schemaConverter, TableProgress progress) throws Exception;
+    }
+
+    private void report(SyncProgress progress) {
+        progress.report();
+        System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " " + handler.getMemoryPool());
+    }
+}
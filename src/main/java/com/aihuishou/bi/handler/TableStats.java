@@ -0,0 +1,13 @@
+package com.aihuishou.bi.handler;
+
+import lombok.Data;
+
+/**
+ * information_schema.tables 中的表大小信息, 用于调度排序和进度估算
+ */
+@Data
+public class TableStats {
+    private String table;
+    private long tableRows;
+    private long dataLength;
+}
@@ -0,0 +1,168 @@
+package com.aihuishou.bi.sync;
+
+import com.aihuishou.bi.utils.Utils;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * 单表的 fetch size 和提交批量的反馈调节, 同一个表的读取线程和写入线程共用一个实例:
+ * 1. fetch size: 按平均行宽限制每次往返的字节数, 再根据读取吞吐(字节/读取耗时)做爬山调整, 吞吐不再明显变化时停在当前值
+ * 2. 每次提交的行数: 提交耗时低于目标且写入端跟不上(缓冲区积压)时加性增大, 超过目标两倍时减半, 同时受单批字节数限制
+ * 初始值取上次同一个表收敛的结果, 拷贝结束后由 {@link TuningStore} 保存
+ */
+public class AdaptiveTuner {
+    static final int MIN_FETCH_SIZE = 100;
+    static final int MAX_FETCH_SIZE = 100_000;
+    static final int MIN_COMMIT_ROWS = 100;
+    static final int MAX_COMMIT_ROWS = 50_000;
+    /**
+     * 单次往返/单批写入的字节上限, 防止宽表把结果集缓冲和批量语句撑爆
+     */
+    private static final long MAX_FETCH_BYTES = 16L * 1024 * 1024;
+    private static final long MAX_BATCH_BYTES = 16L * 1024 * 1024;
+    private static final long TARGET_COMMIT_NANOS = 500_000_000L;
+    /**
+     * 吞吐变化小于该比例视为没有变化
+     */
+    private static final double TOLERANCE = 0.05;
+
+    private final String key;
+    private final PageBuffer buffer;
+    private final int writerCount;
+
+    private int fetchSize;
+    private int fetchDirection = 1;
+    private boolean fetchSettled;
+    private long windowRows;
+    private long windowBytes;
+    private long windowNanos;
+    private double lastThroughput;
+
+    private int commitRows;
+    private long observedRows;
+    private long observedBytes;
+
+    /**
+     * @param buffer 读写之间的缓冲区, 用于判断写入端是否积压; 为 null 时提交批量只会减小不会增大
+     */
+    public AdaptiveTuner(String key, TableTuning initial, PageBuffer buffer, int writerCount) {
+        this.key = key;
+        this.buffer = buffer;
+        this.writerCount = writerCount;
+        this.fetchSize = clamp(initial.getFetchSize(), MIN_FETCH_SIZE, MAX_FETCH_SIZE);
+        this.commitRows = clamp(initial.getCommitRows(), MIN_COMMIT_ROWS, MAX_COMMIT_ROWS);
+    }
+
+    public synchronized int getFetchSize() {
+        return fetchSize;
+    }
+
+    public synchronized int getCommitRows() {
+        return commitRows;
+    }
+
+    /**
+     * 平均行宽, 按已读取页的 getSizeInBytes 计算, 还没有数据时返回 0
+     */
+    public synchronized long getRowBytes() {
+        return observedRows == 0 ? 0 : observedBytes / observedRows;
+    }
+
+    /**
+     * 读取端每读完一页调用一次
+     */
+    public synchronized void pageRead(int rows, long bytes, long readNanos) {
+        if (rows == 0) {
+            return;
+        }
+        observedRows += rows;
+        observedBytes += bytes;
+        windowRows += rows;
+        windowBytes += bytes;
+        windowNanos += readNanos;
+        // 至少经过几次往返再评估, 单页的耗时波动太大
+        if (windowRows < 4L * fetchSize) {
+            return;
+        }
+        double throughput = (double) windowBytes / max(windowNanos, 1);
+        windowRows = 0;
+        windowBytes = 0;
+        windowNanos = 0;
+
+        int next = fetchSize;
+        if (lastThroughput == 0) {
+            next = step(fetchSize, fetchDirection);
+        } else if (throughput > lastThroughput * (1 + TOLERANCE)) {
+            fetchSettled = false;
+            next = step(fetchSize, fetchDirection);
+        } else if (throughput < lastThroughput * (1 - TOLERANCE)) {
+            fetchSettled = false;
+            fetchDirection = -fetchDirection;
+            next = step(fetchSize, fetchDirection);
+        } else {
+            fetchSettled = true;
+        }
+        lastThroughput = throughput;
+        next = min(next, limitByBytes(MAX_FETCH_BYTES, MIN_FETCH_SIZE, MAX_FETCH_SIZE));
+        if (next != fetchSize) {
+            log("fetch size " + fetchSize + " -> " + next + ", read " + (long) (throughput * 1_000_000) + " bytes/ms");
+            fetchSize = next;
+        }
+    }
+
+    /**
+     * 写入端每次 executeBatch + commit 之后调用
+     */
+    public synchronized void batchCommitted(int rows, long commitNanos) {
+        if (rows < commitRows) {
+            // 表尾不足一批的提交不参与调整
+            return;
+        }
+        int next = commitRows;
+        int queued = buffer == null ? 0 : buffer.size();
+        if (commitNanos > 2 * TARGET_COMMIT_NANOS) {
+            next = commitRows / 2;
+        } else if (commitNanos < TARGET_COMMIT_NANOS && queued >= writerCount) {
+            next = commitRows + max(commitRows / 4, MIN_COMMIT_ROWS);
+        }
+        next = clamp(min(next, limitByBytes(MAX_BATCH_BYTES, MIN_COMMIT_ROWS, MAX_COMMIT_ROWS)), MIN_COMMIT_ROWS, MAX_COMMIT_ROWS);
+        if (next != commitRows) {
+            log("commit rows " + commitRows + " -> " + next + ", last commit " + commitNanos / 1_000_000 + " ms, queued pages " + queued);
+            commitRows = next;
+        }
+    }
+
+    public synchronized TableTuning getSettled() {
+        TableTuning tuning = new TableTuning();
+        tuning.setFetchSize(fetchSize);
+        tuning.setCommitRows(commitRows);
+        return tuning;
+    }
+
+    public synchronized void logSettled() {
+        log("settled fetch size " + fetchSize + (fetchSettled ? "" : " (still adjusting)")
+                + ", commit rows " + commitRows + ", row bytes " + getRowBytes());
+    }
+
+    private int step(int value, int direction) {
+        int next = direction > 0 ? value + value / 2 : value * 2 / 3;
+        return clamp(next, MIN_FETCH_SIZE, MAX_FETCH_SIZE);
+    }
+
+    private int limitByBytes(long maxBytes, int minRows, int maxRows) {
+        long rowBytes = getRowBytes();
+        if (rowBytes == 0) {
+            return maxRows;
+        }
+        return (int) max(minRows, min(maxRows, maxBytes / rowBytes));
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return max(min, min(max, value));
+    }
+
+    private void log(String message) {
+        System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " tuner " + key + " " + message);
+    }
+}
@@ -0,0 +1,150 @@
+package com.aihuishou.bi.sync;
+
+import com.aihuishou.bi.utils.Utils;
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.PageBuilder;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * binlog 应用线程, 同一主键的变更总是进入同一个线程, 保持原有顺序.
+ * 连续的同表同操作的变更攒成一页, 一次 executeBatch 写入并提交; 表或操作变化、攒满 batchRows 或队列暂时为空时写入.
+ * 每个线程一直使用同一个目标库连接, 各表的 upsert/delete 语句在这个连接上准备一次后复用, 见 {@link BinlogStatements}
+ */
+public class ApplyRunner extends Thread {
+    private final DataSource targetDataSource;
+    private final BlockingQueue<RowChange> queue;
+    private final int batchRows;
+    private final LoadGovernor governor;
+    private volatile Throwable failure;
+    private volatile boolean stopped;
+
+    private BinlogTable batchTable;
+    private boolean batchDelete;
+    private PageBuilder pageBuilder;
+    private long appliedRows;
+    private Connection connection;
+    private final Map<BinlogTable, BinlogStatements> statements = new HashMap<>();
+
+    /**
+     * @param governor 写入每页之前按行数和字节数限速
+     */
+    public ApplyRunner(DataSource targetDataSource, BlockingQueue<RowChange> queue, int batchRows, LoadGovernor governor) {
+        this.targetDataSource = targetDataSource;
+        this.queue = queue;
+        this.batchRows = batchRows;
+        this.governor = governor;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!stopped || !queue.isEmpty()) {
+                RowChange change = queue.poll();
+                if (change == null) {
+                    flush();
+                    change = queue.poll(100, MILLISECONDS);
+                    if (change == null) {
+                        continue;
+                    }
+                }
+                if (change.isBarrier()) {
+                    flush();
+                    change.getBarrier().countDown();
+                    continue;
+                }
+                if (pageBuilder != null && (change.getTable() != batchTable || change.isDelete() != batchDelete || pageBuilder.getPositionCount() >= batchRows)) {
+                    flush();
+                }
+                if (pageBuilder == null) {
+                    batchTable = change.getTable();
+                    batchDelete = change.isDelete();
+                    pageBuilder = new PageBuilder(batchDelete ? batchTable.getKeyTypes() : batchTable.getColumnTypes());
+                }
+                (batchDelete ? batchTable.getKeyDecoder() : batchTable.getDecoder()).appendRow(pageBuilder, change.getValues());
+            }
+            flush();
+        } catch (Throwable e) {
+            e.printStackTrace();
+            failure = e;
+        } finally {
+            closeConnection();
+            System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " final applied rows: " + appliedRows);
+        }
+    }
+
+    private void flush() throws SQLException {
+        if (pageBuilder == null) {
+            return;
+        }
+        Page page = pageBuilder.build();
+        pageBuilder = null;
+        governor.acquire(page.getPositionCount(), page.getSizeInBytes());
+        TableMetrics metrics = batchTable.getMetrics();
+        try {
+            long start = System.nanoTime();
+            getStatements(batchTable).execute(page, batchDelete);
+            long executed = System.nanoTime();
+            CommitFailedException.commit(connection);
+            metrics.batchExecuted(executed - start);
+            metrics.committed(System.nanoTime() - executed);
+        } catch (SQLException | RuntimeException e) {
+            if (connection != null) {
+                try {
+                    connection.rollback();
+                } catch (SQLException | RuntimeException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+        metrics.pagesWritten(page.getPositionCount(), page.getSizeInBytes());
+        appliedRows += page.getPositionCount();
+    }
+
+    private BinlogStatements getStatements(BinlogTable table) throws SQLException {
+        if (connection == null) {
+            connection = targetDataSource.getConnection();
+            connection.setAutoCommit(false);
+        }
+        BinlogStatements tableStatements = statements.get(table);
+        if (tableStatements == null) {
+            // DDL 之后重新加载的表替换旧的, 旧语句不会再用到
+            statements.entrySet().removeIf(entry -> {
+                boolean replaced = entry.getKey().getMetaInfo().getTable().equals(table.getMetaInfo().getTable());
+                if (replaced) {
+                    entry.getValue().close();
+                }
+                return replaced;
+            });
+            tableStatements = new BinlogStatements(table, connection);
+            statements.put(table, tableStatements);
+        }
+        return tableStatements;
+    }
+
+    private void closeConnection() {
+        statements.values().forEach(BinlogStatements::close);
+        statements.clear();
+        Utils.close(connection, null, null);
+        connection = null;
+    }
+
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * 处理完队列中剩余的变更后退出
+     */
+    public void shutdown() {
+        stopped = true;
+    }
+}
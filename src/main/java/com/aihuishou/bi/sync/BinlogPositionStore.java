@@ -0,0 +1,34 @@
+package com.aihuishou.bi.sync;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Optional;
+
+/**
+ * binlog 应用进度, key 为 库名.file 和 库名.position, 只记录事务边界.
+ * 保存前所有应用线程都已提交, 重启后从这里继续, 之后的变更可能重复应用一次, 按主键 upsert/delete 结果不变
+ */
+public class BinlogPositionStore {
+    private static final String FILE = ".file";
+    private static final String POSITION = ".position";
+
+    private final PropertiesFile file;
+
+    public BinlogPositionStore(String file) {
+        this.file = new PropertiesFile(file, "applied binlog positions");
+    }
+
+    public Optional<String> getFile(String database) {
+        return file.get(database + FILE);
+    }
+
+    public long getPosition(String database) {
+        return file.getLong(database + POSITION).orElse(4L);
+    }
+
+    public void save(String database, String binlogFile, long position) {
+        file.set(ImmutableMap.of(
+                database + FILE, binlogFile,
+                database + POSITION, String.valueOf(position)));
+    }
+}
@@ -0,0 +1,189 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.PageBuilder;
+import com.facebook.presto.spi.PrestoException;
+import com.facebook.presto.spi.block.BlockBuilder;
+import com.facebook.presto.spi.type.DecimalType;
+import com.facebook.presto.spi.type.Type;
+import com.github.shyiko.mysql.binlog.event.deserialization.ColumnType;
+import io.airlift.slice.Slice;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.stream.IntStream;
+
+import static com.facebook.presto.spi.StandardErrorCode.NOT_SUPPORTED;
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.BooleanType.BOOLEAN;
+import static com.facebook.presto.spi.type.Chars.isCharType;
+import static com.facebook.presto.spi.type.Chars.trimTrailingSpaces;
+import static com.facebook.presto.spi.type.DateType.DATE;
+import static com.facebook.presto.spi.type.Decimals.encodeScaledValue;
+import static com.facebook.presto.spi.type.Decimals.encodeShortScaledValue;
+import static com.facebook.presto.spi.type.DoubleType.DOUBLE;
+import static com.facebook.presto.spi.type.IntegerType.INTEGER;
+import static com.facebook.presto.spi.type.RealType.REAL;
+import static com.facebook.presto.spi.type.SmallintType.SMALLINT;
+import static com.facebook.presto.spi.type.TimestampType.TIMESTAMP;
+import static com.facebook.presto.spi.type.TinyintType.TINYINT;
+import static com.facebook.presto.spi.type.VarbinaryType.VARBINARY;
+import static com.facebook.presto.spi.type.Varchars.isVarcharType;
+import static io.airlift.slice.Slices.utf8Slice;
+import static io.airlift.slice.Slices.wrappedBuffer;
+import static java.lang.Float.floatToRawIntBits;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * 把 binlog 行镜像中的值转换成与 {@link StandardReadMappings} 读取结果相同的 Presto 值.
+ * 要求 EventDeserializer 使用 DATE_AND_TIME_AS_LONG 和 CHAR_AND_BINARY_AS_BYTE_ARRAY, 字符串按 utf8 处理;
+ * 每列的转换在建表映射时确定一次, 与 {@link ColumnBinders} 相同
+ */
+public class BinlogRowDecoder {
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final long GREGORIAN_CUTOVER = new GregorianCalendar().getGregorianChange().getTime();
+
+    private final ValueWriter[] writers;
+    private final int[] valueIndexes;
+
+    /**
+     * @param binlogTypes TABLE_MAP 事件中与 columns 一一对应的列类型
+     * @param sourceZone 源库服务端的时区, 即 sync.time-zone.source, TIMESTAMP 列的 UTC 时刻按它换算成本地时间
+     */
+    public BinlogRowDecoder(List<JdbcColumnHandle> columns, ColumnType[] binlogTypes, ZoneId sourceZone) {
+        this(columns, binlogTypes, IntStream.range(0, columns.size()).toArray(), sourceZone);
+    }
+
+    /**
+     * @param valueIndexes 每一列的值在 binlog 行中的位置, 源表中目标表没有的列 (不支持的类型) 跳过
+     */
+    public BinlogRowDecoder(List<JdbcColumnHandle> columns, ColumnType[] binlogTypes, int[] valueIndexes, ZoneId sourceZone) {
+        ZoneOffsetTable zone = ZoneOffsetTable.of(sourceZone);
+        this.valueIndexes = valueIndexes.clone();
+        writers = new ValueWriter[columns.size()];
+        for (int channel = 0; channel < writers.length; channel++) {
+            writers[channel] = createWriter(columns.get(channel), binlogTypes[channel], zone);
+        }
+    }
+
+    public void appendRow(PageBuilder pageBuilder, Serializable[] values) {
+        pageBuilder.declarePosition();
+        for (int channel = 0; channel < writers.length; channel++) {
+            BlockBuilder output = pageBuilder.getBlockBuilder(channel);
+            Serializable value = values[valueIndexes[channel]];
+            if (value == null) {
+                output.appendNull();
+            } else {
+                writers[channel].write(output, value);
+            }
+        }
+    }
+
+    private static ValueWriter createWriter(JdbcColumnHandle column, ColumnType binlogType, ZoneOffsetTable zone) {
+        Type type = column.getColumnType();
+        if (BOOLEAN.equals(type)) {
+            // BIT(1) 解析为 BitSet, TINYINT(1) 解析为 Integer
+            return (output, value) -> type.writeBoolean(output, value instanceof BitSet ? !((BitSet) value).isEmpty() : ((Number) value).longValue() != 0);
+        }
+        if (TINYINT.equals(type) || SMALLINT.equals(type) || INTEGER.equals(type) || BIGINT.equals(type)) {
+            long mask = getUnsignedMask(type, binlogType);
+            return (output, value) -> type.writeLong(output, ((Number) value).longValue() & mask);
+        }
+        if (REAL.equals(type)) {
+            return (output, value) -> type.writeLong(output, floatToRawIntBits(((Number) value).floatValue()));
+        }
+        if (DOUBLE.equals(type)) {
+            return (output, value) -> type.writeDouble(output, ((Number) value).doubleValue());
+        }
+        if (type instanceof DecimalType) {
+            DecimalType decimalType = (DecimalType) type;
+            int scale = decimalType.getScale();
+            if (decimalType.isShort()) {
+                return (output, value) -> type.writeLong(output, encodeShortScaledValue((BigDecimal) value, scale));
+            }
+            return (output, value) -> type.writeSlice(output, encodeScaledValue(((BigDecimal) value).setScale(scale, RoundingMode.HALF_UP), scale));
+        }
+        if (isCharType(type) || isVarcharType(type)) {
+            boolean trim = isCharType(type);
+            return (output, value) -> {
+                if (value instanceof Number) {
+                    // ENUM 和 SET 在 binlog 中只有序号和位图, 没有对应的字符串
+                    throw new PrestoException(NOT_SUPPORTED, "ENUM/SET column is not supported in binlog mode: " + column.getColumnName());
+                }
+                Slice slice = value instanceof byte[] ? wrappedBuffer((byte[]) value) : utf8Slice(value.toString());
+                type.writeSlice(output, trim ? trimTrailingSpaces(slice) : slice);
+            };
+        }
+        if (VARBINARY.equals(type)) {
+            return (output, value) -> type.writeSlice(output, wrappedBuffer((byte[]) value));
+        }
+        if (DATE.equals(type)) {
+            if (binlogType == ColumnType.YEAR) {
+                return (output, value) -> type.writeLong(output, LocalDate.of(((Number) value).intValue(), 1, 1).toEpochDay());
+            }
+            // DATE 解析为 UTC 零点的毫秒数
+            return (output, value) -> type.writeLong(output, Math.floorDiv(toProlepticMillis((Long) value), DAYS.toMillis(1)));
+        }
+        if (TIMESTAMP.equals(type)) {
+            if (binlogType == ColumnType.TIMESTAMP || binlogType == ColumnType.TIMESTAMP_V2) {
+                // TIMESTAMP 解析为 UTC 时刻, JDBC 读到的是会话时区的本地时间; 连接不设置 time_zone, 会话时区即源库服务端时区
+                return (output, value) -> type.writeLong(output, zone.toLocalMillis((Long) value));
+            }
+            // DATETIME 解析为把本地时间当作 UTC 的毫秒数, 即 TIMESTAMP 的表示
+            return (output, value) -> type.writeLong(output, toProlepticMillis((Long) value));
+        }
+        throw new PrestoException(NOT_SUPPORTED, "Unsupported column type in binlog mode: " + type.getDisplayName());
+    }
+
+    /**
+     * 1582-10-15 之前的日期 binlog 解析时按 java.util.GregorianCalendar 换算, 即儒略历;
+     * Presto 值与 JDBC 读取结果 (java.sql.Date#toLocalDate) 一样按前推公历, 按年月日时分秒重新换算
+     */
+    private static long toProlepticMillis(long millis) {
+        if (millis >= GREGORIAN_CUTOVER) {
+            return millis;
+        }
+        GregorianCalendar calendar = new GregorianCalendar(UTC);
+        calendar.setTimeInMillis(millis);
+        LocalDateTime dateTime = LocalDateTime.of(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH),
+                calendar.get(Calendar.HOUR_OF_DAY), calendar.get(Calendar.MINUTE), calendar.get(Calendar.SECOND), (int) MILLISECONDS.toNanos(calendar.get(Calendar.MILLISECOND)));
+        return dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    /**
+     * binlog 中的整数都按有符号解析. 同样宽度的有符号列不会映射成更宽的 Presto 类型,
+     * 所以 Presto 类型比 binlog 存储更宽时是无符号列, 截掉符号扩展的高位; MEDIUMINT 不论有无符号都映射为 INTEGER, 无法区分
+     */
+    private static long getUnsignedMask(Type type, ColumnType binlogType) {
+        int storageBits;
+        switch (binlogType) {
+            case TINY:
+                storageBits = 8;
+                break;
+            case SHORT:
+                storageBits = 16;
+                break;
+            case LONG:
+                storageBits = 32;
+                break;
+            default:
+                return -1L;
+        }
+        int typeBits = TINYINT.equals(type) ? 8 : SMALLINT.equals(type) ? 16 : INTEGER.equals(type) ? 32 : 64;
+        return typeBits > storageBits ? (1L << storageBits) - 1 : -1L;
+    }
+
+    private interface ValueWriter {
+        void write(BlockBuilder output, Serializable value);
+    }
+}
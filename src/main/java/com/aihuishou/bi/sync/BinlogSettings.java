@@ -0,0 +1,40 @@
+package com.aihuishou.bi.sync;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * sync.binlog 配置: 开启后不再整库拷贝, 而是持续解析源库的 row 格式 binlog, 把增删改应用到目标表.
+ * 配置了 dir 时回放该目录下的 binlog 文件, 不连接源库, 回放完成后退出
+ */
+@Data
+public class BinlogSettings {
+    private boolean enabled;
+    private String host = "127.0.0.1";
+    private int port = 3306;
+    private String user;
+    private String password;
+    /**
+     * 作为复制从库连接时使用的 server_id, 不能与其他从库重复
+     */
+    private long serverId = 65535;
+    private String dir;
+    /**
+     * 只应用这些表的变更, 为空时应用整个库
+     */
+    private List<String> tables = new ArrayList<>();
+    private int applyThreads = 4;
+    private int batchRows = 1000;
+    private String stateFile = "sync-binlog.properties";
+    private int checkpointSeconds = 10;
+
+    public boolean isReplay() {
+        return dir != null && !dir.isEmpty();
+    }
+
+    public boolean contains(String table) {
+        return tables.isEmpty() || tables.contains(table);
+    }
+}
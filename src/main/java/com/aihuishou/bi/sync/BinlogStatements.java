@@ -0,0 +1,79 @@
+package com.aihuishou.bi.sync;
+
+import com.aihuishou.bi.utils.Utils;
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.block.Block;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.util.stream.Collectors.joining;
+
+/**
+ * 一个应用线程在一个表上的写入语句和参数绑定, 在该线程的连接上首次用到这个表时准备一次, 之后每批复用:
+ * upsert 按主键覆盖整行, 与 {@link JdbcPageSink} 的 upsert 相同; delete 按主键删除, Page 只包含主键列
+ */
+class BinlogStatements implements AutoCloseable {
+    private final PreparedStatement upsert;
+    private final PreparedStatement delete;
+    private final ColumnBinder[] columnBinders;
+    private final ColumnBinder[] keyBinders;
+
+    BinlogStatements(BinlogTable table, Connection connection) throws SQLException {
+        MetaInfo metaInfo = table.getMetaInfo();
+        Dialect dialect = Dialect.forConnection(connection);
+        // binlog 模式要求两端时区相同, 日期时间不换算
+        TemporalCodec targetCodec = TemporalCodec.UNSHIFTED.forTarget(connection);
+        this.columnBinders = JdbcPageSink.createColumnBinders(table.getColumnHandles(), JdbcPageSink.findUtf8mb4Columns(connection, metaInfo), targetCodec);
+        this.keyBinders = ColumnBinders.createColumnBinders(table.getKeyTypes(), targetCodec);
+        String quotedTable = dialect.quote(metaInfo.getTargetDb(), metaInfo.getTable());
+        List<String> columns = table.getColumnHandles().stream()
+                .map(column -> dialect.quote(column.getColumnName()))
+                .collect(toImmutableList());
+        List<String> keys = table.getKeyHandles().stream()
+                .map(column -> dialect.quote(column.getColumnName()))
+                .collect(toImmutableList());
+        String upsertSql = dialect.buildUpsertSql(quotedTable, columns, keys);
+        String deleteSql = "DELETE FROM " + quotedTable + " WHERE " + keys.stream().map(key -> key + " = ?").collect(joining(" AND "));
+        this.upsert = connection.prepareStatement(upsertSql);
+        try {
+            this.delete = connection.prepareStatement(deleteSql);
+        } catch (SQLException e) {
+            Utils.close(null, upsert, null);
+            throw e;
+        }
+        System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " Executing: " + upsertSql + "; " + deleteSql);
+    }
+
+    /**
+     * 整页一次 executeBatch, 由调用方提交
+     */
+    void execute(Page page, boolean isDelete) throws SQLException {
+        PreparedStatement statement = isDelete ? delete : upsert;
+        ColumnBinder[] binders = isDelete ? keyBinders : columnBinders;
+        Block[] blocks = new Block[page.getChannelCount()];
+        for (int channel = 0; channel < blocks.length; channel++) {
+            blocks[channel] = page.getBlock(channel);
+        }
+        for (int position = 0; position < page.getPositionCount(); position++) {
+            for (int channel = 0; channel < blocks.length; channel++) {
+                if (blocks[channel].isNull(position)) {
+                    statement.setObject(channel + 1, null);
+                } else {
+                    binders[channel].bind(statement, channel + 1, blocks[channel], position);
+                }
+            }
+            statement.addBatch();
+        }
+        statement.executeBatch();
+    }
+
+    @Override
+    public void close() {
+        Utils.close(null, upsert, null);
+        Utils.close(null, delete, null);
+    }
+}
@@ -0,0 +1,140 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.type.Type;
+import com.github.shyiko.mysql.binlog.event.deserialization.ColumnType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import java.io.Serializable;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+/**
+ * 一个 TABLE_MAP 对应的应用上下文: 目标表的列和主键, 以及 binlog 行到 Page 的转换.
+ * binlog 行中的值按源表的列顺序排列, 目标表的列按列名对应过去; 源表中不支持的类型不在目标表中, 其值被跳过
+ */
+public class BinlogTable {
+    private final MetaInfo metaInfo;
+    private final List<JdbcColumnHandle> columnHandles;
+    private final List<JdbcColumnHandle> keyHandles;
+    private final List<Type> columnTypes;
+    private final List<Type> keyTypes;
+    private final byte[] binlogColumnTypes;
+    private final int[] keyIndexes;
+    private final BinlogRowDecoder decoder;
+    private final BinlogRowDecoder keyDecoder;
+    private final TableMetrics metrics;
+
+    /**
+     * @param sourceColumns 源表当前的所有列名, 按定义顺序, 与 binlog 行中值的顺序相同
+     * @param binlogColumnTypes TABLE_MAP 事件中的列类型
+     */
+    public BinlogTable(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, List<String> primaryKey, List<String> sourceColumns, byte[] binlogColumnTypes,
+                       TableMetrics metrics, ZoneId sourceZone) {
+        if (binlogColumnTypes.length != sourceColumns.size()) {
+            throw new IllegalStateException("binlog has " + binlogColumnTypes.length + " columns but source table " + metaInfo.getTable()
+                    + " has " + sourceColumns.size() + ", its schema changed after this event, copy the table again");
+        }
+        this.metaInfo = metaInfo;
+        this.columnHandles = ImmutableList.copyOf(columnHandles);
+        this.metrics = metrics;
+        this.binlogColumnTypes = binlogColumnTypes.clone();
+        int[] valueIndexes = new int[columnHandles.size()];
+        ColumnType[] types = new ColumnType[valueIndexes.length];
+        for (int channel = 0; channel < valueIndexes.length; channel++) {
+            String columnName = columnHandles.get(channel).getColumnName();
+            valueIndexes[channel] = indexOf(sourceColumns, columnName);
+            if (valueIndexes[channel] < 0) {
+                throw new IllegalStateException("column " + columnName + " of target table " + metaInfo.getTable()
+                        + " is not in the source table, its schema changed, copy the table again");
+            }
+            types[channel] = ColumnType.byCode(binlogColumnTypes[valueIndexes[channel]] & 0xFF);
+        }
+        this.keyIndexes = new int[primaryKey.size()];
+        ColumnType[] keyBinlogTypes = new ColumnType[keyIndexes.length];
+        ImmutableList.Builder<JdbcColumnHandle> keyHandles = ImmutableList.builder();
+        for (int i = 0; i < keyIndexes.length; i++) {
+            int channel = indexOf(Lists.transform(this.columnHandles, JdbcColumnHandle::getColumnName), primaryKey.get(i));
+            if (channel < 0) {
+                throw new IllegalArgumentException("primary key column not found: " + primaryKey.get(i));
+            }
+            keyIndexes[i] = valueIndexes[channel];
+            keyBinlogTypes[i] = types[channel];
+            keyHandles.add(columnHandles.get(channel));
+        }
+        this.keyHandles = keyHandles.build();
+        this.columnTypes = this.columnHandles.stream().map(JdbcColumnHandle::getColumnType).collect(toImmutableList());
+        this.keyTypes = this.keyHandles.stream().map(JdbcColumnHandle::getColumnType).collect(toImmutableList());
+        this.decoder = new BinlogRowDecoder(this.columnHandles, types, valueIndexes, sourceZone);
+        this.keyDecoder = new BinlogRowDecoder(this.keyHandles, keyBinlogTypes, sourceZone);
+    }
+
+    private static int indexOf(List<String> columnNames, String columnName) {
+        for (int i = 0; i < columnNames.size(); i++) {
+            if (columnNames.get(i).equalsIgnoreCase(columnName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 同一个 table id 的 TABLE_MAP 列类型变化说明表结构已经改变, 需要重新加载
+     */
+    public boolean matches(byte[] binlogColumnTypes) {
+        return Arrays.equals(this.binlogColumnTypes, binlogColumnTypes);
+    }
+
+    /**
+     * binlog 行中的列数, row image 为 FULL 时每个行事件都包含全部列
+     */
+    public int getBinlogColumnCount() {
+        return binlogColumnTypes.length;
+    }
+
+    public Serializable[] getKey(Serializable[] row) {
+        Serializable[] key = new Serializable[keyIndexes.length];
+        for (int i = 0; i < keyIndexes.length; i++) {
+            key[i] = row[keyIndexes[i]];
+        }
+        return key;
+    }
+
+    public MetaInfo getMetaInfo() {
+        return metaInfo;
+    }
+
+    public List<JdbcColumnHandle> getColumnHandles() {
+        return columnHandles;
+    }
+
+    public List<JdbcColumnHandle> getKeyHandles() {
+        return keyHandles;
+    }
+
+    public List<Type> getColumnTypes() {
+        return columnTypes;
+    }
+
+    public List<Type> getKeyTypes() {
+        return keyTypes;
+    }
+
+    public BinlogRowDecoder getDecoder() {
+        return decoder;
+    }
+
+    public BinlogRowDecoder getKeyDecoder() {
+        return keyDecoder;
+    }
+
+    /**
+     * 每批 executeBatch 和 commit 的耗时以及写入的行数记入该表的指标
+     */
+    public TableMetrics getMetrics() {
+        return metrics;
+    }
+}
@@ -0,0 +1,51 @@
+package com.aihuishou.bi.sync;
+
+import java.util.Objects;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+
+/**
+ * 一个主键区间内的行数和与行顺序无关的聚合哈希, 两端相等即认为该区间一致
+ */
+public final class ChunkChecksum {
+    private final long rows;
+    private final long hash;
+
+    public ChunkChecksum(long rows, long hash) {
+        this.rows = rows;
+        this.hash = hash;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ChunkChecksum that = (ChunkChecksum) o;
+        return rows == that.rows && hash == that.hash;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(rows, hash);
+    }
+
+    @Override
+    public String toString() {
+        return toStringHelper(this)
+                .add("rows", rows)
+                .add("hash", Long.toHexString(hash))
+                .toString();
+    }
+}
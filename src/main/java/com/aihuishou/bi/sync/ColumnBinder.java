@@ -0,0 +1,13 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.block.Block;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * 把 Block 中一个非空值绑定到 INSERT 语句的参数上, 每列在建表时确定一次, 写入时不再判断类型
+ */
+public interface ColumnBinder {
+    void bind(PreparedStatement statement, int parameter, Block block, int position) throws SQLException;
+}
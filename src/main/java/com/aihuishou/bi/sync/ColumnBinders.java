@@ -0,0 +1,96 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.PrestoException;
+import com.facebook.presto.spi.type.DecimalType;
+import com.facebook.presto.spi.type.TimestampType;
+import com.facebook.presto.spi.type.Type;
+import com.google.common.primitives.Shorts;
+import com.google.common.primitives.SignedBytes;
+
+import java.util.List;
+
+import static com.facebook.presto.spi.StandardErrorCode.NOT_SUPPORTED;
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.BooleanType.BOOLEAN;
+import static com.facebook.presto.spi.type.Chars.isCharType;
+import static com.facebook.presto.spi.type.DateType.DATE;
+import static com.facebook.presto.spi.type.Decimals.readBigDecimal;
+import static com.facebook.presto.spi.type.DoubleType.DOUBLE;
+import static com.facebook.presto.spi.type.IntegerType.INTEGER;
+import static com.facebook.presto.spi.type.RealType.REAL;
+import static com.facebook.presto.spi.type.SmallintType.SMALLINT;
+import static com.facebook.presto.spi.type.TinyintType.TINYINT;
+import static com.facebook.presto.spi.type.VarbinaryType.VARBINARY;
+import static com.facebook.presto.spi.type.Varchars.isVarcharType;
+import static java.lang.Float.intBitsToFloat;
+import static java.lang.Math.toIntExact;
+
+public final class ColumnBinders {
+    private ColumnBinders() {
+    }
+
+    public static ColumnBinder[] createColumnBinders(List<Type> types, TemporalCodec temporalCodec) {
+        ColumnBinder[] binders = new ColumnBinder[types.size()];
+        for (int i = 0; i < binders.length; i++) {
+            binders[i] = createColumnBinder(types.get(i), false, temporalCodec);
+        }
+        return binders;
+    }
+
+    /**
+     * @param rawUtf8 目标列的字符集为 utf8mb4 时字符列直接绑定 Slice 中的 UTF-8 字节, 不经过 String;
+     *                MySQL 驱动把 setBytes 的参数作为二进制串发送, 服务端按列的字符集解释, 不做转换
+     * @param temporalCodec DATE/TIMESTAMP 的时区换算和绑定方式
+     */
+    public static ColumnBinder createColumnBinder(Type type, boolean rawUtf8, TemporalCodec temporalCodec) {
+        if (BOOLEAN.equals(type)) {
+            return (statement, parameter, block, position) -> statement.setBoolean(parameter, type.getBoolean(block, position));
+        }
+        if (BIGINT.equals(type)) {
+            return (statement, parameter, block, position) -> statement.setLong(parameter, type.getLong(block, position));
+        }
+        if (INTEGER.equals(type)) {
+            return (statement, parameter, block, position) -> statement.setInt(parameter, toIntExact(type.getLong(block, position)));
+        }
+        if (SMALLINT.equals(type)) {
+            return (statement, parameter, block, position) -> statement.setShort(parameter, Shorts.checkedCast(type.getLong(block, position)));
+        }
+        if (TINYINT.equals(type)) {
+            return (statement, parameter, block, position) -> statement.setByte(parameter, SignedBytes.checkedCast(type.getLong(block, position)));
+        }
+        if (DOUBLE.equals(type)) {
+            return (statement, parameter, block, position) -> statement.setDouble(parameter, type.getDouble(block, position));
+        }
+        if (REAL.equals(type)) {
+            return (statement, parameter, block, position) -> statement.setFloat(parameter, intBitsToFloat(toIntExact(type.getLong(block, position))));
+        }
+        if (type instanceof DecimalType) {
+            DecimalType decimalType = (DecimalType) type;
+            int scale = decimalType.getScale();
+            // 短 decimal 直接用非标度值, 不经过 BigInteger
+            if (decimalType.isShort() && scale == 0) {
+                return (statement, parameter, block, position) -> statement.setLong(parameter, type.getLong(block, position));
+            }
+            if (decimalType.isShort()) {
+                return (statement, parameter, block, position) -> statement.setBigDecimal(parameter, DecimalCodec.toBigDecimal(type.getLong(block, position), scale));
+            }
+            return (statement, parameter, block, position) -> statement.setBigDecimal(parameter, readBigDecimal(decimalType, block, position));
+        }
+        if ((isVarcharType(type) || isCharType(type)) && rawUtf8) {
+            return (statement, parameter, block, position) -> statement.setBytes(parameter, type.getSlice(block, position).getBytes());
+        }
+        if (isVarcharType(type) || isCharType(type)) {
+            return (statement, parameter, block, position) -> statement.setString(parameter, type.getSlice(block, position).toStringUtf8());
+        }
+        if (VARBINARY.equals(type)) {
+            return (statement, parameter, block, position) -> statement.setBytes(parameter, type.getSlice(block, position).getBytes());
+        }
+        if (DATE.equals(type)) {
+            return temporalCodec.dateBinder();
+        }
+        if (type instanceof TimestampType) {
+            return temporalCodec.timestampBinder();
+        }
+        throw new PrestoException(NOT_SUPPORTED, "Unsupported column type: " + type.getDisplayName());
+    }
+}
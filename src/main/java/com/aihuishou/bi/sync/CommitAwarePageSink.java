@@ -0,0 +1,13 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.ConnectorPageSink;
+
+/**
+ * 能报告已提交行数的写入端. 写入线程据此判断哪些页已经提交: 记录断点, 以及连接出错重试时跳过已提交的行
+ */
+public interface CommitAwarePageSink extends ConnectorPageSink {
+    /**
+     * @return 按 appendPage 的顺序, 前多少行已经提交
+     */
+    long getCommittedRows();
+}
@@ -0,0 +1,42 @@
+package com.aihuishou.bi.sync;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * connection.commit() 本身出错: 服务端可能已经提交, 也可能没有, 写入端无法确定这一批是否已经落库.
+ * SQLState 和错误码与原异常相同, 重试策略照常判断是否为暂时性错误; 重写这一批时必须能覆盖已提交的行, 见 {@link H2Runner}
+ */
+public class CommitFailedException extends SQLException {
+    private static final long serialVersionUID = 1L;
+
+    public CommitFailedException(SQLException cause) {
+        super("commit failed, outcome unknown: " + cause.getMessage(), cause.getSQLState(), cause.getErrorCode(), cause);
+    }
+
+    /**
+     * 提交, commit 出错时包装成 CommitFailedException
+     */
+    static void commit(Connection connection) throws SQLException {
+        try {
+            connection.commit();
+        } catch (SQLException e) {
+            throw new CommitFailedException(e);
+        }
+    }
+
+    /**
+     * 沿 cause 链查找
+     */
+    static boolean isCause(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CommitFailedException) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+}
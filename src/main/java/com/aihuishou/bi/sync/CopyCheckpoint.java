@@ -0,0 +1,134 @@
+package com.aihuishou.bi.sync;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 全量拷贝的断点, key 为 库名.表名 加分片编号, 记录每个分片的主键区间、已提交的最后一个主键以及是否完成.
+ * 表拷贝成功后删除; 进程中途退出时保留, 下次从各分片记录的主键之后继续, 主键值使用 Presto 的 long 表示 (TIMESTAMP 为本地时间按 UTC 计的毫秒数)
+ */
+public class CopyCheckpoint {
+    /**
+     * 所有表共用一个文件, 每页提交都重写整个文件代价太高; 丢失的进度只会让下次从更早的主键继续
+     */
+    private static final long UPDATE_INTERVAL_MILLIS = 1000;
+
+    private final PropertiesFile file;
+
+    public CopyCheckpoint(String file) {
+        this.file = new PropertiesFile(file, "full copy checkpoints");
+    }
+
+    /**
+     * 没有配置断点文件时不记录, 失败的表下次从头拷贝
+     */
+    public boolean isEnabled() {
+        return file.isPersistent();
+    }
+
+    public Optional<List<SplitProgress>> get(String table) {
+        Optional<Long> splitCount = file.getLong(table + ".splits");
+        if (!splitCount.isPresent()) {
+            return Optional.empty();
+        }
+        ImmutableList.Builder<SplitProgress> splits = ImmutableList.builder();
+        for (int id = 0; id < splitCount.get(); id++) {
+            String prefix = table + ".split." + id;
+            splits.add(new SplitProgress(
+                    id,
+                    file.getLong(prefix + ".low"),
+                    file.getLong(prefix + ".high"),
+                    file.getLong(prefix + ".key"),
+                    file.get(prefix + ".done").map(Boolean::parseBoolean).orElse(false)));
+        }
+        return Optional.of(splits.build());
+    }
+
+    /**
+     * 清除旧的断点, 按分片的主键区间开始记录
+     */
+    public List<SplitProgress> start(String table, List<KeyRange> ranges) {
+        file.removePrefix(table + ".");
+        ImmutableMap.Builder<String, String> values = ImmutableMap.builder();
+        ImmutableList.Builder<SplitProgress> splits = ImmutableList.builder();
+        values.put(table + ".splits", String.valueOf(ranges.size()));
+        for (int id = 0; id < ranges.size(); id++) {
+            KeyRange range = ranges.get(id);
+            String prefix = table + ".split." + id;
+            range.getLow().ifPresent(low -> values.put(prefix + ".low", String.valueOf(low)));
+            range.getHigh().ifPresent(high -> values.put(prefix + ".high", String.valueOf(high)));
+            splits.add(new SplitProgress(id, range.getLow(), range.getHigh(), Optional.empty(), false));
+        }
+        file.set(values.build());
+        return splits.build();
+    }
+
+    /**
+     * 分片完成时立即写文件, 其余的进度每隔 UPDATE_INTERVAL_MILLIS 写一次
+     * @param key 该分片中不超过 key 的行都已提交
+     */
+    public void update(String table, int split, Optional<Long> key, boolean done) {
+        String prefix = table + ".split." + split;
+        ImmutableMap.Builder<String, String> values = ImmutableMap.builder();
+        key.ifPresent(value -> values.put(prefix + ".key", String.valueOf(value)));
+        if (done) {
+            values.put(prefix + ".done", "true");
+            file.set(values.build());
+        } else {
+            file.setThrottled(values.build(), UPDATE_INTERVAL_MILLIS);
+        }
+    }
+
+    /**
+     * 拷贝失败时写出还在内存中的进度
+     */
+    public void flush() {
+        file.flush();
+    }
+
+    public void remove(String table) {
+        file.removePrefix(table + ".");
+    }
+
+    /**
+     * 分片的主键区间为 [low, high), 边界为空表示无界
+     */
+    public static final class SplitProgress {
+        private final int id;
+        private final Optional<Long> low;
+        private final Optional<Long> high;
+        private final Optional<Long> key;
+        private final boolean done;
+
+        public SplitProgress(int id, Optional<Long> low, Optional<Long> high, Optional<Long> key, boolean done) {
+            this.id = id;
+            this.low = low;
+            this.high = high;
+            this.key = key;
+            this.done = done;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public Optional<Long> getLow() {
+            return low;
+        }
+
+        public Optional<Long> getHigh() {
+            return high;
+        }
+
+        public Optional<Long> getKey() {
+            return key;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.type.DecimalType;
+import io.airlift.slice.Slice;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.SQLException;
+
+import static com.aihuishou.bi.sync.ReadMapping.longReadMapping;
+import static com.aihuishou.bi.sync.ReadMapping.sliceReadMapping;
+import static com.facebook.presto.spi.type.Decimals.encodeScaledValue;
+import static com.facebook.presto.spi.type.Decimals.encodeShortScaledValue;
+import static com.facebook.presto.spi.type.UnscaledDecimal128Arithmetic.pack;
+import static io.airlift.slice.Slices.EMPTY_SLICE;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * DECIMAL 列按文本读取: MySQL 驱动对 DECIMAL 列的 getBytes 返回十进制文本 (文本协议直接返回收到的字节, 二进制协议中 DECIMAL 也按文本传输),
+ * 每个单元格只读一次, 直接从字节解析出指定 scale 下的非标度值: 短 decimal (精度不超过 18) 为 long,
+ * 长 decimal 在两个 long 上做 128 位运算后打包成与 Decimals.encodeScaledValue 相同的格式, 都不创建 BigDecimal/BigInteger.
+ * 小数位多于 scale 时 HALF_UP 舍入, 与 {@link StandardReadMappings#decimalReadMapping} 一致;
+ * 遇到科学计数法或超出精度的文本时退回 BigDecimal, 由原来的路径报错
+ */
+public final class DecimalCodec {
+    /**
+     * 解析失败的标记, 短 decimal 的非标度值不超过 18 位, 不会与之冲突
+     */
+    static final long INVALID = Long.MIN_VALUE;
+    private static final long MAX_SHORT_UNSCALED = 999_999_999_999_999_999L;
+    private static final int MAX_PRECISION = 38;
+
+    private DecimalCodec() {
+    }
+
+    public static ReadMapping textReadMapping(DecimalType decimalType) {
+        int scale = decimalType.getScale();
+        if (decimalType.isShort()) {
+            return longReadMapping(decimalType, (resultSet, columnIndex) -> {
+                byte[] value = resultSet.getBytes(columnIndex);
+                if (value == null) {
+                    return 0;
+                }
+                long unscaled = parseShort(value, scale);
+                if (unscaled == INVALID) {
+                    return encodeShortScaledValue(toBigDecimal(value), scale);
+                }
+                return unscaled;
+            });
+        }
+        return sliceReadMapping(decimalType, (resultSet, columnIndex) -> {
+            byte[] value = resultSet.getBytes(columnIndex);
+            if (value == null) {
+                return EMPTY_SLICE;
+            }
+            Slice unscaled = parseLong(value, scale);
+            if (unscaled == null) {
+                return encodeScaledValue(toBigDecimal(value).setScale(scale, RoundingMode.HALF_UP), scale);
+            }
+            return unscaled;
+        });
+    }
+
+    /**
+     * @return scale 下的非标度值, 文本无法直接解析或超过 18 位时返回 {@link #INVALID}
+     */
+    static long parseShort(byte[] text, int scale) {
+        int position = 0;
+        boolean negative = false;
+        if (text.length > 0 && (text[0] == '-' || text[0] == '+')) {
+            negative = text[0] == '-';
+            position++;
+        }
+        long magnitude = 0;
+        // -1 表示还在整数部分
+        int fractionDigits = -1;
+        int droppedDigits = 0;
+        boolean roundUp = false;
+        boolean digits = false;
+        for (; position < text.length; position++) {
+            int c = text[position];
+            if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+                continue;
+            }
+            int digit = c - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            digits = true;
+            if (fractionDigits == scale) {
+                // 超出 scale 的小数位只看第一位决定舍入
+                roundUp |= droppedDigits++ == 0 && digit >= 5;
+                continue;
+            }
+            if (fractionDigits >= 0) {
+                fractionDigits++;
+            }
+            if (magnitude > (MAX_SHORT_UNSCALED - digit) / 10) {
+                return INVALID;
+            }
+            magnitude = magnitude * 10 + digit;
+        }
+        if (!digits) {
+            return INVALID;
+        }
+        for (int pad = scale - Math.max(fractionDigits, 0); pad > 0; pad--) {
+            if (magnitude > MAX_SHORT_UNSCALED / 10) {
+                return INVALID;
+            }
+            magnitude *= 10;
+        }
+        if (roundUp) {
+            if (magnitude == MAX_SHORT_UNSCALED) {
+                return INVALID;
+            }
+            magnitude++;
+        }
+        return negative ? -magnitude : magnitude;
+    }
+
+    /**
+     * @return scale 下的非标度值, 文本无法直接解析或超过 38 位时返回 null
+     */
+    static Slice parseLong(byte[] text, int scale) {
+        int position = 0;
+        boolean negative = false;
+        if (text.length > 0 && (text[0] == '-' || text[0] == '+')) {
+            negative = text[0] == '-';
+            position++;
+        }
+        // 128 位的绝对值, 38 位十进制不超过 127 位
+        long low = 0;
+        long high = 0;
+        int precision = 0;
+        int fractionDigits = -1;
+        int droppedDigits = 0;
+        boolean roundUp = false;
+        boolean digits = false;
+        for (; position < text.length; position++) {
+            int c = text[position];
+            if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+                continue;
+            }
+            int digit = c - '0';
+            if (digit < 0 || digit > 9) {
+                return null;
+            }
+            digits = true;
+            if (fractionDigits == scale) {
+                roundUp |= droppedDigits++ == 0 && digit >= 5;
+                continue;
+            }
+            if (fractionDigits >= 0) {
+                fractionDigits++;
+            }
+            if (precision > 0 || digit != 0) {
+                precision++;
+            }
+            if (precision > MAX_PRECISION) {
+                return null;
+            }
+            long lowTimesTen = low * 10;
+            high = high * 10 + highTimesTen(low);
+            low = lowTimesTen + digit;
+            if (Long.compareUnsigned(low, lowTimesTen) < 0) {
+                high++;
+            }
+        }
+        if (!digits) {
+            return null;
+        }
+        for (int pad = scale - Math.max(fractionDigits, 0); pad > 0; pad--) {
+            if (precision > 0 && ++precision > MAX_PRECISION) {
+                return null;
+            }
+            high = high * 10 + highTimesTen(low);
+            low = low * 10;
+        }
+        if (roundUp) {
+            if (isMaxValue(low, high)) {
+                return null;
+            }
+            low++;
+            if (low == 0) {
+                high++;
+            }
+        }
+        return pack(low, high, negative && (low != 0 || high != 0));
+    }
+
+    /**
+     * 短 decimal 绑定到 INSERT 参数时使用, 从非标度值直接构造, 不经过 BigInteger
+     */
+    static BigDecimal toBigDecimal(long unscaled, int scale) {
+        return BigDecimal.valueOf(unscaled, scale);
+    }
+
+    /**
+     * 无符号 64 位数乘以 10 后溢出到高 64 位的部分
+     */
+    private static long highTimesTen(long value) {
+        return ((value >>> 32) * 10 + (((value & 0xFFFFFFFFL) * 10) >>> 32)) >>> 32;
+    }
+
+    /**
+     * 是否为 38 个 9, 再加一就超出精度
+     */
+    private static boolean isMaxValue(long low, long high) {
+        // 10^38 - 1 = 0x4B3B4CA85A86C47A_098A223FFFFFFFFF
+        return high == 0x4B3B4CA85A86C47AL && low == 0x098A223FFFFFFFFFL;
+    }
+
+    private static BigDecimal toBigDecimal(byte[] text) throws SQLException {
+        try {
+            return new BigDecimal(new String(text, US_ASCII));
+        } catch (NumberFormatException e) {
+            throw new SQLException("invalid decimal value: " + new String(text, US_ASCII), e);
+        }
+    }
+}
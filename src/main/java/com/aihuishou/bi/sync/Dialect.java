@@ -0,0 +1,96 @@
+package com.aihuishou.bi.sync;
+
+import com.aihuishou.bi.utils.Utils;
+import com.facebook.presto.spi.PrestoException;
+import com.facebook.presto.spi.type.CharType;
+import com.facebook.presto.spi.type.DecimalType;
+import com.facebook.presto.spi.type.Type;
+import com.facebook.presto.spi.type.VarcharType;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.List;
+
+import static com.facebook.presto.spi.StandardErrorCode.NOT_SUPPORTED;
+import static com.facebook.presto.spi.type.Varchars.isVarcharType;
+
+/**
+ * 目标库方言: 标识符的引用和大小写、建表时的列类型、upsert 语句, 以及 sync.sink=bulk 时该库最快的批量写入方式.
+ * 由 {@link #forConnection(Connection)} 按连接的数据库产品名选择, 同一次拷贝中不同的目标库可以是不同的方言
+ */
+public interface Dialect {
+    /**
+     * @return 数据库产品名为 MySQL、H2 或 PostgreSQL 时为对应方言, 其他库按 MySQL 处理 (与引入方言之前的行为相同)
+     */
+    static Dialect forConnection(Connection connection) throws SQLException {
+        DatabaseMetaData metadata = connection.getMetaData();
+        String product = metadata.getDatabaseProductName();
+        if ("H2".equals(product)) {
+            return new H2Dialect(metadata.storesUpperCaseIdentifiers());
+        }
+        if ("PostgreSQL".equalsIgnoreCase(product)) {
+            return new PostgresDialect();
+        }
+        return new MysqlDialect();
+    }
+
+    String getIdentifierQuote();
+
+    /**
+     * 源库中的名称在目标库中的存储形式: H2 默认转成大写, PostgreSQL 转成小写, 建表和之后的所有语句都按转换后的名称加引号
+     */
+    String normalize(String identifier);
+
+    default String quote(String identifier) {
+        return Utils.quoted(normalize(identifier), getIdentifierQuote());
+    }
+
+    default String quote(String schema, String table) {
+        return Utils.quoted(normalize(schema), normalize(table), getIdentifierQuote());
+    }
+
+    /**
+     * 建表时的列类型, 默认为标准 SQL 类型名
+     */
+    default String toSqlType(Type type) {
+        if (isVarcharType(type)) {
+            VarcharType varcharType = (VarcharType) type;
+            if (varcharType.isUnbounded()) {
+                return "varchar";
+            }
+            return "varchar(" + varcharType.getLengthSafe() + ")";
+        }
+        if (type instanceof CharType) {
+            if (((CharType) type).getLength() == CharType.MAX_LENGTH) {
+                return "char";
+            }
+            return "char(" + ((CharType) type).getLength() + ")";
+        }
+        if (type instanceof DecimalType) {
+            return String.format("decimal(%s, %s)", ((DecimalType) type).getPrecision(), ((DecimalType) type).getScale());
+        }
+
+        String sqlType = Utils.SQL_TYPES.get(type);
+        if (sqlType != null) {
+            return sqlType;
+        }
+        throw new PrestoException(NOT_SUPPORTED, "Unsupported column type: " + type.getDisplayName());
+    }
+
+    /**
+     * 按主键覆盖的单行写入语句, 参数为所有列
+     * @param table 已加引号的表名
+     * @param columns 已加引号的列名
+     * @param keys 已加引号的主键列名
+     */
+    String buildUpsertSql(String table, List<String> columns, List<String> keys);
+
+    /**
+     * sync.sink=bulk 时的写入端. upsertKey 非空 (增量拷贝) 而该库的批量方式不能按主键覆盖时, 退回 {@link JdbcPageSink}
+     * @param chunkBytes MySQL LOAD DATA 每块的字节数, 其他库按 tuner 的提交行数分批
+     * @param memoryPool MySQL LOAD DATA 的编码缓冲区计入该预算
+     */
+    CommitAwarePageSink createBulkPageSink(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, Connection connection, AdaptiveTuner tuner,
+                                           List<String> upsertKey, TableMetrics metrics, TemporalCodec temporalCodec, long chunkBytes, MemoryPool memoryPool);
+}
@@ -0,0 +1,121 @@
+package com.aihuishou.bi.sync;
+
+import com.aihuishou.bi.utils.Utils;
+import com.google.common.collect.ImmutableList;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+/**
+ * 一次读取同时写入多个目标库: 读取端写入源缓冲区, {@link FanOutRunner} 把每页分发到各目标的缓冲区,
+ * 每个目标有自己的一组写入线程和连接. 某个目标失败不影响其他目标写完, 最后汇总抛出失败的目标
+ */
+public class FanOutMigrator {
+    private final MetaInfo metaInfo;
+    private final List<JdbcColumnHandle> columnHandles;
+    private final List<JdbcSplit> splits;
+    private final int writerCount;
+    private final PageBuffer buffer;
+    private final AdaptiveTuner tuner;
+    private final List<FanOutTarget> targets;
+    private final RetryPolicy retryPolicy;
+    private final LoadGovernor sourceGovernor;
+
+    /**
+     * @param buffer 读取端写入的源缓冲区
+     * @param tuner 读取端的 fetch size 调节
+     * @param sourceGovernor 读取线程共用的源库限速, 各目标的限速见 {@link FanOutTarget#getGovernor()}
+     */
+    public FanOutMigrator(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, List<JdbcSplit> splits, int writerCount, PageBuffer buffer, AdaptiveTuner tuner,
+                          List<FanOutTarget> targets, RetryPolicy retryPolicy, LoadGovernor sourceGovernor) {
+        this.metaInfo = metaInfo;
+        this.columnHandles = columnHandles;
+        this.splits = splits;
+        this.writerCount = writerCount;
+        this.buffer = buffer;
+        this.tuner = tuner;
+        this.targets = targets;
+        this.retryPolicy = retryPolicy;
+        this.sourceGovernor = sourceGovernor;
+    }
+
+    public void transferTable(DataSource sourceDataSource) throws InterruptedException, SQLException {
+        System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " Transfer table called, splits: " + splits.size()
+                + ", targets: " + targets.size() + ", writers per target: " + writerCount);
+        List<ReadMapping> readMappings;
+        try (Connection connection = sourceDataSource.getConnection()) {
+            readMappings = JdbcPageSource.getReadMappings(connection, metaInfo, columnHandles);
+        }
+        // 表的进度按主目标库统计, 读出的行数也记在主目标库名下
+        TableProgress progress = targets.get(0).getProgress();
+        ImmutableList.Builder<FetchRunner> fetchRunnersBuilder = ImmutableList.builder();
+        for (int i = 0; i < splits.size(); i++) {
+            FetchRunner fetchRunner = new FetchRunner(sourceDataSource, metaInfo, columnHandles, readMappings, splits.get(i), buffer, tuner, progress, sourceGovernor);
+            fetchRunner.setName("fetchRunner-" + metaInfo.getTable() + "-" + i);
+            fetchRunnersBuilder.add(fetchRunner);
+        }
+        List<FetchRunner> fetchRunners = fetchRunnersBuilder.build();
+        FanOutRunner fanOutRunner = new FanOutRunner(buffer, targets.stream().map(FanOutTarget::getBuffer).collect(toImmutableList()));
+        fanOutRunner.setName("fanOutRunner-" + metaInfo.getTable());
+        List<List<H2Runner>> h2Runners = new ArrayList<>();
+        for (FanOutTarget target : targets) {
+            ImmutableList.Builder<H2Runner> runners = ImmutableList.builder();
+            for (int i = 0; i < writerCount; i++) {
+                H2Runner h2Runner = new H2Runner(target.getDataSource(), metaInfo, columnHandles, target.getPageSinkFactory(), target.getBuffer(), target.getTuner(),
+                        target.getProgress(), null, retryPolicy, target.getGovernor());
+                h2Runner.setName("h2Runner-" + metaInfo.getTable() + "-" + target.getName() + "-" + i);
+                runners.add(h2Runner);
+            }
+            h2Runners.add(runners.build());
+        }
+        for (FetchRunner fetchRunner : fetchRunners) {
+            fetchRunner.start();
+        }
+        fanOutRunner.start();
+        for (List<H2Runner> runners : h2Runners) {
+            runners.forEach(Thread::start);
+        }
+        for (FetchRunner fetchRunner : fetchRunners) {
+            fetchRunner.join();
+        }
+        fanOutRunner.join();
+        for (List<H2Runner> runners : h2Runners) {
+            for (H2Runner h2Runner : runners) {
+                h2Runner.join();
+            }
+        }
+
+        for (FetchRunner fetchRunner : fetchRunners) {
+            if (fetchRunner.getFailure() != null) {
+                throw new RuntimeException("fetch failed, table: " + metaInfo.getTable(), fetchRunner.getFailure());
+            }
+        }
+        if (fanOutRunner.getFailure() != null) {
+            throw new RuntimeException("fan-out failed, table: " + metaInfo.getTable(), fanOutRunner.getFailure());
+        }
+        List<String> failedTargets = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int i = 0; i < targets.size(); i++) {
+            FanOutTarget target = targets.get(i);
+            Throwable targetFailure = h2Runners.get(i).stream().map(H2Runner::getFailure).filter(e -> e != null).findFirst().orElse(null);
+            if (targetFailure != null) {
+                failedTargets.add(target.getName());
+                failures.add(targetFailure);
+                continue;
+            }
+            System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " " + metaInfo.getTable() + " -> " + target.getName()
+                    + ": " + target.getProgress().getRows() + " rows");
+        }
+        if (!failures.isEmpty()) {
+            RuntimeException failure = new RuntimeException("write failed, table: " + metaInfo.getTable() + ", targets: " + failedTargets, failures.get(0));
+            failures.stream().skip(1).forEach(failure::addSuppressed);
+            throw failure;
+        }
+        System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " Transfer table end");
+    }
+}
@@ -0,0 +1,84 @@
+package com.aihuishou.bi.sync;
+
+import com.aihuishou.bi.utils.Utils;
+import com.facebook.presto.spi.Page;
+
+import java.util.List;
+
+/**
+ * 把读取端放入源缓冲区的页分发到每个目标库的缓冲区. 页不可变, 所有目标共享同一个对象, 不复制.
+ * 每个目标的缓冲区各自向内存预算预留, 并且有自己的上限: 某个目标写得慢时只有它的缓冲区积压, 积压到上限后
+ * 开启溢出时写入它自己的溢出文件, 分发不受影响; 未开启溢出时分发阻塞, 其余目标和读取端随之放慢到最慢目标的速度,
+ * 但慢目标占用的内存不超过上限, 不会占满整个预算拖住其它表.
+ * 某个目标的写入端失败中止了它的缓冲区后不再向它分发, 其余目标继续; 所有目标都中止时中止源缓冲区让读取端退出
+ */
+public class FanOutRunner extends Thread {
+    private final PageBuffer source;
+    private final List<PageBuffer> targets;
+    private volatile Throwable failure;
+
+    public FanOutRunner(PageBuffer source, List<PageBuffer> targets) {
+        this.source = source;
+        this.targets = targets;
+        for (PageBuffer target : targets) {
+            target.addProducer();
+        }
+    }
+
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    @Override
+    public void run() {
+        try {
+            Page page;
+            while ((page = source.poll()) != null) {
+                boolean delivered = false;
+                try {
+                    for (PageBuffer target : targets) {
+                        if (deliver(target, page)) {
+                            delivered = true;
+                        }
+                    }
+                } finally {
+                    // 各目标的缓冲区已经各自预留
+                    source.release(page);
+                }
+                if (!delivered) {
+                    source.abort();
+                    break;
+                }
+            }
+            if (source.isAborted()) {
+                // 读取端失败时各目标的数据不完整, 不能让写入端正常结束
+                targets.forEach(PageBuffer::abort);
+            }
+        } catch (Throwable e) {
+            System.err.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " fan-out failed: " + e);
+            failure = e;
+            source.abort();
+            targets.forEach(PageBuffer::abort);
+        } finally {
+            targets.forEach(PageBuffer::producerFinished);
+        }
+    }
+
+    /**
+     * @return 目标已中止时返回 false
+     */
+    private static boolean deliver(PageBuffer target, Page page) throws InterruptedException {
+        if (target.isAborted()) {
+            return false;
+        }
+        try {
+            target.put(page);
+            return true;
+        } catch (IllegalStateException e) {
+            if (target.isAborted()) {
+                return false;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.aihuishou.bi.sync;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import lombok.Data;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * sync.fan-out 配置: spring.target 之外的目标库, 名称 -> 连接池配置 (与 spring.target 的写法相同).
+ * 配置后每个表只读取一次源库, 同一份页分发给所有目标库, 见 {@link FanOutRunner}
+ */
+@Data
+public class FanOutSettings {
+    /**
+     * spring.target 在指标和日志中的名称
+     */
+    public static final String PRIMARY_TARGET = "target";
+
+    private Map<String, DruidDataSource> targets = new LinkedHashMap<>();
+
+    public boolean isEnabled() {
+        return !targets.isEmpty();
+    }
+
+    /**
+     * @return 主目标库在前, 其余按配置顺序
+     */
+    public Map<String, DataSource> getTargetDataSources(DataSource primary) {
+        if (targets.containsKey(PRIMARY_TARGET)) {
+            throw new IllegalArgumentException("sync.fan-out.targets: name '" + PRIMARY_TARGET + "' is reserved for spring.target");
+        }
+        Map<String, DataSource> dataSources = new LinkedHashMap<>();
+        dataSources.put(PRIMARY_TARGET, primary);
+        dataSources.putAll(targets);
+        return dataSources;
+    }
+}
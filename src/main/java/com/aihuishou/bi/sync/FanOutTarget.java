@@ -0,0 +1,58 @@
+package com.aihuishou.bi.sync;
+
+import javax.sql.DataSource;
+
+/**
+ * 扇出拷贝中的一个目标库: 独立的缓冲区 (各自的内存预留和溢出文件)、写入端和提交批量调节
+ */
+public class FanOutTarget {
+    private final String name;
+    private final DataSource dataSource;
+    private final PageSinkFactory pageSinkFactory;
+    private final PageBuffer buffer;
+    private final AdaptiveTuner tuner;
+    private final TableProgress progress;
+    private final LoadGovernor governor;
+
+    public FanOutTarget(String name, DataSource dataSource, PageSinkFactory pageSinkFactory, PageBuffer buffer, AdaptiveTuner tuner, TableProgress progress,
+                        LoadGovernor governor) {
+        this.name = name;
+        this.dataSource = dataSource;
+        this.pageSinkFactory = pageSinkFactory;
+        this.buffer = buffer;
+        this.tuner = tuner;
+        this.progress = progress;
+        this.governor = governor;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public PageSinkFactory getPageSinkFactory() {
+        return pageSinkFactory;
+    }
+
+    public PageBuffer getBuffer() {
+        return buffer;
+    }
+
+    public AdaptiveTuner getTuner() {
+        return tuner;
+    }
+
+    public TableProgress getProgress() {
+        return progress;
+    }
+
+    /**
+     * 该目标库上所有写入线程共用的限速
+     */
+    public LoadGovernor getGovernor() {
+        return governor;
+    }
+}
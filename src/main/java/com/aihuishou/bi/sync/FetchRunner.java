@@ -1,51 +1,115 @@
 package com.aihuishou.bi.sync;
 
 import com.facebook.presto.spi.Page;
-import com.facebook.presto.spi.RecordPageSource;
 import com.aihuishou.bi.utils.Utils;
+import com.google.common.collect.ImmutableList;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
+import java.util.Optional;
 
 
 public class FetchRunner extends Thread {
+    private DataSource dataSource;
+    private MetaInfo metaInfo;
+    private List<JdbcColumnHandle> columnHandles;
+    private List<ReadMapping> readMappings;
     private Connection connection;
-    private BlockingQueue<Page> queue;
-    private RecordPageSource pageSource;
+    private PageBuffer buffer;
+    private AdaptiveTuner tuner;
+    private TableProgress progress;
+    private LoadGovernor governor;
+    private JdbcPageSource pageSource;
+    private long reportedReadNanos;
+    private volatile Throwable failure;
 
-    public FetchRunner(DataSource dataSource, MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, BlockingQueue<Page> queue) {
-        this.queue = queue;
+    private int splitIndex;
+    private SplitCheckpointer checkpointer;
+    private int chunkRows;
+    private RetryPolicy retryPolicy;
+
+    /**
+     * @param readMappings 每列的读取方式, 见 {@link JdbcPageSource#getReadMappings}, 同一个表的读取线程共用
+     */
+    public FetchRunner(DataSource dataSource, MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, List<ReadMapping> readMappings, JdbcSplit split, PageBuffer buffer,
+                       AdaptiveTuner tuner, TableProgress progress, LoadGovernor governor) {
+        this.buffer = buffer;
+        this.progress = progress;
+        this.governor = governor;
+        try {
+            connection = dataSource.getConnection();
+            pageSource = new JdbcPageSource(metaInfo, columnHandles, readMappings, split, connection, tuner, "");
+        } catch (SQLException | RuntimeException e) {
+            e.printStackTrace();
+            failure = e;
+        }
+        buffer.addProducer();
+    }
+
+    /**
+     * 按主键顺序分段读取分片, 每段最多 chunkRows 行, 下一段从上一段最后一个主键之后开始.
+     * 暂时性错误时从最后放入缓冲区的主键之后重试, 已读出的页在提交后记入断点
+     *
+     * @param governor 每读一页按行数和字节数限速, 与同一源库上的其它读取线程共用
+     */
+    public FetchRunner(DataSource dataSource, MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, List<ReadMapping> readMappings, int splitIndex,
+                       SplitCheckpointer checkpointer, int chunkRows, RetryPolicy retryPolicy, PageBuffer buffer, AdaptiveTuner tuner,
+                       TableProgress progress, LoadGovernor governor) {
+        this.dataSource = dataSource;
+        this.metaInfo = metaInfo;
+        this.columnHandles = columnHandles;
+        this.readMappings = readMappings;
+        this.buffer = buffer;
+        this.tuner = tuner;
+        this.progress = progress;
+        this.splitIndex = splitIndex;
+        this.checkpointer = checkpointer;
+        this.chunkRows = chunkRows;
+        this.retryPolicy = retryPolicy;
+        this.governor = governor;
         try {
             connection = dataSource.getConnection();
-            pageSource = new RecordPageSource(new JdbcRecordSet(metaInfo, columnHandles, connection));
-        } catch (SQLException e) {
+        } catch (SQLException | RuntimeException e) {
             e.printStackTrace();
+            failure = e;
         }
+        buffer.addProducer();
     }
 
     @Override
     public void run() {
         int conNum = 0;
         try {
-            Page page = pageSource.getNextPage();
+            if (failure != null) {
+                buffer.abort();
+                return;
+            }
+            if (checkpointer != null) {
+                conNum = fetchByKey();
+                return;
+            }
+            Page page = nextPage();
             while (!pageSource.isFinished()) {
                 if (page != null) {
-                    queue.put(page);
+                    buffer.put(page);
                     conNum += page.getPositionCount();
-                    System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " fetch count: " + conNum);
+                    progress.addFetchedRows(page.getPositionCount());
                 }
-                page = pageSource.getNextPage();
+                page = nextPage();
             }
             if (page != null) {
-                queue.put(page);
+                buffer.put(page);
                 conNum += page.getPositionCount();
+                progress.addFetchedRows(page.getPositionCount());
             }
         } catch (Throwable e) {
             e.printStackTrace();
+            failure = e;
+            buffer.abort();
         } finally {
+            buffer.producerFinished();
             if (pageSource != null) {
                 pageSource.close();
             }
@@ -54,6 +118,80 @@ public class FetchRunner extends Thread {
         }
     }
 
+    private int fetchByKey() throws Exception {
+        KeyRange range = checkpointer.getRange(splitIndex);
+        Optional<Long> lastKey = Optional.empty();
+        String suffix = " ORDER BY " + Utils.quoted(checkpointer.getKeyColumn().getColumnName(), Utils.mysql_identifierQuote) + " LIMIT " + chunkRows;
+        int conNum = 0;
+        int attempt = 0;
+        while (true) {
+            KeyRange chunk = lastKey.isPresent()
+                    ? new KeyRange(range.getColumn(), lastKey, false, range.getHigh(), range.isHighInclusive(), false)
+                    : range;
+            int chunkCount = 0;
+            Connection chunkConnection = connection;
+            connection = null;
+            try {
+                if (chunkConnection == null) {
+                    chunkConnection = dataSource.getConnection();
+                }
+                // 关闭 page source 时连同连接一起关闭, 下一段重新取连接
+                pageSource = new JdbcPageSource(metaInfo, columnHandles, readMappings, new JdbcSplit(ImmutableList.of(chunk)), chunkConnection, tuner, suffix);
+                reportedReadNanos = 0;
+                while (!pageSource.isFinished()) {
+                    Page page = nextPage();
+                    if (page != null && page.getPositionCount() > 0) {
+                        lastKey = Optional.of(checkpointer.pageRead(splitIndex, page));
+                        buffer.put(page);
+                        chunkCount += page.getPositionCount();
+                        conNum += page.getPositionCount();
+                        progress.addFetchedRows(page.getPositionCount());
+                    }
+                }
+                attempt = 0;
+            } catch (RuntimeException | SQLException e) {
+                if (pageSource == null) {
+                    Utils.close(chunkConnection, null, null);
+                }
+                attempt++;
+                if (!retryPolicy.isRetryable(e, attempt)) {
+                    throw e;
+                }
+                System.err.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " fetch retry " + attempt + " after " + lastKey.map(String::valueOf).orElse("start") + ": " + e);
+                retryPolicy.backoff(attempt);
+                continue;
+            } finally {
+                if (pageSource != null) {
+                    pageSource.close();
+                    pageSource = null;
+                }
+            }
+            if (chunkCount < chunkRows) {
+                break;
+            }
+        }
+        checkpointer.splitRead(splitIndex);
+        return conNum;
+    }
+
+    /**
+     * 每读一页把新增的读取耗时记入指标, 第一页包含 executeQuery 的耗时; 超过源库的限速时在这里等待, 游标保持打开
+     */
+    private Page nextPage() {
+        Page page = pageSource.getNextPage();
+        long readNanos = pageSource.getReadTimeNanos();
+        buffer.getMetrics().sourceRead(readNanos - reportedReadNanos);
+        reportedReadNanos = readNanos;
+        if (page != null) {
+            governor.acquire(page.getPositionCount(), page.getSizeInBytes());
+        }
+        return page;
+    }
+
+    public Throwable getFailure() {
+        return failure;
+    }
+
     public void shutdown() {
     }
 }
@@ -0,0 +1,52 @@
+package com.aihuishou.bi.sync;
+
+import com.google.common.base.Joiner;
+
+import java.sql.Connection;
+import java.util.List;
+
+import static java.util.Collections.nCopies;
+import static java.util.Locale.ENGLISH;
+
+/**
+ * H2: 双引号, 默认 (DATABASE_TO_UPPER) 名称转成大写; upsert 为 MERGE ... KEY, 批量写入见 {@link H2DirectPageSink}
+ */
+public class H2Dialect implements Dialect {
+    private final boolean upperCase;
+
+    /**
+     * @param upperCase 连接的 storesUpperCaseIdentifiers
+     */
+    public H2Dialect(boolean upperCase) {
+        this.upperCase = upperCase;
+    }
+
+    @Override
+    public String getIdentifierQuote() {
+        return "\"";
+    }
+
+    @Override
+    public String normalize(String identifier) {
+        return upperCase && identifier != null ? identifier.toUpperCase(ENGLISH) : identifier;
+    }
+
+    @Override
+    public String buildUpsertSql(String table, List<String> columns, List<String> keys) {
+        return new StringBuilder()
+                .append("MERGE INTO ").append(table)
+                .append(" (").append(Joiner.on(',').join(columns)).append(")")
+                .append(" KEY (").append(Joiner.on(',').join(keys)).append(")")
+                .append(" VALUES (").append(Joiner.on(',').join(nCopies(columns.size(), "?"))).append(")")
+                .toString();
+    }
+
+    @Override
+    public CommitAwarePageSink createBulkPageSink(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, Connection connection, AdaptiveTuner tuner,
+                                                  List<String> upsertKey, TableMetrics metrics, TemporalCodec temporalCodec, long chunkBytes, MemoryPool memoryPool) {
+        if (!upsertKey.isEmpty()) {
+            return new JdbcPageSink(metaInfo, columnHandles, connection, tuner, upsertKey, metrics, temporalCodec);
+        }
+        return new H2DirectPageSink(metaInfo, columnHandles, connection, tuner, metrics, temporalCodec, this);
+    }
+}
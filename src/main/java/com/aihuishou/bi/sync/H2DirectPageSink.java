@@ -0,0 +1,197 @@
+package com.aihuishou.bi.sync;
+
+import com.aihuishou.bi.utils.Utils;
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.PrestoException;
+import com.facebook.presto.spi.block.Block;
+import com.facebook.presto.spi.type.DecimalType;
+import com.facebook.presto.spi.type.TimestampType;
+import com.facebook.presto.spi.type.Type;
+import com.google.common.collect.ImmutableList;
+import io.airlift.slice.Slice;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.facebook.presto.spi.StandardErrorCode.NOT_SUPPORTED;
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.BooleanType.BOOLEAN;
+import static com.facebook.presto.spi.type.Chars.isCharType;
+import static com.facebook.presto.spi.type.DateType.DATE;
+import static com.facebook.presto.spi.type.Decimals.readBigDecimal;
+import static com.facebook.presto.spi.type.DoubleType.DOUBLE;
+import static com.facebook.presto.spi.type.IntegerType.INTEGER;
+import static com.facebook.presto.spi.type.RealType.REAL;
+import static com.facebook.presto.spi.type.SmallintType.SMALLINT;
+import static com.facebook.presto.spi.type.TimeType.TIME;
+import static com.facebook.presto.spi.type.TinyintType.TINYINT;
+import static com.facebook.presto.spi.type.VarbinaryType.VARBINARY;
+import static com.facebook.presto.spi.type.Varchars.isVarcharType;
+import static java.lang.Float.intBitsToFloat;
+import static java.lang.Math.toIntExact;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.stream.Collectors.joining;
+
+/**
+ * H2 目标库的批量写入端: 每页一条 INSERT INTO ... DIRECT SELECT * FROM TABLE(列 类型 = ?, ...), 每列以一个数组参数绑定,
+ * 服务端逐行读出后直接插入, 不缓冲查询结果, 也没有逐行的参数绑定和语句执行; 累计到 tuner 的提交行数后提交.
+ * 日期时间以文本传入, 与 {@link TemporalCodec} 的文本绑定相同, 不经过 JVM 时区; TIME 是当天的时刻, 不做时区换算.
+ * 没有关闭 undo log (SET UNDO_LOG 0): 默认的 MVStore 引擎忽略该设置, PageStore 关闭后 abort 无法回滚, 已提交行数不再准确
+ */
+public class H2DirectPageSink implements CommitAwarePageSink {
+    private final Connection connection;
+    private final PreparedStatement statement;
+    private final ValueReader[] readers;
+    private final AdaptiveTuner tuner;
+    private final TableMetrics metrics;
+    private long uncommittedRows;
+    private long uncommittedNanos;
+    private long committedRows;
+
+    public H2DirectPageSink(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, Connection connection, AdaptiveTuner tuner, TableMetrics metrics,
+                            TemporalCodec temporalCodec, Dialect dialect) {
+        this.connection = connection;
+        this.tuner = tuner;
+        this.metrics = metrics;
+        this.readers = columnHandles.stream()
+                .map(column -> createValueReader(column.getColumnType(), temporalCodec))
+                .toArray(ValueReader[]::new);
+        String sql = new StringBuilder()
+                .append("INSERT INTO ").append(dialect.quote(metaInfo.getTargetDb(), metaInfo.getTable()))
+                .append(" (").append(columnHandles.stream().map(column -> dialect.quote(column.getColumnName())).collect(joining(","))).append(")")
+                .append(" DIRECT SELECT * FROM TABLE(")
+                .append(columnHandles.stream()
+                        .map(column -> dialect.quote(column.getColumnName()) + " " + dialect.toSqlType(column.getColumnType()) + "=?")
+                        .collect(joining(", ")))
+                .append(")")
+                .toString();
+        try {
+            this.connection.setAutoCommit(false);
+            statement = this.connection.prepareStatement(sql);
+            System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " Executing: " + sql);
+        } catch (SQLException e) {
+            Utils.close(connection, null, null);
+            throw new RuntimeException("sql error ", e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<?> appendPage(Page page) {
+        int positions = page.getPositionCount();
+        if (positions == 0) {
+            return NOT_BLOCKED;
+        }
+        try {
+            for (int channel = 0; channel < readers.length; channel++) {
+                Block block = page.getBlock(channel);
+                Object[] values = new Object[positions];
+                for (int position = 0; position < positions; position++) {
+                    if (!block.isNull(position)) {
+                        values[position] = readers[channel].read(block, position);
+                    }
+                }
+                statement.setObject(channel + 1, values);
+            }
+            long start = System.nanoTime();
+            statement.executeUpdate();
+            long elapsed = System.nanoTime() - start;
+            metrics.batchExecuted(elapsed);
+            uncommittedNanos += elapsed;
+            uncommittedRows += positions;
+            if (uncommittedRows >= tuner.getCommitRows()) {
+                commit();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("sql error ", e);
+        }
+        return NOT_BLOCKED;
+    }
+
+    private void commit() throws SQLException {
+        long start = System.nanoTime();
+        CommitFailedException.commit(connection);
+        long elapsed = System.nanoTime() - start;
+        metrics.committed(elapsed);
+        tuner.batchCommitted(toIntExact(uncommittedRows), uncommittedNanos + elapsed);
+        committedRows += uncommittedRows;
+        uncommittedRows = 0;
+        uncommittedNanos = 0;
+    }
+
+    @Override
+    public CompletableFuture<Collection<Slice>> finish() {
+        try (Connection connection = this.connection;
+             PreparedStatement statement = this.statement) {
+            if (uncommittedRows > 0) {
+                commit();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("sql error ", e);
+        }
+        return completedFuture(ImmutableList.of());
+    }
+
+    @Override
+    public long getCommittedRows() {
+        return committedRows;
+    }
+
+    @Override
+    public void abort() {
+        try (Connection connection = this.connection;
+             PreparedStatement statement = this.statement) {
+            connection.rollback();
+        } catch (SQLException e) {
+            throw new RuntimeException("sql error ", e);
+        }
+    }
+
+    /**
+     * 把一个非 NULL 的单元格转成数组参数中的元素, H2 按 TABLE 中声明的列类型转换
+     */
+    private interface ValueReader {
+        Object read(Block block, int position);
+    }
+
+    private static ValueReader createValueReader(Type type, TemporalCodec temporalCodec) {
+        if (BOOLEAN.equals(type)) {
+            return (block, position) -> type.getBoolean(block, position);
+        }
+        if (BIGINT.equals(type) || INTEGER.equals(type) || SMALLINT.equals(type) || TINYINT.equals(type)) {
+            return (block, position) -> type.getLong(block, position);
+        }
+        if (DOUBLE.equals(type)) {
+            return (block, position) -> type.getDouble(block, position);
+        }
+        if (REAL.equals(type)) {
+            return (block, position) -> intBitsToFloat(toIntExact(type.getLong(block, position)));
+        }
+        if (type instanceof DecimalType) {
+            DecimalType decimalType = (DecimalType) type;
+            if (decimalType.isShort()) {
+                return (block, position) -> DecimalCodec.toBigDecimal(type.getLong(block, position), decimalType.getScale());
+            }
+            return (block, position) -> readBigDecimal(decimalType, block, position);
+        }
+        if (isVarcharType(type) || isCharType(type)) {
+            return (block, position) -> type.getSlice(block, position).toStringUtf8();
+        }
+        if (VARBINARY.equals(type)) {
+            return (block, position) -> type.getSlice(block, position).getBytes();
+        }
+        if (DATE.equals(type)) {
+            return (block, position) -> TemporalCodec.formatDate(type.getLong(block, position));
+        }
+        if (TIME.equals(type)) {
+            return (block, position) -> TemporalCodec.formatTime(type.getLong(block, position));
+        }
+        if (type instanceof TimestampType) {
+            return (block, position) -> TemporalCodec.formatTimestamp(temporalCodec.shift(type.getLong(block, position)));
+        }
+        throw new PrestoException(NOT_SUPPORTED, "Unsupported column type: " + type.getDisplayName());
+    }
+}
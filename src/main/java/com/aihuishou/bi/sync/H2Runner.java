@@ -2,26 +2,63 @@ package com.aihuishou.bi.sync;
 
 import com.facebook.presto.spi.Page;
 import com.aihuishou.bi.utils.Utils;
+import com.google.common.collect.ImmutableList;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
 
 
 public class H2Runner extends Thread {
-    private BlockingQueue<Page> queue;
+    private DataSource targetDataSource;
+    private MetaInfo metaInfo;
+    private List<JdbcColumnHandle> columnHandles;
+    private PageSinkFactory pageSinkFactory;
+    private PageBuffer buffer;
+    private AdaptiveTuner tuner;
     private Connection connection;
-    private JdbcPageSink jdbcPageSink;
+    private CommitAwarePageSink pageSink;
+    private TableProgress progress;
+    private SplitCheckpointer checkpointer;
+    private RetryPolicy retryPolicy;
+    private LoadGovernor governor;
+    private volatile Throwable failure;
 
-    public H2Runner(DataSource targetDataSource, MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, BlockingQueue<Page> queue) {
-        this.queue = queue;
+    // 已写入但还没提交的页, 连接出错时在新连接上重新写入其中未提交的部分; 提交后才释放它们在缓冲区的内存预留
+    private final Deque<PendingPage> pending = new ArrayDeque<>();
+    private long appendedRows;
+    private long committedBefore;
+
+    public H2Runner(DataSource targetDataSource, MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, PageSinkFactory pageSinkFactory, PageBuffer buffer, AdaptiveTuner tuner, TableProgress progress) {
+        this(targetDataSource, metaInfo, columnHandles, pageSinkFactory, buffer, tuner, progress, null, new RetryPolicy(0, 0), LoadGovernor.UNLIMITED);
+    }
+
+    /**
+     * @param checkpointer 不为空时, 页提交后记入断点
+     * @param retryPolicy 暂时性错误时换一个连接, 跳过已提交的行重新写入. commit 本身出错时这一批可能已经提交,
+     *                    只有 pageSinkFactory 提供了按主键覆盖的 {@link PageSinkFactory#getReplayFactory()} 时才重试, 之后本线程都用它写入
+     * @param governor 写入每页之前按行数和字节数限速, 与同一目标库上的其它写入线程共用
+     */
+    public H2Runner(DataSource targetDataSource, MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, PageSinkFactory pageSinkFactory, PageBuffer buffer, AdaptiveTuner tuner, TableProgress progress,
+                    SplitCheckpointer checkpointer, RetryPolicy retryPolicy, LoadGovernor governor) {
+        this.targetDataSource = targetDataSource;
+        this.metaInfo = metaInfo;
+        this.columnHandles = columnHandles;
+        this.pageSinkFactory = pageSinkFactory;
+        this.buffer = buffer;
+        this.tuner = tuner;
+        this.progress = progress;
+        this.checkpointer = checkpointer;
+        this.retryPolicy = retryPolicy;
+        this.governor = governor;
         try {
-            connection = targetDataSource.getConnection();
-            jdbcPageSink = new JdbcPageSink(metaInfo, columnHandles, connection);
-        } catch (SQLException e) {
+            openSink();
+        } catch (SQLException | RuntimeException e) {
             e.printStackTrace();
+            failure = e;
         }
     }
 
@@ -29,26 +66,157 @@ public class H2Runner extends Thread {
     public void run() {
         int proNum = 0;
         try {
-            Page page = null;
-            while (!Utils.fetchRunnerError && !queue.isEmpty()) {
-                page = queue.take();
-                if (page != null) {
-                    jdbcPageSink.appendPage(page);
-                    proNum += page.getPositionCount();
-                    System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " pull count: " + proNum);
-                }
+            if (failure != null) {
+                buffer.abort();
+                return;
+            }
+            Page page;
+            while ((page = buffer.poll()) != null) {
+                pending.addLast(new PendingPage(page, appendedRows));
+                appendedRows += page.getPositionCount();
+                governor.acquire(page.getPositionCount(), page.getSizeInBytes());
+                write(page, false);
+                acknowledge();
+                proNum += page.getPositionCount();
+                progress.addRows(page.getPositionCount());
             }
+            write(null, true);
+            acknowledge();
+            pageSink = null;
         } catch (Throwable e) {
             e.printStackTrace();
+            failure = e;
+            buffer.abort();
+            abortQuietly();
         } finally {
-            if (jdbcPageSink != null) {
-                jdbcPageSink.finish();
-            }
             Utils.close(connection, null, null);
             System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " final pull count: " + proNum);
         }
     }
 
+    /**
+     * 写入一页或者 finish, 暂时性错误时重新打开连接, 重写所有未提交的行后再执行
+     */
+    private void write(Page page, boolean finish) throws Exception {
+        int attempt = 0;
+        while (true) {
+            try {
+                if (attempt == 0) {
+                    if (page != null) {
+                        pageSink.appendPage(page);
+                    }
+                } else {
+                    openSink();
+                    replay();
+                }
+                if (finish) {
+                    pageSink.finish();
+                }
+                return;
+            } catch (SQLException | RuntimeException e) {
+                attempt++;
+                if (!retryPolicy.isRetryable(e, attempt)) {
+                    throw e;
+                }
+                if (CommitFailedException.isCause(e)) {
+                    if (!pageSinkFactory.getReplayFactory().isPresent()) {
+                        System.err.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " " + metaInfo.getTable()
+                                + " has no primary key, not retrying after a failed commit that may have been applied");
+                        throw e;
+                    }
+                    pageSinkFactory = pageSinkFactory.getReplayFactory().get();
+                }
+                System.err.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " write retry " + attempt + ", uncommitted rows: " + (appendedRows - getCommittedRows()) + ": " + e);
+                committedBefore = getCommittedRows();
+                closeSinkQuietly();
+                retryPolicy.backoff(attempt);
+            }
+        }
+    }
+
+    private void openSink() throws SQLException {
+        connection = targetDataSource.getConnection();
+        pageSink = pageSinkFactory.createPageSink(metaInfo, columnHandles, connection, tuner);
+    }
+
+    private void replay() {
+        for (PendingPage pendingPage : pending) {
+            int skip = (int) Math.max(0, committedBefore - pendingPage.start);
+            int count = pendingPage.page.getPositionCount();
+            if (skip < count) {
+                pageSink.appendPage(skip == 0 ? pendingPage.page : pendingPage.page.getRegion(skip, count - skip));
+            }
+        }
+    }
+
+    private long getCommittedRows() {
+        return committedBefore + (pageSink == null ? 0 : pageSink.getCommittedRows());
+    }
+
+    private void acknowledge() {
+        long committed = getCommittedRows();
+        ImmutableList.Builder<Page> committedPages = ImmutableList.builder();
+        while (!pending.isEmpty() && pending.peekFirst().start + pending.peekFirst().page.getPositionCount() <= committed) {
+            committedPages.add(pending.pollFirst().page);
+        }
+        List<Page> pages = committedPages.build();
+        if (pages.isEmpty()) {
+            return;
+        }
+        long rows = 0;
+        long bytes = 0;
+        for (Page page : pages) {
+            rows += page.getPositionCount();
+            bytes += page.getSizeInBytes();
+        }
+        buffer.getMetrics().pagesWritten(rows, bytes);
+        if (checkpointer != null) {
+            checkpointer.pagesCommitted(pages);
+        }
+        pages.forEach(buffer::release);
+    }
+
+    /**
+     * 放弃写入: 回滚未提交的数据, 释放未提交的页
+     */
+    private void abortQuietly() {
+        closeSinkQuietly();
+        for (PendingPage pendingPage : pending) {
+            buffer.release(pendingPage.page);
+        }
+        pending.clear();
+    }
+
+    /**
+     * 回滚并关闭当前的写入端和连接, 未提交的页保留, 重试时重写
+     */
+    private void closeSinkQuietly() {
+        if (pageSink != null) {
+            try {
+                pageSink.abort();
+            } catch (RuntimeException e) {
+                System.err.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " abort failed: " + e);
+            }
+            pageSink = null;
+        }
+        Utils.close(connection, null, null);
+        connection = null;
+    }
+
+    public Throwable getFailure() {
+        return failure;
+    }
+
     public void shutdown() {
     }
+
+    private static final class PendingPage {
+        private final Page page;
+        private final long start;
+
+        private PendingPage(Page page, long start) {
+            this.page = page;
+            this.start = start;
+        }
+    }
 }
@@ -0,0 +1,20 @@
+package com.aihuishou.bi.sync;
+
+import lombok.Data;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * sync.incremental 配置: 表名 -> 水位列, 未列出的表每次全量重建
+ */
+@Data
+public class IncrementalTables {
+    private String stateFile = "sync-watermarks.properties";
+    private Map<String, String> tables = new HashMap<>();
+
+    public Optional<String> getWatermarkColumn(String table) {
+        return Optional.ofNullable(tables.get(table));
+    }
+}
@@ -0,0 +1,68 @@
+package com.aihuishou.bi.sync;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.Optional;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * 源表上的一个二级索引, 列按索引中的顺序; 前缀长度只有 MySQL 的 information_schema.statistics 才有
+ */
+public final class IndexDefinition {
+    private final String name;
+    private final boolean unique;
+    private final String indexType;
+    private final List<String> columns;
+    private final List<Optional<Integer>> prefixLengths;
+
+    /**
+     * @param indexType BTREE/HASH/FULLTEXT/SPATIAL, 未知时为 BTREE
+     */
+    public IndexDefinition(String name, boolean unique, String indexType, List<String> columns, List<Optional<Integer>> prefixLengths) {
+        this.name = requireNonNull(name, "name is null");
+        this.unique = unique;
+        this.indexType = requireNonNull(indexType, "indexType is null");
+        this.columns = ImmutableList.copyOf(columns);
+        this.prefixLengths = ImmutableList.copyOf(prefixLengths);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isUnique() {
+        return unique;
+    }
+
+    public String getIndexType() {
+        return indexType;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public List<Optional<Integer>> getPrefixLengths() {
+        return prefixLengths;
+    }
+
+    /**
+     * InnoDB 一条 ALTER 只能新建一个全文索引, 这类索引单独建立
+     */
+    public boolean isFulltextOrSpatial() {
+        return indexType.equalsIgnoreCase("FULLTEXT") || indexType.equalsIgnoreCase("SPATIAL");
+    }
+
+    @Override
+    public String toString() {
+        return toStringHelper(this)
+                .add("name", name)
+                .add("unique", unique)
+                .add("indexType", indexType)
+                .add("columns", columns)
+                .toString();
+    }
+}
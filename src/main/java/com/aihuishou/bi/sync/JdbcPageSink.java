@@ -1,65 +1,64 @@
 package com.aihuishou.bi.sync;
 
-import com.facebook.presto.spi.ConnectorPageSink;
 import com.facebook.presto.spi.Page;
-import com.facebook.presto.spi.PrestoException;
 import com.facebook.presto.spi.block.Block;
-import com.facebook.presto.spi.type.DecimalType;
-import com.facebook.presto.spi.type.TimestampType;
 import com.facebook.presto.spi.type.Type;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
-import com.google.common.primitives.Shorts;
-import com.google.common.primitives.SignedBytes;
+import com.google.common.collect.ImmutableSet;
 import com.aihuishou.bi.utils.Utils;
 import io.airlift.slice.Slice;
-import org.joda.time.DateTimeZone;
 
 import java.sql.*;
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 
-import static com.facebook.presto.spi.StandardErrorCode.NOT_SUPPORTED;
-import static com.facebook.presto.spi.type.BigintType.BIGINT;
-import static com.facebook.presto.spi.type.BooleanType.BOOLEAN;
-import static com.facebook.presto.spi.type.Chars.isCharType;
-import static com.facebook.presto.spi.type.DateType.DATE;
-import static com.facebook.presto.spi.type.Decimals.readBigDecimal;
-import static com.facebook.presto.spi.type.DoubleType.DOUBLE;
-import static com.facebook.presto.spi.type.IntegerType.INTEGER;
-import static com.facebook.presto.spi.type.RealType.REAL;
-import static com.facebook.presto.spi.type.SmallintType.SMALLINT;
-import static com.facebook.presto.spi.type.TinyintType.TINYINT;
-import static com.facebook.presto.spi.type.VarbinaryType.VARBINARY;
-import static com.facebook.presto.spi.type.Varchars.isVarcharType;
-import static java.lang.Float.intBitsToFloat;
-import static java.lang.Math.toIntExact;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static java.util.Collections.nCopies;
+import static java.util.Locale.ENGLISH;
 import static java.util.concurrent.CompletableFuture.completedFuture;
-import static java.util.concurrent.TimeUnit.DAYS;
-import static org.joda.time.chrono.ISOChronology.getInstanceUTC;
 
-public class JdbcPageSink implements ConnectorPageSink {
+public class JdbcPageSink implements CommitAwarePageSink {
     private Connection connection;
     private PreparedStatement statement;
-    private List<Type> columnTypes;
+    private ColumnBinder[] binders;
     private List<JdbcColumnHandle> columnHandles;
     private MetaInfo metaInfo;
+    private AdaptiveTuner tuner;
+    private List<String> upsertKey;
     private int batchSize;
+    private long committedRows;
+    private TableMetrics metrics;
 
-    public JdbcPageSink(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, Connection connection) {
+    /**
+     * @param upsertKey 非空时按这些列做 upsert, 语句由目标库的 {@link Dialect#buildUpsertSql} 生成
+     * @param metrics 每批 executeBatch 和 commit 的耗时分别记入该表的指标
+     * @param temporalCodec DATE/TIMESTAMP 从源库时区换算到目标库时区, 按目标库决定以文本还是 Timestamp 绑定
+     */
+    public JdbcPageSink(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, Connection connection, AdaptiveTuner tuner, List<String> upsertKey, TableMetrics metrics,
+                        TemporalCodec temporalCodec) {
+        this(metaInfo, columnHandles, connection, tuner, upsertKey, metrics, temporalCodec, null);
+    }
+
+    /**
+     * @param utf8mb4Columns 目标表中 utf8mb4 的列, 即 {@link #findUtf8mb4Columns} 的结果, 同一个表的多个写入端共用; 为 null 时在本连接上查询
+     */
+    public JdbcPageSink(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, Connection connection, AdaptiveTuner tuner, List<String> upsertKey, TableMetrics metrics,
+                        TemporalCodec temporalCodec, Set<String> utf8mb4Columns) {
         this.connection = connection;
+        this.tuner = tuner;
+        this.metrics = metrics;
+        this.upsertKey = ImmutableList.copyOf(upsertKey);
         this.metaInfo = metaInfo;
         this.columnHandles = columnHandles;
-        ImmutableList.Builder<Type> types = ImmutableList.builder();
-        for (JdbcColumnHandle column : columnHandles) {
-            types.add(column.getColumnType());
-        }
-        this.columnTypes = types.build();
         try {
+            this.binders = createColumnBinders(columnHandles, utf8mb4Columns != null ? utf8mb4Columns : findUtf8mb4Columns(connection, metaInfo),
+                    temporalCodec.forTarget(connection));
             this.connection.setAutoCommit(false);
-            statement = this.connection.prepareStatement(buildInsertSql());
+            Dialect dialect = Dialect.forConnection(connection);
+            statement = this.connection.prepareStatement(upsertKey.isEmpty() ? buildInsertSql(dialect) : buildUpsertSql(dialect));
             System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " Executing: " + statement.toString());
         } catch (SQLException e) {
             closeWithSuppression(connection, e);
@@ -78,28 +77,79 @@ public class JdbcPageSink implements ConnectorPageSink {
         }
     }
 
-    public String buildInsertSql() {
-        String vars = Joiner.on(',').join(nCopies(columnTypes.size(), "?"));
+    /**
+     * utf8mb4Columns 中的字符列按原始 UTF-8 字节绑定, 见 {@link ColumnBinders#createColumnBinder(Type, boolean, TemporalCodec)}, 其余列按 String 绑定
+     * @param targetCodec 已按目标库确定绑定方式, 即 {@link TemporalCodec#forTarget(Connection)} 的结果
+     */
+    static ColumnBinder[] createColumnBinders(List<JdbcColumnHandle> columnHandles, Set<String> utf8mb4Columns, TemporalCodec targetCodec) {
+        ColumnBinder[] columnBinders = new ColumnBinder[columnHandles.size()];
+        for (int i = 0; i < columnBinders.length; i++) {
+            boolean rawUtf8 = utf8mb4Columns.contains(columnHandles.get(i).getColumnName().toLowerCase(ENGLISH));
+            columnBinders[i] = ColumnBinders.createColumnBinder(columnHandles.get(i).getColumnType(), rawUtf8, targetCodec);
+        }
+        return columnBinders;
+    }
+
+    /**
+     * 目标为 MySQL 时返回目标表中字符集为 utf8mb4 的列名 (小写). H2 等目标返回空集, 仍按 String 绑定 (H2 会把 setBytes 的参数转成十六进制文本)
+     */
+    public static Set<String> findUtf8mb4Columns(Connection connection, MetaInfo metaInfo) throws SQLException {
+        if (!"MySQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName())) {
+            return ImmutableSet.of();
+        }
+        ImmutableSet.Builder<String> columns = ImmutableSet.builder();
+        try (PreparedStatement query = connection.prepareStatement(
+                "SELECT column_name FROM information_schema.columns WHERE table_schema = ? AND table_name = ? AND character_set_name = 'utf8mb4'")) {
+            query.setString(1, metaInfo.getTargetDb());
+            query.setString(2, metaInfo.getTable());
+            try (ResultSet resultSet = query.executeQuery()) {
+                while (resultSet.next()) {
+                    columns.add(resultSet.getString(1).toLowerCase(ENGLISH));
+                }
+            }
+        }
+        return columns.build();
+    }
+
+    public String buildInsertSql(Dialect dialect) {
+        String vars = Joiner.on(',').join(nCopies(columnHandles.size(), "?"));
         return new StringBuilder()
                 .append("INSERT INTO ")
-                .append(Utils.quoted(metaInfo.getTargetDb(), metaInfo.getTable(), Utils.mysql_identifierQuote))
+                .append(dialect.quote(metaInfo.getTargetDb(), metaInfo.getTable()))
                 .append(" VALUES (").append(vars).append(")")
                 .toString();
     }
 
+    private String buildUpsertSql(Dialect dialect) {
+        List<String> columns = columnHandles.stream()
+                .map(column -> dialect.quote(column.getColumnName()))
+                .collect(toImmutableList());
+        List<String> keys = upsertKey.stream()
+                .map(dialect::quote)
+                .collect(toImmutableList());
+        return dialect.buildUpsertSql(dialect.quote(metaInfo.getTargetDb(), metaInfo.getTable()), columns, keys);
+    }
+
     @Override
     public CompletableFuture<?> appendPage(Page page) {
         try {
+            Block[] blocks = new Block[page.getChannelCount()];
+            for (int channel = 0; channel < blocks.length; channel++) {
+                blocks[channel] = page.getBlock(channel);
+            }
             for (int position = 0; position < page.getPositionCount(); position++) {
-                for (int channel = 0; channel < page.getChannelCount(); channel++) {
-                    appendColumn(page, position, channel);
+                for (int channel = 0; channel < blocks.length; channel++) {
+                    if (blocks[channel].isNull(position)) {
+                        statement.setObject(channel + 1, null);
+                    } else {
+                        binders[channel].bind(statement, channel + 1, blocks[channel], position);
+                    }
                 }
                 statement.addBatch();
                 batchSize++;
-                if (batchSize >= 1000) {
-                    statement.executeBatch();
-                    connection.commit();
-                    connection.setAutoCommit(false);
+                if (batchSize >= tuner.getCommitRows()) {
+                    tuner.batchCommitted(batchSize, commitBatch());
+                    committedRows += batchSize;
                     batchSize = 0;
                 }
             }
@@ -109,44 +159,18 @@ public class JdbcPageSink implements ConnectorPageSink {
         return NOT_BLOCKED;
     }
 
-    private void appendColumn(Page page, int position, int channel) throws SQLException {
-        Block block = page.getBlock(channel);
-        int parameter = channel + 1;
-
-        if (block.isNull(position)) {
-            statement.setObject(parameter, null);
-            return;
-        }
-        Type type = columnTypes.get(channel);
-        if (BOOLEAN.equals(type)) {
-            statement.setBoolean(parameter, type.getBoolean(block, position));
-        } else if (BIGINT.equals(type)) {
-            statement.setLong(parameter, type.getLong(block, position));
-        } else if (INTEGER.equals(type)) {
-            statement.setInt(parameter, toIntExact(type.getLong(block, position)));
-        } else if (SMALLINT.equals(type)) {
-            statement.setShort(parameter, Shorts.checkedCast(type.getLong(block, position)));
-        } else if (TINYINT.equals(type)) {
-            statement.setByte(parameter, SignedBytes.checkedCast(type.getLong(block, position)));
-        } else if (DOUBLE.equals(type)) {
-            statement.setDouble(parameter, type.getDouble(block, position));
-        } else if (REAL.equals(type)) {
-            statement.setFloat(parameter, intBitsToFloat(toIntExact(type.getLong(block, position))));
-        } else if (type instanceof DecimalType) {
-            statement.setBigDecimal(parameter, readBigDecimal((DecimalType) type, block, position));
-        } else if (isVarcharType(type) || isCharType(type)) {
-            statement.setString(parameter, type.getSlice(block, position).toStringUtf8());
-        } else if (VARBINARY.equals(type)) {
-            statement.setBytes(parameter, type.getSlice(block, position).getBytes());
-        } else if (DATE.equals(type)) {
-            long utcMillis = DAYS.toMillis(type.getLong(block, position));
-            long localMillis = getInstanceUTC().getZone().getMillisKeepLocal(DateTimeZone.getDefault(), utcMillis);
-            statement.setDate(parameter, new Date(localMillis));
-        } else if (type instanceof TimestampType) {
-            statement.setTimestamp(parameter, new Timestamp(type.getLong(block, position)));
-        } else {
-            throw new PrestoException(NOT_SUPPORTED, "Unsupported column type: " + type.getDisplayName());
-        }
+    /**
+     * @return executeBatch 加 commit 的总耗时
+     */
+    private long commitBatch() throws SQLException {
+        long start = System.nanoTime();
+        statement.executeBatch();
+        long executed = System.nanoTime();
+        CommitFailedException.commit(connection);
+        long end = System.nanoTime();
+        metrics.batchExecuted(executed - start);
+        metrics.committed(end - executed);
+        return end - start;
     }
 
     @Override
@@ -154,8 +178,9 @@ public class JdbcPageSink implements ConnectorPageSink {
         try (Connection connection = this.connection;
              PreparedStatement statement = this.statement) {
             if (batchSize > 0) {
-                statement.executeBatch();
-                connection.commit();
+                commitBatch();
+                committedRows += batchSize;
+                batchSize = 0;
             }
         } catch (SQLNonTransientException e) {
             throw new RuntimeException("non trans error ", e);
@@ -165,6 +190,11 @@ public class JdbcPageSink implements ConnectorPageSink {
         return completedFuture(ImmutableList.of());
     }
 
+    @Override
+    public long getCommittedRows() {
+        return committedRows;
+    }
+
     @SuppressWarnings("unused")
     @Override
     public void abort() {
@@ -0,0 +1,270 @@
+package com.aihuishou.bi.sync;
+
+import com.aihuishou.bi.utils.Utils;
+import com.facebook.presto.spi.ConnectorPageSource;
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.PageBuilder;
+import com.facebook.presto.spi.block.BlockBuilder;
+import com.facebook.presto.spi.type.Type;
+import com.google.common.base.VerifyException;
+import com.google.common.collect.ImmutableList;
+import io.airlift.slice.Slice;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Set;
+
+import static java.lang.String.format;
+import static java.util.Locale.ENGLISH;
+
+/**
+ * 按列直接构建 Page 的读取端: 每行每列只读取一次, 用 wasNull() 判断空值, 按类型直接写入 BlockBuilder,
+ * 不经过 RecordCursor 的 isNull/getXxx 虚调用和 getObject 装箱
+ */
+public class JdbcPageSource implements ConnectorPageSource {
+    private final static Logger logger = LoggerFactory.getLogger(JdbcPageSource.class);
+
+    private static final int ROWS_PER_REQUEST = 4096;
+
+    private final ColumnWriter[] columnWriters;
+    private final PageBuilder pageBuilder;
+    private final MetaInfo metaInfo;
+    private final JdbcSplit split;
+    private final AdaptiveTuner tuner;
+    private int fetchSize;
+    private Connection connection;
+    private PreparedStatement statement;
+    private ResultSet resultSet;
+    private long readTimeNanos;
+    private long completedBytes;
+    private boolean finished;
+    private boolean closed;
+
+    public JdbcPageSource(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, JdbcSplit split, Connection connection, AdaptiveTuner tuner) {
+        this(metaInfo, columnHandles, getReadMappingsOrClose(connection, metaInfo, columnHandles), split, connection, tuner, "");
+    }
+
+    /**
+     * @param readMappings 每列的读取方式, 由 {@link #getReadMappings} 按表确定一次, 同一个表的所有分片和分段共用
+     * @param suffix 追加在 WHERE 之后, 按主键分段读取时为 ORDER BY/LIMIT
+     */
+    public JdbcPageSource(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, List<ReadMapping> readMappings, JdbcSplit split, Connection connection,
+                          AdaptiveTuner tuner, String suffix) {
+        this.metaInfo = metaInfo;
+        this.split = split;
+        this.tuner = tuner;
+        try {
+            this.connection = connection;
+            ImmutableList.Builder<Type> types = ImmutableList.builder();
+            columnWriters = new ColumnWriter[readMappings.size()];
+            for (int i = 0; i < readMappings.size(); i++) {
+                types.add(readMappings.get(i).getType());
+                columnWriters[i] = createColumnWriter(readMappings.get(i));
+            }
+            pageBuilder = new PageBuilder(types.build());
+            this.connection.setAutoCommit(false);
+            Dialect dialect = Dialect.forConnection(connection);
+            // 带库名, 连接池的默认库不一定是要读取的库
+            statement = new QueryBuilder(dialect.getIdentifierQuote()).buildSql(
+                    connection,
+                    null,
+                    dialect.normalize(metaInfo.getMysqlDb()),
+                    dialect.normalize(metaInfo.getTable()),
+                    columnHandles,
+                    split,
+                    suffix);
+            fetchSize = tuner.getFetchSize();
+            statement.setFetchSize(fetchSize);
+            System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " Executing: " + statement.toString());
+            long start = System.nanoTime();
+            resultSet = statement.executeQuery();
+            readTimeNanos += System.nanoTime() - start;
+        } catch (SQLException | RuntimeException e) {
+            throw handleSqlException(e);
+        }
+    }
+
+    /**
+     * 按源库连接的字符集和表中各列的字符集确定每列的读取方式, 需要查询 character_set_results 和 information_schema.columns,
+     * 同一个连接池的结果对同一个表总是相同
+     */
+    public static List<ReadMapping> getReadMappings(Connection connection, MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles) throws SQLException {
+        ReadOptions readOptions = ReadOptions.forConnection(connection);
+        Set<String> utf8Columns = readOptions.findUtf8Columns(connection, metaInfo.getMysqlDb(), metaInfo.getTable());
+        ImmutableList.Builder<ReadMapping> readMappings = ImmutableList.builder();
+        for (JdbcColumnHandle columnHandle : columnHandles) {
+            ReadOptions columnOptions = utf8Columns.contains(columnHandle.getColumnName().toLowerCase(ENGLISH)) ? readOptions.withRawUtf8() : readOptions;
+            readMappings.add(StandardReadMappings.jdbcTypeToPrestoType(columnHandle.getJdbcTypeHandle(), columnOptions)
+                    .orElseThrow(() -> new VerifyException("Unsupported column type, column info " + columnHandle)));
+        }
+        return readMappings.build();
+    }
+
+    private static List<ReadMapping> getReadMappingsOrClose(Connection connection, MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles) {
+        try {
+            return getReadMappings(connection, metaInfo, columnHandles);
+        } catch (SQLException | RuntimeException e) {
+            Utils.close(connection, null, null);
+            throw new RuntimeException("jdbc error, table: " + metaInfo.getTable(), e);
+        }
+    }
+
+    private static ColumnWriter createColumnWriter(ReadMapping readMapping) {
+        Type type = readMapping.getType();
+        ReadFunction readFunction = readMapping.getReadFunction();
+        Class<?> javaType = type.getJavaType();
+        if (javaType == boolean.class) {
+            BooleanReadFunction booleanReadFunction = (BooleanReadFunction) readFunction;
+            return (resultSet, columnIndex, output) -> {
+                boolean value = booleanReadFunction.readBoolean(resultSet, columnIndex);
+                if (resultSet.wasNull()) {
+                    output.appendNull();
+                } else {
+                    type.writeBoolean(output, value);
+                }
+            };
+        }
+        if (javaType == long.class) {
+            LongReadFunction longReadFunction = (LongReadFunction) readFunction;
+            return (resultSet, columnIndex, output) -> {
+                long value = longReadFunction.readLong(resultSet, columnIndex);
+                if (resultSet.wasNull()) {
+                    output.appendNull();
+                } else {
+                    type.writeLong(output, value);
+                }
+            };
+        }
+        if (javaType == double.class) {
+            DoubleReadFunction doubleReadFunction = (DoubleReadFunction) readFunction;
+            return (resultSet, columnIndex, output) -> {
+                double value = doubleReadFunction.readDouble(resultSet, columnIndex);
+                if (resultSet.wasNull()) {
+                    output.appendNull();
+                } else {
+                    type.writeDouble(output, value);
+                }
+            };
+        }
+        if (javaType == Slice.class) {
+            SliceReadFunction sliceReadFunction = (SliceReadFunction) readFunction;
+            return (resultSet, columnIndex, output) -> {
+                Slice value = sliceReadFunction.readSlice(resultSet, columnIndex);
+                if (resultSet.wasNull()) {
+                    output.appendNull();
+                } else {
+                    type.writeSlice(output, value);
+                }
+            };
+        }
+        throw new IllegalStateException(format("Unsupported java type %s", javaType));
+    }
+
+    @Override
+    public long getCompletedBytes() {
+        return completedBytes;
+    }
+
+    @Override
+    public long getReadTimeNanos() {
+        return readTimeNanos;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public Page getNextPage() {
+        if (finished) {
+            return null;
+        }
+        long start = System.nanoTime();
+        int rows = 0;
+        try {
+            for (; rows < ROWS_PER_REQUEST && !pageBuilder.isFull(); rows++) {
+                if (!resultSet.next()) {
+                    finished = true;
+                    break;
+                }
+                pageBuilder.declarePosition();
+                for (int channel = 0; channel < columnWriters.length; channel++) {
+                    columnWriters[channel].write(resultSet, channel + 1, pageBuilder.getBlockBuilder(channel));
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            throw handleSqlException(e);
+        }
+        long elapsed = System.nanoTime() - start;
+        readTimeNanos += elapsed;
+
+        if (pageBuilder.isEmpty()) {
+            return null;
+        }
+        Page page = pageBuilder.build();
+        pageBuilder.reset();
+        completedBytes += page.getSizeInBytes();
+        tuner.pageRead(rows, page.getSizeInBytes(), elapsed);
+        adjustFetchSize();
+        return page;
+    }
+
+    /**
+     * 游标方式读取时 fetch size 决定每次往返取回的行数, 对后续的往返生效
+     */
+    private void adjustFetchSize() {
+        int next = tuner.getFetchSize();
+        if (next == fetchSize || finished) {
+            return;
+        }
+        try {
+            resultSet.setFetchSize(next);
+            fetchSize = next;
+        } catch (SQLException | RuntimeException e) {
+            throw handleSqlException(e);
+        }
+    }
+
+    @Override
+    public long getSystemMemoryUsage() {
+        return pageBuilder.getRetainedSizeInBytes();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        finished = true;
+        try (Connection connection = this.connection;
+             Statement statement = this.statement;
+             ResultSet resultSet = this.resultSet) {
+            // 由 try-with-resources 依次关闭
+        } catch (SQLException e) {
+            logger.error("", e);
+        }
+    }
+
+    private RuntimeException handleSqlException(Exception e) {
+        try {
+            close();
+        } catch (Exception closeException) {
+            if (e != closeException) {
+                e.addSuppressed(closeException);
+            }
+        }
+        return new RuntimeException("jdbc error, table: " + metaInfo.getTable() + ", split: " + split, e);
+    }
+
+    private interface ColumnWriter {
+        void write(ResultSet resultSet, int columnIndex, BlockBuilder output) throws SQLException;
+    }
+}
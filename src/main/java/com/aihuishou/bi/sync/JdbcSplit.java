@@ -0,0 +1,38 @@
+package com.aihuishou.bi.sync;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * 表的一个读取分片, 各区间之间为 AND 关系, 没有区间表示整表
+ */
+public final class JdbcSplit {
+    private final List<KeyRange> ranges;
+
+    public JdbcSplit(List<KeyRange> ranges) {
+        this.ranges = ImmutableList.copyOf(requireNonNull(ranges, "ranges is null"));
+    }
+
+    public static JdbcSplit fullTable() {
+        return new JdbcSplit(ImmutableList.of());
+    }
+
+    public List<KeyRange> getRanges() {
+        return ranges;
+    }
+
+    public JdbcSplit withRange(KeyRange range) {
+        return new JdbcSplit(ImmutableList.<KeyRange>builder().addAll(ranges).add(range).build());
+    }
+
+    @Override
+    public String toString() {
+        return toStringHelper(this)
+                .add("ranges", ranges)
+                .toString();
+    }
+}
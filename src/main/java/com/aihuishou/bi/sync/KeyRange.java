@@ -0,0 +1,93 @@
+package com.aihuishou.bi.sync;
+
+import java.util.Objects;
+import java.util.Optional;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * 单列上的区间谓词, 边界值使用 Presto 的 long 表示 (整数本身, DATE 为天数, TIMESTAMP 为本地时间按 UTC 计的毫秒数)
+ */
+public final class KeyRange {
+    private final JdbcColumnHandle column;
+    private final Optional<Long> low;
+    private final boolean lowInclusive;
+    private final Optional<Long> high;
+    private final boolean highInclusive;
+    private final boolean includeNulls;
+
+    public KeyRange(JdbcColumnHandle column, Optional<Long> low, boolean lowInclusive, Optional<Long> high, boolean highInclusive, boolean includeNulls) {
+        this.column = requireNonNull(column, "column is null");
+        this.low = requireNonNull(low, "low is null");
+        this.lowInclusive = lowInclusive;
+        this.high = requireNonNull(high, "high is null");
+        this.highInclusive = highInclusive;
+        this.includeNulls = includeNulls;
+    }
+
+    /**
+     * [low, high), 边界为空表示无界
+     */
+    public static KeyRange range(JdbcColumnHandle column, Optional<Long> low, Optional<Long> high, boolean includeNulls) {
+        return new KeyRange(column, low, true, high, false, includeNulls);
+    }
+
+    public JdbcColumnHandle getColumn() {
+        return column;
+    }
+
+    public Optional<Long> getLow() {
+        return low;
+    }
+
+    public boolean isLowInclusive() {
+        return lowInclusive;
+    }
+
+    public Optional<Long> getHigh() {
+        return high;
+    }
+
+    public boolean isHighInclusive() {
+        return highInclusive;
+    }
+
+    public boolean isIncludeNulls() {
+        return includeNulls;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        KeyRange that = (KeyRange) o;
+        return lowInclusive == that.lowInclusive &&
+                highInclusive == that.highInclusive &&
+                includeNulls == that.includeNulls &&
+                Objects.equals(column, that.column) &&
+                Objects.equals(low, that.low) &&
+                Objects.equals(high, that.high);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(column, low, lowInclusive, high, highInclusive, includeNulls);
+    }
+
+    @Override
+    public String toString() {
+        return toStringHelper(this)
+                .add("column", column.getColumnName())
+                .add("low", low.orElse(null))
+                .add("lowInclusive", lowInclusive)
+                .add("high", high.orElse(null))
+                .add("highInclusive", highInclusive)
+                .add("includeNulls", includeNulls)
+                .toString();
+    }
+}
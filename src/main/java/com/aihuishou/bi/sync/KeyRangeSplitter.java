@@ -0,0 +1,174 @@
+package com.aihuishou.bi.sync;
+
+import com.aihuishou.bi.utils.Utils;
+import com.facebook.presto.spi.type.Type;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.DateType.DATE;
+import static com.facebook.presto.spi.type.IntegerType.INTEGER;
+import static com.facebook.presto.spi.type.SmallintType.SMALLINT;
+import static com.facebook.presto.spi.type.TimestampType.TIMESTAMP;
+import static com.facebook.presto.spi.type.TinyintType.TINYINT;
+import static com.aihuishou.bi.utils.Utils.mysql_identifierQuote;
+import static com.aihuishou.bi.utils.Utils.quoted;
+
+/**
+ * 按主键或其它索引的整数/日期列把表切成多个区间, 每个区间由一个 FetchRunner 读取.
+ * 区间边界按 MIN/MAX 等宽切分, 首尾区间不设边界, 以包含拷贝期间新写入的数据
+ */
+public class KeyRangeSplitter {
+    private static final Set<Type> SPLITTABLE_TYPES = ImmutableSet.of(BIGINT, INTEGER, SMALLINT, TINYINT, DATE, TIMESTAMP);
+
+    private final MetaInfo metaInfo;
+    private final List<JdbcColumnHandle> columnHandles;
+
+    public KeyRangeSplitter(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles) {
+        this.metaInfo = metaInfo;
+        this.columnHandles = columnHandles;
+    }
+
+    /**
+     * 读取元数据或 MIN/MAX 失败时抛出, 不退回单个区间: 大表退回单线程读取会悄悄慢很多倍
+     */
+    public List<JdbcSplit> getSplits(DataSource dataSource, int splitCount) throws SQLException {
+        if (splitCount <= 1) {
+            return ImmutableList.of(JdbcSplit.fullTable());
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            Map<String, Boolean> candidates = getCandidateColumns(connection.getMetaData());
+            for (Map.Entry<String, Boolean> candidate : candidates.entrySet()) {
+                Optional<JdbcColumnHandle> column = getColumnHandle(candidate.getKey());
+                if (column.isPresent() && SPLITTABLE_TYPES.contains(column.get().getColumnType())) {
+                    // 非主键的索引列可能为 NULL, 放到第一个区间里读取
+                    return split(connection, column.get(), splitCount, !candidate.getValue());
+                }
+            }
+            System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " no splittable key, table: " + metaInfo.getTable());
+        }
+        return ImmutableList.of(JdbcSplit.fullTable());
+    }
+
+    /**
+     * 增量拷贝的水位列同样只支持整数/日期/时间戳, 边界值可以用 long 表示
+     */
+    public static boolean isRangeType(Type type) {
+        return SPLITTABLE_TYPES.contains(type);
+    }
+
+    /**
+     * @return 列的当前最大值, 表为空或者全为 NULL 时为空
+     */
+    public Optional<Long> getMax(DataSource dataSource, JdbcColumnHandle column) throws SQLException {
+        String sql = new StringBuilder()
+                .append("SELECT MAX(").append(quoted(column.getColumnName(), mysql_identifierQuote)).append(") FROM ")
+                .append(getQuotedTable())
+                .toString();
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            if (!resultSet.next() || resultSet.getObject(1) == null) {
+                return Optional.empty();
+            }
+            return Optional.of(getReadFunction(column).readLong(resultSet, 1));
+        }
+    }
+
+    /**
+     * @return 候选列名 -> 是否主键, 主键在前, 其次是其它索引的第一列
+     */
+    private Map<String, Boolean> getCandidateColumns(DatabaseMetaData metadata) throws SQLException {
+        Map<String, Boolean> candidates = new LinkedHashMap<>();
+        try (ResultSet resultSet = M2H2SchemaConverter.getPrimaryKeys(metadata, metaInfo.getMysqlDb(), metaInfo.getTable())) {
+            while (resultSet.next()) {
+                if (resultSet.getShort("KEY_SEQ") == 1) {
+                    candidates.put(resultSet.getString("COLUMN_NAME"), true);
+                }
+            }
+        }
+        try (ResultSet resultSet = M2H2SchemaConverter.getIndexInfo(metadata, metaInfo.getMysqlDb(), metaInfo.getTable())) {
+            while (resultSet.next()) {
+                String columnName = resultSet.getString("COLUMN_NAME");
+                if (resultSet.getShort("ORDINAL_POSITION") == 1 && columnName != null) {
+                    candidates.putIfAbsent(columnName, false);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * 带库名, 连接池的默认库不一定是要拷贝的库
+     */
+    private String getQuotedTable() {
+        return quoted(metaInfo.getMysqlDb(), mysql_identifierQuote) + "." + quoted(metaInfo.getTable(), mysql_identifierQuote);
+    }
+
+    private Optional<JdbcColumnHandle> getColumnHandle(String columnName) {
+        return columnHandles.stream()
+                .filter(column -> column.getColumnName().equalsIgnoreCase(columnName))
+                .findFirst();
+    }
+
+    static LongReadFunction getReadFunction(JdbcColumnHandle column) {
+        return (LongReadFunction) StandardReadMappings.jdbcTypeToPrestoType(column.getJdbcTypeHandle())
+                .orElseThrow(() -> new IllegalStateException("Unsupported column type: " + column))
+                .getReadFunction();
+    }
+
+    private List<JdbcSplit> split(Connection connection, JdbcColumnHandle column, int splitCount, boolean nullable) throws SQLException {
+        String sql = new StringBuilder()
+                .append("SELECT MIN(").append(quoted(column.getColumnName(), mysql_identifierQuote)).append("), ")
+                .append("MAX(").append(quoted(column.getColumnName(), mysql_identifierQuote)).append(") FROM ")
+                .append(getQuotedTable())
+                .toString();
+        LongReadFunction readFunction = getReadFunction(column);
+        long min;
+        long max;
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            if (!resultSet.next() || resultSet.getObject(1) == null) {
+                return ImmutableList.of(JdbcSplit.fullTable());
+            }
+            min = readFunction.readLong(resultSet, 1);
+            max = readFunction.readLong(resultSet, 2);
+        }
+
+        // 用 double 计算步长, 避免 BIGINT 做减法溢出; 边界只需要近似均匀
+        double step = ((double) max - (double) min) / splitCount;
+        ImmutableList.Builder<Long> boundaries = ImmutableList.builder();
+        long previous = min;
+        for (int i = 1; i < splitCount; i++) {
+            long boundary = min + (long) (step * i);
+            if (boundary > previous) {
+                boundaries.add(boundary);
+                previous = boundary;
+            }
+        }
+
+        ImmutableList.Builder<JdbcSplit> splits = ImmutableList.builder();
+        Optional<Long> low = Optional.empty();
+        for (Long boundary : boundaries.build()) {
+            splits.add(new JdbcSplit(ImmutableList.of(KeyRange.range(column, low, Optional.of(boundary), nullable && !low.isPresent()))));
+            low = Optional.of(boundary);
+        }
+        splits.add(new JdbcSplit(ImmutableList.of(KeyRange.range(column, low, Optional.empty(), nullable && !low.isPresent()))));
+        List<JdbcSplit> result = splits.build();
+        System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " table " + metaInfo.getTable()
+                + " split on " + column.getColumnName() + " [" + min + ", " + max + "] into " + result.size() + " ranges");
+        return result;
+    }
+}
@@ -0,0 +1,273 @@
+package com.aihuishou.bi.sync;
+
+import com.aihuishou.bi.utils.Utils;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * 一个连接池 (源库或某个目标库) 上所有读取/写入线程共用的限速:
+ * 每读完或写入一页按行数和字节数从令牌桶取令牌, 速率上限由配置决定;
+ * 每隔 pollNanos 由单独的后台线程执行一次健康检查 (源库 Threads_running、目标库从库的复制延迟), 检查查询慢时不会阻塞读写线程,
+ * 超过阈值时把速率降到最近一个周期实际速率的一半, 恢复后每个周期放宽 25%, 直到配置的上限 (未配置上限时放宽到不再起作用后取消限速)
+ */
+public class LoadGovernor {
+    /**
+     * 不限速, 不做健康检查
+     */
+    public static final LoadGovernor UNLIMITED = new LoadGovernor("unlimited", 0, 0, ImmutableList.of(), 0);
+
+    private static final double BACKOFF = 0.5;
+    private static final double RECOVERY = 1.25;
+    /**
+     * 没有配置上限时, 限速放宽到实际速率的这个倍数以上说明已经不起作用, 取消限速
+     */
+    private static final double SLACK = 4;
+
+    private final String name;
+    private final Throttle rows;
+    private final Throttle bytes;
+    private final List<HealthCheck> checks;
+    private final Ticker ticker;
+    private long windowStartNanos;
+
+    /**
+     * @param maxRowsPerSecond 0 为不限
+     * @param maxBytesPerSecond 0 为不限
+     * @param checks 任意一项超过阈值即减速, 非空时启动检查线程, 随进程结束
+     */
+    public LoadGovernor(String name, double maxRowsPerSecond, double maxBytesPerSecond, List<HealthCheck> checks, long pollNanos) {
+        this(name, maxRowsPerSecond, maxBytesPerSecond, checks, pollNanos, Ticker.systemTicker());
+    }
+
+    /**
+     * @param pollNanos 为 0 时不启动检查线程, 由调用方执行 {@link #poll()}
+     * @param ticker 计算每个周期的实际速率
+     */
+    LoadGovernor(String name, double maxRowsPerSecond, double maxBytesPerSecond, List<HealthCheck> checks, long pollNanos, Ticker ticker) {
+        this.name = name;
+        this.rows = new Throttle("rows/s", maxRowsPerSecond, 100);
+        this.bytes = new Throttle("bytes/s", maxBytesPerSecond, 64 * 1024);
+        this.checks = ImmutableList.copyOf(checks);
+        this.ticker = ticker;
+        this.windowStartNanos = ticker.read();
+        if (!this.checks.isEmpty() && pollNanos > 0) {
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("governor-" + name).setDaemon(true).build())
+                    .scheduleWithFixedDelay(this::poll, pollNanos, pollNanos, NANOSECONDS);
+        }
+    }
+
+    /**
+     * 读完或写入一批数据后调用, 超过当前速率时阻塞; bytes 为 0 时只按行数限速
+     */
+    public void acquire(long rowCount, long byteCount) {
+        rows.acquire(rowCount);
+        bytes.acquire(byteCount);
+    }
+
+    public double getRowsPerSecond() {
+        return rows.rate;
+    }
+
+    public double getBytesPerSecond() {
+        return bytes.rate;
+    }
+
+    /**
+     * 执行一次健康检查并调整速率, 只在检查线程中执行
+     */
+    void poll() {
+        long now = ticker.read();
+        double seconds = Math.max(now - windowStartNanos, 1) / (double) SECONDS.toNanos(1);
+        windowStartNanos = now;
+        Optional<String> overload = Optional.empty();
+        for (HealthCheck check : checks) {
+            overload = check.check();
+            if (overload.isPresent()) {
+                break;
+            }
+        }
+        boolean changed;
+        if (overload.isPresent()) {
+            changed = rows.backOff(seconds) | bytes.backOff(seconds);
+        } else {
+            changed = rows.recover(seconds) | bytes.recover(seconds);
+        }
+        if (changed) {
+            System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " governor " + name
+                    + (overload.map(reason -> " back off, " + reason).orElse(" recover")) + ": " + rows + ", " + bytes);
+        }
+    }
+
+    /**
+     * 一个维度的令牌桶, 只由健康检查线程调整速率
+     */
+    private static final class Throttle {
+        private final String unit;
+        private final double max;
+        private final double min;
+        private final RateLimiter limiter;
+        private final AtomicLong window = new AtomicLong();
+        /**
+         * 当前速率, POSITIVE_INFINITY 为不限速
+         */
+        private volatile double rate;
+
+        private Throttle(String unit, double max, double min) {
+            this.unit = unit;
+            this.max = max;
+            this.min = min;
+            this.rate = max > 0 ? max : Double.POSITIVE_INFINITY;
+            this.limiter = RateLimiter.create(max > 0 ? max : min);
+        }
+
+        private void acquire(long amount) {
+            if (amount <= 0) {
+                return;
+            }
+            window.addAndGet(amount);
+            if (rate != Double.POSITIVE_INFINITY) {
+                limiter.acquire(Ints.saturatedCast(amount));
+            }
+        }
+
+        /**
+         * @return 速率是否改变
+         */
+        private boolean backOff(double seconds) {
+            double measured = window.getAndSet(0) / seconds;
+            double base = Math.min(rate, measured);
+            if (base <= 0) {
+                // 这个周期没有经过该维度的数据, 降速没有意义
+                return false;
+            }
+            double next = Math.max(min, base * BACKOFF);
+            if (next >= rate) {
+                return false;
+            }
+            setRate(next);
+            return true;
+        }
+
+        private boolean recover(double seconds) {
+            double measured = window.getAndSet(0) / seconds;
+            if (rate == Double.POSITIVE_INFINITY || rate == max) {
+                return false;
+            }
+            double next = rate * RECOVERY;
+            if (max > 0 && next >= max) {
+                next = max;
+            } else if (max <= 0 && measured > 0 && next >= measured * SLACK) {
+                next = Double.POSITIVE_INFINITY;
+            }
+            setRate(next);
+            return true;
+        }
+
+        private void setRate(double next) {
+            if (next != Double.POSITIVE_INFINITY) {
+                limiter.setRate(next);
+            }
+            rate = next;
+        }
+
+        @Override
+        public String toString() {
+            return rate == Double.POSITIVE_INFINITY ? "unlimited " + unit : String.format("%.0f %s", rate, unit);
+        }
+    }
+
+    /**
+     * 在连接池上执行一条 SHOW 语句, 取某一列的最大值与阈值比较.
+     * 查询失败时 (不是 MySQL、没有权限) 打印一次并不再检查, 连接类的暂时性错误只跳过这一次
+     */
+    public static final class HealthCheck {
+        private static final int QUERY_TIMEOUT_SECONDS = 10;
+
+        private final String name;
+        private final DataSource dataSource;
+        private final String sql;
+        private final String column;
+        private final long threshold;
+        private volatile boolean disabled;
+
+        public HealthCheck(String name, DataSource dataSource, String sql, String column, long threshold) {
+            this.name = name;
+            this.dataSource = dataSource;
+            this.sql = sql;
+            this.column = column;
+            this.threshold = threshold;
+        }
+
+        /**
+         * 源库当前正在执行的线程数
+         */
+        public static HealthCheck threadsRunning(DataSource dataSource, long max) {
+            return new HealthCheck("Threads_running", dataSource, "SHOW GLOBAL STATUS LIKE 'Threads_running'", "Value", max);
+        }
+
+        /**
+         * 从库落后主库的秒数, 多源复制时取最大的一个; 复制线程停止时 Seconds_Behind_Master 为 NULL, 不作判断
+         */
+        public static HealthCheck replicaLag(DataSource replica, long maxSeconds) {
+            return new HealthCheck("Seconds_Behind_Master", replica, "SHOW SLAVE STATUS", "Seconds_Behind_Master", maxSeconds);
+        }
+
+        /**
+         * @return 超过阈值时返回原因
+         */
+        Optional<String> check() {
+            if (disabled) {
+                return Optional.empty();
+            }
+            Optional<Long> value;
+            try {
+                value = read();
+            } catch (SQLException | RuntimeException e) {
+                if (!RetryPolicy.isTransient(e)) {
+                    disabled = true;
+                }
+                System.err.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " governor check " + name + " failed"
+                        + (disabled ? ", disabled" : "") + ": " + e);
+                return Optional.empty();
+            }
+            if (value.isPresent() && value.get() > threshold) {
+                return Optional.of(name + " " + value.get() + " > " + threshold);
+            }
+            return Optional.empty();
+        }
+
+        private Optional<Long> read() throws SQLException {
+            try (Connection connection = dataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.setQueryTimeout(QUERY_TIMEOUT_SECONDS);
+                try (ResultSet resultSet = statement.executeQuery(sql)) {
+                    Optional<Long> max = Optional.empty();
+                    while (resultSet.next()) {
+                        String value = resultSet.getString(column);
+                        if (value != null) {
+                            long parsed = Long.parseLong(value.trim());
+                            max = Optional.of(max.map(current -> Math.max(current, parsed)).orElse(parsed));
+                        }
+                    }
+                    return max;
+                }
+            }
+        }
+    }
+}
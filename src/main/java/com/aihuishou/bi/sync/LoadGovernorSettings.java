@@ -0,0 +1,77 @@
+package com.aihuishou.bi.sync;
+
+import com.aihuishou.bi.utils.Utils;
+import com.alibaba.druid.pool.DruidDataSource;
+import com.google.common.collect.ImmutableList;
+import lombok.Data;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * sync.governor 配置: 源库和各目标库的行数/字节数限速, 以及按源库负载和目标库复制延迟自动降速的阈值, 见 {@link LoadGovernor}.
+ * 所有项为 0 时不限速
+ */
+@Data
+public class LoadGovernorSettings {
+    private Limits source = new Limits();
+    /**
+     * 每个目标库各自的上限, 扇出时每个目标分别计算
+     */
+    private Limits target = new Limits();
+    /**
+     * 源库 Threads_running 超过该值时降速
+     */
+    private long maxThreadsRunning;
+    /**
+     * 目标库从库的 Seconds_Behind_Master 超过该值时降速, 只检查在 replicas 中配置了从库的目标库
+     */
+    private long maxReplicaLagSeconds;
+    private long pollIntervalSeconds = 5;
+    /**
+     * 目标库名称 (spring.target 为 target, 其余为 sync.fan-out 中的名称) -> 它的从库
+     */
+    private Map<String, DruidDataSource> replicas = new LinkedHashMap<>();
+
+    @Data
+    public static class Limits {
+        private long rowsPerSecond;
+        private long mbPerSecond;
+    }
+
+    public LoadGovernor createSourceGovernor(DataSource dataSource) {
+        ImmutableList.Builder<LoadGovernor.HealthCheck> checks = ImmutableList.builder();
+        if (maxThreadsRunning > 0) {
+            checks.add(LoadGovernor.HealthCheck.threadsRunning(dataSource, maxThreadsRunning));
+        }
+        return create("source", source, checks.build());
+    }
+
+    /**
+     * 目标库自身是主库, 在它上面执行 SHOW SLAVE STATUS 没有意义, 没有配置从库时不检查复制延迟
+     */
+    public LoadGovernor createTargetGovernor(String name, DataSource dataSource) {
+        ImmutableList.Builder<LoadGovernor.HealthCheck> checks = ImmutableList.builder();
+        if (maxReplicaLagSeconds > 0) {
+            DataSource replica = replicas.get(name);
+            if (replica == null) {
+                System.err.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " governor " + name
+                        + ": no replica in sync.governor.replicas, max-replica-lag-seconds ignored");
+            } else {
+                checks.add(LoadGovernor.HealthCheck.replicaLag(replica, maxReplicaLagSeconds));
+            }
+        }
+        return create(name, target, checks.build());
+    }
+
+    private LoadGovernor create(String name, Limits limits, ImmutableList<LoadGovernor.HealthCheck> checks) {
+        if (limits.getRowsPerSecond() <= 0 && limits.getMbPerSecond() <= 0 && checks.isEmpty()) {
+            return LoadGovernor.UNLIMITED;
+        }
+        return new LoadGovernor(name, limits.getRowsPerSecond(), limits.getMbPerSecond() * 1024.0 * 1024.0, checks,
+                SECONDS.toNanos(Math.max(pollIntervalSeconds, 1)));
+    }
+}
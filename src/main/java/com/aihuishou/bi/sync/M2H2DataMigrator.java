@@ -1,37 +1,102 @@
 package com.aihuishou.bi.sync;
 
-import com.facebook.presto.spi.Page;
 import com.aihuishou.bi.utils.Utils;
+import com.google.common.collect.ImmutableList;
 
 import javax.sql.DataSource;
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
 
 public class M2H2DataMigrator {
     private MetaInfo metaInfo;
     private List<JdbcColumnHandle> columnHandles;
-    private BlockingQueue<Page> queue;
+    private List<JdbcSplit> splits;
+    private int writerCount;
+    private PageSinkFactory pageSinkFactory;
+    private PageBuffer buffer;
+    private AdaptiveTuner tuner;
+    private TableProgress progress;
+    private SplitCheckpointer checkpointer;
+    private int keysetChunkRows;
+    private RetryPolicy retryPolicy;
+    private LoadGovernor sourceGovernor;
+    private LoadGovernor targetGovernor;
 
-    public M2H2DataMigrator(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandleList, BlockingQueue<Page> queue) {
+    public M2H2DataMigrator(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandleList, List<JdbcSplit> splits, int writerCount, PageSinkFactory pageSinkFactory, PageBuffer buffer, AdaptiveTuner tuner, TableProgress progress) {
+        this(metaInfo, columnHandleList, splits, writerCount, pageSinkFactory, buffer, tuner, progress, null, 0, new RetryPolicy(0, 0),
+                LoadGovernor.UNLIMITED, LoadGovernor.UNLIMITED);
+    }
+
+    /**
+     * @param checkpointer 不为空时按主键分段读取各分片并记录断点, splits 与 checkpointer 的分片一一对应
+     * @param retryPolicy 读取和写入遇到暂时性错误时的重试
+     * @param sourceGovernor 读取线程共用的源库限速
+     * @param targetGovernor 写入线程共用的目标库限速
+     */
+    public M2H2DataMigrator(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandleList, List<JdbcSplit> splits, int writerCount, PageSinkFactory pageSinkFactory, PageBuffer buffer, AdaptiveTuner tuner, TableProgress progress,
+                            SplitCheckpointer checkpointer, int keysetChunkRows, RetryPolicy retryPolicy,
+                            LoadGovernor sourceGovernor, LoadGovernor targetGovernor) {
         this.metaInfo = metaInfo;
         this.columnHandles = columnHandleList;
-        this.queue = queue;
+        this.splits = splits;
+        this.writerCount = writerCount;
+        this.pageSinkFactory = pageSinkFactory;
+        this.buffer = buffer;
+        this.tuner = tuner;
+        this.progress = progress;
+        this.checkpointer = checkpointer;
+        this.keysetChunkRows = keysetChunkRows;
+        this.retryPolicy = retryPolicy;
+        this.sourceGovernor = sourceGovernor;
+        this.targetGovernor = targetGovernor;
     }
 
-    public void transferTable(DataSource sourceDataSource, DataSource targetDataSource) throws SQLException, InterruptedException {
-        System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " Transfer table called");
-        FetchRunner fetchRunner = new FetchRunner(sourceDataSource, metaInfo, columnHandles, queue);
-        fetchRunner.setName("fetchRunner");
-        H2Runner h2Runner = new H2Runner(targetDataSource, metaInfo, columnHandles, queue);
-        h2Runner.setName("h2Runner");
-        fetchRunner.start();
-        while (fetchRunner.isAlive() && queue.isEmpty()) {
-            Thread.sleep(100);
-        }
-        h2Runner.start();
-        fetchRunner.join();
-        h2Runner.join();
+    public void transferTable(DataSource sourceDataSource, DataSource targetDataSource) throws InterruptedException, SQLException {
+        System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " Transfer table called, splits: " + splits.size() + ", writers: " + writerCount);
+        List<ReadMapping> readMappings;
+        try (Connection connection = sourceDataSource.getConnection()) {
+            readMappings = JdbcPageSource.getReadMappings(connection, metaInfo, columnHandles);
+        }
+        ImmutableList.Builder<FetchRunner> fetchRunners = ImmutableList.builder();
+        for (int i = 0; i < splits.size(); i++) {
+            FetchRunner fetchRunner = checkpointer == null
+                    ? new FetchRunner(sourceDataSource, metaInfo, columnHandles, readMappings, splits.get(i), buffer, tuner, progress, sourceGovernor)
+                    : new FetchRunner(sourceDataSource, metaInfo, columnHandles, readMappings, i, checkpointer, keysetChunkRows, retryPolicy, buffer, tuner, progress, sourceGovernor);
+            fetchRunner.setName("fetchRunner-" + metaInfo.getTable() + "-" + i);
+            fetchRunners.add(fetchRunner);
+        }
+        // 每个写入线程独立的连接和写入端, 从同一个缓冲区取页, 各自提交
+        ImmutableList.Builder<H2Runner> h2Runners = ImmutableList.builder();
+        for (int i = 0; i < writerCount; i++) {
+            H2Runner h2Runner = new H2Runner(targetDataSource, metaInfo, columnHandles, pageSinkFactory, buffer, tuner, progress, checkpointer, retryPolicy, targetGovernor);
+            h2Runner.setName("h2Runner-" + metaInfo.getTable() + "-" + i);
+            h2Runners.add(h2Runner);
+        }
+        for (FetchRunner fetchRunner : fetchRunners.build()) {
+            fetchRunner.start();
+        }
+        for (H2Runner h2Runner : h2Runners.build()) {
+            h2Runner.start();
+        }
+        for (FetchRunner fetchRunner : fetchRunners.build()) {
+            fetchRunner.join();
+        }
+        // 所有写入线程都 flush 完成后才算成功
+        for (H2Runner h2Runner : h2Runners.build()) {
+            h2Runner.join();
+        }
+
+        for (FetchRunner fetchRunner : fetchRunners.build()) {
+            if (fetchRunner.getFailure() != null) {
+                throw new RuntimeException("fetch failed, table: " + metaInfo.getTable(), fetchRunner.getFailure());
+            }
+        }
+        for (H2Runner h2Runner : h2Runners.build()) {
+            if (h2Runner.getFailure() != null) {
+                throw new RuntimeException("write failed, table: " + metaInfo.getTable(), h2Runner.getFailure());
+            }
+        }
         System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " Transfer table end");
     }
 }
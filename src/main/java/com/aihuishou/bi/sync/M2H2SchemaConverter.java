@@ -1,33 +1,28 @@
 package com.aihuishou.bi.sync;
 
 import com.facebook.presto.spi.ColumnMetadata;
-import com.facebook.presto.spi.PrestoException;
 import com.facebook.presto.spi.SchemaTableName;
 import com.facebook.presto.spi.TableNotFoundException;
-import com.facebook.presto.spi.type.CharType;
-import com.facebook.presto.spi.type.DecimalType;
 import com.facebook.presto.spi.type.Type;
-import com.facebook.presto.spi.type.VarcharType;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
 import com.aihuishou.bi.utils.Utils;
 
 import javax.sql.DataSource;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
-import static com.facebook.presto.spi.StandardErrorCode.NOT_SUPPORTED;
-import static com.facebook.presto.spi.type.RealType.REAL;
-import static com.facebook.presto.spi.type.TimeWithTimeZoneType.TIME_WITH_TIME_ZONE;
-import static com.facebook.presto.spi.type.TimestampType.TIMESTAMP;
-import static com.facebook.presto.spi.type.TimestampWithTimeZoneType.TIMESTAMP_WITH_TIME_ZONE;
-import static com.facebook.presto.spi.type.VarbinaryType.VARBINARY;
-import static com.facebook.presto.spi.type.Varchars.isVarcharType;
 import static com.aihuishou.bi.sync.StandardReadMappings.jdbcTypeToPrestoType;
-import static com.aihuishou.bi.utils.Utils.mysql_identifierQuote;
-import static com.aihuishou.bi.utils.Utils.quoted;
+import static java.lang.String.CASE_INSENSITIVE_ORDER;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Locale.ENGLISH;
 
 public class M2H2SchemaConverter {
@@ -35,6 +30,10 @@ public class M2H2SchemaConverter {
     private SchemaTableName mysqlTableHandle;
     private List<ColumnMetadata> columnMetadatas;
     private List<JdbcColumnHandle> columnHandles;
+    private List<String> primaryKey = ImmutableList.of();
+    private List<IndexDefinition> indexes = ImmutableList.of();
+    private Optional<String> collation = Optional.empty();
+    private boolean targetRebuilt;
 
     public M2H2SchemaConverter(MetaInfo metaInfo) {
         this.metaInfo = metaInfo;
@@ -45,6 +44,213 @@ public class M2H2SchemaConverter {
         return columnHandles;
     }
 
+    /**
+     * 调用 {@link #getPrimaryKey(DataSource)} 之后才有值, 建表时带上主键
+     */
+    public List<String> getPrimaryKey() {
+        return primaryKey;
+    }
+
+    /**
+     * 调用 {@link #getPrimaryKey(DataSource)} 之后才有值, 数据拷贝完成后由 {@link #createIndexesInTarget(DataSource)} 建立
+     */
+    public List<IndexDefinition> getIndexes() {
+        return indexes;
+    }
+
+    /**
+     * 源表的排序规则, 只有 MySQL 源库才有
+     */
+    public Optional<String> getCollation() {
+        return collation;
+    }
+
+    /**
+     * 使用快照中保存的源表结构, 代替 {@link #getColumns(SchemaMetadataCache)} 和 {@link #getPrimaryKey(DataSource)}, 不访问源库
+     */
+    public void useSnapshot(TableSnapshot snapshot) {
+        setColumns(snapshot.getColumns());
+        primaryKey = snapshot.getPrimaryKey();
+        indexes = snapshot.getIndexes();
+        collation = snapshot.getCollation();
+    }
+
+    /**
+     * 读取主键和二级索引定义. MySQL 从 information_schema.statistics 读取, 带索引类型和前缀长度, 同时记下表的排序规则;
+     * 其他库使用 JDBC 元数据
+     */
+    public void getPrimaryKey(DataSource sourceDataSource) throws SQLException {
+        try (Connection connection = sourceDataSource.getConnection()) {
+            if (isMysql(connection)) {
+                getMysqlKeys(connection);
+            } else {
+                getJdbcKeys(connection);
+            }
+        }
+    }
+
+    private void getMysqlKeys(Connection connection) throws SQLException {
+        String sql = "SELECT index_name, non_unique, column_name, sub_part, index_type FROM information_schema.statistics"
+                + " WHERE table_schema = ? AND table_name = ? ORDER BY index_name, seq_in_index";
+        ImmutableList.Builder<String> primaryKey = ImmutableList.builder();
+        Map<String, IndexBuilder> indexes = new LinkedHashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, metaInfo.getMysqlDb());
+            statement.setString(2, metaInfo.getTable());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    String indexName = resultSet.getString("index_name");
+                    String columnName = resultSet.getString("column_name");
+                    if (indexName.equals("PRIMARY")) {
+                        primaryKey.add(columnName);
+                        continue;
+                    }
+                    boolean nonUnique = resultSet.getInt("non_unique") != 0;
+                    String indexType = Optional.ofNullable(resultSet.getString("index_type")).orElse("BTREE");
+                    int subPart = resultSet.getInt("sub_part");
+                    Optional<Integer> prefixLength = resultSet.wasNull() ? Optional.empty() : Optional.of(subPart);
+                    indexes.computeIfAbsent(indexName, name -> new IndexBuilder(name, nonUnique, indexType))
+                            .add(columnName, prefixLength);
+                }
+            }
+        }
+        this.primaryKey = primaryKey.build();
+        this.indexes = buildIndexes(indexes);
+        sql = "SELECT table_collation FROM information_schema.tables WHERE table_schema = ? AND table_name = ?";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, metaInfo.getMysqlDb());
+            statement.setString(2, metaInfo.getTable());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                collation = resultSet.next() ? Optional.ofNullable(resultSet.getString(1)) : Optional.empty();
+            }
+        }
+    }
+
+    private void getJdbcKeys(Connection connection) throws SQLException {
+        DatabaseMetaData metadata = connection.getMetaData();
+        try (ResultSet resultSet = getPrimaryKeys(metadata, metaInfo.getMysqlDb(), metaInfo.getTable())) {
+            Map<Short, String> columns = new TreeMap<>();
+            while (resultSet.next()) {
+                columns.put(resultSet.getShort("KEY_SEQ"), resultSet.getString("COLUMN_NAME"));
+            }
+            primaryKey = ImmutableList.copyOf(columns.values());
+        }
+        Map<String, IndexBuilder> indexes = new LinkedHashMap<>();
+        try (ResultSet resultSet = getIndexInfo(metadata, metaInfo.getMysqlDb(), metaInfo.getTable())) {
+            while (resultSet.next()) {
+                String indexName = resultSet.getString("INDEX_NAME");
+                if (indexName == null || resultSet.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic) {
+                    continue;
+                }
+                boolean nonUnique = resultSet.getBoolean("NON_UNIQUE");
+                indexes.computeIfAbsent(indexName, name -> new IndexBuilder(name, nonUnique, "BTREE"))
+                        .add(resultSet.getString("COLUMN_NAME"), Optional.empty());
+            }
+        }
+        // 主键本身也会作为唯一索引返回
+        indexes.values().removeIf(index -> !index.nonUnique && index.columns.equals(primaryKey));
+        this.indexes = buildIndexes(indexes);
+    }
+
+    /**
+     * MySQL (Connector/J) 的库是 catalog, 不支持 schema, 按 schema 传入的库名被忽略, 返回连接默认库中同名表的结果;
+     * H2、PostgreSQL 的库对应 schema
+     */
+    static ResultSet getPrimaryKeys(DatabaseMetaData metadata, String database, String table) throws SQLException {
+        if (metadata.supportsSchemasInTableDefinitions()) {
+            return metadata.getPrimaryKeys(null, database, table);
+        }
+        return metadata.getPrimaryKeys(database, null, table);
+    }
+
+    static ResultSet getIndexInfo(DatabaseMetaData metadata, String database, String table) throws SQLException {
+        if (metadata.supportsSchemasInTableDefinitions()) {
+            return metadata.getIndexInfo(null, database, table, false, true);
+        }
+        return metadata.getIndexInfo(database, null, table, false, true);
+    }
+
+    /**
+     * 只保留所有列都会被拷贝的索引, 函数索引和包含不支持类型的列的索引跳过
+     */
+    private List<IndexDefinition> buildIndexes(Map<String, IndexBuilder> indexes) {
+        Set<String> copiedColumns = new TreeSet<>(CASE_INSENSITIVE_ORDER);
+        if (columnHandles != null) {
+            columnHandles.forEach(column -> copiedColumns.add(column.getColumnName()));
+        }
+        ImmutableList.Builder<IndexDefinition> definitions = ImmutableList.builder();
+        for (IndexBuilder index : indexes.values()) {
+            if (index.columns.stream().allMatch(column -> column != null && copiedColumns.contains(column))) {
+                definitions.add(index.build());
+            } else {
+                System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " " + metaInfo.getTable() + " skip index " + index.name + " on " + index.columns);
+            }
+        }
+        return definitions.build();
+    }
+
+    private static boolean isMysql(Connection connection) throws SQLException {
+        return connection.getMetaData().getDatabaseProductName().equalsIgnoreCase("MySQL");
+    }
+
+    /**
+     * 本次是否删除并重建了目标表, 重建后的表是空的, 不需要再做增量或校验
+     */
+    public boolean isTargetRebuilt() {
+        return targetRebuilt;
+    }
+
+    public boolean existsInTarget(DataSource targetDataSource) {
+        String schema = metaInfo.getTargetDb();
+        String tableName = metaInfo.getTable();
+        try (Connection connection = targetDataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.executeQuery("SELECT 1 FROM " + Dialect.forConnection(connection).quote(schema, tableName) + " WHERE 1 = 0").close();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 源表结构的指纹, 由列数和列名/类型、主键、二级索引、排序规则的哈希组成, 任何一项变化都会改变.
+     * 需要先读取列和主键
+     */
+    public String getFingerprint() {
+        StringBuilder definition = new StringBuilder();
+        for (JdbcColumnHandle column : columnHandles) {
+            JdbcTypeHandle type = column.getJdbcTypeHandle();
+            definition.append(column.getColumnName()).append(' ')
+                    .append(type.getJdbcType()).append('(').append(type.getColumnSize()).append(',').append(type.getDecimalDigits()).append(");");
+        }
+        definition.append("primary key ").append(primaryKey).append(';');
+        for (IndexDefinition index : indexes) {
+            definition.append(index).append(index.getPrefixLengths()).append(';');
+        }
+        collation.ifPresent(definition::append);
+        return columnHandles.size() + ":" + Hashing.murmur3_128().hashString(definition, UTF_8);
+    }
+
+    /**
+     * 只清空目标表的数据, 保留表结构
+     * @return 是否成功, 失败时调用方改为删表重建
+     */
+    public boolean truncateTarget(DataSource targetDataSource) {
+        String schema = metaInfo.getTargetDb();
+        String tableName = metaInfo.getTable();
+        try (Connection connection = targetDataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            String sql = "TRUNCATE TABLE " + Dialect.forConnection(connection).quote(schema, tableName);
+            System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " sql: " + sql);
+            statement.execute(sql);
+            targetRebuilt = true;
+            return true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
     public void truncateTable(DataSource targetDataSource) {
         String schema = metaInfo.getTargetDb();
         String tableName = metaInfo.getTable();
@@ -53,18 +259,14 @@ public class M2H2SchemaConverter {
         ResultSet resultSet = null;
         try {
             connection = targetDataSource.getConnection();
-            boolean uppercase = connection.getMetaData().storesUpperCaseIdentifiers();
-            if (uppercase) {
-                schema = schema.toUpperCase(ENGLISH);
-                tableName = tableName.toUpperCase(ENGLISH);
-            }
             StringBuilder sql = new StringBuilder()
                     .append("DROP TABLE IF EXISTS ")
-                    .append(quoted(schema, tableName, mysql_identifierQuote))
+                    .append(Dialect.forConnection(connection).quote(schema, tableName))
                     .append(";");
             System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " sql: " + sql.toString());
             statement = connection.createStatement();
             statement.execute(sql.toString());
+            targetRebuilt = true;
         } catch (Throwable e) {
             e.printStackTrace();
         } finally {
@@ -72,51 +274,170 @@ public class M2H2SchemaConverter {
         }
     }
 
-    public void createTableInTarget(DataSource targetDataSource) {
+    /**
+     * 建表失败时抛出异常, 不能在没有目标表的情况下继续拷贝
+     */
+    public void createTableInTarget(DataSource targetDataSource) throws SQLException {
         String schema = metaInfo.getTargetDb();
         String tableName = metaInfo.getTable();
-        Connection connection = null;
-        Statement statement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = targetDataSource.getConnection();
-            boolean uppercase = connection.getMetaData().storesUpperCaseIdentifiers();
-            if (uppercase) {
-                schema = schema.toUpperCase(ENGLISH);
-                tableName = tableName.toUpperCase(ENGLISH);
-            }
+        try (Connection connection = targetDataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            Dialect dialect = Dialect.forConnection(connection);
             StringBuilder sql = new StringBuilder()
                     .append("CREATE TABLE IF NOT EXISTS ")
-                    .append(quoted(schema, tableName, mysql_identifierQuote))
+                    .append(dialect.quote(schema, tableName))
                     .append(" (");
             ImmutableList.Builder<String> columnNames = ImmutableList.builder();
             ImmutableList.Builder<Type> columnTypes = ImmutableList.builder();
             ImmutableList.Builder<String> columnList = ImmutableList.builder();
             for (ColumnMetadata column : columnMetadatas) {
-                String columnName = column.getName();
-                if (uppercase) {
-                    columnName = columnName.toUpperCase(ENGLISH);
-                }
+                String columnName = dialect.normalize(column.getName());
                 columnNames.add(columnName);
                 columnTypes.add(column.getType());
                 columnList.add(new StringBuilder()
-                        .append(quoted(columnName, mysql_identifierQuote))
+                        .append(dialect.quote(columnName))
                         .append(" ")
-                        .append(column.getType())
+                        .append(dialect.toSqlType(column.getType()))
                         .toString());
             }
             Joiner.on(", ").appendTo(sql, columnList.build());
+            if (!primaryKey.isEmpty()) {
+                sql.append(", PRIMARY KEY (");
+                Joiner.on(", ").appendTo(sql, primaryKey.stream()
+                        .map(dialect::quote)
+                        .iterator());
+                sql.append(")");
+            }
             sql.append(")");
+            // 二级索引在数据拷贝完成后再建; 两端都是 MySQL 时沿用源表的字符集和排序规则
+            if (collation.isPresent() && isMysql(connection)) {
+                String collationName = collation.get();
+                int separator = collationName.indexOf('_');
+                String charset = separator > 0 ? collationName.substring(0, separator) : collationName;
+                sql.append(" DEFAULT CHARSET=").append(charset).append(" COLLATE=").append(collationName);
+            }
             System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " sql: " + sql.toString());
-            statement = connection.createStatement();
             statement.execute(sql.toString());
-        } catch (Throwable e) {
-            e.printStackTrace();
-        } finally {
-            Utils.close(connection, statement, resultSet);
         }
     }
 
+    /**
+     * 数据拷贝完成后建立二级索引, 比写入过程中逐行维护索引快得多. 目标表上已有的同名索引跳过,
+     * 从断点继续或重复调用时只补建缺少的索引.
+     * MySQL 目标库的普通索引合并到一条 ALTER TABLE, 只重建一次表; 全文和空间索引每个单独一条.
+     * 其他目标库逐个 CREATE INDEX, 索引名在 schema 内唯一, 所以加上表名前缀, 全文和空间索引跳过
+     */
+    public void createIndexesInTarget(DataSource targetDataSource) throws SQLException {
+        if (indexes.isEmpty()) {
+            return;
+        }
+        String schema = metaInfo.getTargetDb();
+        String tableName = metaInfo.getTable();
+        try (Connection connection = targetDataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            Dialect dialect = Dialect.forConnection(connection);
+            boolean mysql = isMysql(connection);
+            schema = dialect.normalize(schema);
+            tableName = dialect.normalize(tableName);
+            Set<String> existing = getIndexNames(connection, mysql, schema, tableName);
+            List<String> statements = buildIndexStatements(dialect, mysql, schema, tableName, indexes, existing);
+            for (String sql : statements) {
+                long start = System.nanoTime();
+                System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " sql: " + sql);
+                statement.execute(sql);
+                System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " " + metaInfo.getTable()
+                        + " index build took " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+        }
+    }
+
+    /**
+     * 目标表上还没有的索引的建立语句, MySQL 的普通索引合并在第一条 ALTER TABLE 中; 前缀长度只在 MySQL 目标库上保留
+     * @param schema 已按目标库方言转换的库名
+     * @param tableName 已按目标库方言转换的表名
+     * @param existing 目标表上已有的索引名, 不区分大小写
+     */
+    static List<String> buildIndexStatements(Dialect dialect, boolean mysql, String schema, String tableName, List<IndexDefinition> indexes, Set<String> existing) {
+        String table = dialect.quote(schema, tableName);
+        List<String> clauses = new ArrayList<>();
+        List<String> statements = new ArrayList<>();
+        for (IndexDefinition index : indexes) {
+            String indexName = dialect.normalize(mysql ? index.getName() : tableName + "_" + index.getName());
+            if (existing.contains(indexName)) {
+                continue;
+            }
+            if (!mysql && index.isFulltextOrSpatial()) {
+                System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " " + tableName + " skip " + index.getIndexType() + " index " + index.getName());
+                continue;
+            }
+            StringBuilder columns = new StringBuilder();
+            for (int i = 0; i < index.getColumns().size(); i++) {
+                String column = index.getColumns().get(i);
+                columns.append(i == 0 ? "" : ", ").append(dialect.quote(column));
+                if (mysql) {
+                    index.getPrefixLengths().get(i).ifPresent(length -> columns.append('(').append(length).append(')'));
+                }
+            }
+            String kind = index.isFulltextOrSpatial() ? index.getIndexType().toUpperCase(ENGLISH) + " " : index.isUnique() ? "UNIQUE " : "";
+            if (!mysql) {
+                statements.add("CREATE " + kind + "INDEX " + dialect.quote(indexName) + " ON " + table + " (" + columns + ")");
+            } else if (index.isFulltextOrSpatial()) {
+                statements.add("ALTER TABLE " + table + " ADD " + kind + "INDEX " + dialect.quote(indexName) + " (" + columns + ")");
+            } else {
+                clauses.add("ADD " + kind + "INDEX " + dialect.quote(indexName) + " (" + columns + ")");
+            }
+        }
+        if (!clauses.isEmpty()) {
+            statements.add(0, "ALTER TABLE " + table + " " + String.join(", ", clauses));
+        }
+        return statements;
+    }
+
+    private static Set<String> getIndexNames(Connection connection, boolean mysql, String schema, String tableName) throws SQLException {
+        Set<String> names = new TreeSet<>(CASE_INSENSITIVE_ORDER);
+        if (mysql) {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT DISTINCT index_name FROM information_schema.statistics WHERE table_schema = ? AND table_name = ?")) {
+                statement.setString(1, schema);
+                statement.setString(2, tableName);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        names.add(resultSet.getString(1));
+                    }
+                }
+            }
+            return names;
+        }
+        try (ResultSet resultSet = getIndexInfo(connection.getMetaData(), schema, tableName)) {
+            while (resultSet.next()) {
+                if (resultSet.getString("INDEX_NAME") != null) {
+                    names.add(resultSet.getString("INDEX_NAME"));
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * 从库级缓存中取列, 结果与 {@link #getColumns(DataSource)} 相同
+     */
+    public void getColumns(SchemaMetadataCache metadataCache) throws SQLException {
+        List<JdbcColumnHandle> columns = metadataCache.getColumns(metaInfo.getMysqlDb(), metaInfo.getTable());
+        if (columns.isEmpty()) {
+            throw new TableNotFoundException(mysqlTableHandle);
+        }
+        setColumns(columns);
+    }
+
+    private void setColumns(List<JdbcColumnHandle> columns) {
+        columnHandles = columns;
+        ImmutableList.Builder<ColumnMetadata> columnMetadata = ImmutableList.builder();
+        for (JdbcColumnHandle column : columns) {
+            columnMetadata.add(column.getColumnMetadata());
+        }
+        columnMetadatas = columnMetadata.build();
+    }
+
     public void getColumns(DataSource sourceDataSource) throws SQLException {
         Connection connection = null;
         Statement statement = null;
@@ -140,12 +461,7 @@ public class M2H2SchemaConverter {
             if (columns.isEmpty()) {
                 throw new TableNotFoundException(mysqlTableHandle);
             }
-            columnHandles = columns;
-            ImmutableList.Builder<ColumnMetadata> columnMetadata = ImmutableList.builder();
-            for (JdbcColumnHandle column : columns) {
-                columnMetadata.add(column.getColumnMetadata());
-            }
-            columnMetadatas = columnMetadata.build();
+            setColumns(columns);
         } catch (Throwable e) {
             e.printStackTrace();
         } finally {
@@ -166,61 +482,26 @@ public class M2H2SchemaConverter {
                 null);
     }
 
-    private String toMysqlSqlType(Type type) {
-        if (REAL.equals(type)) {
-            return "float";
-        }
-        if (TIME_WITH_TIME_ZONE.equals(type) || TIMESTAMP_WITH_TIME_ZONE.equals(type)) {
-            throw new PrestoException(NOT_SUPPORTED, "Unsupported column type: " + type.getDisplayName());
-        }
-        if (TIMESTAMP.equals(type)) {
-            return "datetime";
-        }
-        if (VARBINARY.equals(type)) {
-            return "mediumblob";
-        }
-        if (isVarcharType(type)) {
-            VarcharType varcharType = (VarcharType) type;
-            if (varcharType.isUnbounded()) {
-                return "longtext";
-            }
-            if (varcharType.getLengthSafe() <= 255) {
-                return "tinytext";
-            }
-            if (varcharType.getLengthSafe() <= 65535) {
-                return "text";
-            }
-            if (varcharType.getLengthSafe() <= 16777215) {
-                return "mediumtext";
-            }
-            return "longtext";
-        }
-
-        return toSqlType(type);
-    }
+    private static final class IndexBuilder {
+        private final String name;
+        private final boolean nonUnique;
+        private final String indexType;
+        private final List<String> columns = new ArrayList<>();
+        private final List<Optional<Integer>> prefixLengths = new ArrayList<>();
 
-    private String toSqlType(Type type) {
-        if (isVarcharType(type)) {
-            VarcharType varcharType = (VarcharType) type;
-            if (varcharType.isUnbounded()) {
-                return "varchar";
-            }
-            return "varchar(" + varcharType.getLengthSafe() + ")";
+        private IndexBuilder(String name, boolean nonUnique, String indexType) {
+            this.name = name;
+            this.nonUnique = nonUnique;
+            this.indexType = indexType;
         }
-        if (type instanceof CharType) {
-            if (((CharType) type).getLength() == CharType.MAX_LENGTH) {
-                return "char";
-            }
-            return "char(" + ((CharType) type).getLength() + ")";
-        }
-        if (type instanceof DecimalType) {
-            return String.format("decimal(%s, %s)", ((DecimalType) type).getPrecision(), ((DecimalType) type).getScale());
+
+        private void add(String column, Optional<Integer> prefixLength) {
+            columns.add(column);
+            prefixLengths.add(prefixLength);
         }
 
-        String sqlType = Utils.SQL_TYPES.get(type);
-        if (sqlType != null) {
-            return sqlType;
+        private IndexDefinition build() {
+            return new IndexDefinition(name, !nonUnique, indexType, columns, prefixLengths);
         }
-        throw new PrestoException(NOT_SUPPORTED, "Unsupported column type: " + type.getDisplayName());
     }
 }
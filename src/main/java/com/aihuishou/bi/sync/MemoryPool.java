@@ -0,0 +1,118 @@
+package com.aihuishou.bi.sync;
+
+import com.google.common.collect.ImmutableMap;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * 进程级的在途页内存预算, 按 Page.getRetainedSizeInBytes() 计算, 每个表一个预留额度.
+ * 预算用完时读取端阻塞; 某个表当前没有任何预留时总是放行, 保证每个表至少有一页在途, 不会被大页饿死
+ */
+@ManagedResource(objectName = "com.aihuishou.bi:type=MemoryPool")
+public class MemoryPool {
+    private final long maxBytes;
+    private long reservedBytes;
+    private final Map<String, Long> reservations = new HashMap<>();
+
+    public MemoryPool(long maxBytes) {
+        checkArgument(maxBytes > 0, "maxBytes must be positive");
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return 在超时前预留成功返回 true
+     */
+    public synchronized boolean tryReserve(String tag, long bytes, long timeoutMillis) throws InterruptedException {
+        return tryReserve(tag, bytes, Long.MAX_VALUE, timeoutMillis);
+    }
+
+    /**
+     * @param tagLimit 该名下的预留上限, 与总预算同样在名下没有预留时放行
+     * @return 在超时前预留成功返回 true
+     */
+    public synchronized boolean tryReserve(String tag, long bytes, long tagLimit, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!fits(tag, bytes, tagLimit)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        forceReserve(tag, bytes);
+        return true;
+    }
+
+    /**
+     * 等待到预留成功, 放行条件与 {@link #tryReserve} 相同
+     */
+    public synchronized void reserve(String tag, long bytes) throws InterruptedException {
+        while (!fits(tag, bytes, Long.MAX_VALUE)) {
+            wait();
+        }
+        forceReserve(tag, bytes);
+    }
+
+    /**
+     * 不等待直接预留, 只用于内存已经分配、无法再等待的场合, 例如缓冲区为超长的行扩容
+     */
+    public synchronized void forceReserve(String tag, long bytes) {
+        reservedBytes += bytes;
+        reservations.merge(tag, bytes, Long::sum);
+    }
+
+    public synchronized void free(String tag, long bytes) {
+        subtract(tag, bytes);
+        reservedBytes -= bytes;
+        notifyAll();
+    }
+
+    /**
+     * 把 from 名下的预留转到 to 名下, 总量不变. from 不再持有预留时, 在它名下等待的读取端可以放行
+     */
+    public synchronized void transfer(String from, String to, long bytes) {
+        subtract(from, bytes);
+        reservations.merge(to, bytes, Long::sum);
+        notifyAll();
+    }
+
+    private boolean fits(String tag, long bytes, long tagLimit) {
+        long tagReserved = reservations.getOrDefault(tag, 0L);
+        return tagReserved == 0 || (reservedBytes + bytes <= maxBytes && tagReserved + bytes <= tagLimit);
+    }
+
+    private void subtract(String tag, long bytes) {
+        Long reserved = reservations.get(tag);
+        checkArgument(reserved != null && reserved >= bytes, "tag %s frees %s bytes but reserved %s", tag, bytes, reserved);
+        if (reserved == bytes) {
+            reservations.remove(tag);
+        } else {
+            reservations.put(tag, reserved - bytes);
+        }
+    }
+
+    @ManagedAttribute
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @ManagedAttribute
+    public synchronized long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    @ManagedAttribute
+    public synchronized Map<String, Long> getReservations() {
+        return ImmutableMap.copyOf(reservations);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "memory pool reserved: " + reservedBytes + "/" + maxBytes + " bytes, tables: " + reservations;
+    }
+}
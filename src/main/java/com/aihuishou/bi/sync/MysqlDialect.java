@@ -0,0 +1,81 @@
+package com.aihuishou.bi.sync;
+
+import com.aihuishou.bi.utils.Utils;
+import com.facebook.presto.spi.type.Type;
+import com.facebook.presto.spi.type.VarcharType;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+
+import java.sql.Connection;
+import java.util.List;
+
+import static com.facebook.presto.spi.type.RealType.REAL;
+import static com.facebook.presto.spi.type.TimeType.TIME;
+import static com.facebook.presto.spi.type.TimestampType.TIMESTAMP;
+import static com.facebook.presto.spi.type.VarbinaryType.VARBINARY;
+import static com.facebook.presto.spi.type.Varchars.isVarcharType;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.util.Collections.nCopies;
+
+/**
+ * MySQL: 反引号, 名称不转换大小写; 批量写入为 LOAD DATA LOCAL INFILE, 增量拷贝时用 REPLACE 覆盖
+ */
+public class MysqlDialect implements Dialect {
+    @Override
+    public String getIdentifierQuote() {
+        return Utils.mysql_identifierQuote;
+    }
+
+    @Override
+    public String normalize(String identifier) {
+        return identifier;
+    }
+
+    /**
+     * TIMESTAMP 建成 DATETIME(3): MySQL 的 TIMESTAMP 只能表示 1970 到 2038 年, 并且按会话时区换算, 与源库的本地时间不一致.
+     * 没有长度的字符和二进制列建成 LONGTEXT/LONGBLOB
+     */
+    @Override
+    public String toSqlType(Type type) {
+        if (REAL.equals(type)) {
+            return "float";
+        }
+        if (TIMESTAMP.equals(type)) {
+            return "datetime(3)";
+        }
+        if (TIME.equals(type)) {
+            return "time(3)";
+        }
+        if (VARBINARY.equals(type)) {
+            return "longblob";
+        }
+        if (isVarcharType(type) && ((VarcharType) type).isUnbounded()) {
+            return "longtext";
+        }
+        return Dialect.super.toSqlType(type);
+    }
+
+    @Override
+    public String buildUpsertSql(String table, List<String> columns, List<String> keys) {
+        List<String> updates = columns.stream()
+                .filter(column -> !keys.contains(column))
+                .map(column -> column + "=VALUES(" + column + ")")
+                .collect(toImmutableList());
+        if (updates.isEmpty()) {
+            // 所有列都是主键, 重复时什么都不用改
+            updates = ImmutableList.of(keys.get(0) + "=" + keys.get(0));
+        }
+        return new StringBuilder()
+                .append("INSERT INTO ").append(table)
+                .append(" (").append(Joiner.on(',').join(columns)).append(")")
+                .append(" VALUES (").append(Joiner.on(',').join(nCopies(columns.size(), "?"))).append(")")
+                .append(" ON DUPLICATE KEY UPDATE ").append(Joiner.on(',').join(updates))
+                .toString();
+    }
+
+    @Override
+    public CommitAwarePageSink createBulkPageSink(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, Connection connection, AdaptiveTuner tuner,
+                                                  List<String> upsertKey, TableMetrics metrics, TemporalCodec temporalCodec, long chunkBytes, MemoryPool memoryPool) {
+        return new MysqlLoadDataPageSink(metaInfo, columnHandles, connection, chunkBytes, !upsertKey.isEmpty(), metrics, temporalCodec, memoryPool);
+    }
+}
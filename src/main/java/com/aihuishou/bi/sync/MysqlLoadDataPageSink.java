@@ -0,0 +1,240 @@
+package com.aihuishou.bi.sync;
+
+import com.aihuishou.bi.utils.Utils;
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.type.Type;
+import com.google.common.collect.ImmutableList;
+import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.slice.Slice;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.facebook.presto.spi.type.VarbinaryType.VARBINARY;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+/**
+ * MySQL 目标库的 LOAD DATA LOCAL INFILE 写入端: 页先由 TsvPageEncoder 编码到内存缓冲区,
+ * 累计到 chunkBytes 后通过 setLocalInfileInputStream 把缓冲区作为本地文件发送, 每个分块单独提交.
+ * 绕过逐行的参数绑定和 SQL 解析, 需要目标库开启 local_infile, 连接串不能关闭 allowLoadLocalInfile.
+ * 缓冲区在第一次写入时分配, 按容量计入 {@link MemoryPool}, 标签为 "表名/load-data"
+ */
+public class MysqlLoadDataPageSink implements CommitAwarePageSink {
+    private final Connection connection;
+    private final MetaInfo metaInfo;
+    private final TsvPageEncoder encoder;
+    private final String loadSql;
+    private final long chunkBytes;
+    private final boolean replace;
+    private DynamicSliceOutput buffer;
+    private final MemoryPool memoryPool;
+    private final String memoryTag;
+    private long reservedBytes;
+    private Statement statement;
+    private long bufferedRows;
+    private long committedRows;
+    private final TableMetrics metrics;
+
+    /**
+     * @param replace 增量拷贝时使用 REPLACE, 主键冲突的行以新数据为准
+     * @param metrics 每次 LOAD DATA 和 commit 的耗时记入该表的指标
+     * @param temporalCodec TIMESTAMP 从源库时区换算到目标库时区后输出
+     * @param memoryPool 缓冲区占用计入该预算, 预算不足时第一次写入等待同一个表的其它写入端释放
+     */
+    public MysqlLoadDataPageSink(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, Connection connection, long chunkBytes, boolean replace, TableMetrics metrics,
+                                 TemporalCodec temporalCodec, MemoryPool memoryPool) {
+        checkArgument(chunkBytes > 0, "chunkBytes must be positive");
+        this.connection = connection;
+        this.metaInfo = metaInfo;
+        this.chunkBytes = chunkBytes;
+        this.replace = replace;
+        this.metrics = metrics;
+        this.memoryPool = memoryPool;
+        this.memoryTag = metaInfo.getTable() + "/load-data";
+        ImmutableList.Builder<Type> types = ImmutableList.builder();
+        for (JdbcColumnHandle column : columnHandles) {
+            types.add(column.getColumnType());
+        }
+        this.encoder = new TsvPageEncoder(types.build(), temporalCodec);
+        this.loadSql = buildLoadSql(metaInfo, columnHandles, replace);
+        try {
+            this.connection.setAutoCommit(false);
+            statement = this.connection.createStatement();
+            System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " Executing: " + loadSql);
+        } catch (SQLException e) {
+            try {
+                connection.close();
+            } catch (SQLException closeException) {
+                e.addSuppressed(closeException);
+            }
+            throw new RuntimeException("sql error ", e);
+        }
+    }
+
+    /**
+     * 分配缓冲区前等待内存预算. 写入端此时持有的未提交页记在缓冲区的 pending 名下, 不影响读取端放入新页, 不会互相等待
+     */
+    private void allocateBuffer() {
+        long capacity = Math.min(chunkBytes + chunkBytes / 4, Integer.MAX_VALUE - 8);
+        try {
+            memoryPool.reserve(memoryTag, capacity);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while waiting for the memory budget", e);
+        }
+        reservedBytes = capacity;
+        buffer = new DynamicSliceOutput((int) capacity);
+    }
+
+    /**
+     * 超长的行会让缓冲区扩容, 内存已经分配, 扩容部分直接补记到预算
+     */
+    private void reserveGrowth() {
+        long retained = buffer.getRetainedSize();
+        if (retained > reservedBytes) {
+            memoryPool.forceReserve(memoryTag, retained - reservedBytes);
+            reservedBytes = retained;
+        }
+    }
+
+    private void freeBuffer() {
+        if (reservedBytes > 0) {
+            memoryPool.free(memoryTag, reservedBytes);
+            reservedBytes = 0;
+        }
+        buffer = null;
+    }
+
+    /**
+     * 文件名只是占位, 实际数据来自 setLocalInfileInputStream; 字符串按 UTF-8 原样写出, 所以显式指定字符集.
+     * 二进制列以十六进制读入用户变量 @vN, 再由 SET 子句 UNHEX 写入, 不经过字符集转换
+     */
+    static String buildLoadSql(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, boolean replace) {
+        List<String> fields = new ArrayList<>();
+        List<String> assignments = new ArrayList<>();
+        for (int i = 0; i < columnHandles.size(); i++) {
+            String column = Utils.quoted(columnHandles.get(i).getColumnName(), Utils.mysql_identifierQuote);
+            if (VARBINARY.equals(columnHandles.get(i).getColumnType())) {
+                fields.add("@v" + i);
+                assignments.add(column + " = UNHEX(@v" + i + ")");
+            } else {
+                fields.add(column);
+            }
+        }
+        return new StringBuilder()
+                .append("LOAD DATA LOCAL INFILE 'page-stream' ")
+                .append(replace ? "REPLACE " : "")
+                .append("INTO TABLE ")
+                .append(Utils.quoted(metaInfo.getTargetDb(), metaInfo.getTable(), Utils.mysql_identifierQuote))
+                .append(" CHARACTER SET utf8mb4")
+                .append(" FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\'")
+                .append(" LINES TERMINATED BY '\\n' (")
+                .append(String.join(",", fields))
+                .append(")")
+                .append(assignments.isEmpty() ? "" : " SET " + String.join(", ", assignments))
+                .toString();
+    }
+
+    @Override
+    public CompletableFuture<?> appendPage(Page page) {
+        if (buffer == null) {
+            allocateBuffer();
+        }
+        try {
+            // 按行检查分块大小, 分块边界总在行尾
+            for (int position = 0; position < page.getPositionCount(); position++) {
+                encoder.encodeRow(page, position, buffer);
+                bufferedRows++;
+                if (buffer.size() >= chunkBytes) {
+                    flush();
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("sql error ", e);
+        }
+        return NOT_BLOCKED;
+    }
+
+    private void flush() throws SQLException {
+        reserveGrowth();
+        Slice chunk = buffer.slice();
+        statement.unwrap(com.mysql.jdbc.Statement.class).setLocalInfileInputStream(chunk.getInput());
+        try {
+            long start = System.nanoTime();
+            long loaded = statement.executeUpdate(loadSql);
+            long executed = System.nanoTime();
+            // LOCAL 隐含 IGNORE: 转换错误只产生 warning, 主键重复的行直接跳过, 都不报错. 行数不足说明有行没有写入, 不能提交后按成功计数.
+            // REPLACE 时被替换的行计为 2 行 (删除加插入), 影响行数不少于发送的行数即可
+            if (loaded < bufferedRows) {
+                String warnings = showWarnings();
+                connection.rollback();
+                throw new IllegalStateException(metaInfo.getTable() + " load data expected " + bufferedRows + " rows but loaded " + loaded
+                        + (replace ? "" : " (rows with existing keys are skipped)") + ", warnings: " + warnings);
+            }
+            CommitFailedException.commit(connection);
+            metrics.batchExecuted(executed - start);
+            metrics.committed(System.nanoTime() - executed);
+        } finally {
+            statement.unwrap(com.mysql.jdbc.Statement.class).setLocalInfileInputStream(null);
+        }
+        buffer.reset();
+        committedRows += bufferedRows;
+        bufferedRows = 0;
+    }
+
+    /**
+     * 紧接在 LOAD DATA 之后调用, 取前 10 条 warning
+     */
+    private String showWarnings() throws SQLException {
+        StringBuilder warnings = new StringBuilder();
+        try (Statement query = connection.createStatement();
+             ResultSet resultSet = query.executeQuery("SHOW WARNINGS LIMIT 10")) {
+            while (resultSet.next()) {
+                warnings.append(warnings.length() == 0 ? "" : "; ")
+                        .append(resultSet.getString("Level")).append(' ')
+                        .append(resultSet.getInt("Code")).append(' ')
+                        .append(resultSet.getString("Message"));
+            }
+        }
+        return warnings.length() == 0 ? "none" : warnings.toString();
+    }
+
+    @Override
+    public long getCommittedRows() {
+        return committedRows;
+    }
+
+    @Override
+    public CompletableFuture<Collection<Slice>> finish() {
+        try (Connection connection = this.connection;
+             Statement statement = this.statement) {
+            if (bufferedRows > 0) {
+                flush();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("sql error ", e);
+        } finally {
+            freeBuffer();
+        }
+        return completedFuture(ImmutableList.of());
+    }
+
+    @Override
+    public void abort() {
+        try (Connection connection = this.connection;
+             Statement statement = this.statement) {
+            connection.rollback();
+        } catch (SQLException e) {
+            throw new RuntimeException("sql error ", e);
+        } finally {
+            freeBuffer();
+        }
+    }
+}
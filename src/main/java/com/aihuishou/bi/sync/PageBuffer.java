@@ -0,0 +1,188 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.Page;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * 读写线程之间的页缓冲区, 支持多个读取端写入同一个缓冲区:
+ * 所有读取端结束且缓冲区为空时 poll 返回 null, 任意一端出错时 abort 让另一端尽快退出.
+ * 缓冲区大小不按页数限制, 而是按字节向进程级的 {@link MemoryPool} 预留. 页被取走后在提交前还可能重写, 仍然占用内存,
+ * 预留转到 "表名/pending" 名下, 由写入端调用 {@link #release} 释放; 读取端只按缓冲区自己名下的预留排队, 写入端持有未提交的页时读取端不会一直等待.
+ * 放入的行数、在途页数和两端的等待时间记入该表的 {@link TableMetrics}.
+ * 配置了 {@link SpillFile} 时, 读取端等待内存预算超过一个轮询周期就把页写入磁盘, 不再阻塞, 读取可以全速完成并尽早释放源库上的长查询;
+ * 写入端优先读回磁盘上的页, 让溢出文件尽快删除. 磁盘也达到上限时仍然阻塞等待内存预算.
+ * 可以另外限制缓冲区自己名下的预留, 达到上限时与预算用完一样等待或溢出, 见 {@link FanOutRunner}
+ */
+public class PageBuffer {
+    private static final long POLL_MILLIS = 100;
+
+    private final BlockingQueue<Page> queue = new LinkedBlockingQueue<>();
+    private final MemoryPool memoryPool;
+    private final String tag;
+    private final String pendingTag;
+    // 已被取走、还没有释放的页, 按对象区分
+    private final Map<Page, Long> taken = Collections.synchronizedMap(new IdentityHashMap<>());
+    private final TableMetrics metrics;
+    private final SpillFile spill;
+    private final long maxBytes;
+    private final AtomicInteger producers = new AtomicInteger();
+    private volatile boolean aborted;
+
+    public PageBuffer(MemoryPool memoryPool, String tag) {
+        this(memoryPool, tag, new TableMetrics(tag));
+    }
+
+    public PageBuffer(MemoryPool memoryPool, String tag, TableMetrics metrics) {
+        this(memoryPool, tag, metrics, null);
+    }
+
+    /**
+     * @param spill 为 null 时不溢出, 内存预算用完后读取端阻塞
+     */
+    public PageBuffer(MemoryPool memoryPool, String tag, TableMetrics metrics, SpillFile spill) {
+        this(memoryPool, tag, metrics, spill, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxBytes 缓冲区中的页最多预留的字节数, 已取走未释放的页不计入; 缓冲区为空时总是放入一页
+     */
+    public PageBuffer(MemoryPool memoryPool, String tag, TableMetrics metrics, SpillFile spill, long maxBytes) {
+        this.memoryPool = memoryPool;
+        this.tag = tag;
+        this.pendingTag = tag + "/pending";
+        this.metrics = metrics;
+        this.spill = spill;
+        this.maxBytes = maxBytes;
+    }
+
+    public TableMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 必须在读取线程启动前调用, 否则写入端可能提前认为数据已经读完
+     */
+    public void addProducer() {
+        producers.incrementAndGet();
+    }
+
+    public void producerFinished() {
+        producers.decrementAndGet();
+    }
+
+    public void put(Page page) throws InterruptedException {
+        long bytes = page.getRetainedSizeInBytes();
+        long start = System.nanoTime();
+        try {
+            while (!memoryPool.tryReserve(tag, bytes, maxBytes, POLL_MILLIS)) {
+                checkNotAborted();
+                if (spill != null && spill.append(page)) {
+                    metrics.pageFetched(page.getPositionCount(), page.getSizeInBytes());
+                    return;
+                }
+            }
+        } finally {
+            metrics.putBlocked(System.nanoTime() - start);
+        }
+        metrics.pageQueued(bytes);
+        queue.add(page);
+        // abort 可能发生在预留之后, 此时由放入方自己释放, 否则由 abort 统一释放
+        if (aborted && queue.remove(page)) {
+            memoryPool.free(tag, bytes);
+            metrics.pageDequeued(bytes);
+            checkNotAborted();
+        }
+        metrics.pageFetched(page.getPositionCount(), page.getSizeInBytes());
+    }
+
+    /**
+     * @return 下一页, 所有读取端结束并且数据已取完或者已中止时返回 null. 不再需要这一页时必须调用 {@link #release}
+     */
+    public Page poll() throws InterruptedException {
+        long start = System.nanoTime();
+        try {
+            while (!aborted) {
+                Page page = spill == null ? null : spill.poll();
+                if (page != null) {
+                    return page;
+                }
+                page = queue.poll(POLL_MILLIS, MILLISECONDS);
+                if (page != null) {
+                    long bytes = page.getRetainedSizeInBytes();
+                    memoryPool.transfer(tag, pendingTag, bytes);
+                    taken.put(page, bytes);
+                    metrics.pageDequeued(bytes);
+                    return page;
+                }
+                if (producers.get() == 0 && size() == 0) {
+                    return null;
+                }
+            }
+            return null;
+        } finally {
+            metrics.takeBlocked(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 写入端提交了 {@link #poll} 返回的页, 或者出错放弃时调用, 释放它的内存预留; 从磁盘读回的页没有预留, 不受影响
+     */
+    public void release(Page page) {
+        Long bytes = taken.remove(page);
+        if (bytes != null) {
+            memoryPool.free(pendingTag, bytes);
+        }
+    }
+
+    /**
+     * 释放缓冲区中还没有被取走的页; 已取走的页由持有它的写入端释放
+     */
+    public void abort() {
+        aborted = true;
+        List<Page> pages = new ArrayList<>();
+        queue.drainTo(pages);
+        for (Page page : pages) {
+            memoryPool.free(tag, page.getRetainedSizeInBytes());
+            metrics.pageDequeued(page.getRetainedSizeInBytes());
+        }
+        if (spill != null) {
+            spill.close();
+        }
+    }
+
+    /**
+     * 拷贝结束后调用, 删除溢出文件
+     */
+    public void close() {
+        if (spill != null) {
+            spill.close();
+        }
+    }
+
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * 内存中和磁盘上等待写入的页数
+     */
+    public int size() {
+        return queue.size() + (spill == null ? 0 : spill.getPageCount());
+    }
+
+    private void checkNotAborted() {
+        if (aborted) {
+            throw new IllegalStateException("page buffer aborted");
+        }
+    }
+}
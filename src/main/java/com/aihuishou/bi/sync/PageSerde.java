@@ -0,0 +1,182 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.block.ArrayBlockEncoding;
+import com.facebook.presto.spi.block.Block;
+import com.facebook.presto.spi.block.BlockEncoding;
+import com.facebook.presto.spi.block.BlockEncodingSerde;
+import com.facebook.presto.spi.block.ByteArrayBlockEncoding;
+import com.facebook.presto.spi.block.DictionaryBlockEncoding;
+import com.facebook.presto.spi.block.FixedWidthBlockEncoding;
+import com.facebook.presto.spi.block.IntArrayBlockEncoding;
+import com.facebook.presto.spi.block.LongArrayBlockEncoding;
+import com.facebook.presto.spi.block.RowBlockEncoding;
+import com.facebook.presto.spi.block.RunLengthBlockEncoding;
+import com.facebook.presto.spi.block.ShortArrayBlockEncoding;
+import com.facebook.presto.spi.block.SingleRowBlockEncoding;
+import com.facebook.presto.spi.block.VariableWidthBlockEncoding;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.slice.Slice;
+import io.airlift.slice.SliceInput;
+import io.airlift.slice.SliceOutput;
+import io.airlift.slice.Slices;
+import org.apache.commons.compress.compressors.lz4.BlockLZ4CompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.BlockLZ4CompressorOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.io.ByteStreams.readFully;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Locale.ENGLISH;
+
+/**
+ * Page 的二进制序列化, 按块的编码名 (Block.getEncodingName) 找到 presto-spi 自带的 BlockEncoding 写出, 与 Presto 的 PagesSerde 格式思路相同:
+ * 页头为行数、压缩方式和未压缩长度, 之后是列数和逐列的 编码名 + 块数据. 开启 LZ4 时只有压缩后小于原大小 80% 才保存压缩结果.
+ * 反序列化未压缩的页时变长块直接引用输入的 Slice, 不复制数据
+ */
+public class PageSerde implements BlockEncodingSerde {
+    private static final Map<String, BlockEncoding> ENCODINGS = createEncodings(
+            new ByteArrayBlockEncoding(),
+            new ShortArrayBlockEncoding(),
+            new IntArrayBlockEncoding(),
+            new LongArrayBlockEncoding(),
+            new FixedWidthBlockEncoding(),
+            new VariableWidthBlockEncoding(),
+            new DictionaryBlockEncoding(),
+            new RunLengthBlockEncoding(),
+            new ArrayBlockEncoding(),
+            new RowBlockEncoding(),
+            new SingleRowBlockEncoding());
+
+    private static final byte UNCOMPRESSED = 0;
+    private static final byte LZ4 = 1;
+    private static final double MINIMUM_COMPRESSION_RATIO = 0.8;
+    // 行数 + 压缩方式 + 未压缩长度
+    private static final int HEADER_BYTES = Integer.BYTES + Byte.BYTES + Integer.BYTES;
+
+    private final boolean compress;
+
+    public PageSerde(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * @param compression none 或 lz4
+     */
+    public static PageSerde create(String compression) {
+        switch (compression.toLowerCase(ENGLISH)) {
+            case "none":
+                return new PageSerde(false);
+            case "lz4":
+                return new PageSerde(true);
+            default:
+                throw new IllegalArgumentException("unknown compression: " + compression);
+        }
+    }
+
+    public Slice serialize(Page page) {
+        DynamicSliceOutput blocks = new DynamicSliceOutput((int) Math.min(page.getSizeInBytes() + 64 * page.getChannelCount() + 64, Integer.MAX_VALUE));
+        blocks.writeInt(page.getChannelCount());
+        for (int channel = 0; channel < page.getChannelCount(); channel++) {
+            writeBlock(blocks, page.getBlock(channel));
+        }
+        Slice payload = blocks.slice();
+        byte codec = UNCOMPRESSED;
+        if (compress) {
+            Slice compressed = compress(payload);
+            if (compressed.length() < payload.length() * MINIMUM_COMPRESSION_RATIO) {
+                payload = compressed;
+                codec = LZ4;
+            }
+        }
+        DynamicSliceOutput output = new DynamicSliceOutput(HEADER_BYTES + payload.length());
+        output.writeInt(page.getPositionCount());
+        output.writeByte(codec);
+        output.writeInt(blocks.size());
+        output.writeBytes(payload);
+        return output.slice();
+    }
+
+    public Page deserialize(Slice serialized) {
+        SliceInput input = serialized.getInput();
+        int positionCount = input.readInt();
+        byte codec = input.readByte();
+        int uncompressedSize = input.readInt();
+        if (codec == LZ4) {
+            input = decompress(input, uncompressedSize).getInput();
+        } else {
+            checkArgument(codec == UNCOMPRESSED, "unknown page compression: %s", codec);
+        }
+        int channelCount = input.readInt();
+        Block[] blocks = new Block[channelCount];
+        for (int channel = 0; channel < channelCount; channel++) {
+            blocks[channel] = readBlock(input);
+        }
+        return new Page(positionCount, blocks);
+    }
+
+    @Override
+    public Block readBlock(SliceInput input) {
+        int length = input.readInt();
+        String name = input.readSlice(length).toStringUtf8();
+        return getEncoding(name).readBlock(this, input);
+    }
+
+    @Override
+    public void writeBlock(SliceOutput output, Block block) {
+        while (true) {
+            BlockEncoding encoding = getEncoding(block.getEncodingName());
+            // 与 Presto 相同, 部分编码写出前会换成更紧凑的块, 例如只引用少量字典项的 DictionaryBlock
+            Optional<Block> replacement = encoding.replacementBlockForWrite(block);
+            if (replacement.isPresent()) {
+                block = replacement.get();
+                continue;
+            }
+            byte[] name = encoding.getName().getBytes(UTF_8);
+            output.writeInt(name.length);
+            output.writeBytes(name);
+            encoding.writeBlock(this, output, block);
+            return;
+        }
+    }
+
+    private static BlockEncoding getEncoding(String name) {
+        BlockEncoding encoding = ENCODINGS.get(name);
+        checkArgument(encoding != null, "unsupported block encoding: %s", name);
+        return encoding;
+    }
+
+    private static Slice compress(Slice payload) {
+        DynamicSliceOutput output = new DynamicSliceOutput(payload.length() / 2 + 64);
+        try (BlockLZ4CompressorOutputStream lz4 = new BlockLZ4CompressorOutputStream(output)) {
+            payload.getBytes(0, lz4, payload.length());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.slice();
+    }
+
+    private static Slice decompress(InputStream compressed, int uncompressedSize) {
+        byte[] buffer = new byte[uncompressedSize];
+        try (InputStream lz4 = new BlockLZ4CompressorInputStream(compressed)) {
+            readFully(lz4, buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Slices.wrappedBuffer(buffer);
+    }
+
+    private static Map<String, BlockEncoding> createEncodings(BlockEncoding... encodings) {
+        ImmutableMap.Builder<String, BlockEncoding> builder = ImmutableMap.builder();
+        for (BlockEncoding encoding : encodings) {
+            builder.put(encoding.getName(), encoding);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,36 @@
+package com.aihuishou.bi.sync;
+
+import java.sql.Connection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 为每个写入线程创建目标端的 ConnectorPageSink, 由 sync.sink 配置决定写入方式, 提交批量可参考 tuner
+ */
+public interface PageSinkFactory {
+    CommitAwarePageSink createPageSink(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, Connection connection, AdaptiveTuner tuner);
+
+    /**
+     * commit 出错后重写时使用的写入端, 必须按主键覆盖已提交的行. 为空时 (表没有主键) commit 出错不重试, 避免重复写入
+     */
+    default Optional<PageSinkFactory> getReplayFactory() {
+        return Optional.empty();
+    }
+
+    /**
+     * @param replayFactory 按主键覆盖的写入端, 本身出错时也用它重写
+     */
+    static PageSinkFactory withReplay(PageSinkFactory factory, PageSinkFactory replayFactory) {
+        return new PageSinkFactory() {
+            @Override
+            public CommitAwarePageSink createPageSink(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, Connection connection, AdaptiveTuner tuner) {
+                return factory.createPageSink(metaInfo, columnHandles, connection, tuner);
+            }
+
+            @Override
+            public Optional<PageSinkFactory> getReplayFactory() {
+                return Optional.of(withReplay(replayFactory, replayFactory));
+            }
+        };
+    }
+}
@@ -0,0 +1,242 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.PrestoException;
+import com.facebook.presto.spi.block.Block;
+import com.facebook.presto.spi.type.DecimalType;
+import com.facebook.presto.spi.type.TimestampType;
+import com.facebook.presto.spi.type.Type;
+import io.airlift.slice.Slice;
+import io.airlift.slice.SliceOutput;
+
+import java.math.BigInteger;
+import java.util.List;
+
+import static com.facebook.presto.spi.StandardErrorCode.NOT_SUPPORTED;
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.BooleanType.BOOLEAN;
+import static com.facebook.presto.spi.type.Chars.isCharType;
+import static com.facebook.presto.spi.type.DateType.DATE;
+import static com.facebook.presto.spi.type.Decimals.decodeUnscaledValue;
+import static com.facebook.presto.spi.type.DoubleType.DOUBLE;
+import static com.facebook.presto.spi.type.IntegerType.INTEGER;
+import static com.facebook.presto.spi.type.RealType.REAL;
+import static com.facebook.presto.spi.type.SmallintType.SMALLINT;
+import static com.facebook.presto.spi.type.TinyintType.TINYINT;
+import static com.facebook.presto.spi.type.VarbinaryType.VARBINARY;
+import static com.facebook.presto.spi.type.Varchars.isVarcharType;
+import static java.lang.Math.toIntExact;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * 把 Page 编码成 PostgreSQL COPY ... (FORMAT binary) 的字节流:
+ * 文件头为签名 PGCOPY\n\377\r\n\0、int32 标志位和 int32 扩展区长度, 每行为 int16 字段数, 每个字段为 int32 长度 (NULL 为 -1) 加内容,
+ * 文件尾为 int16 -1. 所有整数都是大端序, SliceOutput 按小端写入, 写之前先翻转字节.
+ * 字段内容与目标列类型的二进制接收格式一一对应 (见 {@link PostgresDialect#toSqlType}), 服务端不做文本解析.
+ * 只依赖 Block/Type, 可以脱离数据库单独验证
+ */
+public class PostgresCopyEncoder {
+    private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0};
+    private static final int NULL_LENGTH = -1;
+    /**
+     * PostgreSQL 的日期时间以 2000-01-01 为零点
+     */
+    private static final long EPOCH_DAYS = 10_957;
+    private static final long EPOCH_MILLIS = EPOCH_DAYS * 86_400_000L;
+    private static final int NUMERIC_NEGATIVE = 0x4000;
+
+    private final ValueEncoder[] encoders;
+    private final TemporalCodec temporalCodec;
+    /**
+     * decimal 的十进制数字, 最多 38 位, 两端各补齐最多 3 位凑成 4 位一组
+     */
+    private final byte[] digits = new byte[44];
+    private final short[] groups = new short[11];
+
+    public PostgresCopyEncoder(List<Type> types) {
+        this(types, TemporalCodec.UNSHIFTED);
+    }
+
+    /**
+     * @param temporalCodec TIMESTAMP 从源库时区换算到目标库时区后输出本地时间, 与 JdbcPageSink 保持一致
+     */
+    public PostgresCopyEncoder(List<Type> types, TemporalCodec temporalCodec) {
+        this.temporalCodec = temporalCodec;
+        this.encoders = types.stream()
+                .map(this::createValueEncoder)
+                .toArray(ValueEncoder[]::new);
+    }
+
+    public void writeHeader(SliceOutput output) {
+        output.writeBytes(SIGNATURE);
+        writeInt(0, output);
+        writeInt(0, output);
+    }
+
+    public void writeTrailer(SliceOutput output) {
+        writeShort(-1, output);
+    }
+
+    public void encodeRow(Page page, int position, SliceOutput output) {
+        writeShort(encoders.length, output);
+        for (int channel = 0; channel < encoders.length; channel++) {
+            Block block = page.getBlock(channel);
+            if (block.isNull(position)) {
+                writeInt(NULL_LENGTH, output);
+            } else {
+                encoders[channel].encode(block, position, output);
+            }
+        }
+    }
+
+    public void encodePage(Page page, SliceOutput output) {
+        for (int position = 0; position < page.getPositionCount(); position++) {
+            encodeRow(page, position, output);
+        }
+    }
+
+    /**
+     * 把一个非 NULL 的单元格写成长度加内容, 每列在构造时确定一次, 与 {@link ColumnBinders} 相同
+     */
+    private interface ValueEncoder {
+        void encode(Block block, int position, SliceOutput output);
+    }
+
+    private ValueEncoder createValueEncoder(Type type) {
+        if (BOOLEAN.equals(type)) {
+            return (block, position, output) -> {
+                writeInt(1, output);
+                output.writeByte(type.getBoolean(block, position) ? 1 : 0);
+            };
+        }
+        if (BIGINT.equals(type)) {
+            return (block, position, output) -> {
+                writeInt(8, output);
+                writeLong(type.getLong(block, position), output);
+            };
+        }
+        if (INTEGER.equals(type)) {
+            return (block, position, output) -> {
+                writeInt(4, output);
+                writeInt(toIntExact(type.getLong(block, position)), output);
+            };
+        }
+        if (SMALLINT.equals(type) || TINYINT.equals(type)) {
+            return (block, position, output) -> {
+                writeInt(2, output);
+                writeShort((int) type.getLong(block, position), output);
+            };
+        }
+        if (DOUBLE.equals(type)) {
+            return (block, position, output) -> {
+                writeInt(8, output);
+                writeLong(Double.doubleToRawLongBits(type.getDouble(block, position)), output);
+            };
+        }
+        if (REAL.equals(type)) {
+            // REAL 的值就是 float 的位模式
+            return (block, position, output) -> {
+                writeInt(4, output);
+                writeInt(toIntExact(type.getLong(block, position)), output);
+            };
+        }
+        if (type instanceof DecimalType) {
+            DecimalType decimalType = (DecimalType) type;
+            int scale = decimalType.getScale();
+            if (decimalType.isShort()) {
+                return (block, position, output) -> {
+                    long unscaled = type.getLong(block, position);
+                    // 短 decimal 最多 18 位, 取负不会溢出
+                    int length = formatDigits(Math.abs(unscaled));
+                    writeNumeric(digits.length - length, length, unscaled < 0, scale, output);
+                };
+            }
+            return (block, position, output) -> {
+                BigInteger unscaled = decodeUnscaledValue(type.getSlice(block, position));
+                byte[] text = unscaled.abs().toString().getBytes(US_ASCII);
+                System.arraycopy(text, 0, digits, digits.length - text.length, text.length);
+                writeNumeric(digits.length - text.length, text.length, unscaled.signum() < 0, scale, output);
+            };
+        }
+        if (isVarcharType(type) || isCharType(type) || VARBINARY.equals(type)) {
+            return (block, position, output) -> {
+                Slice slice = type.getSlice(block, position);
+                writeInt(slice.length(), output);
+                output.writeBytes(slice);
+            };
+        }
+        if (DATE.equals(type)) {
+            return (block, position, output) -> {
+                writeInt(4, output);
+                writeInt(toIntExact(type.getLong(block, position) - EPOCH_DAYS), output);
+            };
+        }
+        if (type instanceof TimestampType) {
+            // 不带时区的 timestamp: 本地时间距 2000-01-01 的微秒数
+            return (block, position, output) -> {
+                writeInt(8, output);
+                writeLong((temporalCodec.shift(type.getLong(block, position)) - EPOCH_MILLIS) * 1000, output);
+            };
+        }
+        throw new PrestoException(NOT_SUPPORTED, "Unsupported column type: " + type.getDisplayName());
+    }
+
+    /**
+     * numeric 的二进制格式: int16 组数、int16 权重 (第一组的 10000 的幂次)、int16 符号、int16 小数位数, 然后每组 4 位十进制数字一个 int16.
+     * 小数部分在右边补 0 凑成整组, 整数部分在左边补 0 凑成整组, 末尾全 0 的组省略; 值为 0 时没有组
+     * @param offset digits 中第一位非 0 数字 (值为 0 时为唯一的 0) 的位置
+     */
+    private void writeNumeric(int offset, int length, boolean negative, int scale, SliceOutput output) {
+        int count = 0;
+        int weight = 0;
+        if (length > 1 || digits[offset] != '0') {
+            int rightPad = (4 - scale % 4) % 4;
+            int leftPad = (4 - (length + rightPad) % 4) % 4;
+            int total = leftPad + length + rightPad;
+            weight = total / 4 - (scale + rightPad) / 4 - 1;
+            for (int group = 0; group < total / 4; group++) {
+                int value = 0;
+                for (int i = group * 4; i < group * 4 + 4; i++) {
+                    int index = i - leftPad;
+                    value = value * 10 + (index >= 0 && index < length ? digits[offset + index] - '0' : 0);
+                }
+                groups[group] = (short) value;
+                if (value != 0) {
+                    count = group + 1;
+                }
+            }
+        }
+        writeInt(8 + 2 * count, output);
+        writeShort(count, output);
+        writeShort(weight, output);
+        writeShort(negative && count > 0 ? NUMERIC_NEGATIVE : 0, output);
+        writeShort(scale, output);
+        for (int group = 0; group < count; group++) {
+            writeShort(groups[group], output);
+        }
+    }
+
+    /**
+     * 把非负数写到 digits 末尾, 返回位数
+     */
+    private int formatDigits(long value) {
+        int index = digits.length;
+        do {
+            digits[--index] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        return digits.length - index;
+    }
+
+    private static void writeShort(int value, SliceOutput output) {
+        output.writeShort(Short.reverseBytes((short) value));
+    }
+
+    private static void writeInt(int value, SliceOutput output) {
+        output.writeInt(Integer.reverseBytes(value));
+    }
+
+    private static void writeLong(long value, SliceOutput output) {
+        output.writeLong(Long.reverseBytes(value));
+    }
+}
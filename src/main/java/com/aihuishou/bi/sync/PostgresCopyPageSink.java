@@ -0,0 +1,164 @@
+package com.aihuishou.bi.sync;
+
+import com.aihuishou.bi.utils.Utils;
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.type.Type;
+import com.google.common.collect.ImmutableList;
+import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.slice.Slice;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static java.lang.Math.toIntExact;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.stream.Collectors.joining;
+
+/**
+ * PostgreSQL 目标库的 COPY FROM STDIN (FORMAT binary) 写入端: 页由 {@link PostgresCopyEncoder} 编码到内存缓冲区,
+ * 每满 FLUSH_BYTES 通过 CopyIn 发给服务端; 累计到 tuner 的提交行数后写出文件尾, 结束本次 COPY 并提交, 下一页开始新的 COPY.
+ * 服务端按列类型的二进制格式直接接收, 没有 SQL 解析和文本转换
+ */
+public class PostgresCopyPageSink implements CommitAwarePageSink {
+    private static final int FLUSH_BYTES = 64 * 1024;
+
+    private final Connection connection;
+    private final CopyInFactory copyInFactory;
+    private final PostgresCopyEncoder encoder;
+    private final String table;
+    private final String copySql;
+    private final AdaptiveTuner tuner;
+    private final TableMetrics metrics;
+    private final DynamicSliceOutput buffer = new DynamicSliceOutput(FLUSH_BYTES + FLUSH_BYTES / 4);
+    private CopyIn copyIn;
+    private long copyStart;
+    private long uncommittedRows;
+    private long committedRows;
+
+    /**
+     * 打开 COPY 的方式, 测试时可以换成进程内的替身
+     */
+    @FunctionalInterface
+    interface CopyInFactory {
+        CopyIn copyIn(String sql) throws SQLException;
+    }
+
+    public PostgresCopyPageSink(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, Connection connection, AdaptiveTuner tuner, TableMetrics metrics,
+                                TemporalCodec temporalCodec, Dialect dialect) {
+        this(metaInfo, columnHandles, connection, sql -> connection.unwrap(PGConnection.class).getCopyAPI().copyIn(sql), tuner, metrics, temporalCodec, dialect);
+    }
+
+    PostgresCopyPageSink(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, Connection connection, CopyInFactory copyInFactory, AdaptiveTuner tuner,
+                         TableMetrics metrics, TemporalCodec temporalCodec, Dialect dialect) {
+        this.connection = connection;
+        this.copyInFactory = copyInFactory;
+        this.tuner = tuner;
+        this.metrics = metrics;
+        ImmutableList.Builder<Type> types = ImmutableList.builder();
+        for (JdbcColumnHandle column : columnHandles) {
+            types.add(column.getColumnType());
+        }
+        this.encoder = new PostgresCopyEncoder(types.build(), temporalCodec);
+        this.table = metaInfo.getTable();
+        this.copySql = new StringBuilder()
+                .append("COPY ").append(dialect.quote(metaInfo.getTargetDb(), metaInfo.getTable()))
+                .append(" (").append(columnHandles.stream().map(column -> dialect.quote(column.getColumnName())).collect(joining(","))).append(")")
+                .append(" FROM STDIN (FORMAT binary)")
+                .toString();
+        try {
+            this.connection.setAutoCommit(false);
+            System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " Executing: " + copySql);
+        } catch (SQLException e) {
+            Utils.close(connection, null, null);
+            throw new RuntimeException("sql error ", e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<?> appendPage(Page page) {
+        if (page.getPositionCount() == 0) {
+            return NOT_BLOCKED;
+        }
+        try {
+            if (copyIn == null) {
+                copyStart = System.nanoTime();
+                copyIn = copyInFactory.copyIn(copySql);
+                encoder.writeHeader(buffer);
+            }
+            for (int position = 0; position < page.getPositionCount(); position++) {
+                encoder.encodeRow(page, position, buffer);
+                if (buffer.size() >= FLUSH_BYTES) {
+                    flush();
+                }
+            }
+            uncommittedRows += page.getPositionCount();
+            if (uncommittedRows >= tuner.getCommitRows()) {
+                commit();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("sql error ", e);
+        }
+        return NOT_BLOCKED;
+    }
+
+    private void flush() throws SQLException {
+        Slice chunk = buffer.slice();
+        copyIn.writeToCopy(chunk.getBytes(), 0, chunk.length());
+        buffer.reset();
+    }
+
+    private void commit() throws SQLException {
+        encoder.writeTrailer(buffer);
+        flush();
+        long copied = copyIn.endCopy();
+        copyIn = null;
+        // 行数不一致说明服务端收到的数据与发送的不同, 不能提交后按成功计数
+        if (copied != uncommittedRows) {
+            connection.rollback();
+            throw new IllegalStateException(table + " copy expected " + uncommittedRows + " rows but copied " + copied);
+        }
+        long executed = System.nanoTime();
+        CommitFailedException.commit(connection);
+        long end = System.nanoTime();
+        metrics.batchExecuted(executed - copyStart);
+        metrics.committed(end - executed);
+        tuner.batchCommitted(toIntExact(uncommittedRows), end - copyStart);
+        committedRows += uncommittedRows;
+        uncommittedRows = 0;
+    }
+
+    @Override
+    public long getCommittedRows() {
+        return committedRows;
+    }
+
+    @Override
+    public CompletableFuture<Collection<Slice>> finish() {
+        try (Connection connection = this.connection) {
+            if (copyIn != null) {
+                commit();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("sql error ", e);
+        }
+        return completedFuture(ImmutableList.of());
+    }
+
+    @Override
+    public void abort() {
+        try (Connection connection = this.connection) {
+            if (copyIn != null && copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+            copyIn = null;
+            connection.rollback();
+        } catch (SQLException e) {
+            throw new RuntimeException("sql error ", e);
+        }
+    }
+}
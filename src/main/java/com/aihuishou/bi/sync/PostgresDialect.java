@@ -0,0 +1,86 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.type.DecimalType;
+import com.facebook.presto.spi.type.Type;
+import com.facebook.presto.spi.type.VarcharType;
+import com.google.common.base.Joiner;
+
+import java.sql.Connection;
+import java.util.List;
+
+import static com.facebook.presto.spi.type.TimeType.TIME;
+import static com.facebook.presto.spi.type.TimestampType.TIMESTAMP;
+import static com.facebook.presto.spi.type.TinyintType.TINYINT;
+import static com.facebook.presto.spi.type.VarbinaryType.VARBINARY;
+import static com.facebook.presto.spi.type.Varchars.isVarcharType;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.util.Collections.nCopies;
+import static java.util.Locale.ENGLISH;
+
+/**
+ * PostgreSQL: 双引号, 名称转成小写 (与不加引号时的折叠规则一致, 手写的 SQL 不必加引号); upsert 为 INSERT ... ON CONFLICT,
+ * 批量写入为二进制格式的 COPY FROM STDIN, 见 {@link PostgresCopyPageSink}.
+ * 表名前的库名作为 schema, 需要事先在目标数据库中建好
+ */
+public class PostgresDialect implements Dialect {
+    @Override
+    public String getIdentifierQuote() {
+        return "\"";
+    }
+
+    @Override
+    public String normalize(String identifier) {
+        return identifier == null ? null : identifier.toLowerCase(ENGLISH);
+    }
+
+    /**
+     * 列类型必须与 {@link PostgresCopyEncoder} 写出的二进制格式一一对应: TINYINT 没有对应类型, 建成 smallint 并按 int2 写出
+     */
+    @Override
+    public String toSqlType(Type type) {
+        if (TINYINT.equals(type)) {
+            return "smallint";
+        }
+        if (VARBINARY.equals(type)) {
+            return "bytea";
+        }
+        if (TIMESTAMP.equals(type)) {
+            return "timestamp(3)";
+        }
+        if (TIME.equals(type)) {
+            return "time(3)";
+        }
+        if (type instanceof DecimalType) {
+            return String.format("numeric(%s, %s)", ((DecimalType) type).getPrecision(), ((DecimalType) type).getScale());
+        }
+        if (isVarcharType(type) && ((VarcharType) type).isUnbounded()) {
+            return "text";
+        }
+        return Dialect.super.toSqlType(type);
+    }
+
+    @Override
+    public String buildUpsertSql(String table, List<String> columns, List<String> keys) {
+        List<String> updates = columns.stream()
+                .filter(column -> !keys.contains(column))
+                .map(column -> column + "=EXCLUDED." + column)
+                .collect(toImmutableList());
+        return new StringBuilder()
+                .append("INSERT INTO ").append(table)
+                .append(" (").append(Joiner.on(',').join(columns)).append(")")
+                .append(" VALUES (").append(Joiner.on(',').join(nCopies(columns.size(), "?"))).append(")")
+                .append(" ON CONFLICT (").append(Joiner.on(',').join(keys)).append(")")
+                // 所有列都是主键, 重复时什么都不用改
+                .append(updates.isEmpty() ? " DO NOTHING" : " DO UPDATE SET " + Joiner.on(',').join(updates))
+                .toString();
+    }
+
+    @Override
+    public CommitAwarePageSink createBulkPageSink(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, Connection connection, AdaptiveTuner tuner,
+                                                  List<String> upsertKey, TableMetrics metrics, TemporalCodec temporalCodec, long chunkBytes, MemoryPool memoryPool) {
+        if (!upsertKey.isEmpty()) {
+            return new JdbcPageSink(metaInfo, columnHandles, connection, tuner, upsertKey, metrics, temporalCodec);
+        }
+        return new PostgresCopyPageSink(metaInfo, columnHandles, connection, tuner, metrics, temporalCodec, this);
+    }
+}
@@ -0,0 +1,109 @@
+package com.aihuishou.bi.sync;
+
+import com.aihuishou.bi.utils.Utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * 拷贝过程中需要跨进程保留的少量状态, 每次修改后整体重写, 频繁的修改可以按间隔合并写出; 路径为空时只保存在内存中
+ */
+class PropertiesFile {
+    private final Path file;
+    private final String comment;
+    private final Properties properties = new Properties();
+    private boolean dirty;
+    private long lastStored;
+
+    PropertiesFile(String file, String comment) {
+        this.file = file == null || file.isEmpty() ? null : Paths.get(file);
+        this.comment = comment;
+        if (this.file != null && Files.exists(this.file)) {
+            try (InputStream input = Files.newInputStream(this.file)) {
+                properties.load(input);
+            } catch (IOException e) {
+                // 状态文件损坏不影响拷贝, 从头开始
+                System.err.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " ignore state file " + this.file + ": " + e);
+            }
+        }
+    }
+
+    synchronized Optional<String> get(String key) {
+        return Optional.ofNullable(properties.getProperty(key)).map(String::trim);
+    }
+
+    synchronized Optional<Long> getLong(String key) {
+        try {
+            return get(key).map(Long::parseLong);
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    synchronized void set(Map<String, String> values) {
+        properties.putAll(values);
+        store();
+    }
+
+    /**
+     * 距上次写文件不到 intervalMillis 时只修改内存, 由之后的写入或 {@link #flush()} 一起写出
+     */
+    synchronized void setThrottled(Map<String, String> values, long intervalMillis) {
+        properties.putAll(values);
+        dirty = true;
+        if (System.currentTimeMillis() - lastStored >= intervalMillis) {
+            store();
+        }
+    }
+
+    synchronized void flush() {
+        if (dirty) {
+            store();
+        }
+    }
+
+    /**
+     * 删除以 prefix 开头的所有 key
+     */
+    synchronized void removePrefix(String prefix) {
+        if (properties.keySet().removeIf(key -> ((String) key).startsWith(prefix))) {
+            store();
+        }
+    }
+
+    boolean isPersistent() {
+        return file != null;
+    }
+
+    synchronized void remove(String key) {
+        if (properties.remove(key) != null) {
+            store();
+        }
+    }
+
+    private void store() {
+        dirty = false;
+        lastStored = System.currentTimeMillis();
+        if (file == null) {
+            return;
+        }
+        try {
+            // 先写临时文件再替换, 进程中途退出也不会留下半个文件
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (OutputStream output = Files.newOutputStream(temp)) {
+                properties.store(output, comment);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " save state file " + file + " failed: " + e);
+        }
+    }
+}
@@ -2,22 +2,22 @@ package com.aihuishou.bi.sync;
 
 import com.facebook.presto.spi.type.*;
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
 import com.aihuishou.bi.utils.Utils;
 import io.airlift.slice.Slice;
-import org.joda.time.DateTimeZone;
 
 import java.sql.*;
+import java.time.LocalTime;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import static com.facebook.presto.spi.type.DateTimeEncoding.unpackMillisUtc;
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Strings.isNullOrEmpty;
 import static java.lang.Float.intBitsToFloat;
 import static java.util.Objects.requireNonNull;
-import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.stream.Collectors.joining;
-import static org.joda.time.DateTimeZone.UTC;
 
 public class QueryBuilder {
     private final String quote;
@@ -43,20 +43,35 @@ public class QueryBuilder {
                 validType instanceof VarcharType;
     }
 
-    public PreparedStatement buildSql(Connection connection, String catalog, String schema, String table, List<JdbcColumnHandle> columns) throws SQLException {
-        StringBuilder sql = new StringBuilder();
+    public PreparedStatement buildSql(Connection connection, String catalog, String schema, String table, List<JdbcColumnHandle> columns, JdbcSplit split) throws SQLException {
+        return buildSql(connection, catalog, schema, table, columns, split, "");
+    }
+
+    public PreparedStatement buildSql(Connection connection, String catalog, String schema, String table, List<JdbcColumnHandle> columns, JdbcSplit split, String suffix) throws SQLException {
         String columnNames = columns.stream()
                 .map(JdbcColumnHandle::getColumnName)
                 .map(this::quote)
                 .collect(joining(", "));
+        return buildSql(connection, catalog, schema, table, columns.isEmpty() ? "null" : columnNames, split, suffix);
+    }
 
-        sql.append("SELECT ");
-        sql.append(columnNames);
-        if (columns.isEmpty()) {
-            sql.append("null");
-        }
+    /**
+     * @param projection SELECT 后面的表达式, 调用方负责引用列名
+     * @param suffix 追加在 WHERE 之后, 例如 ORDER BY/LIMIT
+     */
+    public PreparedStatement buildSql(Connection connection, String catalog, String schema, String table, String projection, JdbcSplit split, String suffix) throws SQLException {
+        StringBuilder sql = new StringBuilder()
+                .append("SELECT ")
+                .append(projection)
+                .append(" FROM ");
+        return prepare(connection, sql, catalog, schema, table, split, suffix);
+    }
 
-        sql.append(" FROM ");
+    public PreparedStatement buildDeleteSql(Connection connection, String catalog, String schema, String table, JdbcSplit split) throws SQLException {
+        return prepare(connection, new StringBuilder("DELETE FROM "), catalog, schema, table, split, "");
+    }
+
+    private PreparedStatement prepare(Connection connection, StringBuilder sql, String catalog, String schema, String table, JdbcSplit split, String suffix) throws SQLException {
         if (!isNullOrEmpty(catalog)) {
             sql.append(quote(catalog)).append('.');
         }
@@ -67,12 +82,15 @@ public class QueryBuilder {
 
         List<TypeAndValue> accumulator = new ArrayList<>();
 
-        List<String> clauses = Collections.emptyList();
+        List<String> clauses = toConjuncts(split, accumulator);
         if (!clauses.isEmpty()) {
             sql.append(" WHERE ").append(Joiner.on(" AND ").join(clauses));
         }
+        sql.append(suffix);
 
         PreparedStatement statement = Utils.getMysqlPreparedStatement(connection, sql.toString());
+        // DATE/TIME/TIMESTAMP 的值是不带时区的本地时间, 能按文本比较的库直接绑定字面量, 不经过 JVM 时区
+        boolean textLiterals = !accumulator.isEmpty() && TemporalCodec.supportsTextLiterals(connection);
 
         for (int i = 0; i < accumulator.size(); i++) {
             TypeAndValue typeAndValue = accumulator.get(i);
@@ -91,14 +109,23 @@ public class QueryBuilder {
             } else if (typeAndValue.getType().equals(BooleanType.BOOLEAN)) {
                 statement.setBoolean(i + 1, (boolean) typeAndValue.getValue());
             } else if (typeAndValue.getType().equals(DateType.DATE)) {
-                long millis = DAYS.toMillis((long) typeAndValue.getValue());
-                statement.setDate(i + 1, new Date(UTC.getMillisKeepLocal(DateTimeZone.getDefault(), millis)));
+                long days = (long) typeAndValue.getValue();
+                if (textLiterals) {
+                    statement.setString(i + 1, TemporalCodec.formatDate(days));
+                } else {
+                    statement.setDate(i + 1, TemporalCodec.toDate(days));
+                }
             } else if (typeAndValue.getType().equals(TimeType.TIME)) {
-                statement.setTime(i + 1, new Time((long) typeAndValue.getValue()));
+                statement.setTime(i + 1, Time.valueOf(LocalTime.ofNanoOfDay(MILLISECONDS.toNanos((long) typeAndValue.getValue()))));
             } else if (typeAndValue.getType().equals(TimeWithTimeZoneType.TIME_WITH_TIME_ZONE)) {
                 statement.setTime(i + 1, new Time(unpackMillisUtc((long) typeAndValue.getValue())));
             } else if (typeAndValue.getType().equals(TimestampType.TIMESTAMP)) {
-                statement.setTimestamp(i + 1, new Timestamp((long) typeAndValue.getValue()));
+                long localMillis = (long) typeAndValue.getValue();
+                if (textLiterals) {
+                    statement.setString(i + 1, TemporalCodec.formatTimestamp(localMillis));
+                } else {
+                    statement.setTimestamp(i + 1, TemporalCodec.toTimestamp(localMillis));
+                }
             } else if (typeAndValue.getType().equals(TimestampWithTimeZoneType.TIMESTAMP_WITH_TIME_ZONE)) {
                 statement.setTimestamp(i + 1, new Timestamp(unpackMillisUtc((long) typeAndValue.getValue())));
             } else if (typeAndValue.getType() instanceof VarcharType) {
@@ -111,6 +138,38 @@ public class QueryBuilder {
         return statement;
     }
 
+    private List<String> toConjuncts(JdbcSplit split, List<TypeAndValue> accumulator) {
+        ImmutableList.Builder<String> builder = ImmutableList.builder();
+        for (KeyRange range : split.getRanges()) {
+            Type type = range.getColumn().getColumnType();
+            checkArgument(isAcceptedType(type) && type.getJavaType() == long.class, "Can't split on type: %s", type);
+            builder.add(toPredicate(range, accumulator));
+        }
+        return builder.build();
+    }
+
+    private String toPredicate(KeyRange range, List<TypeAndValue> accumulator) {
+        String columnName = quote(range.getColumn().getColumnName());
+        Type type = range.getColumn().getColumnType();
+        List<String> rangeConjuncts = new ArrayList<>();
+        if (range.getLow().isPresent()) {
+            rangeConjuncts.add(toPredicate(columnName, range.isLowInclusive() ? ">=" : ">", range.getLow().get(), type, accumulator));
+        }
+        if (range.getHigh().isPresent()) {
+            rangeConjuncts.add(toPredicate(columnName, range.isHighInclusive() ? "<=" : "<", range.getHigh().get(), type, accumulator));
+        }
+        String predicate = rangeConjuncts.isEmpty() ? columnName + " IS NOT NULL" : Joiner.on(" AND ").join(rangeConjuncts);
+        if (range.isIncludeNulls()) {
+            return "((" + predicate + ") OR " + columnName + " IS NULL)";
+        }
+        return "(" + predicate + ")";
+    }
+
+    private String toPredicate(String columnName, String operator, Object value, Type type, List<TypeAndValue> accumulator) {
+        accumulator.add(new TypeAndValue(type, value));
+        return columnName + " " + operator + " ?";
+    }
+
     private String quote(String name) {
         name = name.replace(quote, quote + quote);
         return quote + name + quote;
@@ -0,0 +1,124 @@
+package com.aihuishou.bi.sync;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Objects;
+import java.util.Set;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static java.util.Locale.ENGLISH;
+
+/**
+ * 与源库驱动相关的读取方式, 由 {@link #forConnection} 按连接的元数据确定一次;
+ * 同一组选项下同一种 JDBC 类型的读取映射在所有表、所有分片之间共用, 见 {@link StandardReadMappings#jdbcTypeToPrestoType(JdbcTypeHandle, ReadOptions)}
+ */
+public final class ReadOptions {
+    /**
+     * 只使用标准 JDBC 取值方法, 任意驱动可用
+     */
+    public static final ReadOptions DEFAULT = new ReadOptions(false, false);
+
+    private final boolean textValues;
+    private final boolean rawUtf8;
+
+    /**
+     * @param textValues DECIMAL 和日期时间列按 getBytes 返回的文本解析
+     * @param rawUtf8 字符列的 getBytes 即 UTF-8 字节
+     */
+    public ReadOptions(boolean textValues, boolean rawUtf8) {
+        this.textValues = textValues;
+        this.rawUtf8 = rawUtf8;
+    }
+
+    /**
+     * MySQL 驱动对 DECIMAL 和日期时间列的 getBytes 返回文本, 可以由 {@link DecimalCodec} 和 {@link TemporalCodec} 直接解析;
+     * 字符列的 getBytes 返回按 character_set_results 编码的原始字节, 该字符集为 UTF-8 时可以直接作为 Slice.
+     * character_set_results 为 NULL (Connector/J 5.1 在 URL 没有 characterSetResults 时的设置) 时服务端按列自身的字符集返回,
+     * 不能对整个连接假定为 UTF-8, 由 {@link #findUtf8Columns} 按列判断
+     */
+    public static ReadOptions forConnection(Connection connection) throws SQLException {
+        String product = connection.getMetaData().getDatabaseProductName();
+        if (!"MySQL".equalsIgnoreCase(product)) {
+            return DEFAULT;
+        }
+        return new ReadOptions(true, isUtf8(resultsCharset(connection)));
+    }
+
+    /**
+     * MySQL 字符集名是否为 UTF-8, utf8 是 utf8mb3 的别名, 编码是 utf8mb4 的子集
+     */
+    static boolean isUtf8(String charset) {
+        return "utf8mb4".equalsIgnoreCase(charset) || "utf8".equalsIgnoreCase(charset) || "utf8mb3".equalsIgnoreCase(charset);
+    }
+
+    /**
+     * character_set_results 为 NULL 时, 源表中字符集为 UTF-8 的列, 小写列名. 这些列的 getBytes 同样是 UTF-8 字节, 可以使用 {@link #withRawUtf8()};
+     * 不是 MySQL, 或者整个连接已经是 UTF-8 时不需要查询, 返回空
+     */
+    public Set<String> findUtf8Columns(Connection connection, String schema, String table) throws SQLException {
+        if (!textValues || rawUtf8) {
+            return ImmutableSet.of();
+        }
+        ImmutableSet.Builder<String> columns = ImmutableSet.builder();
+        try (PreparedStatement query = connection.prepareStatement(
+                "SELECT column_name FROM information_schema.columns WHERE table_schema = ? AND table_name = ? AND character_set_name IN ('utf8mb4', 'utf8', 'utf8mb3')")) {
+            query.setString(1, schema);
+            query.setString(2, table);
+            try (ResultSet resultSet = query.executeQuery()) {
+                while (resultSet.next()) {
+                    columns.add(resultSet.getString(1).toLowerCase(ENGLISH));
+                }
+            }
+        }
+        return columns.build();
+    }
+
+    public ReadOptions withRawUtf8() {
+        return new ReadOptions(textValues, true);
+    }
+
+    private static String resultsCharset(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT @@character_set_results")) {
+            return resultSet.next() ? resultSet.getString(1) : null;
+        }
+    }
+
+    public boolean isTextValues() {
+        return textValues;
+    }
+
+    public boolean isRawUtf8() {
+        return rawUtf8;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(textValues, rawUtf8);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        ReadOptions that = (ReadOptions) obj;
+        return textValues == that.textValues && rawUtf8 == that.rawUtf8;
+    }
+
+    @Override
+    public String toString() {
+        return toStringHelper(this)
+                .add("textValues", textValues)
+                .add("rawUtf8", rawUtf8)
+                .toString();
+    }
+}
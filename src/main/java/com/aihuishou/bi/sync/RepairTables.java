@@ -0,0 +1,26 @@
+package com.aihuishou.bi.sync;
+
+import lombok.Data;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * sync.repair 配置: 这些表在目标表已存在时不重建, 只按主键分块校验, 重新拷贝不一致的块
+ */
+@Data
+public class RepairTables {
+    private Set<String> tables = new HashSet<>();
+    /**
+     * 每块的行数, 块越小不一致时重拷的数据越少, 但校验查询越多
+     */
+    private int chunkRows = 10000;
+    /**
+     * 每个表同时计算校验和的块数, 两端各占用这么多连接
+     */
+    private int parallelism = 2;
+
+    public boolean contains(String table) {
+        return tables.contains(table);
+    }
+}
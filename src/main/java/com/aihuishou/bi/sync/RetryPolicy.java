@@ -0,0 +1,64 @@
+package com.aihuishou.bi.sync;
+
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * 连接断开、死锁、锁等待超时这类暂时性错误重试当前分段, 间隔按次数翻倍, 最长一分钟; 其他错误直接失败
+ */
+public class RetryPolicy {
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
+
+    private final int maxRetries;
+    private final long backoffMillis;
+
+    public RetryPolicy(int maxRetries, long backoffMillis) {
+        checkArgument(maxRetries >= 0, "maxRetries is negative");
+        checkArgument(backoffMillis >= 0, "backoffMillis is negative");
+        this.maxRetries = maxRetries;
+        this.backoffMillis = backoffMillis;
+    }
+
+    /**
+     * @param attempt 第几次重试, 从 1 开始
+     */
+    public boolean isRetryable(Throwable e, int attempt) {
+        return attempt <= maxRetries && isTransient(e);
+    }
+
+    public void backoff(int attempt) throws InterruptedException {
+        long millis = backoffMillis;
+        for (int i = 1; i < attempt && millis < MAX_BACKOFF_MILLIS; i++) {
+            millis *= 2;
+        }
+        Thread.sleep(Math.min(millis, MAX_BACKOFF_MILLIS));
+    }
+
+    /**
+     * 沿 cause 链查找 SQLException: 08 开头的 SQLState 为连接异常, 40001 为死锁回滚, MySQL 的 1205 为锁等待超时, 1213 为死锁
+     */
+    static boolean isTransient(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLTransientException || cause instanceof SQLRecoverableException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                SQLException sqlException = (SQLException) cause;
+                String state = sqlException.getSQLState();
+                if (state != null && (state.startsWith("08") || state.equals("40001"))) {
+                    return true;
+                }
+                if (sqlException.getErrorCode() == 1205 || sqlException.getErrorCode() == 1213) {
+                    return true;
+                }
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,54 @@
+package com.aihuishou.bi.sync;
+
+import java.io.Serializable;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 发给应用线程的一行变更: upsert 时为整行, delete 时只有主键.
+ * barrier 不带数据, 应用线程提交手上的批次后 countDown, 用于保存 binlog 位置前确认之前的变更都已提交
+ */
+public final class RowChange {
+    private final BinlogTable table;
+    private final boolean delete;
+    private final Serializable[] values;
+    private final CountDownLatch barrier;
+
+    private RowChange(BinlogTable table, boolean delete, Serializable[] values, CountDownLatch barrier) {
+        this.table = table;
+        this.delete = delete;
+        this.values = values;
+        this.barrier = barrier;
+    }
+
+    public static RowChange upsert(BinlogTable table, Serializable[] row) {
+        return new RowChange(table, false, row, null);
+    }
+
+    public static RowChange delete(BinlogTable table, Serializable[] key) {
+        return new RowChange(table, true, key, null);
+    }
+
+    public static RowChange barrier(CountDownLatch latch) {
+        return new RowChange(null, false, null, latch);
+    }
+
+    public BinlogTable getTable() {
+        return table;
+    }
+
+    public boolean isDelete() {
+        return delete;
+    }
+
+    public Serializable[] getValues() {
+        return values;
+    }
+
+    public CountDownLatch getBarrier() {
+        return barrier;
+    }
+
+    public boolean isBarrier() {
+        return barrier != null;
+    }
+}
@@ -0,0 +1,24 @@
+package com.aihuishou.bi.sync;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Optional;
+
+/**
+ * 上次建立目标表时源表结构的指纹, key 为 库名.表名. 指纹不变时目标表结构无需重建, 变化时保留目标表的续传方式都作废
+ */
+public class SchemaFingerprintStore {
+    private final PropertiesFile file;
+
+    public SchemaFingerprintStore(String file) {
+        this.file = new PropertiesFile(file, "source table schema fingerprints");
+    }
+
+    public Optional<String> get(String key) {
+        return file.get(key);
+    }
+
+    public void save(String key, String fingerprint) {
+        file.set(ImmutableMap.of(key, fingerprint));
+    }
+}
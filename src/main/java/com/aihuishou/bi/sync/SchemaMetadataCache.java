@@ -0,0 +1,179 @@
+package com.aihuishou.bi.sync;
+
+import com.aihuishou.bi.utils.Utils;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.aihuishou.bi.sync.StandardReadMappings.jdbcTypeToPrestoType;
+import static java.util.Locale.ENGLISH;
+
+/**
+ * 源库列元数据的缓存, 第一次用到某个库时一次读出库中所有表的列, 之后每个表直接取用, 不再逐表调用 DatabaseMetaData.getColumns.
+ * MySQL 查询 information_schema.columns, 按 Connector/J getColumns 的规则换算成 JDBC 类型; 其他库用一次库范围的 getColumns.
+ * 相同的类型共用一个 JdbcTypeHandle, 读取映射也按类型缓存
+ */
+public class SchemaMetadataCache {
+    private final DataSource dataSource;
+    private final Map<String, Map<String, List<JdbcColumnHandle>>> schemas = new ConcurrentHashMap<>();
+    private final Map<JdbcTypeHandle, JdbcTypeHandle> typeHandles = new ConcurrentHashMap<>();
+
+    public SchemaMetadataCache(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * @return 表中可以拷贝的列, 按定义顺序; 表不存在或没有支持的列时为空
+     */
+    public List<JdbcColumnHandle> getColumns(String schema, String table) throws SQLException {
+        Map<String, List<JdbcColumnHandle>> tables = schemas.get(schema);
+        if (tables == null) {
+            synchronized (this) {
+                tables = schemas.get(schema);
+                if (tables == null) {
+                    long start = System.nanoTime();
+                    tables = load(schema);
+                    schemas.put(schema, tables);
+                    System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " loaded columns of " + tables.size()
+                            + " tables in " + schema + " took " + (System.nanoTime() - start) / 1_000_000 + " ms");
+                }
+            }
+        }
+        return tables.getOrDefault(table, ImmutableList.of());
+    }
+
+    /**
+     * 库中有表结构变化时丢弃该库的缓存, 下次用到时重新读取
+     */
+    public void invalidate(String schema) {
+        schemas.remove(schema);
+    }
+
+    private Map<String, List<JdbcColumnHandle>> load(String schema) throws SQLException {
+        Map<String, List<JdbcColumnHandle>> tables = new LinkedHashMap<>();
+        try (Connection connection = dataSource.getConnection()) {
+            if (connection.getMetaData().getDatabaseProductName().equalsIgnoreCase("MySQL")) {
+                loadMysql(connection, schema, tables);
+            } else {
+                loadJdbc(connection, schema, tables);
+            }
+        }
+        ImmutableMap.Builder<String, List<JdbcColumnHandle>> result = ImmutableMap.builder();
+        tables.forEach((table, columns) -> result.put(table, ImmutableList.copyOf(columns)));
+        return result.build();
+    }
+
+    private void loadMysql(Connection connection, String schema, Map<String, List<JdbcColumnHandle>> tables) throws SQLException {
+        String sql = "SELECT table_name, column_name, data_type, column_type, character_maximum_length, numeric_precision, numeric_scale"
+                + " FROM information_schema.columns WHERE table_schema = ? ORDER BY table_name, ordinal_position";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, schema);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    String dataType = resultSet.getString("data_type").toLowerCase(ENGLISH);
+                    String columnType = resultSet.getString("column_type").toLowerCase(ENGLISH);
+                    long charLength = resultSet.getLong("character_maximum_length");
+                    boolean isCharacter = !resultSet.wasNull();
+                    int precision = resultSet.getInt("numeric_precision");
+                    int scale = resultSet.getInt("numeric_scale");
+                    int jdbcType = toJdbcType(dataType, columnType);
+                    int columnSize = isCharacter ? (int) Math.min(charLength, Integer.MAX_VALUE) : precision;
+                    add(tables, schema, resultSet.getString("table_name"), resultSet.getString("column_name"), new JdbcTypeHandle(jdbcType, columnSize, scale));
+                }
+            }
+        }
+    }
+
+    private void loadJdbc(Connection connection, String schema, Map<String, List<JdbcColumnHandle>> tables) throws SQLException {
+        DatabaseMetaData metadata = connection.getMetaData();
+        String escape = metadata.getSearchStringEscape();
+        try (ResultSet resultSet = metadata.getColumns(null, Utils.escapeNamePattern(schema, escape), "%", null)) {
+            while (resultSet.next()) {
+                JdbcTypeHandle typeHandle = new JdbcTypeHandle(
+                        resultSet.getInt("DATA_TYPE"),
+                        resultSet.getInt("COLUMN_SIZE"),
+                        resultSet.getInt("DECIMAL_DIGITS"));
+                add(tables, schema, resultSet.getString("TABLE_NAME"), resultSet.getString("COLUMN_NAME"), typeHandle);
+            }
+        }
+    }
+
+    private void add(Map<String, List<JdbcColumnHandle>> tables, String schema, String table, String column, JdbcTypeHandle typeHandle) {
+        JdbcTypeHandle shared = typeHandles.computeIfAbsent(typeHandle, handle -> handle);
+        Optional<ReadMapping> readMapping = jdbcTypeToPrestoType(shared);
+        if (readMapping.isPresent()) {
+            tables.computeIfAbsent(table, name -> new ArrayList<>()).add(new JdbcColumnHandle(schema, column, shared, readMapping.get().getType()));
+        }
+    }
+
+    /**
+     * 与 Connector/J 5.1 的 getColumns 一致: 忽略 unsigned, tinyint(1) 视为 BIT, year 视为 DATE, 不认识的类型为 OTHER (不拷贝)
+     */
+    static int toJdbcType(String dataType, String columnType) {
+        switch (dataType) {
+            case "bit":
+                return Types.BIT;
+            case "tinyint":
+                return columnType.startsWith("tinyint(1)") ? Types.BIT : Types.TINYINT;
+            case "smallint":
+                return Types.SMALLINT;
+            case "mediumint":
+            case "int":
+            case "integer":
+                return Types.INTEGER;
+            case "bigint":
+                return Types.BIGINT;
+            case "float":
+                return Types.REAL;
+            case "double":
+                return Types.DOUBLE;
+            case "decimal":
+            case "numeric":
+                return Types.DECIMAL;
+            case "date":
+            case "year":
+                return Types.DATE;
+            case "time":
+                return Types.TIME;
+            case "datetime":
+            case "timestamp":
+                return Types.TIMESTAMP;
+            case "char":
+            case "enum":
+            case "set":
+                return Types.CHAR;
+            case "varchar":
+            case "tinytext":
+                return Types.VARCHAR;
+            case "text":
+            case "mediumtext":
+            case "longtext":
+                return Types.LONGVARCHAR;
+            case "binary":
+            case "tinyblob":
+            case "geometry":
+                return Types.BINARY;
+            case "varbinary":
+                return Types.VARBINARY;
+            case "blob":
+            case "mediumblob":
+            case "longblob":
+                return Types.LONGVARBINARY;
+            default:
+                return Types.OTHER;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.Page;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * 快照的数据文件: 文件头 (魔数 + 版本) 之后是连续的记录, 每条为 长度 + {@link PageSerde} 序列化的页.
+ * 页内按列存放, 压缩方式记录在每页的页头里, 读取时不需要知道导出时的配置
+ */
+public final class SnapshotFile {
+    private static final int MAGIC = 0x50534E50;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+    // 每次映射 1GB (单个映射不能超过 2GB), 更大的文件分段映射; 跨过映射末尾的页从该页开始重新映射
+    private static final long MAX_MAP_BYTES = 1L << 30;
+
+    private SnapshotFile() {
+    }
+
+    public static final class Writer implements Closeable {
+        private final OutputStream output;
+        private final PageSerde serde;
+        private final Slice length = Slices.allocate(Integer.BYTES);
+        private long rows;
+        private long bytes;
+
+        public Writer(Path file, PageSerde serde) throws IOException {
+            this.output = new BufferedOutputStream(Files.newOutputStream(file), 1 << 20);
+            this.serde = serde;
+            Slice header = Slices.allocate(HEADER_BYTES);
+            header.setInt(0, MAGIC);
+            header.setInt(Integer.BYTES, VERSION);
+            header.getBytes(0, output, HEADER_BYTES);
+            bytes = HEADER_BYTES;
+        }
+
+        public void append(Page page) throws IOException {
+            Slice serialized = serde.serialize(page);
+            length.setInt(0, serialized.length());
+            length.getBytes(0, output, Integer.BYTES);
+            serialized.getBytes(0, output, serialized.length());
+            rows += page.getPositionCount();
+            bytes += Integer.BYTES + serialized.length();
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+    }
+
+    /**
+     * 通过内存映射按顺序读回页, 未压缩页中的变长数据直接引用映射的内存
+     */
+    public static final class Reader implements Closeable {
+        private final FileChannel channel;
+        private final long size;
+        private final PageSerde serde = new PageSerde(false);
+        private final long maxMapBytes;
+        private Slice mapped;
+        private long mappedStart;
+        private long position;
+
+        public Reader(Path file) throws IOException {
+            this(file, MAX_MAP_BYTES);
+        }
+
+        /**
+         * @param maxMapBytes 每次映射的长度, 测试时用较小的值覆盖重新映射
+         */
+        Reader(Path file, long maxMapBytes) throws IOException {
+            this.maxMapBytes = maxMapBytes;
+            this.channel = FileChannel.open(file, READ);
+            this.size = channel.size();
+            checkArgument(size >= HEADER_BYTES, "not a snapshot file: %s", file);
+            map(0, HEADER_BYTES);
+            checkArgument(mapped.getInt(0) == MAGIC, "not a snapshot file: %s", file);
+            checkArgument(mapped.getInt(Integer.BYTES) == VERSION, "unsupported snapshot version %s: %s", mapped.getInt(Integer.BYTES), file);
+            position = HEADER_BYTES;
+        }
+
+        /**
+         * @return 下一页, 读完时返回 null
+         */
+        public Page next() throws IOException {
+            if (position >= size) {
+                return null;
+            }
+            map(position, Integer.BYTES);
+            int length = mapped.getInt((int) (position - mappedStart));
+            map(position, Integer.BYTES + length);
+            Slice record = mapped.slice((int) (position - mappedStart) + Integer.BYTES, length);
+            position += Integer.BYTES + length;
+            return serde.deserialize(record);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mapped = null;
+            channel.close();
+        }
+
+        /**
+         * 保证 [start, start + length) 在映射的区间内
+         */
+        private void map(long start, long length) throws IOException {
+            checkArgument(start + length <= size, "truncated snapshot file at %s", start);
+            if (mapped != null && start >= mappedStart && start + length <= mappedStart + mapped.length()) {
+                return;
+            }
+            long mapLength = Math.min(size - start, Math.max(length, maxMapBytes));
+            mapped = Slices.wrappedBuffer(channel.map(FileChannel.MapMode.READ_ONLY, start, mapLength));
+            mappedStart = start;
+        }
+    }
+}
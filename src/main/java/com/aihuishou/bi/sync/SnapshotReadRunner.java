@@ -0,0 +1,44 @@
+package com.aihuishou.bi.sync;
+
+import com.aihuishou.bi.utils.Utils;
+import com.facebook.presto.spi.Page;
+
+import java.nio.file.Path;
+
+/**
+ * 导入快照时的读取端, 按顺序读回一个数据文件中的页放入缓冲区, 代替从源库读取的 {@link FetchRunner}
+ */
+public class SnapshotReadRunner extends Thread {
+    private final Path file;
+    private final PageBuffer buffer;
+    private volatile Throwable failure;
+
+    public SnapshotReadRunner(Path file, PageBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+        buffer.addProducer();
+    }
+
+    @Override
+    public void run() {
+        long rows = 0;
+        try (SnapshotFile.Reader reader = new SnapshotFile.Reader(file)) {
+            Page page;
+            while ((page = reader.next()) != null) {
+                buffer.put(page);
+                rows += page.getPositionCount();
+            }
+        } catch (Throwable e) {
+            e.printStackTrace();
+            failure = e;
+            buffer.abort();
+        } finally {
+            buffer.producerFinished();
+            System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " final read count: " + rows + ", file: " + file);
+        }
+    }
+
+    public Throwable getFailure() {
+        return failure;
+    }
+}
@@ -0,0 +1,23 @@
+package com.aihuishou.bi.sync;
+
+import lombok.Data;
+
+/**
+ * sync.snapshot 配置: export 把源库各表读一次写成快照文件, import 从快照文件导入目标库, 不访问源库.
+ * 同一份快照可以同时导入多个目标环境
+ */
+@Data
+public class SnapshotSettings {
+    /**
+     * none, export 或 import
+     */
+    private String mode = "none";
+    /**
+     * 快照根目录, 每个表一个子目录 directory/库名/表名
+     */
+    private String directory = "sync-snapshot";
+    /**
+     * 导出时页的压缩方式, none 或 lz4; 导入时按文件中的记录自动识别
+     */
+    private String compression = "lz4";
+}
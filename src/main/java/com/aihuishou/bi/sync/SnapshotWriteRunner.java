@@ -0,0 +1,56 @@
+package com.aihuishou.bi.sync;
+
+import com.aihuishou.bi.utils.Utils;
+import com.facebook.presto.spi.Page;
+
+import java.nio.file.Path;
+
+/**
+ * 导出快照时的写入端, 从缓冲区取页追加到自己的数据文件, 代替写目标库的 {@link H2Runner}
+ */
+public class SnapshotWriteRunner extends Thread {
+    private final Path file;
+    private final PageSerde serde;
+    private final PageBuffer buffer;
+    private final TableProgress progress;
+    private volatile long rows;
+    private volatile Throwable failure;
+
+    public SnapshotWriteRunner(Path file, PageSerde serde, PageBuffer buffer, TableProgress progress) {
+        this.file = file;
+        this.serde = serde;
+        this.buffer = buffer;
+        this.progress = progress;
+    }
+
+    @Override
+    public void run() {
+        try (SnapshotFile.Writer writer = new SnapshotFile.Writer(file, serde)) {
+            Page page;
+            while ((page = buffer.poll()) != null) {
+                try {
+                    writer.append(page);
+                } finally {
+                    buffer.release(page);
+                }
+                buffer.getMetrics().pagesWritten(page.getPositionCount(), page.getSizeInBytes());
+                progress.addRows(page.getPositionCount());
+            }
+            rows = writer.getRows();
+        } catch (Throwable e) {
+            e.printStackTrace();
+            failure = e;
+            buffer.abort();
+        } finally {
+            System.out.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " final write count: " + rows + ", file: " + file);
+        }
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public Throwable getFailure() {
+        return failure;
+    }
+}
@@ -0,0 +1,192 @@
+package com.aihuishou.bi.sync;
+
+import com.aihuishou.bi.utils.Utils;
+import com.facebook.presto.spi.Page;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * 一个表拷贝期间溢出到本地磁盘的页, 由 {@link PageSerde} 序列化后顺序追加到段文件, 每条记录为 长度 + 序列化的页.
+ * 段写满 segmentBytes 后换下一个文件; 读取端按写入顺序通过内存映射读回, 读完的段立即删除.
+ * 文件在第一次溢出时才创建, close 时删除全部剩余的段. 序列化和反序列化在锁外进行, 锁内只有文件追加和映射
+ */
+public class SpillFile {
+    private final Path directory;
+    private final String name;
+    private final PageSerde serde;
+    private final long segmentBytes;
+    private final long maxBytes;
+    private final TableMetrics metrics;
+
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long fileBytes;
+    private int pageCount;
+    private long unreadBytes;
+    private boolean closed;
+
+    // 第一个段中已映射的区间 [mappedStart, mappedStart + mapped.length()) 和下一条记录的位置
+    private Slice mapped;
+    private long mappedStart;
+    private long readPosition;
+
+    /**
+     * @param maxBytes 磁盘上最多保留的字节数, 超过后 append 不再写入
+     * @param metrics 溢出和读回的页数、字节数记入该表的指标
+     */
+    public SpillFile(Path directory, String name, PageSerde serde, long segmentBytes, long maxBytes, TableMetrics metrics) {
+        this.directory = directory;
+        this.name = name;
+        this.serde = serde;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return 超过磁盘上限时不写入并返回 false
+     */
+    public boolean append(Page page) {
+        Slice serialized = serde.serialize(page);
+        long recordBytes = Integer.BYTES + serialized.length();
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("spill file closed: " + name);
+            }
+            if (fileBytes + recordBytes > maxBytes) {
+                return false;
+            }
+            try {
+                Segment segment = segments.peekLast();
+                if (segment == null || (segment.size > 0 && segment.size + recordBytes > segmentBytes)) {
+                    segment = openSegment();
+                }
+                // 与 Slice.getInt 的字节序一致
+                ByteBuffer length = ByteBuffer.allocate(Integer.BYTES).order(LITTLE_ENDIAN).putInt(0, serialized.length());
+                write(segment, length);
+                write(segment, serialized.toByteBuffer());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            fileBytes += recordBytes;
+            pageCount++;
+            unreadBytes += recordBytes;
+            metrics.pageSpilled(recordBytes);
+        }
+        return true;
+    }
+
+    /**
+     * @return 最早写入且未读取的页, 没有时返回 null
+     */
+    public Page poll() {
+        Slice record;
+        synchronized (this) {
+            record = next();
+        }
+        return record == null ? null : serde.deserialize(record);
+    }
+
+    public synchronized int getPageCount() {
+        return pageCount;
+    }
+
+    public synchronized long getFileBytes() {
+        return fileBytes;
+    }
+
+    /**
+     * 删除所有段, 之后不能再追加
+     */
+    public synchronized void close() {
+        closed = true;
+        mapped = null;
+        while (!segments.isEmpty()) {
+            deleteSegment(segments.pollFirst());
+        }
+        // 没有读回的页直接丢弃
+        metrics.pagesUnspilled(pageCount, unreadBytes);
+        pageCount = 0;
+        unreadBytes = 0;
+        fileBytes = 0;
+    }
+
+    private Slice next() {
+        while (!closed && !segments.isEmpty()) {
+            Segment segment = segments.peekFirst();
+            if (readPosition < segment.size) {
+                if (mapped == null || readPosition >= mappedStart + mapped.length()) {
+                    try {
+                        // 映射到当前已写入的位置, 追加中的段之后再映射新写入的部分
+                        mapped = Slices.wrappedBuffer(segment.channel.map(FileChannel.MapMode.READ_ONLY, readPosition, segment.size - readPosition));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    mappedStart = readPosition;
+                }
+                int offset = (int) (readPosition - mappedStart);
+                int length = mapped.getInt(offset);
+                readPosition += Integer.BYTES + length;
+                pageCount--;
+                unreadBytes -= Integer.BYTES + length;
+                metrics.pagesUnspilled(1, Integer.BYTES + length);
+                return mapped.slice(offset + Integer.BYTES, length);
+            }
+            if (segment == segments.peekLast()) {
+                return null;
+            }
+            segments.pollFirst();
+            fileBytes -= segment.size;
+            deleteSegment(segment);
+            mapped = null;
+            readPosition = 0;
+        }
+        return null;
+    }
+
+    private Segment openSegment() throws IOException {
+        Files.createDirectories(directory);
+        Path path = Files.createTempFile(directory, name + "-", ".spill");
+        Segment segment = new Segment(path, FileChannel.open(path, READ, WRITE));
+        segments.addLast(segment);
+        return segment;
+    }
+
+    private static void write(Segment segment, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            segment.size += segment.channel.write(buffer, segment.size);
+        }
+    }
+
+    private static void deleteSegment(Segment segment) {
+        try {
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            System.err.println(Utils.getCurrentTime() + " " + Thread.currentThread().getName() + " failed to delete spill segment " + segment.path + ": " + e);
+        }
+    }
+
+    private static final class Segment {
+        private final Path path;
+        private final FileChannel channel;
+        private long size;
+
+        private Segment(Path path, FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.aihuishou.bi.sync;
+
+import lombok.Data;
+
+import java.nio.file.Paths;
+
+/**
+ * sync.spill 配置: 写入端跟不上时把超出内存预算的页溢出到本地磁盘, 见 {@link PageBuffer}
+ */
+@Data
+public class SpillSettings {
+    private boolean enabled;
+    private String directory = "sync-spill";
+    /**
+     * none 或 lz4
+     */
+    private String compression = "lz4";
+    private int segmentMb = 64;
+    /**
+     * 每个表在磁盘上最多保留的溢出数据, 超过后读取端重新等待内存预算
+     */
+    private long maxDiskMb = 10240;
+
+    /**
+     * @return 未开启时返回 null
+     */
+    public SpillFile createSpillFile(String table, TableMetrics metrics) {
+        if (!enabled) {
+            return null;
+        }
+        return new SpillFile(Paths.get(directory), table, PageSerde.create(compression), segmentMb * 1024L * 1024L, maxDiskMb * 1024L * 1024L, metrics);
+    }
+}
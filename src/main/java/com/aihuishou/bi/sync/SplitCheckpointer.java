@@ -0,0 +1,127 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.Page;
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 一个表拷贝期间的断点记录. 读取线程按主键顺序读出每个分片, 多个写入线程提交的顺序不确定,
+ * 所以每个分片只记录从头开始连续已提交的页中最后一个主键, 在它之后的行重新拷贝时用 upsert 覆盖.
+ * 各分片的主键区间互不重叠, 页按最后一个主键识别, 溢出到磁盘后读回的页不是原来的对象也能对应上
+ */
+public class SplitCheckpointer {
+    private final CopyCheckpoint store;
+    private final String table;
+    private final JdbcColumnHandle keyColumn;
+    private final int keyChannel;
+    private final List<CopyCheckpoint.SplitProgress> splits;
+    private final List<Deque<ReadPage>> inflight;
+    private final boolean[] readFinished;
+    private final Map<Long, ReadPage> pages = new HashMap<>();
+
+    /**
+     * @param splits 本次需要拷贝的分片, 读取线程按下标对应
+     */
+    public SplitCheckpointer(CopyCheckpoint store, String table, JdbcColumnHandle keyColumn, int keyChannel, List<CopyCheckpoint.SplitProgress> splits) {
+        this.store = store;
+        this.table = table;
+        this.keyColumn = keyColumn;
+        this.keyChannel = keyChannel;
+        this.splits = ImmutableList.copyOf(splits);
+        ImmutableList.Builder<Deque<ReadPage>> inflight = ImmutableList.builder();
+        for (int i = 0; i < splits.size(); i++) {
+            inflight.add(new ArrayDeque<>());
+        }
+        this.inflight = inflight.build();
+        this.readFinished = new boolean[splits.size()];
+    }
+
+    public JdbcColumnHandle getKeyColumn() {
+        return keyColumn;
+    }
+
+    /**
+     * 分片的主键区间, 已有断点时从断点之后开始
+     */
+    public KeyRange getRange(int split) {
+        CopyCheckpoint.SplitProgress progress = splits.get(split);
+        if (progress.getKey().isPresent()) {
+            return new KeyRange(keyColumn, progress.getKey(), false, progress.getHigh(), false, false);
+        }
+        return KeyRange.range(keyColumn, progress.getLow(), progress.getHigh(), false);
+    }
+
+    /**
+     * 读取线程在页放入缓冲区之前调用, 返回页中最后一个主键
+     */
+    public synchronized long pageRead(int split, Page page) {
+        long lastKey = getLastKey(page);
+        ReadPage readPage = new ReadPage(split, lastKey);
+        pages.put(lastKey, readPage);
+        inflight.get(split).addLast(readPage);
+        return lastKey;
+    }
+
+    /**
+     * 分片已全部读出, 剩余的页提交后标记完成
+     */
+    public synchronized void splitRead(int split) {
+        readFinished[split] = true;
+        advance(split);
+    }
+
+    /**
+     * 写入线程在这些页提交之后调用
+     */
+    public synchronized void pagesCommitted(List<Page> committed) {
+        boolean[] touched = new boolean[splits.size()];
+        for (Page page : committed) {
+            if (page.getPositionCount() == 0) {
+                continue;
+            }
+            ReadPage readPage = pages.remove(getLastKey(page));
+            if (readPage != null) {
+                readPage.committed = true;
+                touched[readPage.split] = true;
+            }
+        }
+        for (int split = 0; split < touched.length; split++) {
+            if (touched[split]) {
+                advance(split);
+            }
+        }
+    }
+
+    private long getLastKey(Page page) {
+        return keyColumn.getColumnType().getLong(page.getBlock(keyChannel), page.getPositionCount() - 1);
+    }
+
+    private void advance(int split) {
+        Deque<ReadPage> queue = inflight.get(split);
+        Optional<Long> key = Optional.empty();
+        while (!queue.isEmpty() && queue.peekFirst().committed) {
+            key = Optional.of(queue.pollFirst().lastKey);
+        }
+        boolean done = readFinished[split] && queue.isEmpty();
+        if (key.isPresent() || done) {
+            store.update(table, splits.get(split).getId(), key, done);
+        }
+    }
+
+    private static final class ReadPage {
+        private final int split;
+        private final long lastKey;
+        private boolean committed;
+
+        private ReadPage(int split, long lastKey) {
+            this.split = split;
+            this.lastKey = lastKey;
+        }
+    }
+}
@@ -5,14 +5,19 @@ import com.facebook.presto.spi.type.DecimalType;
 import com.facebook.presto.spi.type.Decimals;
 import com.facebook.presto.spi.type.VarcharType;
 import com.google.common.base.CharMatcher;
-import org.joda.time.chrono.ISOChronology;
 
+import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.sql.Date;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.time.ZoneId;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static com.aihuishou.bi.sync.ReadMapping.longReadMapping;
 import static com.aihuishou.bi.sync.ReadMapping.sliceReadMapping;
@@ -33,17 +38,23 @@ import static com.facebook.presto.spi.type.TinyintType.TINYINT;
 import static com.facebook.presto.spi.type.VarbinaryType.VARBINARY;
 import static com.facebook.presto.spi.type.VarcharType.createUnboundedVarcharType;
 import static com.facebook.presto.spi.type.VarcharType.createVarcharType;
+import static io.airlift.slice.Slices.EMPTY_SLICE;
 import static io.airlift.slice.Slices.utf8Slice;
 import static io.airlift.slice.Slices.wrappedBuffer;
 import static java.lang.Float.floatToRawIntBits;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 import static java.util.Objects.requireNonNull;
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
-import static org.joda.time.DateTimeZone.UTC;
+import static java.util.concurrent.TimeUnit.DAYS;
 
+/**
+ * 读取函数遇到 SQL NULL 时返回占位值而不是抛出异常, 调用方随后通过 ResultSet.wasNull() 判断,
+ * 这样每个单元格只需要读取一次. 日期时间值都不带时区, 表示方式见 {@link TemporalCodec}
+ */
 public final class StandardReadMappings {
-    private static final ISOChronology UTC_CHRONOLOGY = ISOChronology.getInstanceUTC();
+    private static final long MILLIS_PER_DAY = DAYS.toMillis(1);
+    // 读取函数都是无状态的, 同一组读取选项下同一种 JDBC 类型在所有表、所有分片之间共用一个映射
+    private static final ConcurrentMap<ReadOptions, ConcurrentMap<JdbcTypeHandle, Optional<ReadMapping>>> READ_MAPPINGS = new ConcurrentHashMap<>();
 
     private StandardReadMappings() {
     }
@@ -80,78 +91,145 @@ public final class StandardReadMappings {
         // JDBC driver can return BigDecimal with lower scale than column's scale when there are trailing zeroes
         int scale = decimalType.getScale();
         if (decimalType.isShort()) {
-            return longReadMapping(decimalType, (resultSet, columnIndex) -> encodeShortScaledValue(resultSet.getBigDecimal(columnIndex), scale));
+            return longReadMapping(decimalType, (resultSet, columnIndex) -> {
+                BigDecimal value = resultSet.getBigDecimal(columnIndex);
+                if (value == null) {
+                    return 0;
+                }
+                return encodeShortScaledValue(value, scale);
+            });
         }
         return sliceReadMapping(decimalType, (resultSet, columnIndex) -> {
-            if (resultSet.getBigDecimal(columnIndex).scale() <= scale) {
-                return encodeScaledValue(
-                        resultSet.getBigDecimal(columnIndex),
-                        scale);
-            } else {
-                return encodeScaledValue(
-                        resultSet.getBigDecimal(columnIndex).setScale(scale, RoundingMode.HALF_UP),
-                        scale);
+            BigDecimal value = resultSet.getBigDecimal(columnIndex);
+            if (value == null) {
+                return EMPTY_SLICE;
+            }
+            if (value.scale() <= scale) {
+                return encodeScaledValue(value, scale);
             }
+            return encodeScaledValue(value.setScale(scale, RoundingMode.HALF_UP), scale);
         });
     }
 
     public static ReadMapping charReadMapping(CharType charType) {
         requireNonNull(charType, "charType is null");
-        return sliceReadMapping(charType, (resultSet, columnIndex) -> utf8Slice(CharMatcher.is(' ').trimTrailingFrom(resultSet.getString(columnIndex))));
+        return sliceReadMapping(charType, (resultSet, columnIndex) -> {
+            String value = resultSet.getString(columnIndex);
+            if (value == null) {
+                return EMPTY_SLICE;
+            }
+            return utf8Slice(CharMatcher.is(' ').trimTrailingFrom(value));
+        });
     }
 
     public static ReadMapping varcharReadMapping(VarcharType varcharType) {
-        return sliceReadMapping(varcharType, (resultSet, columnIndex) -> utf8Slice(resultSet.getString(columnIndex)));
+        return sliceReadMapping(varcharType, (resultSet, columnIndex) -> {
+            String value = resultSet.getString(columnIndex);
+            if (value == null) {
+                return EMPTY_SLICE;
+            }
+            return utf8Slice(value);
+        });
+    }
+
+    /**
+     * 结果集字符集为 UTF-8 时 getBytes 即驱动收到的原始字节, 直接作为 Slice, 不解码成 String 再编码回 UTF-8.
+     * 末尾空格 0x20 不会出现在多字节字符的后续字节中, 可以按字节去掉
+     */
+    public static ReadMapping rawCharReadMapping(CharType charType) {
+        requireNonNull(charType, "charType is null");
+        return sliceReadMapping(charType, (resultSet, columnIndex) -> {
+            byte[] value = resultSet.getBytes(columnIndex);
+            if (value == null) {
+                return EMPTY_SLICE;
+            }
+            int length = value.length;
+            while (length > 0 && value[length - 1] == ' ') {
+                length--;
+            }
+            return wrappedBuffer(value, 0, length);
+        });
+    }
+
+    public static ReadMapping rawVarcharReadMapping(VarcharType varcharType) {
+        return sliceReadMapping(varcharType, (resultSet, columnIndex) -> {
+            byte[] value = resultSet.getBytes(columnIndex);
+            if (value == null) {
+                return EMPTY_SLICE;
+            }
+            return wrappedBuffer(value);
+        });
     }
 
     public static ReadMapping varbinaryReadMapping() {
-        return sliceReadMapping(VARBINARY, (resultSet, columnIndex) -> wrappedBuffer(resultSet.getBytes(columnIndex)));
+        return sliceReadMapping(VARBINARY, (resultSet, columnIndex) -> {
+            byte[] value = resultSet.getBytes(columnIndex);
+            if (value == null) {
+                return EMPTY_SLICE;
+            }
+            return wrappedBuffer(value);
+        });
     }
 
+    /**
+     * 只有 getDate/getTime/getTimestamp 可用的驱动: 驱动按 JVM 时区构造对象, 再按同一时区取回本地时间.
+     * 本地时间在 JVM 时区不存在 (夏令时跳过的 gap, 包括 Pacific/Apia 跳过的 2011-12-30 整天) 时驱动已经把它顺延, 无法还原;
+     * MySQL 直接解析文本, 见 {@link TemporalCodec}. 连接池 (Druid) 的 ResultSet 不支持 JDBC 4.2 的 getObject(LocalDateTime.class)
+     */
     public static ReadMapping dateReadMapping() {
-        return longReadMapping(DATE, (resultSet, columnIndex) -> {
-            /*
-             * JDBC returns a date using a timestamp at midnight in the JVM timezone, or earliest time after that if there was no midnight.
-             * This works correctly for all dates and zones except when the missing local times 'gap' is 24h. I.e. this fails when JVM time
-             * zone is Pacific/Apia and date to be returned is 2011-12-30.
-             *
-             * `return resultSet.getObject(columnIndex, LocalDate.class).toEpochDay()` avoids these problems but
-             * is currently known not to work with Redshift (old Postgres connector) and SQL Server.
-             */
-            long localMillis = resultSet.getDate(columnIndex).getTime();
-            // Convert it to a ~midnight in UTC.
-            long utcMillis = ISOChronology.getInstance().getZone().getMillisKeepLocal(UTC, localMillis);
-            // convert to days
-            return MILLISECONDS.toDays(utcMillis);
-        });
+        return longReadMapping(DATE, StandardReadMappings::readDate);
     }
 
     public static ReadMapping timeReadMapping() {
-        return longReadMapping(TIME, (resultSet, columnIndex) -> {
-            /*
-             * TODO `resultSet.getTime(columnIndex)` returns wrong value if JVM's zone had forward offset change during 1970-01-01
-             * and the time value being retrieved was not present in local time (a 'gap'), e.g. time retrieved is 00:10:00 and JVM zone is America/Hermosillo
-             * The problem can be averted by using `resultSet.getObject(columnIndex, LocalTime.class)` -- but this is not universally supported by JDBC drivers.
-             */
-            Time time = resultSet.getTime(columnIndex);
-            return UTC_CHRONOLOGY.millisOfDay().get(time.getTime());
-        });
+        return longReadMapping(TIME, StandardReadMappings::readTime);
     }
 
     public static ReadMapping timestampReadMapping() {
-        return longReadMapping(TIMESTAMP, (resultSet, columnIndex) -> {
-            /*
-             * TODO `resultSet.getTimestamp(columnIndex)` returns wrong value if JVM's zone had forward offset change and the local time
-             * corresponding to timestamp value being retrieved was not present (a 'gap'), this includes regular DST changes (e.g. Europe/Warsaw)
-             * and one-time policy changes (Asia/Kathmandu's shift by 15 minutes on January 1, 1986, 00:00:00).
-             * The problem can be averted by using `resultSet.getObject(columnIndex, LocalDateTime.class)` -- but this is not universally supported by JDBC drivers.
-             */
-            Timestamp timestamp = resultSet.getTimestamp(columnIndex);
-            return timestamp.getTime();
-        });
+        return longReadMapping(TIMESTAMP, StandardReadMappings::readTimestamp);
+    }
+
+    static long readDate(ResultSet resultSet, int columnIndex) throws SQLException {
+        Date date = resultSet.getDate(columnIndex);
+        if (date == null) {
+            return 0;
+        }
+        // 驱动返回 JVM 时区的零点, 没有零点时为零点之后最早的时刻
+        return Math.floorDiv(jvmZone().toLocalMillis(date.getTime()), MILLIS_PER_DAY);
+    }
+
+    static long readTime(ResultSet resultSet, int columnIndex) throws SQLException {
+        Time time = resultSet.getTime(columnIndex);
+        if (time == null) {
+            return 0;
+        }
+        return Math.floorMod(jvmZone().toLocalMillis(time.getTime()), MILLIS_PER_DAY);
+    }
+
+    static long readTimestamp(ResultSet resultSet, int columnIndex) throws SQLException {
+        Timestamp timestamp = resultSet.getTimestamp(columnIndex);
+        if (timestamp == null) {
+            return 0;
+        }
+        return jvmZone().toLocalMillis(timestamp.getTime());
+    }
+
+    private static ZoneOffsetTable jvmZone() {
+        return ZoneOffsetTable.of(ZoneId.systemDefault());
     }
 
     public static Optional<ReadMapping> jdbcTypeToPrestoType(JdbcTypeHandle type) {
+        return jdbcTypeToPrestoType(type, ReadOptions.DEFAULT);
+    }
+
+    /**
+     * 映射出的 Presto 类型与 options 无关, options 只影响从 ResultSet 取值的方式
+     */
+    public static Optional<ReadMapping> jdbcTypeToPrestoType(JdbcTypeHandle type, ReadOptions options) {
+        return READ_MAPPINGS.computeIfAbsent(options, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(type, key -> createReadMapping(key, options));
+    }
+
+    private static Optional<ReadMapping> createReadMapping(JdbcTypeHandle type, ReadOptions options) {
         int columnSize = type.getColumnSize();
         switch (type.getJdbcType()) {
             case Types.BIT:
@@ -181,28 +259,24 @@ public final class StandardReadMappings {
             case Types.DECIMAL:
                 int decimalDigits = type.getDecimalDigits();
                 int precision = columnSize + max(-decimalDigits, 0); // Map decimal(p, -s) (negative scale) to decimal(p+s, 0).
-                if (precision > Decimals.MAX_PRECISION) {
-                    return Optional.of(
-                            decimalReadMapping(
-                                    createDecimalType(38,
-                                            12)));//for postgres sql number类型,直接转换为mysql中的decimal(38,12)类型
-                }
-                return Optional.of(decimalReadMapping(createDecimalType(precision, max(decimalDigits, 0))));
+                DecimalType decimalType = precision > Decimals.MAX_PRECISION
+                        ? createDecimalType(38, 12) //for postgres sql number类型,直接转换为mysql中的decimal(38,12)类型
+                        : createDecimalType(precision, max(decimalDigits, 0));
+                return Optional.of(options.isTextValues() ? DecimalCodec.textReadMapping(decimalType) : decimalReadMapping(decimalType));
 
             case Types.CHAR:
             case Types.NCHAR:
                 // TODO this is wrong, we're going to construct malformed Slice representation if source > charLength
                 int charLength = min(columnSize, CharType.MAX_LENGTH);
-                return Optional.of(charReadMapping(createCharType(charLength)));
+                CharType charType = createCharType(charLength);
+                return Optional.of(options.isRawUtf8() ? rawCharReadMapping(charType) : charReadMapping(charType));
 
             case Types.VARCHAR:
             case Types.NVARCHAR:
             case Types.LONGVARCHAR:
             case Types.LONGNVARCHAR:
-                if (columnSize > VarcharType.MAX_LENGTH) {
-                    return Optional.of(varcharReadMapping(createUnboundedVarcharType()));
-                }
-                return Optional.of(varcharReadMapping(createVarcharType(columnSize)));
+                VarcharType varcharType = columnSize > VarcharType.MAX_LENGTH ? createUnboundedVarcharType() : createVarcharType(columnSize);
+                return Optional.of(options.isRawUtf8() ? rawVarcharReadMapping(varcharType) : varcharReadMapping(varcharType));
 
             case Types.BINARY:
             case Types.VARBINARY:
@@ -210,12 +284,21 @@ public final class StandardReadMappings {
                 return Optional.of(varbinaryReadMapping());
 
             case Types.DATE:
+                if (options.isTextValues()) {
+                    return Optional.of(TemporalCodec.textDateReadMapping());
+                }
                 return Optional.of(dateReadMapping());
 
             case Types.TIME:
+                if (options.isTextValues()) {
+                    return Optional.of(TemporalCodec.textTimeReadMapping());
+                }
                 return Optional.of(timeReadMapping());
 
             case Types.TIMESTAMP:
+                if (options.isTextValues()) {
+                    return Optional.of(TemporalCodec.textTimestampReadMapping());
+                }
                 return Optional.of(timestampReadMapping());
         }
         return Optional.empty();
@@ -0,0 +1,26 @@
+package com.aihuishou.bi.sync;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程级的拷贝指标, 按表 ({@link TableMetrics}) 和阶段 (fetch/write) 区分, 注册到应用的 MeterRegistry,
+ * 由 actuator 在 /actuator/prometheus 导出. 速率不在进程内计算, 由采集端对累计值求导, 例如 rate(sync_rows_total[1m])
+ */
+public class SyncMetrics {
+    private final MeterRegistry registry;
+    private final Map<String, TableMetrics> tables = new ConcurrentHashMap<>();
+
+    public SyncMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * 同一个表多次拷贝时累计在同一组指标上
+     */
+    public TableMetrics table(String table) {
+        return tables.computeIfAbsent(table, name -> new TableMetrics(registry, name));
+    }
+}
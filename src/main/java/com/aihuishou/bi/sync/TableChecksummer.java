@@ -0,0 +1,255 @@
+package com.aihuishou.bi.sync;
+
+import com.aihuishou.bi.utils.Utils;
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.block.Block;
+import com.facebook.presto.spi.type.Type;
+import com.google.common.collect.ImmutableList;
+import io.airlift.slice.XxHash64;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Optional;
+
+import static com.facebook.presto.spi.type.BooleanType.BOOLEAN;
+import static com.facebook.presto.spi.type.TimeType.TIME;
+import static com.facebook.presto.spi.type.TimestampType.TIMESTAMP;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.util.stream.Collectors.joining;
+
+/**
+ * 类似 pt-table-checksum 的分块校验: 按单列主键把表切成行数大致相同的区间, 分别计算两端每个区间的行数和聚合哈希.
+ * 两端都是 MySQL 时在库内计算 (MD5 取前 64 位后 BIT_XOR), 只传回一行结果;
+ * 否则两端都按读取到的 Presto 值在本地计算, 仍然省掉一致区间的写入
+ */
+public class TableChecksummer {
+    private static final long NULL_HASH = 0x9E3779B97F4A7C15L;
+
+    private final MetaInfo metaInfo;
+    private final List<JdbcColumnHandle> columnHandles;
+    private final JdbcColumnHandle keyColumn;
+    private final MetaInfo targetMetaInfo;
+    private final List<JdbcColumnHandle> targetColumnHandles;
+    private final JdbcColumnHandle targetKeyColumn;
+    private final boolean serverSide;
+    private final QueryBuilder queryBuilder = new QueryBuilder(Utils.mysql_identifierQuote);
+    private final QueryBuilder targetQueryBuilder;
+    /**
+     * 只用来调整本地计算时读取的 fetch size, 不涉及写入端
+     */
+    private final AdaptiveTuner tuner;
+    /**
+     * 本地计算时两端每列的读取方式, 每个表确定一次, 所有区间共用; 在库内计算时为空
+     */
+    private final List<ReadMapping> sourceReadMappings;
+    private final List<ReadMapping> targetReadMappings;
+
+    public TableChecksummer(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, JdbcColumnHandle keyColumn,
+                            DataSource sourceDataSource, DataSource targetDataSource) throws SQLException {
+        this.metaInfo = metaInfo;
+        this.columnHandles = columnHandles;
+        this.keyColumn = keyColumn;
+        Dialect dialect;
+        String sourceProduct;
+        String targetProduct;
+        try (Connection connection = sourceDataSource.getConnection()) {
+            sourceProduct = connection.getMetaData().getDatabaseProductName();
+        }
+        try (Connection connection = targetDataSource.getConnection()) {
+            targetProduct = connection.getMetaData().getDatabaseProductName();
+            dialect = Dialect.forConnection(connection);
+        }
+        this.serverSide = "MySQL".equals(sourceProduct) && "MySQL".equals(targetProduct);
+        // 目标表按 createTableInTarget 的规则建立, 标识符按目标库的方言转换大小写;
+        // 两端的语句都带库名, 连接池的默认库不一定是要校验的库
+        this.targetQueryBuilder = new QueryBuilder(dialect.getIdentifierQuote());
+        this.targetMetaInfo = new MetaInfo();
+        targetMetaInfo.setMysqlDb(dialect.normalize(metaInfo.getTargetDb()));
+        targetMetaInfo.setTargetDb(dialect.normalize(metaInfo.getTargetDb()));
+        targetMetaInfo.setTable(dialect.normalize(metaInfo.getTable()));
+        this.targetColumnHandles = columnHandles.stream()
+                .map(column -> rename(column, dialect.normalize(column.getColumnName())))
+                .collect(toImmutableList());
+        this.targetKeyColumn = rename(keyColumn, dialect.normalize(keyColumn.getColumnName()));
+        this.tuner = new AdaptiveTuner(metaInfo.getMysqlDb() + "." + metaInfo.getTable() + ".checksum", new TableTuning(), null, 1);
+        if (serverSide) {
+            this.sourceReadMappings = ImmutableList.of();
+            this.targetReadMappings = ImmutableList.of();
+        } else {
+            try (Connection connection = sourceDataSource.getConnection()) {
+                this.sourceReadMappings = JdbcPageSource.getReadMappings(connection, metaInfo, columnHandles);
+            }
+            try (Connection connection = targetDataSource.getConnection()) {
+                this.targetReadMappings = JdbcPageSource.getReadMappings(connection, targetMetaInfo, targetColumnHandles);
+            }
+        }
+    }
+
+    public boolean isServerSide() {
+        return serverSide;
+    }
+
+    /**
+     * 沿主键每隔 chunkRows 行取一个边界, 首尾区间不设边界, 以覆盖只存在于目标端的行
+     */
+    public List<JdbcSplit> getChunks(DataSource sourceDataSource, int chunkRows) throws SQLException {
+        String key = quote(keyColumn.getColumnName());
+        String suffix = " ORDER BY " + key + " LIMIT 1 OFFSET " + chunkRows;
+        LongReadFunction readFunction = KeyRangeSplitter.getReadFunction(keyColumn);
+        ImmutableList.Builder<JdbcSplit> chunks = ImmutableList.builder();
+        Optional<Long> low = Optional.empty();
+        try (Connection connection = sourceDataSource.getConnection()) {
+            while (true) {
+                JdbcSplit remaining = low.isPresent()
+                        ? JdbcSplit.fullTable().withRange(new KeyRange(keyColumn, low, true, Optional.empty(), false, false))
+                        : JdbcSplit.fullTable();
+                Optional<Long> boundary;
+                try (PreparedStatement statement = queryBuilder.buildSql(connection, null, metaInfo.getMysqlDb(), metaInfo.getTable(), key, remaining, suffix);
+                     ResultSet resultSet = statement.executeQuery()) {
+                    boundary = resultSet.next() ? Optional.of(readFunction.readLong(resultSet, 1)) : Optional.empty();
+                }
+                if (!boundary.isPresent()) {
+                    break;
+                }
+                chunks.add(JdbcSplit.fullTable().withRange(KeyRange.range(keyColumn, low, boundary, false)));
+                low = boundary;
+            }
+        }
+        chunks.add(JdbcSplit.fullTable().withRange(KeyRange.range(keyColumn, low, Optional.empty(), false)));
+        return chunks.build();
+    }
+
+    public ChunkChecksum getSourceChecksum(DataSource sourceDataSource, JdbcSplit chunk) throws SQLException {
+        return getChecksum(sourceDataSource, metaInfo, columnHandles, sourceReadMappings, chunk);
+    }
+
+    public ChunkChecksum getTargetChecksum(DataSource targetDataSource, JdbcSplit chunk) throws SQLException {
+        return getChecksum(targetDataSource, targetMetaInfo, targetColumnHandles, targetReadMappings, toTarget(chunk));
+    }
+
+    /**
+     * 删除目标端该区间内的所有行, 单独提交, 随后整块从源端重新拷贝.
+     * 拷贝由多个写入线程各自提交, 不能与删除放在同一个事务中; 拷贝失败时该区间仍与源端不一致, 下次修复时会再次删除并拷贝
+     */
+    public int deleteTargetChunk(DataSource targetDataSource, JdbcSplit chunk) throws SQLException {
+        try (Connection connection = targetDataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = targetQueryBuilder.buildDeleteSql(connection, null, targetMetaInfo.getMysqlDb(), targetMetaInfo.getTable(), toTarget(chunk))) {
+                int deleted = statement.executeUpdate();
+                CommitFailedException.commit(connection);
+                return deleted;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private ChunkChecksum getChecksum(DataSource dataSource, MetaInfo metaInfo, List<JdbcColumnHandle> columns, List<ReadMapping> readMappings, JdbcSplit chunk)
+            throws SQLException {
+        if (serverSide) {
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement statement = queryBuilder.buildSql(connection, null, metaInfo.getMysqlDb(), metaInfo.getTable(), getChecksumProjection(columns), chunk, "");
+                 ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                // BIT_XOR 的结果是 BIGINT UNSIGNED, 超过 Long.MAX_VALUE 时 getLong 会报错
+                return new ChunkChecksum(resultSet.getLong(1), resultSet.getBigDecimal(2).longValue());
+            }
+        }
+        long rows = 0;
+        long hash = 0;
+        JdbcPageSource pageSource = new JdbcPageSource(metaInfo, columns, readMappings, chunk, dataSource.getConnection(), tuner, "");
+        try {
+            Type[] types = columns.stream().map(JdbcColumnHandle::getColumnType).toArray(Type[]::new);
+            while (!pageSource.isFinished()) {
+                Page page = pageSource.getNextPage();
+                if (page == null) {
+                    continue;
+                }
+                for (int position = 0; position < page.getPositionCount(); position++) {
+                    hash += hashRow(types, page, position);
+                }
+                rows += page.getPositionCount();
+            }
+        } finally {
+            pageSource.close();
+        }
+        return new ChunkChecksum(rows, hash);
+    }
+
+    /**
+     * 与 pt-table-checksum 相同, CONCAT_WS 会跳过 NULL, 所以额外拼上每列的 ISNULL 标记
+     */
+    static String getChecksumProjection(List<JdbcColumnHandle> columns) {
+        String values = columns.stream().map(TableChecksummer::getChecksumValue).collect(joining(", "));
+        String nulls = columns.stream().map(column -> "ISNULL(" + quote(column.getColumnName()) + ")").collect(joining(", "));
+        return "COUNT(*), COALESCE(BIT_XOR(CAST(CONV(SUBSTRING(MD5(CONCAT_WS('#', " + values + ", CONCAT(" + nulls + "))), 1, 16), 16, 10) AS UNSIGNED)), 0)";
+    }
+
+    /**
+     * 两端按 Presto 类型渲染成相同的文本: 目标表的列类型由 {@link Dialect#toSqlType} 决定, 可能与源表不同.
+     * DATETIME 与 DATETIME(3)、TIME 与 TIME(3) 统一输出到毫秒, 更高精度按拷贝时的规则截断; BIT(1) 与 TINYINT(1) 统一为 0/1
+     */
+    private static String getChecksumValue(JdbcColumnHandle column) {
+        String name = quote(column.getColumnName());
+        Type type = column.getColumnType();
+        if (TIMESTAMP.equals(type)) {
+            return "LEFT(DATE_FORMAT(" + name + ", '%Y-%m-%d %H:%i:%s.%f'), 23)";
+        }
+        if (TIME.equals(type)) {
+            // TIME 可以为负数或超过 24 小时, 长度不固定, 去掉微秒的后 3 位
+            String text = "TIME_FORMAT(" + name + ", '%H:%i:%s.%f')";
+            return "LEFT(" + text + ", CHAR_LENGTH(" + text + ") - 3)";
+        }
+        if (BOOLEAN.equals(type)) {
+            return "(" + name + " <> 0)";
+        }
+        return name;
+    }
+
+    /**
+     * 行哈希相加, 与行的读取顺序无关
+     */
+    private static long hashRow(Type[] types, Page page, int position) {
+        long hash = 1;
+        for (int channel = 0; channel < types.length; channel++) {
+            hash = hash * 31 + hashValue(types[channel], page.getBlock(channel), position);
+        }
+        return XxHash64.hash(hash);
+    }
+
+    private static long hashValue(Type type, Block block, int position) {
+        if (block.isNull(position)) {
+            return NULL_HASH;
+        }
+        Class<?> javaType = type.getJavaType();
+        if (javaType == long.class) {
+            return XxHash64.hash(type.getLong(block, position));
+        }
+        if (javaType == double.class) {
+            return XxHash64.hash(Double.doubleToLongBits(type.getDouble(block, position)));
+        }
+        if (javaType == boolean.class) {
+            return type.getBoolean(block, position) ? 1 : 2;
+        }
+        return XxHash64.hash(type.getSlice(block, position));
+    }
+
+    private JdbcSplit toTarget(JdbcSplit chunk) {
+        return new JdbcSplit(chunk.getRanges().stream()
+                .map(range -> new KeyRange(targetKeyColumn, range.getLow(), range.isLowInclusive(), range.getHigh(), range.isHighInclusive(), range.isIncludeNulls()))
+                .collect(toImmutableList()));
+    }
+
+    private static JdbcColumnHandle rename(JdbcColumnHandle column, String name) {
+        return new JdbcColumnHandle(column.getConnectorId(), name, column.getJdbcTypeHandle(), column.getColumnType());
+    }
+
+    private static String quote(String name) {
+        return Utils.quoted(name, Utils.mysql_identifierQuote);
+    }
+}
@@ -0,0 +1,226 @@
+package com.aihuishou.bi.sync;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单表的拷贝指标, 同一个表的读取线程、缓冲区和写入线程共用一个实例, 所有指标带 table 标签:
+ * 1. fetch: 放入缓冲区的行数和字节数(Page.getSizeInBytes), 以及读取端在 executeQuery/next 上的耗时
+ * 2. write: 已提交到目标库的行数和字节数, executeBatch (load-data 为 LOAD DATA) 和 commit 的耗时分布
+ * 3. 缓冲区: 当前在途页数和字节数, 读取端等待内存预算、写入端等待新页的时间
+ * 4. 溢出: 写入磁盘的累计页数和字节数, 当前在磁盘上等待读回的页数和字节数
+ * 由 {@link SyncMetrics} 注册到应用的 MeterRegistry 导出; 只传表名创建的实例注册到独立的 SimpleMeterRegistry, 只计数不导出
+ */
+public class TableMetrics {
+    // executeBatch 和 commit 耗时分布的桶边界
+    private static final Duration[] LATENCY_BUCKETS = {
+            Duration.ofMillis(1), Duration.ofNanos(2_500_000), Duration.ofMillis(5), Duration.ofMillis(10), Duration.ofMillis(25), Duration.ofMillis(50),
+            Duration.ofMillis(100), Duration.ofMillis(250), Duration.ofMillis(500), Duration.ofSeconds(1), Duration.ofMillis(2500), Duration.ofSeconds(5),
+            Duration.ofSeconds(10), Duration.ofSeconds(30), Duration.ofSeconds(60)};
+
+    private final String table;
+
+    private final Counter fetchedRows;
+    private final Counter fetchedBytes;
+    private final Timer sourceRead;
+    private final Counter writtenRows;
+    private final Counter writtenBytes;
+    private final Timer putBlocked;
+    private final Timer takeBlocked;
+    private final AtomicLong bufferedPages = new AtomicLong();
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final Counter spilledPages;
+    private final Counter spilledBytes;
+    private final AtomicLong spillPendingPages = new AtomicLong();
+    private final AtomicLong spillPendingBytes = new AtomicLong();
+    private final Timer executeBatch;
+    private final Timer commit;
+
+    public TableMetrics(String table) {
+        this(new SimpleMeterRegistry(), table);
+    }
+
+    public TableMetrics(MeterRegistry registry, String table) {
+        this.table = table;
+        fetchedRows = counter(registry, "sync.rows", null, "fetch", "Rows put into the page buffer (fetch) or committed to the target (write)");
+        writtenRows = counter(registry, "sync.rows", null, "write", "Rows put into the page buffer (fetch) or committed to the target (write)");
+        fetchedBytes = counter(registry, "sync.bytes", "bytes", "fetch", "Page bytes put into the page buffer (fetch) or committed to the target (write)");
+        writtenBytes = counter(registry, "sync.bytes", "bytes", "write", "Page bytes put into the page buffer (fetch) or committed to the target (write)");
+        sourceRead = Timer.builder("sync.source.read")
+                .description("Time spent in executeQuery and ResultSet reads on the source")
+                .tag("table", table)
+                .register(registry);
+        putBlocked = Timer.builder("sync.buffer.put.blocked")
+                .description("Time readers waited for the memory budget before putting a page")
+                .tag("table", table)
+                .register(registry);
+        takeBlocked = Timer.builder("sync.buffer.take.blocked")
+                .description("Time writers waited for the next page")
+                .tag("table", table)
+                .register(registry);
+        gauge(registry, "sync.buffer.pages", null, bufferedPages, "Pages waiting in the page buffer");
+        gauge(registry, "sync.buffer", "bytes", bufferedBytes, "Retained bytes of the pages waiting in the page buffer");
+        spilledPages = counter(registry, "sync.spilled.pages", null, null, "Pages written to the spill file because the memory budget was exhausted");
+        spilledBytes = counter(registry, "sync.spilled", "bytes", null, "Serialized bytes written to the spill file");
+        gauge(registry, "sync.spill.pages", null, spillPendingPages, "Spilled pages not yet read back");
+        gauge(registry, "sync.spill", "bytes", spillPendingBytes, "Serialized bytes of the spilled pages not yet read back");
+        executeBatch = latency(registry, "sync.execute.batch", "Latency of executeBatch, or LOAD DATA for the load-data sink");
+        commit = latency(registry, "sync.commit", "Latency of commit on the target");
+    }
+
+    private Counter counter(MeterRegistry registry, String name, String baseUnit, String stage, String description) {
+        Counter.Builder builder = Counter.builder(name)
+                .description(description)
+                .baseUnit(baseUnit)
+                .tag("table", table);
+        if (stage != null) {
+            builder.tag("stage", stage);
+        }
+        return builder.register(registry);
+    }
+
+    /**
+     * 仪表只弱引用 value, 由本实例持有; {@link SyncMetrics} 持有所有表的实例
+     */
+    private void gauge(MeterRegistry registry, String name, String baseUnit, AtomicLong value, String description) {
+        Gauge.builder(name, value, AtomicLong::get)
+                .description(description)
+                .baseUnit(baseUnit)
+                .tag("table", table)
+                .register(registry);
+    }
+
+    private Timer latency(MeterRegistry registry, String name, String description) {
+        return Timer.builder(name)
+                .description(description)
+                .tag("table", table)
+                .sla(LATENCY_BUCKETS)
+                .register(registry);
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public void pageFetched(int rows, long bytes) {
+        fetchedRows.increment(rows);
+        fetchedBytes.increment(bytes);
+    }
+
+    public void sourceRead(long nanos) {
+        sourceRead.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void pagesWritten(long rows, long bytes) {
+        writtenRows.increment(rows);
+        writtenBytes.increment(bytes);
+    }
+
+    public void putBlocked(long nanos) {
+        putBlocked.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void takeBlocked(long nanos) {
+        takeBlocked.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void pageQueued(long retainedBytes) {
+        bufferedPages.incrementAndGet();
+        bufferedBytes.addAndGet(retainedBytes);
+    }
+
+    public void pageDequeued(long retainedBytes) {
+        bufferedPages.decrementAndGet();
+        bufferedBytes.addAndGet(-retainedBytes);
+    }
+
+    public void pageSpilled(long fileBytes) {
+        spilledPages.increment();
+        spilledBytes.increment(fileBytes);
+        spillPendingPages.incrementAndGet();
+        spillPendingBytes.addAndGet(fileBytes);
+    }
+
+    /**
+     * 读回或者中止时丢弃
+     */
+    public void pagesUnspilled(int pages, long fileBytes) {
+        spillPendingPages.addAndGet(-pages);
+        spillPendingBytes.addAndGet(-fileBytes);
+    }
+
+    public void batchExecuted(long nanos) {
+        executeBatch.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void committed(long nanos) {
+        commit.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long getFetchedRows() {
+        return (long) fetchedRows.count();
+    }
+
+    public long getFetchedBytes() {
+        return (long) fetchedBytes.count();
+    }
+
+    public long getReadNanos() {
+        return (long) sourceRead.totalTime(TimeUnit.NANOSECONDS);
+    }
+
+    public long getWrittenRows() {
+        return (long) writtenRows.count();
+    }
+
+    public long getWrittenBytes() {
+        return (long) writtenBytes.count();
+    }
+
+    public long getPutBlockedNanos() {
+        return (long) putBlocked.totalTime(TimeUnit.NANOSECONDS);
+    }
+
+    public long getTakeBlockedNanos() {
+        return (long) takeBlocked.totalTime(TimeUnit.NANOSECONDS);
+    }
+
+    public long getBufferedPages() {
+        return bufferedPages.get();
+    }
+
+    public long getBufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    public long getSpilledPages() {
+        return (long) spilledPages.count();
+    }
+
+    public long getSpilledBytes() {
+        return (long) spilledBytes.count();
+    }
+
+    public long getSpillPendingPages() {
+        return spillPendingPages.get();
+    }
+
+    public long getSpillPendingBytes() {
+        return spillPendingBytes.get();
+    }
+
+    public Timer getExecuteBatch() {
+        return executeBatch;
+    }
+
+    public Timer getCommit() {
+        return commit;
+    }
+}
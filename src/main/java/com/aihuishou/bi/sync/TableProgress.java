@@ -0,0 +1,108 @@
+package com.aihuishou.bi.sync;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * 单表拷贝进度, 由写入端累加已提交行数, 读取端累加已读出行数, 根据 information_schema 中的 TABLE_ROWS 估算剩余时间
+ */
+public class TableProgress {
+    private final String table;
+    private final long estimatedRows;
+    private final long dataLength;
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong fetchedRows = new AtomicLong();
+    private volatile long startMillis;
+    private volatile long finishMillis;
+
+    public TableProgress(String table, long estimatedRows, long dataLength) {
+        this.table = table;
+        this.estimatedRows = estimatedRows;
+        this.dataLength = dataLength;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public long getEstimatedRows() {
+        return estimatedRows;
+    }
+
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    public long getRows() {
+        return rows.get();
+    }
+
+    public long getFetchedRows() {
+        return fetchedRows.get();
+    }
+
+    public void start() {
+        startMillis = System.currentTimeMillis();
+    }
+
+    public void addRows(long count) {
+        rows.addAndGet(count);
+    }
+
+    public void addFetchedRows(long count) {
+        fetchedRows.addAndGet(count);
+    }
+
+    public void finish() {
+        finishMillis = System.currentTimeMillis();
+    }
+
+    public boolean isRunning() {
+        return startMillis > 0 && finishMillis == 0;
+    }
+
+    public boolean isFinished() {
+        return finishMillis > 0;
+    }
+
+    /**
+     * TABLE_ROWS 对 InnoDB 只是估算值, 运行中的表最多算作 99%
+     */
+    public double getFractionDone() {
+        if (isFinished()) {
+            return 1.0;
+        }
+        if (startMillis == 0) {
+            return 0.0;
+        }
+        if (estimatedRows <= 0) {
+            return 0.0;
+        }
+        return min(0.99, (double) rows.get() / estimatedRows);
+    }
+
+    public long getElapsedMillis() {
+        if (startMillis == 0) {
+            return 0;
+        }
+        long end = finishMillis > 0 ? finishMillis : System.currentTimeMillis();
+        return max(end - startMillis, 1);
+    }
+
+    /**
+     * @return 预计剩余毫秒数, 无法估算时返回 -1
+     */
+    public long getEtaMillis() {
+        if (isFinished()) {
+            return 0;
+        }
+        long done = rows.get();
+        if (!isRunning() || done == 0 || estimatedRows <= 0) {
+            return -1;
+        }
+        long remaining = max(estimatedRows - done, 0);
+        return remaining * getElapsedMillis() / done;
+    }
+}
@@ -0,0 +1,159 @@
+package com.aihuishou.bi.sync;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import static com.aihuishou.bi.sync.StandardReadMappings.jdbcTypeToPrestoType;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * 一个表的快照目录中的 manifest.json: 导出时的源表结构 (列的 JDBC 类型、主键、二级索引、排序规则), 总行数和数据文件列表.
+ * 列的 Presto 类型不保存, 读取时按 JDBC 类型重新映射, 与拷贝时的映射一致. manifest 在数据文件全部写完后最后写入
+ */
+public class TableSnapshot {
+    public static final String MANIFEST = "manifest.json";
+    private static final int VERSION = 1;
+
+    private final String schema;
+    private final String table;
+    private final List<JdbcColumnHandle> columns;
+    private final List<String> primaryKey;
+    private final List<IndexDefinition> indexes;
+    private final Optional<String> collation;
+    private final long rows;
+    private final List<String> files;
+
+    public TableSnapshot(String schema, String table, List<JdbcColumnHandle> columns, List<String> primaryKey, List<IndexDefinition> indexes,
+                         Optional<String> collation, long rows, List<String> files) {
+        this.schema = schema;
+        this.table = table;
+        this.columns = ImmutableList.copyOf(columns);
+        this.primaryKey = ImmutableList.copyOf(primaryKey);
+        this.indexes = ImmutableList.copyOf(indexes);
+        this.collation = collation;
+        this.rows = rows;
+        this.files = ImmutableList.copyOf(files);
+    }
+
+    public static String getDataFileName(int index) {
+        return String.format("data-%05d.pages", index);
+    }
+
+    public static boolean exists(Path directory) {
+        return Files.isRegularFile(directory.resolve(MANIFEST));
+    }
+
+    public String getSchema() {
+        return schema;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public List<JdbcColumnHandle> getColumns() {
+        return columns;
+    }
+
+    public List<String> getPrimaryKey() {
+        return primaryKey;
+    }
+
+    public List<IndexDefinition> getIndexes() {
+        return indexes;
+    }
+
+    public Optional<String> getCollation() {
+        return collation;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public List<String> getFiles() {
+        return files;
+    }
+
+    public void save(Path directory) throws IOException {
+        JSONObject manifest = new JSONObject(true);
+        manifest.put("version", VERSION);
+        manifest.put("schema", schema);
+        manifest.put("table", table);
+        JSONArray columnArray = new JSONArray();
+        for (JdbcColumnHandle column : columns) {
+            JSONObject value = new JSONObject(true);
+            value.put("name", column.getColumnName());
+            value.put("jdbcType", column.getJdbcTypeHandle().getJdbcType());
+            value.put("columnSize", column.getJdbcTypeHandle().getColumnSize());
+            value.put("decimalDigits", column.getJdbcTypeHandle().getDecimalDigits());
+            columnArray.add(value);
+        }
+        manifest.put("columns", columnArray);
+        manifest.put("primaryKey", primaryKey);
+        JSONArray indexArray = new JSONArray();
+        for (IndexDefinition index : indexes) {
+            JSONObject value = new JSONObject(true);
+            value.put("name", index.getName());
+            value.put("unique", index.isUnique());
+            value.put("indexType", index.getIndexType());
+            value.put("columns", index.getColumns());
+            JSONArray prefixLengths = new JSONArray();
+            index.getPrefixLengths().forEach(prefixLength -> prefixLengths.add(prefixLength.orElse(null)));
+            value.put("prefixLengths", prefixLengths);
+            indexArray.add(value);
+        }
+        manifest.put("indexes", indexArray);
+        manifest.put("collation", collation.orElse(null));
+        manifest.put("rows", rows);
+        manifest.put("files", files);
+        Files.write(directory.resolve(MANIFEST), JSON.toJSONString(manifest, SerializerFeature.PrettyFormat, SerializerFeature.WriteMapNullValue).getBytes(UTF_8));
+    }
+
+    public static TableSnapshot load(Path directory) throws IOException {
+        JSONObject manifest = JSON.parseObject(new String(Files.readAllBytes(directory.resolve(MANIFEST)), UTF_8));
+        if (manifest.getIntValue("version") != VERSION) {
+            throw new IllegalArgumentException("unsupported snapshot version " + manifest.get("version") + ": " + directory);
+        }
+        String schema = manifest.getString("schema");
+        ImmutableList.Builder<JdbcColumnHandle> columns = ImmutableList.builder();
+        JSONArray columnArray = manifest.getJSONArray("columns");
+        for (int i = 0; i < columnArray.size(); i++) {
+            JSONObject value = columnArray.getJSONObject(i);
+            JdbcTypeHandle typeHandle = new JdbcTypeHandle(value.getIntValue("jdbcType"), value.getIntValue("columnSize"), value.getIntValue("decimalDigits"));
+            ReadMapping readMapping = jdbcTypeToPrestoType(typeHandle)
+                    .orElseThrow(() -> new IllegalArgumentException("unsupported column in snapshot " + directory + ": " + value));
+            columns.add(new JdbcColumnHandle(schema, value.getString("name"), typeHandle, readMapping.getType()));
+        }
+        ImmutableList.Builder<IndexDefinition> indexes = ImmutableList.builder();
+        JSONArray indexArray = manifest.getJSONArray("indexes");
+        for (int i = 0; i < indexArray.size(); i++) {
+            JSONObject value = indexArray.getJSONObject(i);
+            ImmutableList.Builder<Optional<Integer>> prefixLengths = ImmutableList.builder();
+            JSONArray prefixArray = value.getJSONArray("prefixLengths");
+            for (int j = 0; j < prefixArray.size(); j++) {
+                prefixLengths.add(Optional.ofNullable(prefixArray.getInteger(j)));
+            }
+            indexes.add(new IndexDefinition(value.getString("name"), value.getBooleanValue("unique"), value.getString("indexType"),
+                    value.getJSONArray("columns").toJavaList(String.class), prefixLengths.build()));
+        }
+        return new TableSnapshot(
+                schema,
+                manifest.getString("table"),
+                columns.build(),
+                manifest.getJSONArray("primaryKey").toJavaList(String.class),
+                indexes.build(),
+                Optional.ofNullable(manifest.getString("collation")),
+                manifest.getLongValue("rows"),
+                manifest.getJSONArray("files").toJavaList(String.class));
+    }
+}
@@ -0,0 +1,12 @@
+package com.aihuishou.bi.sync;
+
+import lombok.Data;
+
+/**
+ * 单表的读写参数, 默认值与调优前的固定值一致
+ */
+@Data
+public class TableTuning {
+    private int fetchSize = 1000;
+    private int commitRows = 1000;
+}
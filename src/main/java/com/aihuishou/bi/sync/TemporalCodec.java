@@ -0,0 +1,369 @@
+package com.aihuishou.bi.sync;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static com.aihuishou.bi.sync.ReadMapping.longReadMapping;
+import static com.facebook.presto.spi.type.DateType.DATE;
+import static com.facebook.presto.spi.type.TimeType.TIME;
+import static com.facebook.presto.spi.type.TimestampType.TIMESTAMP;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.util.concurrent.TimeUnit.DAYS;
+
+/**
+ * DATE/TIME/TIMESTAMP 的读取和写入. Presto 值都不带时区: DATE 为天数, TIME 为当天的毫秒数, TIMESTAMP 为本地时间按 UTC 计的毫秒数,
+ * 读取时不经过 java.sql.Date/Timestamp 和 JVM 时区, 夏令时跳过的本地时间也能原样保留.
+ * 读取: MySQL 驱动对日期时间列的 getBytes 返回文本 (文本协议为收到的字节, 二进制协议为驱动格式化后的字符串), 每个单元格直接解析;
+ * 零值日期、YEAR、超过 24 小时的 TIME 等无法直接解析的文本退回驱动的 getDate/getTime/getTimestamp, 由 zeroDateTimeBehavior 决定结果.
+ * 写入: 源库和目标库时区相同时本地时间原样写入, 不做任何换算; 不同时按预先展开的 {@link ZoneOffsetTable} 从源库时区换算到目标库时区.
+ * MySQL 和 H2 以文本绑定, 服务端按本地时间解析; 其余驱动以 Timestamp/Date 绑定
+ */
+public final class TemporalCodec {
+    /**
+     * 源库和目标库时区相同, 以 Timestamp/Date 绑定
+     */
+    public static final TemporalCodec UNSHIFTED = new TemporalCodec(ZoneId.systemDefault(), ZoneId.systemDefault());
+
+    /**
+     * 解析失败的标记, 不在 MySQL 日期时间的取值范围内
+     */
+    static final long INVALID = Long.MIN_VALUE;
+    private static final long MILLIS_PER_DAY = DAYS.toMillis(1);
+    private static final int[] DAYS_IN_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private final ZoneOffsetTable source;
+    private final ZoneOffsetTable target;
+    private final boolean shifting;
+    private final boolean textLiterals;
+
+    public TemporalCodec(ZoneId source, ZoneId target) {
+        this(ZoneOffsetTable.of(source), ZoneOffsetTable.of(target), false);
+    }
+
+    private TemporalCodec(ZoneOffsetTable source, ZoneOffsetTable target, boolean textLiterals) {
+        this.source = source;
+        this.target = target;
+        // 时区规则相同即可, 例如 Asia/Shanghai 与 PRC
+        this.shifting = !source.getZone().getRules().equals(target.getZone().getRules());
+        this.textLiterals = textLiterals;
+    }
+
+    /**
+     * 按目标库决定绑定方式
+     */
+    public TemporalCodec forTarget(Connection connection) throws SQLException {
+        return new TemporalCodec(source, target, supportsTextLiterals(connection));
+    }
+
+    /**
+     * MySQL 和 H2 都接受 'yyyy-MM-dd HH:mm:ss.SSS' 形式的字符串参数, 按列类型转换
+     */
+    static boolean supportsTextLiterals(Connection connection) throws SQLException {
+        String product = connection.getMetaData().getDatabaseProductName();
+        return "MySQL".equalsIgnoreCase(product) || "H2".equals(product);
+    }
+
+    public boolean isShifting() {
+        return shifting;
+    }
+
+    public ZoneId getSourceZone() {
+        return source.getZone();
+    }
+
+    public ZoneId getTargetZone() {
+        return target.getZone();
+    }
+
+    /**
+     * 源库时区的本地时间换算成目标库时区的本地时间
+     */
+    public long shift(long localMillis) {
+        if (!shifting) {
+            return localMillis;
+        }
+        return target.toLocalMillis(source.toEpochMillis(localMillis));
+    }
+
+    public ColumnBinder timestampBinder() {
+        if (textLiterals) {
+            return (statement, parameter, block, position) -> statement.setString(parameter, formatTimestamp(shift(TIMESTAMP.getLong(block, position))));
+        }
+        return (statement, parameter, block, position) -> statement.setTimestamp(parameter, toTimestamp(shift(TIMESTAMP.getLong(block, position))));
+    }
+
+    public ColumnBinder dateBinder() {
+        if (textLiterals) {
+            return (statement, parameter, block, position) -> statement.setString(parameter, formatDate(DATE.getLong(block, position)));
+        }
+        return (statement, parameter, block, position) -> statement.setDate(parameter, toDate(DATE.getLong(block, position)));
+    }
+
+    public static ReadMapping textDateReadMapping() {
+        return longReadMapping(DATE, (resultSet, columnIndex) -> {
+            byte[] value = resultSet.getBytes(columnIndex);
+            if (value == null) {
+                return 0;
+            }
+            long days = parseDate(value);
+            if (days == INVALID) {
+                return StandardReadMappings.readDate(resultSet, columnIndex);
+            }
+            return days;
+        });
+    }
+
+    public static ReadMapping textTimeReadMapping() {
+        return longReadMapping(TIME, (resultSet, columnIndex) -> {
+            byte[] value = resultSet.getBytes(columnIndex);
+            if (value == null) {
+                return 0;
+            }
+            long millis = parseTime(value);
+            if (millis == INVALID) {
+                return StandardReadMappings.readTime(resultSet, columnIndex);
+            }
+            return millis;
+        });
+    }
+
+    public static ReadMapping textTimestampReadMapping() {
+        return longReadMapping(TIMESTAMP, (resultSet, columnIndex) -> {
+            byte[] value = resultSet.getBytes(columnIndex);
+            if (value == null) {
+                return 0;
+            }
+            long millis = parseTimestamp(value);
+            if (millis == INVALID) {
+                return StandardReadMappings.readTimestamp(resultSet, columnIndex);
+            }
+            return millis;
+        });
+    }
+
+    /**
+     * @return yyyy-MM-dd 对应的天数, 格式不符或为零值日期时返回 {@link #INVALID}
+     */
+    static long parseDate(byte[] text) {
+        if (text.length != 10 || text[4] != '-' || text[7] != '-') {
+            return INVALID;
+        }
+        return toDays(digits(text, 0, 4), digits(text, 5, 2), digits(text, 8, 2));
+    }
+
+    /**
+     * @return HH:mm:ss[.ffffff] 对应的当天毫秒数, 小数位超过 3 位时截断, 与 Timestamp.getTime 一致
+     */
+    static long parseTime(byte[] text) {
+        if (text.length < 8 || text[2] != ':' || text[5] != ':') {
+            return INVALID;
+        }
+        long millisOfDay = toMillisOfDay(digits(text, 0, 2), digits(text, 3, 2), digits(text, 6, 2));
+        long fraction = fractionMillis(text, 8);
+        if (millisOfDay == INVALID || fraction == INVALID) {
+            return INVALID;
+        }
+        return millisOfDay + fraction;
+    }
+
+    /**
+     * @return yyyy-MM-dd HH:mm:ss[.ffffff] 对应的本地毫秒数
+     */
+    static long parseTimestamp(byte[] text) {
+        if (text.length < 19 || text[4] != '-' || text[7] != '-' || text[10] != ' ' || text[13] != ':' || text[16] != ':') {
+            return INVALID;
+        }
+        long days = toDays(digits(text, 0, 4), digits(text, 5, 2), digits(text, 8, 2));
+        long millisOfDay = toMillisOfDay(digits(text, 11, 2), digits(text, 14, 2), digits(text, 17, 2));
+        long fraction = fractionMillis(text, 19);
+        if (days == INVALID || millisOfDay == INVALID || fraction == INVALID) {
+            return INVALID;
+        }
+        return days * MILLIS_PER_DAY + millisOfDay + fraction;
+    }
+
+    public static String formatDate(long days) {
+        byte[] buffer = new byte[10];
+        int length = writeDate(days, buffer, 0);
+        if (length < 0) {
+            return LocalDate.ofEpochDay(days).toString();
+        }
+        return new String(buffer, 0, length, US_ASCII);
+    }
+
+    /**
+     * @param millisOfDay 当天的毫秒数, 即 TIME 的值; 毫秒为 0 时不输出小数部分
+     */
+    public static String formatTime(long millisOfDay) {
+        byte[] buffer = new byte[12];
+        int length = writeTime((int) Math.floorMod(millisOfDay, MILLIS_PER_DAY), buffer, 0);
+        return new String(buffer, 0, length, US_ASCII);
+    }
+
+    /**
+     * 毫秒为 0 时不输出小数部分
+     */
+    public static String formatTimestamp(long localMillis) {
+        byte[] buffer = new byte[23];
+        int length = writeTimestamp(localMillis, buffer, 0);
+        if (length < 0) {
+            return toLocalDateTime(localMillis).toString();
+        }
+        return new String(buffer, 0, length, US_ASCII);
+    }
+
+    /**
+     * @return 写入的字节数, 年份超出 4 位时不写入, 返回 -1
+     */
+    static int writeDate(long days, byte[] buffer, int offset) {
+        // days from civil 的逆运算, 见 http://howardhinnant.github.io/date_algorithms.html
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            return -1;
+        }
+        writeDigits((int) year, 4, buffer, offset);
+        buffer[offset + 4] = '-';
+        writeDigits(month, 2, buffer, offset + 5);
+        buffer[offset + 7] = '-';
+        writeDigits(day, 2, buffer, offset + 8);
+        return 10;
+    }
+
+    /**
+     * @return 写入的字节数 (19 或 23), 年份超出 4 位时不写入, 返回 -1
+     */
+    static int writeTimestamp(long localMillis, byte[] buffer, int offset) {
+        long days = Math.floorDiv(localMillis, MILLIS_PER_DAY);
+        int millisOfDay = (int) Math.floorMod(localMillis, MILLIS_PER_DAY);
+        if (writeDate(days, buffer, offset) < 0) {
+            return -1;
+        }
+        buffer[offset + 10] = ' ';
+        return 11 + writeTime(millisOfDay, buffer, offset + 11);
+    }
+
+    /**
+     * @return 写入的字节数, 毫秒为 0 时为 8 (HH:mm:ss), 否则为 12 (HH:mm:ss.SSS)
+     */
+    static int writeTime(int millisOfDay, byte[] buffer, int offset) {
+        writeDigits(millisOfDay / 3_600_000, 2, buffer, offset);
+        buffer[offset + 2] = ':';
+        writeDigits(millisOfDay / 60_000 % 60, 2, buffer, offset + 3);
+        buffer[offset + 5] = ':';
+        writeDigits(millisOfDay / 1000 % 60, 2, buffer, offset + 6);
+        int millis = millisOfDay % 1000;
+        if (millis == 0) {
+            return 8;
+        }
+        buffer[offset + 8] = '.';
+        writeDigits(millis, 3, buffer, offset + 9);
+        return 12;
+    }
+
+    static LocalDateTime toLocalDateTime(long localMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(localMillis), ZoneOffset.UTC);
+    }
+
+    /**
+     * 不支持文本参数的驱动按 JVM 时区构造 Timestamp, gap 中的本地时间会被驱动顺延
+     */
+    static Timestamp toTimestamp(long localMillis) {
+        return Timestamp.valueOf(toLocalDateTime(localMillis));
+    }
+
+    static Date toDate(long days) {
+        return Date.valueOf(LocalDate.ofEpochDay(days));
+    }
+
+    /**
+     * @return 年月日对应的天数, 不是合法日期 (包括 MySQL 的零值日期) 时返回 {@link #INVALID}
+     */
+    private static long toDays(int year, int month, int day) {
+        if (year < 1 || month < 1 || month > 12 || day < 1) {
+            return INVALID;
+        }
+        boolean leap = (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+        if (day > DAYS_IN_MONTH[month - 1] + (month == 2 && leap ? 1 : 0)) {
+            return INVALID;
+        }
+        // days from civil, 见 http://howardhinnant.github.io/date_algorithms.html
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static long toMillisOfDay(int hour, int minute, int second) {
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return INVALID;
+        }
+        return hour * 3_600_000L + minute * 60_000L + second * 1000L;
+    }
+
+    /**
+     * position 之后为空, 或为 '.' 加 1 到 9 位数字 (MySQL 最多 6 位, Timestamp.toString 最多 9 位)
+     */
+    private static long fractionMillis(byte[] text, int position) {
+        if (text.length == position) {
+            return 0;
+        }
+        int fractionDigits = text.length - position - 1;
+        if (text[position] != '.' || fractionDigits < 1 || fractionDigits > 9) {
+            return INVALID;
+        }
+        int millis = 0;
+        for (int i = 0; i < 3; i++) {
+            int digit = i < fractionDigits ? text[position + 1 + i] - '0' : 0;
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            millis = millis * 10 + digit;
+        }
+        for (int i = 3; i < fractionDigits; i++) {
+            int digit = text[position + 1 + i] - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+        }
+        return millis;
+    }
+
+    /**
+     * @return 非数字时返回负数
+     */
+    private static int digits(byte[] text, int position, int count) {
+        int value = 0;
+        for (int i = position; i < position + count; i++) {
+            int digit = text[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static void writeDigits(int value, int count, byte[] buffer, int offset) {
+        for (int i = offset + count - 1; i >= offset; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
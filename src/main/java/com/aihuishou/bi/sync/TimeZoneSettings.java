@@ -0,0 +1,25 @@
+package com.aihuishou.bi.sync;
+
+import lombok.Data;
+
+import java.time.ZoneId;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+/**
+ * sync.time-zone 配置: 源库和目标库 DATETIME/TIMESTAMP 所在的时区, 为空时为 JVM 时区.
+ * 两者相同时按本地时间原样拷贝; 不同时写入前把源库的本地时间换算成目标库的本地时间, 见 {@link TemporalCodec}
+ */
+@Data
+public class TimeZoneSettings {
+    private String source = "";
+    private String target = "";
+
+    public TemporalCodec createTemporalCodec() {
+        return new TemporalCodec(toZone(source), toZone(target));
+    }
+
+    private static ZoneId toZone(String zone) {
+        return isNullOrEmpty(zone) ? ZoneId.systemDefault() : ZoneId.of(zone);
+    }
+}
@@ -0,0 +1,234 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.PrestoException;
+import com.facebook.presto.spi.block.Block;
+import com.facebook.presto.spi.type.DecimalType;
+import com.facebook.presto.spi.type.TimestampType;
+import com.facebook.presto.spi.type.Type;
+import io.airlift.slice.Slice;
+import io.airlift.slice.SliceOutput;
+
+import java.util.List;
+
+import static com.facebook.presto.spi.StandardErrorCode.NOT_SUPPORTED;
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.BooleanType.BOOLEAN;
+import static com.facebook.presto.spi.type.Chars.isCharType;
+import static com.facebook.presto.spi.type.DateType.DATE;
+import static com.facebook.presto.spi.type.Decimals.readBigDecimal;
+import static com.facebook.presto.spi.type.DoubleType.DOUBLE;
+import static com.facebook.presto.spi.type.IntegerType.INTEGER;
+import static com.facebook.presto.spi.type.RealType.REAL;
+import static com.facebook.presto.spi.type.SmallintType.SMALLINT;
+import static com.facebook.presto.spi.type.TinyintType.TINYINT;
+import static com.facebook.presto.spi.type.VarbinaryType.VARBINARY;
+import static com.facebook.presto.spi.type.Varchars.isVarcharType;
+import static java.lang.Float.intBitsToFloat;
+import static java.lang.Math.toIntExact;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * 把 Page 编码成 MySQL LOAD DATA 默认格式的字节流:
+ * 字段以 \t 分隔, 行以 \n 结束, 转义符为 \, NULL 写作 \N. 字符串直接输出 Slice 中的 UTF-8 字节, 不经过 String.
+ * VARBINARY 写成十六进制, 避免任意字节按 LOAD DATA 的字符集转换, 由 LOAD DATA 的 SET 子句 UNHEX 还原.
+ * 只依赖 Block/Type, 可以脱离数据库单独验证
+ */
+public class TsvPageEncoder {
+    private static final byte FIELD_SEPARATOR = '\t';
+    private static final byte LINE_SEPARATOR = '\n';
+    private static final byte ESCAPE = '\\';
+    private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes(US_ASCII);
+
+    private final ValueEncoder[] encoders;
+    private final TemporalCodec temporalCodec;
+    private final byte[] digits = new byte[23];
+
+    public TsvPageEncoder(List<Type> types) {
+        this(types, TemporalCodec.UNSHIFTED);
+    }
+
+    /**
+     * @param temporalCodec TIMESTAMP 从源库时区换算到目标库时区后输出本地时间, 与 JdbcPageSink 保持一致
+     */
+    public TsvPageEncoder(List<Type> types, TemporalCodec temporalCodec) {
+        this.temporalCodec = temporalCodec;
+        this.encoders = types.stream()
+                .map(this::createValueEncoder)
+                .toArray(ValueEncoder[]::new);
+    }
+
+    public void encodeRow(Page page, int position, SliceOutput output) {
+        for (int channel = 0; channel < encoders.length; channel++) {
+            if (channel > 0) {
+                output.writeByte(FIELD_SEPARATOR);
+            }
+            Block block = page.getBlock(channel);
+            if (block.isNull(position)) {
+                output.writeByte(ESCAPE);
+                output.writeByte('N');
+            } else {
+                encoders[channel].encode(block, position, output);
+            }
+        }
+        output.writeByte(LINE_SEPARATOR);
+    }
+
+    public void encodePage(Page page, SliceOutput output) {
+        for (int position = 0; position < page.getPositionCount(); position++) {
+            encodeRow(page, position, output);
+        }
+    }
+
+    /**
+     * 把一个非 NULL 的单元格写成文本, 每列在构造时确定一次, 与 {@link ColumnBinders} 相同
+     */
+    private interface ValueEncoder {
+        void encode(Block block, int position, SliceOutput output);
+    }
+
+    private ValueEncoder createValueEncoder(Type type) {
+        if (BOOLEAN.equals(type)) {
+            return (block, position, output) -> output.writeByte(type.getBoolean(block, position) ? '1' : '0');
+        }
+        if (BIGINT.equals(type) || INTEGER.equals(type) || SMALLINT.equals(type) || TINYINT.equals(type)) {
+            return (block, position, output) -> writeLong(type.getLong(block, position), output);
+        }
+        if (DOUBLE.equals(type)) {
+            return (block, position, output) -> writeAscii(Double.toString(type.getDouble(block, position)), output);
+        }
+        if (REAL.equals(type)) {
+            return (block, position, output) -> writeAscii(Float.toString(intBitsToFloat(toIntExact(type.getLong(block, position)))), output);
+        }
+        if (type instanceof DecimalType) {
+            DecimalType decimalType = (DecimalType) type;
+            int scale = decimalType.getScale();
+            if (decimalType.isShort()) {
+                return (block, position, output) -> writeShortDecimal(type.getLong(block, position), scale, output);
+            }
+            return (block, position, output) -> writeAscii(readBigDecimal(decimalType, block, position).toPlainString(), output);
+        }
+        if (isVarcharType(type) || isCharType(type)) {
+            return (block, position, output) -> writeEscaped(type.getSlice(block, position), output);
+        }
+        if (VARBINARY.equals(type)) {
+            return (block, position, output) -> writeHex(type.getSlice(block, position), output);
+        }
+        if (DATE.equals(type)) {
+            return (block, position, output) -> {
+                long days = type.getLong(block, position);
+                int length = TemporalCodec.writeDate(days, digits, 0);
+                if (length < 0) {
+                    writeAscii(TemporalCodec.formatDate(days), output);
+                } else {
+                    output.writeBytes(digits, 0, length);
+                }
+            };
+        }
+        if (type instanceof TimestampType) {
+            return (block, position, output) -> {
+                long localMillis = temporalCodec.shift(type.getLong(block, position));
+                int length = TemporalCodec.writeTimestamp(localMillis, digits, 0);
+                if (length < 0) {
+                    writeAscii(TemporalCodec.formatTimestamp(localMillis), output);
+                } else {
+                    output.writeBytes(digits, 0, length);
+                }
+            };
+        }
+        throw new PrestoException(NOT_SUPPORTED, "Unsupported column type: " + type.getDisplayName());
+    }
+
+    private void writeEscaped(Slice slice, SliceOutput output) {
+        int length = slice.length();
+        for (int i = 0; i < length; i++) {
+            byte value = slice.getByte(i);
+            switch (value) {
+                case '\\':
+                    output.writeByte(ESCAPE);
+                    output.writeByte('\\');
+                    break;
+                case '\t':
+                    output.writeByte(ESCAPE);
+                    output.writeByte('t');
+                    break;
+                case '\n':
+                    output.writeByte(ESCAPE);
+                    output.writeByte('n');
+                    break;
+                case '\r':
+                    output.writeByte(ESCAPE);
+                    output.writeByte('r');
+                    break;
+                case 0:
+                    output.writeByte(ESCAPE);
+                    output.writeByte('0');
+                    break;
+                default:
+                    output.writeByte(value);
+            }
+        }
+    }
+
+    private static void writeHex(Slice slice, SliceOutput output) {
+        int length = slice.length();
+        for (int i = 0; i < length; i++) {
+            int value = slice.getUnsignedByte(i);
+            output.writeByte(HEX_DIGITS[value >>> 4]);
+            output.writeByte(HEX_DIGITS[value & 0xF]);
+        }
+    }
+
+    private void writeShortDecimal(long unscaled, int scale, SliceOutput output) {
+        if (scale == 0) {
+            writeLong(unscaled, output);
+            return;
+        }
+        if (unscaled < 0) {
+            output.writeByte('-');
+        }
+        // 绝对值按位输出, 小数点前至少保留一个 0; 短 decimal 最多 18 位, 取负不会溢出
+        int length = formatDigits(Math.abs(unscaled));
+        if (length <= scale) {
+            output.writeByte('0');
+            output.writeByte('.');
+            for (int i = length; i < scale; i++) {
+                output.writeByte('0');
+            }
+            output.writeBytes(digits, digits.length - length, length);
+            return;
+        }
+        output.writeBytes(digits, digits.length - length, length - scale);
+        output.writeByte('.');
+        output.writeBytes(digits, digits.length - scale, scale);
+    }
+
+    private void writeLong(long value, SliceOutput output) {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value), output);
+            return;
+        }
+        if (value < 0) {
+            output.writeByte('-');
+            value = -value;
+        }
+        int length = formatDigits(value);
+        output.writeBytes(digits, digits.length - length, length);
+    }
+
+    /**
+     * 把非负数写到 digits 末尾, 返回位数
+     */
+    private int formatDigits(long value) {
+        int index = digits.length;
+        do {
+            digits[--index] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        return digits.length - index;
+    }
+
+    private static void writeAscii(String value, SliceOutput output) {
+        output.writeBytes(value.getBytes(US_ASCII));
+    }
+}
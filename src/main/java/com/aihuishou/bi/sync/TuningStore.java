@@ -0,0 +1,31 @@
+package com.aihuishou.bi.sync;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * 把每个表收敛后的 fetch size 和提交批量保存到 properties 文件, 下次拷贝同一个表时作为初始值.
+ * key 为 库名.表名, 例如 davinci.orders.fetch-size=5000; 路径为空时只在日志中输出, 不保存
+ */
+public class TuningStore {
+    private static final String FETCH_SIZE = ".fetch-size";
+    private static final String COMMIT_ROWS = ".commit-rows";
+
+    private final PropertiesFile file;
+
+    public TuningStore(String file) {
+        this.file = new PropertiesFile(file, "settled fetch size and commit rows per table");
+    }
+
+    public TableTuning get(String key) {
+        TableTuning tuning = new TableTuning();
+        file.getLong(key + FETCH_SIZE).ifPresent(value -> tuning.setFetchSize(value.intValue()));
+        file.getLong(key + COMMIT_ROWS).ifPresent(value -> tuning.setCommitRows(value.intValue()));
+        return tuning;
+    }
+
+    public void save(String key, TableTuning tuning) {
+        file.set(ImmutableMap.of(
+                key + FETCH_SIZE, String.valueOf(tuning.getFetchSize()),
+                key + COMMIT_ROWS, String.valueOf(tuning.getCommitRows())));
+    }
+}
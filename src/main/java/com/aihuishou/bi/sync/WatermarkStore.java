@@ -0,0 +1,29 @@
+package com.aihuishou.bi.sync;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Optional;
+
+/**
+ * 增量拷贝的高水位, key 为 库名.表名.水位列, 值使用 Presto 的 long 表示 (整数本身, DATE 为天数, TIMESTAMP 为本地时间按 UTC 计的毫秒数).
+ * 水位列改了之后 key 不同, 会自动退回全量拷贝
+ */
+public class WatermarkStore {
+    private final PropertiesFile file;
+
+    public WatermarkStore(String file) {
+        this.file = new PropertiesFile(file, "incremental sync high-water marks");
+    }
+
+    public Optional<Long> get(String key) {
+        return file.getLong(key);
+    }
+
+    public void save(String key, long watermark) {
+        file.set(ImmutableMap.of(key, String.valueOf(watermark)));
+    }
+
+    public void remove(String key) {
+        file.remove(key);
+    }
+}
@@ -0,0 +1,132 @@
+package com.aihuishou.bi.sync;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * 一个时区在 [1900, 2100) 内的偏移变化预先展开成有序数组, 本地时间与 UTC 时刻互转只做一次二分查找;
+ * 最后一次变化之后不再有夏令时的时区 (如 Asia/Shanghai 自 1991 年起) 只比较一次. 超出范围时退回 ZoneRules.
+ * 本地时间与 java.time 一致: 夏令时跳过的本地时间 (gap) 按跳过的长度往后顺延, 重复的本地时间 (overlap) 取较早的时刻
+ */
+final class ZoneOffsetTable {
+    private static final ConcurrentMap<ZoneId, ZoneOffsetTable> TABLES = new ConcurrentHashMap<>();
+    private static final long MIN_MILLIS = LocalDateTime.of(1900, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC) * 1000;
+    private static final long MAX_MILLIS = LocalDateTime.of(2100, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC) * 1000;
+
+    private final ZoneId zone;
+    private final ZoneRules rules;
+    /**
+     * 偏移变化的 UTC 时刻, 升序
+     */
+    private final long[] transitions;
+    /**
+     * 变化时刻按变化前的偏移换算的本地时间, 即本地时钟在这一刻跳变前的读数
+     */
+    private final long[] localTransitions;
+    /**
+     * offsets[i] 为第 i 次变化之前的偏移, 最后一个为最后一次变化之后的偏移
+     */
+    private final long[] offsets;
+    /**
+     * 2100 年之后仍按规则切换夏令时, 超出范围要退回 ZoneRules
+     */
+    private final boolean recurring;
+
+    private ZoneOffsetTable(ZoneId zone) {
+        this.zone = zone;
+        this.rules = zone.getRules();
+        List<ZoneOffsetTransition> changes = new ArrayList<>();
+        ZoneOffsetTransition transition = rules.nextTransition(Instant.ofEpochMilli(MIN_MILLIS));
+        while (transition != null && transition.toEpochSecond() * 1000 < MAX_MILLIS) {
+            changes.add(transition);
+            transition = rules.nextTransition(transition.getInstant());
+        }
+        transitions = new long[changes.size()];
+        localTransitions = new long[changes.size()];
+        offsets = new long[changes.size() + 1];
+        offsets[0] = offsetMillis(rules.getOffset(Instant.ofEpochMilli(MIN_MILLIS)));
+        for (int i = 0; i < changes.size(); i++) {
+            transitions[i] = changes.get(i).toEpochSecond() * 1000;
+            localTransitions[i] = transitions[i] + offsetMillis(changes.get(i).getOffsetBefore());
+            offsets[i + 1] = offsetMillis(changes.get(i).getOffsetAfter());
+        }
+        recurring = !rules.getTransitionRules().isEmpty();
+    }
+
+    static ZoneOffsetTable of(ZoneId zone) {
+        return TABLES.computeIfAbsent(zone, ZoneOffsetTable::new);
+    }
+
+    ZoneId getZone() {
+        return zone;
+    }
+
+    /**
+     * UTC 时刻换算成该时区的本地时间, 都以毫秒表示
+     */
+    long toLocalMillis(long epochMillis) {
+        int count = transitions.length;
+        if (count == 0 || epochMillis >= transitions[count - 1]) {
+            if (epochMillis >= MAX_MILLIS && recurring) {
+                return epochMillis + offsetMillis(rules.getOffset(Instant.ofEpochMilli(epochMillis)));
+            }
+            return epochMillis + offsets[count];
+        }
+        if (epochMillis < MIN_MILLIS) {
+            return epochMillis + offsetMillis(rules.getOffset(Instant.ofEpochMilli(epochMillis)));
+        }
+        return epochMillis + offsets[upperBound(transitions, epochMillis)];
+    }
+
+    /**
+     * 该时区的本地时间换算成 UTC 时刻, 都以毫秒表示
+     */
+    long toEpochMillis(long localMillis) {
+        if (localMillis < MIN_MILLIS || (localMillis >= MAX_MILLIS && recurring)) {
+            return ZonedDateTime.of(TemporalCodec.toLocalDateTime(localMillis), zone).toInstant().toEpochMilli();
+        }
+        // 本地时钟读数达到跳变前读数的变化都已经发生
+        int index = upperBound(localTransitions, localMillis);
+        if (index > 0) {
+            long before = offsets[index - 1];
+            long after = offsets[index];
+            if (after > before && localMillis < localTransitions[index - 1] + (after - before)) {
+                // gap 中的本地时间按变化前的偏移换算, 等于顺延跳过的长度
+                return localMillis - before;
+            }
+        }
+        return localMillis - offsets[index];
+    }
+
+    /**
+     * 不大于 value 的元素个数
+     */
+    private static int upperBound(long[] values, long value) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] <= value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static long offsetMillis(ZoneOffset offset) {
+        return SECONDS.toMillis(offset.getTotalSeconds());
+    }
+}
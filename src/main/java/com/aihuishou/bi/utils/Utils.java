@@ -6,8 +6,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.*;
-import java.text.DateFormat;
-import java.util.Date;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Map;
 
 import static com.facebook.presto.spi.type.BigintType.BIGINT;
@@ -30,10 +30,11 @@ public class Utils {
 
     private final static Logger logger = LoggerFactory.getLogger(Utils.class);
 
-    public static volatile boolean fetchRunnerError;
-
     public static final String mysql_identifierQuote = "`";
-    private static final DateFormat format1 = new java.text.SimpleDateFormat("yyyy-MM-dd hh:mm:ss.SSS");
+    /**
+     * 日志时间戳, 多个线程同时调用; SimpleDateFormat 不是线程安全的, 这里用不可变的 DateTimeFormatter
+     */
+    private static final DateTimeFormatter format1 = DateTimeFormatter.ofPattern("yyyy-MM-dd hh:mm:ss.SSS");
 
     public static final Map<Type, String> SQL_TYPES = ImmutableMap.<Type, String>builder()
             .put(BOOLEAN, "boolean")
@@ -125,6 +126,6 @@ public class Utils {
     }
 
     public static String getCurrentTime() {
-        return format1.format(new Date());
+        return format1.format(LocalDateTime.now());
     }
 }
@@ -0,0 +1,460 @@
+package com.aihuishou.bi.handler;
+
+import com.aihuishou.bi.sync.BinlogPositionStore;
+import com.aihuishou.bi.sync.BinlogSettings;
+import com.aihuishou.bi.sync.FanOutSettings;
+import com.aihuishou.bi.sync.LoadGovernorSettings;
+import com.aihuishou.bi.sync.M2H2SchemaConverter;
+import com.aihuishou.bi.sync.MetaInfo;
+import com.aihuishou.bi.sync.SchemaFingerprintStore;
+import com.aihuishou.bi.sync.SchemaMetadataCache;
+import com.aihuishou.bi.sync.SyncMetrics;
+import com.aihuishou.bi.sync.TimeZoneSettings;
+import com.github.shyiko.mysql.binlog.event.EventType;
+import com.github.shyiko.mysql.binlog.event.deserialization.ColumnType;
+import com.google.common.collect.ImmutableList;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+
+import static com.aihuishou.bi.sync.H2Fixtures.createDataSource;
+import static com.aihuishou.bi.sync.H2Fixtures.execute;
+import static com.github.shyiko.mysql.binlog.event.deserialization.ColumnType.DATE;
+import static com.github.shyiko.mysql.binlog.event.deserialization.ColumnType.DATETIME_V2;
+import static com.github.shyiko.mysql.binlog.event.deserialization.ColumnType.JSON;
+import static com.github.shyiko.mysql.binlog.event.deserialization.ColumnType.LONG;
+import static com.github.shyiko.mysql.binlog.event.deserialization.ColumnType.LONGLONG;
+import static com.github.shyiko.mysql.binlog.event.deserialization.ColumnType.TIMESTAMP_V2;
+import static com.github.shyiko.mysql.binlog.event.deserialization.ColumnType.TINY;
+import static com.github.shyiko.mysql.binlog.event.deserialization.ColumnType.VARCHAR;
+import static com.github.shyiko.mysql.binlog.event.deserialization.ColumnType.YEAR;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * 回放按 MySQL binlog v4 格式写出的文件, 检查目标表的结果.
+ * 源表的 QTY/FLAG 在 binlog 中是 4 字节和 1 字节整数, 在源库元数据中是更宽的类型, 即 INT UNSIGNED 和 TINYINT UNSIGNED;
+ * TAGS 为不支持的类型, 不在目标表中, 用来检查按列名而不是按位置对应
+ */
+public class TestBinlogFollower {
+    private static final String DATABASE = "PUBLIC";
+    private static final String TABLE = "ORDERS";
+    private static final long TABLE_ID = 101;
+    private static final ColumnType[] TYPES = {LONGLONG, LONG, TINY, JSON, VARCHAR, TIMESTAMP_V2, DATETIME_V2, YEAR, DATE};
+    private static final String SOURCE_COLUMNS = "ID BIGINT PRIMARY KEY, QTY BIGINT, FLAG SMALLINT, TAGS ARRAY, NOTE VARCHAR(50), "
+            + "CREATED TIMESTAMP, UPDATED TIMESTAMP, BORN DATE, DUE DATE";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JdbcDataSource source;
+    private JdbcDataSource target;
+    private SchemaFingerprintStore fingerprints;
+
+    @Before
+    public void setUp() throws Exception {
+        source = createDataSource("binlog_source");
+        target = createDataSource("binlog_target");
+        execute(source, "CREATE TABLE " + TABLE + " (" + SOURCE_COLUMNS + ")");
+        fingerprints = new SchemaFingerprintStore(new File(folder.getRoot(), "schemas.properties").getPath());
+        // 与全量拷贝相同: 按源表建目标表并记录源表结构指纹
+        MetaInfo metaInfo = new MetaInfo();
+        metaInfo.setMysqlDb(DATABASE);
+        metaInfo.setTargetDb(DATABASE);
+        metaInfo.setTable(TABLE);
+        M2H2SchemaConverter schemaConverter = new M2H2SchemaConverter(metaInfo);
+        schemaConverter.getColumns(new SchemaMetadataCache(source));
+        schemaConverter.getPrimaryKey(source);
+        schemaConverter.createTableInTarget(target);
+        fingerprints.save(DATABASE + "." + TABLE, schemaConverter.getFingerprint());
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        execute(source, "DROP ALL OBJECTS");
+        execute(target, "DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void testInsertUpdateDelete() throws Exception {
+        Instant created = Instant.parse("2019-03-30T18:30:05.123Z");
+        LocalDateTime updated = LocalDateTime.of(2019, 3, 31, 2, 30, 5, 120_000_000);
+        Object[] first = {1L, 7L, 1L, "[]", "first", created, updated, 1999, LocalDate.of(2020, 2, 29)};
+        Object[] second = {2L, 4294967295L, 255L, null, "second", Instant.EPOCH, LocalDateTime.of(1970, 1, 1, 0, 0), 2155, LocalDate.of(1000, 1, 1)};
+        Object[] third = {3L, 0L, 0L, null, null, null, null, null, null};
+        Object[] secondUpdated = second.clone();
+        secondUpdated[4] = "二号";
+        Object[] thirdMoved = third.clone();
+        thirdMoved[0] = 30L;
+
+        BinlogFileWriter binlog = new BinlogFileWriter();
+        binlog.query("BEGIN");
+        binlog.tableMap();
+        binlog.rows(EventType.EXT_WRITE_ROWS, ImmutableList.of(first, second, third));
+        binlog.xid();
+        // 与同步的表无关的 DDL 之后重新加载表结构, 继续应用
+        binlog.query("CREATE TABLE OTHER (ID INT)");
+        binlog.query("BEGIN");
+        binlog.tableMap();
+        binlog.rows(EventType.EXT_UPDATE_ROWS, ImmutableList.of(second, secondUpdated, third, thirdMoved));
+        binlog.xid();
+        binlog.query("BEGIN");
+        binlog.tableMap();
+        binlog.rows(EventType.EXT_DELETE_ROWS, ImmutableList.of(first));
+        binlog.xid();
+        long end = binlog.write(folder.newFolder("binlog"), "mysql-bin.000001");
+
+        BinlogPositionStore positions = replay();
+
+        // TIMESTAMP 按源库时区 (+08:00) 换算成本地时间, DATETIME 原样; YEAR 为当年一月一日; 无符号整数不带符号扩展;
+        // 1582 年以前的日期按公历, 与全量拷贝相同
+        assertEquals(ImmutableList.of(
+                "2|4294967295|255|二号|1970-01-01 08:00:00|1970-01-01 00:00:00|2155-01-01|1000-01-01",
+                "30|0|0|null|null|null|null|null"),
+                readTarget());
+        assertEquals(Optional.of("mysql-bin.000001"), positions.getFile(DATABASE));
+        assertEquals(end, positions.getPosition(DATABASE));
+
+        // 从保存的位置继续时不重复应用
+        execute(target, "DELETE FROM " + TABLE);
+        replay();
+        assertEquals(ImmutableList.of(), readTarget());
+    }
+
+    @Test
+    public void testTimestampAndDatetime() throws Exception {
+        Instant created = Instant.parse("2019-03-30T18:30:05.123Z");
+        LocalDateTime updated = LocalDateTime.of(2019, 3, 31, 2, 30, 5, 120_000_000);
+        BinlogFileWriter binlog = new BinlogFileWriter();
+        binlog.tableMap();
+        binlog.rows(EventType.EXT_WRITE_ROWS, ImmutableList.<Object[]>of(new Object[] {1L, 7L, 1L, "[]", "first", created, updated, 1999, LocalDate.of(2020, 2, 29)}));
+        binlog.xid();
+        binlog.write(folder.newFolder("binlog"), "mysql-bin.000001");
+
+        replay();
+
+        assertEquals(ImmutableList.of("1|7|1|first|2019-03-31 02:30:05.123|2019-03-31 02:30:05.12|1999-01-01|2020-02-29"), readTarget());
+    }
+
+    @Test
+    public void testSourceColumnAddedFails() throws Exception {
+        execute(source, "ALTER TABLE " + TABLE + " ADD COLUMN EXTRA INT");
+        ColumnType[] types = Arrays.copyOf(TYPES, TYPES.length + 1);
+        types[TYPES.length] = LONG;
+        BinlogFileWriter binlog = new BinlogFileWriter(types);
+        binlog.query("ALTER TABLE " + TABLE + " ADD COLUMN EXTRA INT");
+        binlog.tableMap();
+        binlog.xid();
+        binlog.write(folder.newFolder("binlog"), "mysql-bin.000001");
+        assertReplayFails("column EXTRA of source table ORDERS is not in the target table, its schema changed, copy the table again");
+    }
+
+    @Test
+    public void testSourceColumnChangedFails() throws Exception {
+        execute(source, "ALTER TABLE " + TABLE + " ALTER COLUMN NOTE VARCHAR(100)");
+        BinlogFileWriter binlog = new BinlogFileWriter();
+        binlog.query("ALTER TABLE " + TABLE + " MODIFY NOTE VARCHAR(100)");
+        binlog.tableMap();
+        binlog.rows(EventType.EXT_WRITE_ROWS, ImmutableList.<Object[]>of(new Object[] {1L, 7L, 1L, null, "first", null, null, null, null}));
+        binlog.xid();
+        binlog.write(folder.newFolder("binlog"), "mysql-bin.000001");
+        assertReplayFails("schema of source table ORDERS changed since it was copied, copy the table again");
+    }
+
+    @Test
+    public void testBinlogColumnCountDiffersFromSource() throws Exception {
+        BinlogFileWriter binlog = new BinlogFileWriter(Arrays.copyOf(TYPES, TYPES.length - 1));
+        binlog.tableMap();
+        binlog.xid();
+        binlog.write(folder.newFolder("binlog"), "mysql-bin.000001");
+        assertReplayFails("binlog has 8 columns but source table ORDERS has 9, its schema changed after this event, copy the table again");
+    }
+
+    @Test
+    public void testPartialRowImageFails() throws Exception {
+        BinlogFileWriter binlog = new BinlogFileWriter();
+        binlog.tableMap();
+        BitSet minimal = new BitSet();
+        minimal.set(0);
+        binlog.rows(EventType.EXT_DELETE_ROWS, minimal, ImmutableList.<Object[]>of(new Object[] {1L}));
+        binlog.xid();
+        binlog.write(folder.newFolder("binlog"), "mysql-bin.000001");
+        assertReplayFails("row event of ORDERS has 1 of 9 columns, binlog_row_image must be FULL");
+    }
+
+    private void assertReplayFails(String message) throws Exception {
+        try {
+            replay();
+            fail("replay should fail with: " + message);
+        } catch (IllegalStateException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    private BinlogPositionStore replay() throws Exception {
+        BinlogFollower follower = createFollower();
+        follower.run();
+        return new BinlogPositionStore(new File(folder.getRoot(), "binlog.properties").getPath());
+    }
+
+    private BinlogFollower createFollower() {
+        TimeZoneSettings timeZoneSettings = new TimeZoneSettings();
+        timeZoneSettings.setSource("Asia/Shanghai");
+        timeZoneSettings.setTarget("Asia/Shanghai");
+        Handler handler = new Handler();
+        ReflectionTestUtils.setField(handler, "sourceDataSource", source);
+        ReflectionTestUtils.setField(handler, "targetDataSource", target);
+        ReflectionTestUtils.setField(handler, "sourceMetadataCache", new SchemaMetadataCache(source));
+        ReflectionTestUtils.setField(handler, "schemaFingerprintStore", fingerprints);
+        ReflectionTestUtils.setField(handler, "syncMetrics", new SyncMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(handler, "timeZoneSettings", timeZoneSettings);
+        ReflectionTestUtils.setField(handler, "fanOutSettings", new FanOutSettings());
+        ReflectionTestUtils.setField(handler, "loadGovernorSettings", new LoadGovernorSettings());
+        BinlogSettings settings = new BinlogSettings();
+        settings.setDir(new File(folder.getRoot(), "binlog").getPath());
+        settings.setApplyThreads(2);
+        settings.setBatchRows(2);
+        return new BinlogFollower(handler, settings, new BinlogPositionStore(new File(folder.getRoot(), "binlog.properties").getPath()), DATABASE);
+    }
+
+    private List<String> readTarget() throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Connection connection = target.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT ID, QTY, FLAG, NOTE, CREATED, UPDATED, BORN, DUE FROM " + TABLE + " ORDER BY ID")) {
+            while (resultSet.next()) {
+                StringBuilder row = new StringBuilder();
+                for (int column = 1; column <= 8; column++) {
+                    row.append(column > 1 ? "|" : "").append(resultSet.getString(column));
+                }
+                rows.add(row.toString());
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 按 binlog v4 格式写事件, 不带 FORMAT_DESCRIPTION, 即没有校验和; 行事件为 v2 格式, 所有列可空
+     */
+    private static class BinlogFileWriter {
+        private final ColumnType[] types;
+        private final ByteArrayOutputStream events = new ByteArrayOutputStream();
+        private long position = 4;
+
+        BinlogFileWriter() {
+            this(TYPES);
+        }
+
+        BinlogFileWriter(ColumnType[] types) {
+            this.types = types;
+        }
+
+        void query(String sql) throws IOException {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            writeLittleEndian(data, 1, 4);
+            writeLittleEndian(data, 0, 4);
+            data.write(DATABASE.length());
+            writeLittleEndian(data, 0, 2);
+            writeLittleEndian(data, 0, 2);
+            data.write(DATABASE.getBytes(UTF_8));
+            data.write(0);
+            data.write(sql.getBytes(UTF_8));
+            event(2, data);
+        }
+
+        void tableMap() throws IOException {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            writeLittleEndian(data, TABLE_ID, 6);
+            writeLittleEndian(data, 0, 2);
+            data.write(DATABASE.length());
+            data.write(DATABASE.getBytes(UTF_8));
+            data.write(0);
+            data.write(TABLE.length());
+            data.write(TABLE.getBytes(UTF_8));
+            data.write(0);
+            data.write(types.length);
+            for (ColumnType type : types) {
+                data.write(type.getCode());
+            }
+            ByteArrayOutputStream metadata = new ByteArrayOutputStream();
+            for (ColumnType type : types) {
+                if (type == VARCHAR) {
+                    writeLittleEndian(metadata, 200, 2);
+                } else if (type == JSON) {
+                    metadata.write(4);
+                } else if (type == TIMESTAMP_V2 || type == DATETIME_V2) {
+                    metadata.write(3);
+                }
+            }
+            data.write(metadata.size());
+            metadata.writeTo(data);
+            BitSet nullable = new BitSet();
+            nullable.set(0, types.length);
+            writeBitSet(data, nullable, types.length);
+            event(19, data);
+        }
+
+        void rows(EventType type, List<Object[]> rows) throws IOException {
+            BitSet full = new BitSet();
+            full.set(0, types.length);
+            rows(type, full, rows);
+        }
+
+        /**
+         * 更新事件的 rows 依次为更新前和更新后的行
+         */
+        void rows(EventType type, BitSet includedColumns, List<Object[]> rows) throws IOException {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            writeLittleEndian(data, TABLE_ID, 6);
+            writeLittleEndian(data, 0, 2);
+            writeLittleEndian(data, 2, 2);
+            data.write(types.length);
+            writeBitSet(data, includedColumns, types.length);
+            if (type == EventType.EXT_UPDATE_ROWS) {
+                writeBitSet(data, includedColumns, types.length);
+            }
+            for (Object[] row : rows) {
+                writeRow(data, includedColumns, row);
+            }
+            event(type == EventType.EXT_WRITE_ROWS ? 30 : type == EventType.EXT_UPDATE_ROWS ? 31 : 32, data);
+        }
+
+        void xid() throws IOException {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            writeLittleEndian(data, position, 8);
+            event(16, data);
+        }
+
+        /**
+         * @return 文件末尾的位置
+         */
+        long write(File dir, String name) throws IOException {
+            ByteArrayOutputStream file = new ByteArrayOutputStream();
+            file.write(new byte[] {(byte) 0xfe, 'b', 'i', 'n'});
+            events.writeTo(file);
+            Files.write(new File(dir, name).toPath(), file.toByteArray());
+            return position;
+        }
+
+        private void event(int type, ByteArrayOutputStream data) throws IOException {
+            int length = 19 + data.size();
+            position += length;
+            writeLittleEndian(events, 0, 4);
+            events.write(type);
+            writeLittleEndian(events, 1, 4);
+            writeLittleEndian(events, length, 4);
+            writeLittleEndian(events, position, 4);
+            writeLittleEndian(events, 0, 2);
+            data.writeTo(events);
+        }
+
+        private void writeRow(ByteArrayOutputStream data, BitSet includedColumns, Object[] row) throws IOException {
+            BitSet nulls = new BitSet();
+            for (int i = 0; i < row.length; i++) {
+                if (row[i] == null) {
+                    nulls.set(i);
+                }
+            }
+            writeBitSet(data, nulls, includedColumns.cardinality());
+            int value = 0;
+            for (int column = 0; column < types.length; column++) {
+                if (includedColumns.get(column)) {
+                    if (row[value] != null) {
+                        writeValue(data, types[column], row[value]);
+                    }
+                    value++;
+                }
+            }
+        }
+
+        private static void writeValue(ByteArrayOutputStream data, ColumnType type, Object value) throws IOException {
+            switch (type) {
+                case LONGLONG:
+                    writeLittleEndian(data, (Long) value, 8);
+                    break;
+                case LONG:
+                    writeLittleEndian(data, (Long) value, 4);
+                    break;
+                case TINY:
+                    writeLittleEndian(data, (Long) value, 1);
+                    break;
+                case VARCHAR:
+                    byte[] bytes = ((String) value).getBytes(UTF_8);
+                    data.write(bytes.length);
+                    data.write(bytes);
+                    break;
+                case JSON:
+                    byte[] json = ((String) value).getBytes(UTF_8);
+                    writeLittleEndian(data, json.length, 4);
+                    data.write(json);
+                    break;
+                case TIMESTAMP_V2:
+                    Instant instant = (Instant) value;
+                    writeBigEndian(data, instant.getEpochSecond(), 4);
+                    writeBigEndian(data, instant.getNano() / 100_000, 2);
+                    break;
+                case DATETIME_V2:
+                    LocalDateTime dateTime = (LocalDateTime) value;
+                    long packed = ((long) (dateTime.getYear() * 13 + dateTime.getMonthValue()) << 22) | (dateTime.getDayOfMonth() << 17)
+                            | (dateTime.getHour() << 12) | (dateTime.getMinute() << 6) | dateTime.getSecond();
+                    writeBigEndian(data, packed | 0x80_0000_0000L, 5);
+                    writeBigEndian(data, dateTime.getNano() / 100_000, 2);
+                    break;
+                case YEAR:
+                    data.write((Integer) value - 1900);
+                    break;
+                case DATE:
+                    LocalDate date = (LocalDate) value;
+                    writeLittleEndian(data, date.getDayOfMonth() | (date.getMonthValue() << 5) | (date.getYear() << 9), 3);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unsupported type " + type);
+            }
+        }
+
+        private static void writeBitSet(ByteArrayOutputStream data, BitSet bits, int length) {
+            byte[] bytes = new byte[(length + 7) / 8];
+            for (int i = 0; i < length; i++) {
+                if (bits.get(i)) {
+                    bytes[i / 8] |= 1 << (i % 8);
+                }
+            }
+            data.write(bytes, 0, bytes.length);
+        }
+
+        private static void writeLittleEndian(ByteArrayOutputStream data, long value, int length) {
+            for (int i = 0; i < length; i++) {
+                data.write((int) (value >>> (8 * i)));
+            }
+        }
+
+        private static void writeBigEndian(ByteArrayOutputStream data, long value, int length) {
+            for (int i = length - 1; i >= 0; i--) {
+                data.write((int) (value >>> (8 * i)));
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.aihuishou.bi.handler;
+
+import com.aihuishou.bi.sync.CopyCheckpoint;
+import com.aihuishou.bi.sync.FanOutSettings;
+import com.aihuishou.bi.sync.IncrementalTables;
+import com.aihuishou.bi.sync.LoadGovernorSettings;
+import com.aihuishou.bi.sync.MemoryPool;
+import com.aihuishou.bi.sync.RepairTables;
+import com.aihuishou.bi.sync.SchemaFingerprintStore;
+import com.aihuishou.bi.sync.SchemaMetadataCache;
+import com.aihuishou.bi.sync.SpillSettings;
+import com.aihuishou.bi.sync.SyncMetrics;
+import com.aihuishou.bi.sync.TimeZoneSettings;
+import com.aihuishou.bi.sync.TuningStore;
+import com.aihuishou.bi.sync.WatermarkStore;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static com.aihuishou.bi.sync.H2Fixtures.createDataSource;
+import static com.aihuishou.bi.sync.H2Fixtures.execute;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 源库和目标库都是 H2, 每次调用 sync 相当于一次新的拷贝任务. T 按水位列增量拷贝, U 为普通的全量拷贝
+ */
+public class TestHandler {
+    private static final String DATABASE = "PUBLIC";
+    private static final String TABLE = "T";
+    private static final String WATERMARK_KEY = DATABASE + "." + TABLE + ".UPDATED";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JdbcDataSource source;
+    private JdbcDataSource target;
+    private WatermarkStore watermarks;
+    private SchemaFingerprintStore fingerprints;
+
+    @Before
+    public void setUp() throws SQLException {
+        source = createDataSource("handler_source");
+        target = createDataSource("handler_target");
+        execute(source, "CREATE TABLE T (ID BIGINT PRIMARY KEY, NAME VARCHAR(32), UPDATED BIGINT)");
+        execute(source, "INSERT INTO T VALUES (1, 'a', 10), (2, 'b', 20)");
+        watermarks = new WatermarkStore(new File(folder.getRoot(), "watermarks.properties").getPath());
+        fingerprints = new SchemaFingerprintStore(new File(folder.getRoot(), "schemas.properties").getPath());
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        execute(source, "DROP ALL OBJECTS");
+        execute(target, "DROP ALL OBJECTS");
+    }
+
+    /**
+     * 下界包含旧水位: 等于旧水位的行重新读取并按主键覆盖, 低于旧水位的修改不再拷贝
+     */
+    @Test
+    public void testIncrementalRereadsOldWatermark() throws Exception {
+        sync();
+        assertEquals(Optional.of(20L), watermarks.get(WATERMARK_KEY));
+        assertEquals(ImmutableList.of("1|a|10", "2|b|20"), readTarget());
+
+        execute(source, "UPDATE T SET NAME = 'a2' WHERE ID = 1");
+        execute(source, "UPDATE T SET NAME = 'b2' WHERE ID = 2");
+        execute(source, "INSERT INTO T VALUES (3, 'c', 30)");
+        sync();
+        assertEquals(Optional.of(30L), watermarks.get(WATERMARK_KEY));
+        assertEquals(ImmutableList.of("1|a|10", "2|b2|20", "3|c|30"), readTarget());
+    }
+
+    /**
+     * 写入失败时水位保持不变, 下次从旧水位重新拷贝
+     */
+    @Test
+    public void testWatermarkSavedAfterCopySucceeds() throws Exception {
+        sync();
+        execute(source, "INSERT INTO T VALUES (3, 'bad', 30)");
+        execute(target, "ALTER TABLE T ADD CONSTRAINT NO_BAD CHECK (NAME <> 'bad')");
+        try {
+            sync();
+            fail("expected the copy to fail");
+        } catch (SQLException | RuntimeException expected) {
+        }
+        assertEquals(Optional.of(20L), watermarks.get(WATERMARK_KEY));
+
+        execute(target, "ALTER TABLE T DROP CONSTRAINT NO_BAD");
+        sync();
+        assertEquals(Optional.of(30L), watermarks.get(WATERMARK_KEY));
+        assertEquals(ImmutableList.of("1|a|10", "2|b|20", "3|bad|30"), readTarget());
+    }
+
+    /**
+     * 源表结构变化后目标表重建, 旧水位作废, 全量拷贝后记录新的水位
+     */
+    @Test
+    public void testSchemaChangeFallsBackToFullCopy() throws Exception {
+        sync();
+        execute(source, "ALTER TABLE T ADD COLUMN EXTRA INT");
+        execute(source, "UPDATE T SET NAME = 'a2' WHERE ID = 1");
+        sync();
+        assertEquals(Optional.of(20L), watermarks.get(WATERMARK_KEY));
+        assertEquals(ImmutableList.of("1|a2|10", "2|b|20"), readTarget());
+    }
+
+    /**
+     * 目标表不存在时不能增量, 全量拷贝
+     */
+    @Test
+    public void testMissingTargetFallsBackToFullCopy() throws Exception {
+        sync();
+        execute(target, "DROP TABLE T");
+        execute(source, "UPDATE T SET NAME = 'a2' WHERE ID = 1");
+        sync();
+        assertEquals(Optional.of(20L), watermarks.get(WATERMARK_KEY));
+        assertEquals(ImmutableList.of("1|a2|10", "2|b|20"), readTarget());
+    }
+
+    @Test
+    public void testTableWithoutPrimaryKeyRejected() throws Exception {
+        execute(source, "DROP TABLE T");
+        execute(source, "CREATE TABLE T (ID BIGINT, NAME VARCHAR(32), UPDATED BIGINT)");
+        try {
+            sync();
+            fail("expected a table without primary key to be rejected");
+        } catch (IllegalStateException e) {
+            assertEquals("incremental table has no primary key: T", e.getMessage());
+        }
+        assertEquals(Optional.empty(), watermarks.get(WATERMARK_KEY));
+    }
+
+    /**
+     * 源表结构不变并且没有二级索引时只清空目标表, 目标表上另加的列仍在
+     */
+    @Test
+    public void testUnchangedSchemaTruncatesTarget() throws Exception {
+        createFullCopyTable();
+        prepareFullCopyTable();
+        assertTrue(hasMarker());
+        assertEquals(0, count(target, "U"));
+    }
+
+    /**
+     * 源表加列后指纹变化, 目标表重建
+     */
+    @Test
+    public void testColumnAddedRebuildsTarget() throws Exception {
+        createFullCopyTable();
+        String fingerprint = fingerprints.get(DATABASE + ".U").get();
+        execute(source, "ALTER TABLE U ADD COLUMN EXTRA INT");
+        prepareFullCopyTable();
+        assertFalse(hasMarker());
+        assertNotEquals(fingerprint, fingerprints.get(DATABASE + ".U").get());
+    }
+
+    /**
+     * 源表加索引后指纹变化, 目标表重建; 结构不变但有二级索引的表也一律重建
+     */
+    @Test
+    public void testIndexAddedRebuildsTarget() throws Exception {
+        createFullCopyTable();
+        String fingerprint = fingerprints.get(DATABASE + ".U").get();
+        execute(source, "CREATE INDEX U_NAME ON U (NAME)");
+        prepareFullCopyTable();
+        assertFalse(hasMarker());
+        assertNotEquals(fingerprint, fingerprints.get(DATABASE + ".U").get());
+
+        execute(target, "ALTER TABLE U ADD COLUMN MARKER INT");
+        prepareFullCopyTable();
+        assertFalse(hasMarker());
+    }
+
+    private void sync() throws Exception {
+        createHandler().sync(DATABASE, DATABASE, TABLE);
+    }
+
+    private Handler createHandler() {
+        IncrementalTables incrementalTables = new IncrementalTables();
+        incrementalTables.setTables(ImmutableMap.of(TABLE, "UPDATED"));
+        Handler handler = new Handler();
+        ReflectionTestUtils.setField(handler, "sourceDataSource", source);
+        ReflectionTestUtils.setField(handler, "targetDataSource", target);
+        ReflectionTestUtils.setField(handler, "memoryPool", new MemoryPool(64 * 1024 * 1024));
+        ReflectionTestUtils.setField(handler, "syncMetrics", new SyncMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(handler, "spillSettings", new SpillSettings());
+        ReflectionTestUtils.setField(handler, "fanOutSettings", new FanOutSettings());
+        ReflectionTestUtils.setField(handler, "timeZoneSettings", new TimeZoneSettings());
+        ReflectionTestUtils.setField(handler, "loadGovernorSettings", new LoadGovernorSettings());
+        ReflectionTestUtils.setField(handler, "sourceMetadataCache", new SchemaMetadataCache(source));
+        ReflectionTestUtils.setField(handler, "schemaFingerprintStore", fingerprints);
+        ReflectionTestUtils.setField(handler, "tuningStore", new TuningStore(""));
+        ReflectionTestUtils.setField(handler, "incrementalTables", incrementalTables);
+        ReflectionTestUtils.setField(handler, "watermarkStore", watermarks);
+        ReflectionTestUtils.setField(handler, "repairTables", new RepairTables());
+        ReflectionTestUtils.setField(handler, "copyCheckpoint", new CopyCheckpoint(""));
+        ReflectionTestUtils.setField(handler, "parallelism", 1);
+        ReflectionTestUtils.setField(handler, "splitsPerTable", 1);
+        ReflectionTestUtils.setField(handler, "writersPerTable", 1);
+        ReflectionTestUtils.setField(handler, "sink", "jdbc");
+        return handler;
+    }
+
+    private List<String> readTarget() throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Connection connection = target.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT ID, NAME, UPDATED FROM T ORDER BY ID")) {
+            while (resultSet.next()) {
+                rows.add(resultSet.getLong(1) + "|" + resultSet.getString(2) + "|" + resultSet.getLong(3));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 全量拷贝 U 并记下指纹, 然后在目标表上加一列作为标记, 重建后标记消失
+     */
+    private void createFullCopyTable() throws Exception {
+        execute(source, "CREATE TABLE U (ID BIGINT PRIMARY KEY, NAME VARCHAR(32))");
+        execute(source, "INSERT INTO U VALUES (1, 'a')");
+        createHandler().sync(DATABASE, DATABASE, "U");
+        assertEquals(1, count(target, "U"));
+        execute(target, "ALTER TABLE U ADD COLUMN MARKER INT");
+    }
+
+    private void prepareFullCopyTable() throws SQLException {
+        Handler handler = createHandler();
+        handler.prepare(handler.getMetaInfo(DATABASE, DATABASE, "U"));
+    }
+
+    private boolean hasMarker() throws SQLException {
+        try (Connection connection = target.getConnection();
+             ResultSet resultSet = connection.getMetaData().getColumns(null, DATABASE, "U", "MARKER")) {
+            return resultSet.next();
+        }
+    }
+
+    private static long count(JdbcDataSource dataSource, String table) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.aihuishou.bi.sync;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 测试共用的 H2 内存库: 同名的库在 JVM 内共享, 最后一个连接关闭后仍然保留, 测试结束时用 DROP ALL OBJECTS 清理
+ */
+public final class H2Fixtures {
+    private H2Fixtures() {
+    }
+
+    /**
+     * MySQL 兼容模式的内存库
+     */
+    public static JdbcDataSource createDataSource(String name) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        return dataSource;
+    }
+
+    public static void execute(DataSource dataSource, String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    /**
+     * 包装连接池, 取得的连接的 commit 改由 hook 执行, 其他方法直接转发
+     */
+    public static DataSource interceptCommit(DataSource dataSource, CommitHook hook) {
+        return (DataSource) Proxy.newProxyInstance(H2Fixtures.class.getClassLoader(), new Class<?>[] {DataSource.class}, (proxy, method, args) -> {
+            Object result = invoke(method, dataSource, args);
+            if (!(result instanceof Connection)) {
+                return result;
+            }
+            Connection connection = (Connection) result;
+            return Proxy.newProxyInstance(H2Fixtures.class.getClassLoader(), new Class<?>[] {Connection.class}, (connectionProxy, connectionMethod, connectionArgs) -> {
+                if (connectionMethod.getName().equals("commit")) {
+                    hook.commit(connection);
+                    return null;
+                }
+                return invoke(connectionMethod, connection, connectionArgs);
+            });
+        });
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    public interface CommitHook {
+        /**
+         * @param connection 被包装的连接, 由 hook 决定是否以及何时调用它的 commit
+         */
+        void commit(Connection connection) throws SQLException;
+    }
+}
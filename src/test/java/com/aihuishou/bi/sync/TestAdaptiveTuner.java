@@ -0,0 +1,136 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.block.BlockBuilder;
+import org.junit.Test;
+
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestAdaptiveTuner {
+    private static final long ROW_BYTES = 1000;
+    // 16MB 按 1000 字节一行
+    private static final int ROWS_PER_16MB = 16_777;
+
+    @Test
+    public void testInitialValuesClamped() {
+        AdaptiveTuner small = new AdaptiveTuner("t", tuning(10, 10), null, 1);
+        assertEquals(AdaptiveTuner.MIN_FETCH_SIZE, small.getFetchSize());
+        assertEquals(AdaptiveTuner.MIN_COMMIT_ROWS, small.getCommitRows());
+        AdaptiveTuner large = new AdaptiveTuner("t", tuning(10_000_000, 10_000_000), null, 1);
+        assertEquals(AdaptiveTuner.MAX_FETCH_SIZE, large.getFetchSize());
+        assertEquals(AdaptiveTuner.MAX_COMMIT_ROWS, large.getCommitRows());
+    }
+
+    /**
+     * 吞吐一直上升时 fetch size 逐步增大, 停在上限
+     */
+    @Test
+    public void testFetchSizeClimbsToMax() {
+        AdaptiveTuner tuner = new AdaptiveTuner("t", tuning(1000, 1000), null, 1);
+        long nanos = 1_000_000_000L;
+        for (int round = 0; round < 30; round++) {
+            int rows = 4 * tuner.getFetchSize();
+            tuner.pageRead(rows, rows * 10L, nanos);
+            nanos = nanos * 2 / 3;
+            assertTrue(tuner.getFetchSize() >= AdaptiveTuner.MIN_FETCH_SIZE);
+            assertTrue(tuner.getFetchSize() <= AdaptiveTuner.MAX_FETCH_SIZE);
+        }
+        assertEquals(AdaptiveTuner.MAX_FETCH_SIZE, tuner.getFetchSize());
+    }
+
+    /**
+     * 吞吐一直下降时 fetch size 来回调整, 不低于下限
+     */
+    @Test
+    public void testFetchSizeStaysAboveMin() {
+        AdaptiveTuner tuner = new AdaptiveTuner("t", tuning(AdaptiveTuner.MIN_FETCH_SIZE, 1000), null, 1);
+        long nanos = 1_000_000L;
+        for (int round = 0; round < 30; round++) {
+            int rows = 4 * tuner.getFetchSize();
+            tuner.pageRead(rows, rows * 10L, nanos);
+            nanos = nanos * 3 / 2;
+            assertTrue(tuner.getFetchSize() >= AdaptiveTuner.MIN_FETCH_SIZE);
+            assertTrue(tuner.getFetchSize() <= AdaptiveTuner.MAX_FETCH_SIZE);
+        }
+    }
+
+    /**
+     * 宽表每次往返不超过 16MB
+     */
+    @Test
+    public void testFetchSizeLimitedByBytes() {
+        AdaptiveTuner tuner = new AdaptiveTuner("t", tuning(AdaptiveTuner.MAX_FETCH_SIZE, 1000), null, 1);
+        int rows = 4 * AdaptiveTuner.MAX_FETCH_SIZE;
+        tuner.pageRead(rows, rows * ROW_BYTES, 1_000_000_000L);
+        assertEquals(ROW_BYTES, tuner.getRowBytes());
+        assertEquals(ROWS_PER_16MB, tuner.getFetchSize());
+    }
+
+    /**
+     * 提交耗时超过目标 (500ms) 两倍时减半, 不低于下限; 在目标和两倍之间不变
+     */
+    @Test
+    public void testCommitRowsHalveWhenSlow() throws InterruptedException {
+        AdaptiveTuner tuner = new AdaptiveTuner("t", tuning(1000, 1000), backlog(), 1);
+        tuner.batchCommitted(1000, MILLISECONDS.toNanos(800));
+        assertEquals(1000, tuner.getCommitRows());
+        int[] expected = {500, 250, 125, AdaptiveTuner.MIN_COMMIT_ROWS, AdaptiveTuner.MIN_COMMIT_ROWS};
+        for (int rows : expected) {
+            tuner.batchCommitted(tuner.getCommitRows(), MILLISECONDS.toNanos(1100));
+            assertEquals(rows, tuner.getCommitRows());
+        }
+    }
+
+    /**
+     * 提交耗时低于目标且写入端积压时按四分之一 (至少 100 行) 加性增大; 没有积压或者不足一批的提交不调整
+     */
+    @Test
+    public void testCommitRowsGrowAdditively() throws InterruptedException {
+        AdaptiveTuner idle = new AdaptiveTuner("t", tuning(1000, 1000), new PageBuffer(new MemoryPool(1), "t"), 1);
+        idle.batchCommitted(1000, MILLISECONDS.toNanos(10));
+        assertEquals(1000, idle.getCommitRows());
+
+        AdaptiveTuner tuner = new AdaptiveTuner("t", tuning(1000, 200), backlog(), 1);
+        tuner.batchCommitted(200, MILLISECONDS.toNanos(10));
+        assertEquals(300, tuner.getCommitRows());
+        tuner.batchCommitted(100, MILLISECONDS.toNanos(10));
+        assertEquals(300, tuner.getCommitRows());
+        for (int round = 0; round < 6; round++) {
+            tuner.batchCommitted(tuner.getCommitRows(), MILLISECONDS.toNanos(10));
+        }
+        // 300 -> 400 -> 500 -> 625 -> 781 -> 976 -> 1220
+        assertEquals(1220, tuner.getCommitRows());
+    }
+
+    /**
+     * 单批不超过 16MB
+     */
+    @Test
+    public void testCommitRowsLimitedByBytes() throws InterruptedException {
+        AdaptiveTuner tuner = new AdaptiveTuner("t", tuning(1000, AdaptiveTuner.MAX_COMMIT_ROWS), backlog(), 1);
+        tuner.pageRead(1000, 1000 * ROW_BYTES, 1_000_000L);
+        tuner.batchCommitted(AdaptiveTuner.MAX_COMMIT_ROWS, MILLISECONDS.toNanos(10));
+        assertEquals(ROWS_PER_16MB, tuner.getCommitRows());
+    }
+
+    private static TableTuning tuning(int fetchSize, int commitRows) {
+        TableTuning tuning = new TableTuning();
+        tuning.setFetchSize(fetchSize);
+        tuning.setCommitRows(commitRows);
+        return tuning;
+    }
+
+    /**
+     * 有一页积压的缓冲区
+     */
+    private static PageBuffer backlog() throws InterruptedException {
+        PageBuffer buffer = new PageBuffer(new MemoryPool(1024 * 1024), "t");
+        BlockBuilder keys = BIGINT.createBlockBuilder(null, 1);
+        BIGINT.writeLong(keys, 1);
+        buffer.put(new Page(keys.build()));
+        return buffer;
+    }
+}
@@ -0,0 +1,173 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.type.DecimalType;
+import com.google.common.base.Strings;
+import io.airlift.slice.Slice;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import static com.facebook.presto.spi.type.DecimalType.createDecimalType;
+import static com.facebook.presto.spi.type.Decimals.decodeUnscaledValue;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class TestDecimalCodec {
+    private static final ReadOptions TEXT_VALUES = new ReadOptions(true, false);
+
+    @Test
+    public void testShortDecimals() {
+        assertShort("0", 0);
+        assertShort("-0", 2);
+        assertShort("123.45", 2);
+        assertShort("-123.45", 2);
+        assertShort("+7", 3);
+        assertShort("12.5", 4);
+        assertShort(".5", 1);
+        assertShort("5.", 1);
+        assertShort("00000000000000000000012.30", 2);
+        assertEquals(DecimalCodec.INVALID, DecimalCodec.parseShort(bytes(""), 2));
+        assertEquals(DecimalCodec.INVALID, DecimalCodec.parseShort(bytes("-"), 2));
+        assertEquals(DecimalCodec.INVALID, DecimalCodec.parseShort(bytes("1.2.3"), 2));
+        assertEquals(DecimalCodec.INVALID, DecimalCodec.parseShort(bytes("1,5"), 2));
+    }
+
+    /**
+     * 多出的小数位 HALF_UP 舍入, 负数按绝对值舍入, 与 BigDecimal.setScale 一致
+     */
+    @Test
+    public void testRounding() {
+        assertShort("1.005", 2);
+        assertShort("-1.005", 2);
+        assertShort("1.00499999", 2);
+        assertShort("0.994", 2);
+        assertShort("0.995", 2);
+        assertShort("9.5", 0);
+        assertShort("-0.4", 0);
+        assertLong("1.00500000000000000000000000000001", 2);
+        assertLong("-1.005", 2);
+        assertLong("0.0000000000000000000000000000000000000000000005", 20);
+    }
+
+    @Test
+    public void testMaxShortPrecision() {
+        String eighteenNines = Strings.repeat("9", 18);
+        assertShort(eighteenNines, 0);
+        assertShort("-" + eighteenNines, 0);
+        assertShort("999999999.999999999", 9);
+        // 舍入或补齐 scale 后超过 18 位
+        assertEquals(DecimalCodec.INVALID, DecimalCodec.parseShort(bytes(eighteenNines + ".5"), 0));
+        assertEquals(DecimalCodec.INVALID, DecimalCodec.parseShort(bytes("999999999.9999999995"), 9));
+        assertEquals(DecimalCodec.INVALID, DecimalCodec.parseShort(bytes("1" + Strings.repeat("0", 18)), 0));
+        assertEquals(DecimalCodec.INVALID, DecimalCodec.parseShort(bytes("1000000000"), 9));
+    }
+
+    @Test
+    public void testMaxLongPrecision() {
+        String thirtyEightNines = Strings.repeat("9", 38);
+        assertLong(thirtyEightNines, 0);
+        assertLong("-" + thirtyEightNines, 0);
+        assertLong(Strings.repeat("9", 28) + "." + Strings.repeat("9", 10), 10);
+        assertLong(Strings.repeat("0", 40) + thirtyEightNines, 0);
+        // 跨过低 64 位的进位
+        assertLong("18446744073709551615", 0);
+        assertLong("18446744073709551616", 0);
+        assertLong("1844674407370955161.55", 1);
+        assertNull(DecimalCodec.parseLong(bytes(thirtyEightNines + ".5"), 0));
+        assertNull(DecimalCodec.parseLong(bytes("1" + Strings.repeat("0", 38)), 0));
+        assertNull(DecimalCodec.parseLong(bytes(Strings.repeat("9", 29)), 10));
+        assertNull(DecimalCodec.parseLong(bytes("1e5"), 2));
+    }
+
+    /**
+     * 负 scale 的列 (如 NUMBER(5, -3)) 映射为 scale 0 的 decimal, 驱动可能返回科学计数法, 退回 BigDecimal 解析
+     */
+    @Test
+    public void testNegativeScale() throws SQLException {
+        ReadMapping mapping = readMapping(new JdbcTypeHandle(Types.DECIMAL, 5, -3));
+        assertEquals(createDecimalType(8, 0), mapping.getType());
+        LongReadFunction readShort = (LongReadFunction) mapping.getReadFunction();
+        assertEquals(12345000L, readShort.readLong(text("12345000"), 1));
+        assertEquals(12345000L, readShort.readLong(text("1.2345E+7"), 1));
+        assertEquals(-12345000L, readShort.readLong(text("-1.2345E7"), 1));
+
+        mapping = readMapping(new JdbcTypeHandle(Types.DECIMAL, 30, -5));
+        assertEquals(createDecimalType(35, 0), mapping.getType());
+        SliceReadFunction readLong = (SliceReadFunction) mapping.getReadFunction();
+        BigInteger expected = new BigInteger("123" + Strings.repeat("0", 32));
+        assertEquals(expected, decodeUnscaledValue(readLong.readSlice(text(expected.toString()), 1)));
+        assertEquals(expected, decodeUnscaledValue(readLong.readSlice(text("1.23E+34"), 1)));
+    }
+
+    /**
+     * 无法直接解析的文本退回 BigDecimal, 由原来的路径舍入或报错
+     */
+    @Test
+    public void testReadMappingFallback() throws SQLException {
+        LongReadFunction readShort = (LongReadFunction) DecimalCodec.textReadMapping(createDecimalType(10, 2)).getReadFunction();
+        assertEquals(0L, readShort.readLong(text(null), 1));
+        assertEquals(12346L, readShort.readLong(text("123.455"), 1));
+        assertEquals(150L, readShort.readLong(text("1.5e0"), 1));
+        assertReadFails(() -> readShort.readLong(text("abc"), 1));
+
+        DecimalType wide = createDecimalType(38, 4);
+        SliceReadFunction readLong = (SliceReadFunction) DecimalCodec.textReadMapping(wide).getReadFunction();
+        assertEquals(0, readLong.readSlice(text(null), 1).length());
+        assertEquals(BigInteger.valueOf(-15000), decodeUnscaledValue(readLong.readSlice(text("-1.5E+0"), 1)));
+        assertReadFails(() -> readLong.readSlice(text("1.5x"), 1));
+    }
+
+    @Test
+    public void testToBigDecimal() {
+        assertEquals(new BigDecimal("123.45"), DecimalCodec.toBigDecimal(12345, 2));
+        assertEquals(new BigDecimal("-0.05"), DecimalCodec.toBigDecimal(-5, 2));
+        assertEquals(new BigDecimal("999999999999999999"), DecimalCodec.toBigDecimal(999_999_999_999_999_999L, 0));
+    }
+
+    private static void assertShort(String text, int scale) {
+        long expected = new BigDecimal(text).setScale(scale, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+        assertEquals(text, expected, DecimalCodec.parseShort(bytes(text), scale));
+    }
+
+    private static void assertLong(String text, int scale) {
+        BigInteger expected = new BigDecimal(text).setScale(scale, RoundingMode.HALF_UP).unscaledValue();
+        Slice unscaled = DecimalCodec.parseLong(bytes(text), scale);
+        assertEquals(text, expected, decodeUnscaledValue(unscaled));
+    }
+
+    private static void assertReadFails(ThrowingRead read) {
+        try {
+            read.run();
+            fail("expected SQLException");
+        } catch (SQLException expected) {
+        }
+    }
+
+    private static ReadMapping readMapping(JdbcTypeHandle type) {
+        return StandardReadMappings.jdbcTypeToPrestoType(type, TEXT_VALUES).get();
+    }
+
+    /**
+     * 与 MySQL 驱动一样, getBytes 返回十进制文本
+     */
+    private static ResultSet text(String value) throws SQLException {
+        ResultSet resultSet = new InMemoryResultSet(new Object[][] {{value == null ? null : bytes(value)}}, false);
+        resultSet.next();
+        return resultSet;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(US_ASCII);
+    }
+
+    private interface ThrowingRead {
+        void run() throws SQLException;
+    }
+}
@@ -0,0 +1,175 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.Page;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.slice.Slice;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.aihuishou.bi.sync.H2Fixtures.createDataSource;
+import static com.aihuishou.bi.sync.H2Fixtures.execute;
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.VarcharType.createVarcharType;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 一个 H2 源库同时写入两个 H2 目标库
+ */
+public class TestFanOutMigrator {
+    private static final int ROWS = 5000;
+    private static final List<JdbcColumnHandle> COLUMNS = ImmutableList.of(
+            new JdbcColumnHandle("PUBLIC", "ID", new JdbcTypeHandle(Types.BIGINT, 19, 0), BIGINT),
+            new JdbcColumnHandle("PUBLIC", "NAME", new JdbcTypeHandle(Types.VARCHAR, 32, 0), createVarcharType(32)));
+
+    private JdbcDataSource source;
+    private JdbcDataSource first;
+    private JdbcDataSource second;
+    private MetaInfo metaInfo;
+    private MemoryPool memoryPool;
+
+    @Before
+    public void setUp() throws SQLException {
+        source = createDataSource("fan_out_src");
+        first = createDataSource("fan_out_first");
+        second = createDataSource("fan_out_second");
+        for (JdbcDataSource dataSource : ImmutableList.of(source, first, second)) {
+            execute(dataSource, "CREATE TABLE T (ID bigint primary key, NAME varchar(32))");
+        }
+        execute(source, "INSERT INTO T SELECT X, 'name' || X FROM SYSTEM_RANGE(1, " + ROWS + ")");
+        metaInfo = new MetaInfo();
+        metaInfo.setMysqlDb("PUBLIC");
+        metaInfo.setTargetDb("PUBLIC");
+        metaInfo.setTable("T");
+        memoryPool = new MemoryPool(64 * 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        for (JdbcDataSource dataSource : ImmutableList.of(source, first, second)) {
+            execute(dataSource, "DROP ALL OBJECTS");
+        }
+    }
+
+    /**
+     * 一个目标写入失败, 另一个目标照常写完, 报错中只列出失败的目标
+     */
+    @Test
+    public void testFailedTargetReportedAlone() throws Exception {
+        List<FanOutTarget> targets = ImmutableList.of(
+                createTarget("first", first, this::createFailingSink),
+                createTarget("second", second, this::createSink));
+        try {
+            transfer(targets);
+            fail("expected the first target to fail");
+        } catch (RuntimeException e) {
+            assertEquals("write failed, table: T, targets: [first]", e.getMessage());
+        }
+        assertTrue(targets.get(0).getBuffer().isAborted());
+        assertEquals(ROWS, count(second));
+        assertEquals(ROWS, targets.get(1).getProgress().getRows());
+        assertEquals(0, memoryPool.getReservedBytes());
+    }
+
+    /**
+     * 所有目标都失败时两个目标都报出; 源缓冲区是否中止取决于读取端是否已经读完, 见 TestFanOutRunner
+     */
+    @Test
+    public void testAllTargetsFailed() throws Exception {
+        List<FanOutTarget> targets = ImmutableList.of(
+                createTarget("first", first, this::createFailingSink),
+                createTarget("second", second, this::createFailingSink));
+        try {
+            transfer(targets);
+            fail("expected both targets to fail");
+        } catch (RuntimeException e) {
+            assertEquals("write failed, table: T, targets: [first, second]", e.getMessage());
+            assertEquals(1, e.getSuppressed().length);
+        }
+        assertEquals(0, memoryPool.getReservedBytes());
+    }
+
+    /**
+     * 读取失败时所有目标的缓冲区都中止, 报读取失败
+     */
+    @Test
+    public void testFetchFailureAbortsAllTargets() throws Exception {
+        execute(source, "ALTER TABLE T DROP COLUMN NAME");
+        List<FanOutTarget> targets = ImmutableList.of(
+                createTarget("first", first, this::createSink),
+                createTarget("second", second, this::createSink));
+        try {
+            transfer(targets);
+            fail("expected the fetch to fail");
+        } catch (RuntimeException e) {
+            assertEquals("fetch failed, table: T", e.getMessage());
+        }
+        for (FanOutTarget target : targets) {
+            assertTrue(target.getBuffer().isAborted());
+        }
+        assertEquals(0, memoryPool.getReservedBytes());
+    }
+
+    private void transfer(List<FanOutTarget> targets) throws Exception {
+        PageBuffer buffer = new PageBuffer(memoryPool, "T");
+        AdaptiveTuner tuner = new AdaptiveTuner("test.t", new TableTuning(), buffer, 1);
+        new FanOutMigrator(metaInfo, COLUMNS, ImmutableList.of(new JdbcSplit(ImmutableList.of())), 1, buffer, tuner, targets, new RetryPolicy(0, 0), LoadGovernor.UNLIMITED)
+                .transferTable(source);
+    }
+
+    private FanOutTarget createTarget(String name, DataSource dataSource, PageSinkFactory pageSinkFactory) {
+        PageBuffer buffer = new PageBuffer(memoryPool, "T@" + name);
+        return new FanOutTarget(name, dataSource, pageSinkFactory, buffer, new AdaptiveTuner("test.t@" + name, new TableTuning(), buffer, 1),
+                new TableProgress("T", ROWS, 0), LoadGovernor.UNLIMITED);
+    }
+
+    private CommitAwarePageSink createSink(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, Connection connection, AdaptiveTuner tuner) {
+        return new JdbcPageSink(metaInfo, columnHandles, connection, tuner, ImmutableList.of(), new TableMetrics("t"), TemporalCodec.UNSHIFTED, ImmutableSet.of());
+    }
+
+    private CommitAwarePageSink createFailingSink(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, Connection connection, AdaptiveTuner tuner) {
+        return new CommitAwarePageSink() {
+            @Override
+            public CompletableFuture<?> appendPage(Page page) {
+                throw new IllegalStateException("target failed");
+            }
+
+            @Override
+            public CompletableFuture<Collection<Slice>> finish() {
+                throw new IllegalStateException("target failed");
+            }
+
+            @Override
+            public void abort() {
+            }
+
+            @Override
+            public long getCommittedRows() {
+                return 0;
+            }
+        };
+    }
+
+    private static long count(DataSource dataSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM T")) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.block.BlockBuilder;
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.function.BooleanSupplier;
+
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestFanOutRunner {
+    private static final int ROWS_PER_PAGE = 10;
+    private static final long PAGE_BYTES = createPage(0).getRetainedSizeInBytes();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MemoryPool memoryPool;
+    private PageBuffer source;
+
+    @Before
+    public void setUp() {
+        memoryPool = new MemoryPool(100 * PAGE_BYTES);
+        source = new PageBuffer(memoryPool, "t");
+    }
+
+    /**
+     * 某个目标中止后其余目标继续收到所有页
+     */
+    @Test(timeout = 10_000)
+    public void testAbortedTargetSkipped() throws InterruptedException {
+        PageBuffer failed = new PageBuffer(memoryPool, "t@failed");
+        PageBuffer healthy = new PageBuffer(memoryPool, "t@healthy");
+        failed.abort();
+        FanOutRunner runner = start(failed, healthy);
+        putPages(5);
+        source.producerFinished();
+        assertEquals(5, drain(healthy));
+        runner.join();
+        assertNull(runner.getFailure());
+        assertFalse(source.isAborted());
+        assertFalse(healthy.isAborted());
+        assertEquals(0, memoryPool.getReservedBytes());
+    }
+
+    /**
+     * 所有目标都中止后中止源缓冲区, 读取端不再等待
+     */
+    @Test(timeout = 10_000)
+    public void testAllTargetsAbortedAbortsSource() throws InterruptedException {
+        PageBuffer first = new PageBuffer(memoryPool, "t@first");
+        PageBuffer second = new PageBuffer(memoryPool, "t@second");
+        first.abort();
+        second.abort();
+        FanOutRunner runner = start(first, second);
+        putPages(1);
+        runner.join();
+        assertNull(runner.getFailure());
+        assertTrue(source.isAborted());
+        assertEquals(0, memoryPool.getReservedBytes());
+    }
+
+    /**
+     * 读取端失败中止源缓冲区后所有目标都中止, 写入端不会把不完整的数据当作完成
+     */
+    @Test(timeout = 10_000)
+    public void testSourceAbortAbortsTargets() throws InterruptedException {
+        PageBuffer first = new PageBuffer(memoryPool, "t@first");
+        PageBuffer second = new PageBuffer(memoryPool, "t@second");
+        FanOutRunner runner = start(first, second);
+        putPages(2);
+        waitFor(() -> first.size() == 2 && second.size() == 2);
+        source.abort();
+        runner.join();
+        assertTrue(first.isAborted());
+        assertTrue(second.isAborted());
+        assertEquals(0, memoryPool.getReservedBytes());
+    }
+
+    /**
+     * 不开启溢出时慢目标积压到自己的上限后分发阻塞, 慢目标占用的内存不超过上限
+     */
+    @Test(timeout = 10_000)
+    public void testSlowTargetHeldAtItsBound() throws InterruptedException {
+        PageBuffer slow = new PageBuffer(memoryPool, "t@slow", new TableMetrics("t@slow"), null, 2 * PAGE_BYTES);
+        PageBuffer fast = new PageBuffer(memoryPool, "t@fast", new TableMetrics("t@fast"), null, 2 * PAGE_BYTES);
+        FanOutRunner runner = start(slow, fast);
+        putPages(6);
+        source.producerFinished();
+        waitFor(() -> slow.size() == 2 && fast.size() == 2);
+        Thread.sleep(200);
+        assertEquals(2, slow.size());
+        assertEquals(2 * PAGE_BYTES, (long) memoryPool.getReservations().get("t@slow"));
+
+        Thread drainer = new Thread(() -> drainQuietly(fast));
+        drainer.start();
+        assertEquals(6, drain(slow));
+        drainer.join();
+        runner.join();
+        assertNull(runner.getFailure());
+        assertEquals(0, memoryPool.getReservedBytes());
+    }
+
+    /**
+     * 开启溢出时慢目标超出上限的页写入它自己的溢出文件, 其余目标不受影响
+     */
+    @Test(timeout = 10_000)
+    public void testSlowTargetSpillsBeyondItsBound() throws InterruptedException {
+        TableMetrics metrics = new TableMetrics("t@slow");
+        SpillFile spill = new SpillFile(folder.getRoot().toPath(), "t-slow", new PageSerde(false), 1024 * 1024, Long.MAX_VALUE, metrics);
+        PageBuffer slow = new PageBuffer(memoryPool, "t@slow", metrics, spill, 2 * PAGE_BYTES);
+        PageBuffer fast = new PageBuffer(memoryPool, "t@fast", new TableMetrics("t@fast"), null, 2 * PAGE_BYTES);
+        FanOutRunner runner = start(slow, fast);
+        putPages(6);
+        source.producerFinished();
+        assertEquals(6, drain(fast));
+        runner.join();
+        assertEquals(6, slow.size());
+        assertEquals(2 * PAGE_BYTES, (long) memoryPool.getReservations().get("t@slow"));
+        assertEquals(6, drain(slow));
+        slow.close();
+        assertEquals(0, memoryPool.getReservedBytes());
+    }
+
+    private FanOutRunner start(PageBuffer... targets) {
+        source.addProducer();
+        FanOutRunner runner = new FanOutRunner(source, ImmutableList.copyOf(targets));
+        runner.start();
+        return runner;
+    }
+
+    private void putPages(int count) throws InterruptedException {
+        for (int i = 0; i < count; i++) {
+            source.put(createPage(i));
+        }
+    }
+
+    /**
+     * 模拟写入端: 取完所有页, 每页提交后释放, 返回页数
+     */
+    private static int drain(PageBuffer buffer) throws InterruptedException {
+        int pages = 0;
+        Page page;
+        while ((page = buffer.poll()) != null) {
+            buffer.release(page);
+            pages++;
+        }
+        return pages;
+    }
+
+    private static void drainQuietly(PageBuffer buffer) {
+        try {
+            drain(buffer);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        while (!condition.getAsBoolean()) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static Page createPage(int index) {
+        BlockBuilder keys = BIGINT.createBlockBuilder(null, ROWS_PER_PAGE);
+        for (int position = 0; position < ROWS_PER_PAGE; position++) {
+            BIGINT.writeLong(keys, (long) index * ROWS_PER_PAGE + position);
+        }
+        return new Page(keys.build());
+    }
+}
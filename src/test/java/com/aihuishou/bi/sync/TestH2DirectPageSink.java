@@ -0,0 +1,192 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.PageBuilder;
+import com.facebook.presto.spi.block.BlockBuilder;
+import com.facebook.presto.spi.type.DecimalType;
+import com.facebook.presto.spi.type.Decimals;
+import com.facebook.presto.spi.type.Type;
+import com.google.common.collect.ImmutableList;
+import io.airlift.slice.Slices;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.BooleanType.BOOLEAN;
+import static com.facebook.presto.spi.type.DateType.DATE;
+import static com.facebook.presto.spi.type.DoubleType.DOUBLE;
+import static com.facebook.presto.spi.type.IntegerType.INTEGER;
+import static com.facebook.presto.spi.type.TimeType.TIME;
+import static com.facebook.presto.spi.type.TimestampType.TIMESTAMP;
+import static com.facebook.presto.spi.type.VarbinaryType.VARBINARY;
+import static com.facebook.presto.spi.type.VarcharType.createVarcharType;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestH2DirectPageSink {
+    private static final String URL = "jdbc:h2:mem:direct;DB_CLOSE_DELAY=-1";
+    private static final DecimalType SHORT_DECIMAL = DecimalType.createDecimalType(12, 2);
+    private static final DecimalType LONG_DECIMAL = DecimalType.createDecimalType(30, 4);
+    private static final List<Type> TYPES = ImmutableList.of(
+            BIGINT, INTEGER, createVarcharType(32), SHORT_DECIMAL, LONG_DECIMAL, DOUBLE, DATE, TIMESTAMP, BOOLEAN, VARBINARY, TIME);
+    private static final long TIME_MILLIS = LocalTime.of(12, 30, 5).toNanoOfDay() / 1_000_000;
+    private static final long TIMESTAMP_MILLIS = LocalDateTime.of(2019, 3, 31, 2, 30, 5, 123_000_000).toInstant(ZoneOffset.UTC).toEpochMilli();
+
+    private MetaInfo metaInfo;
+    private List<JdbcColumnHandle> columnHandles;
+
+    @Before
+    public void setUp() throws SQLException {
+        metaInfo = new MetaInfo();
+        metaInfo.setMysqlDb("test");
+        metaInfo.setTargetDb("PUBLIC");
+        metaInfo.setTable("T");
+        ImmutableList.Builder<JdbcColumnHandle> columns = ImmutableList.builder();
+        for (int i = 0; i < TYPES.size(); i++) {
+            columns.add(new JdbcColumnHandle("test", "C" + i, new JdbcTypeHandle(Types.OTHER, 0, 0), TYPES.get(i)));
+        }
+        columnHandles = columns.build();
+        try (Connection connection = DriverManager.getConnection(URL);
+             Statement statement = connection.createStatement()) {
+            Dialect dialect = Dialect.forConnection(connection);
+            StringBuilder sql = new StringBuilder("CREATE TABLE ").append(dialect.quote(metaInfo.getTargetDb(), metaInfo.getTable())).append(" (");
+            for (int i = 0; i < TYPES.size(); i++) {
+                sql.append(i == 0 ? "" : ", ").append(dialect.quote("C" + i)).append(' ').append(dialect.toSqlType(TYPES.get(i)));
+            }
+            statement.execute("DROP TABLE IF EXISTS " + dialect.quote(metaInfo.getTargetDb(), metaInfo.getTable()));
+            statement.execute(sql.append(")").toString());
+        }
+    }
+
+    @Test
+    public void testAllTypes() throws SQLException {
+        H2DirectPageSink sink = createSink(1000);
+        sink.appendPage(createPage(0, 2));
+        sink.finish();
+        assertEquals(2, sink.getCommittedRows());
+
+        try (Connection connection = DriverManager.getConnection(URL);
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT * FROM \"T\" ORDER BY \"C0\"")) {
+            assertTrue(resultSet.next());
+            assertEquals(0, resultSet.getLong(1));
+            assertEquals(7, resultSet.getInt(2));
+            assertEquals("名称-0\t\\", resultSet.getString(3));
+            assertEquals(new BigDecimal("-123.45"), resultSet.getBigDecimal(4));
+            assertEquals(new BigDecimal("12345678901234567890.1234"), resultSet.getBigDecimal(5));
+            assertEquals(0.5, resultSet.getDouble(6), 0);
+            assertEquals("2019-01-01", resultSet.getString(7));
+            assertEquals("2019-03-31 02:30:05.123", resultSet.getString(8));
+            assertTrue(resultSet.getBoolean(9));
+            assertArrayEquals(new byte[] {0, 1, 2}, resultSet.getBytes(10));
+            assertEquals("12:30:05", resultSet.getString(11));
+
+            // 第二行除主键外都是 NULL
+            assertTrue(resultSet.next());
+            assertEquals(1, resultSet.getLong(1));
+            for (int column = 2; column <= TYPES.size(); column++) {
+                assertNull(resultSet.getObject(column));
+            }
+            assertFalse(resultSet.next());
+        }
+    }
+
+    @Test
+    public void testCommitByTunerRows() throws SQLException {
+        H2DirectPageSink sink = createSink(AdaptiveTuner.MIN_COMMIT_ROWS);
+        sink.appendPage(createPage(0, 60));
+        assertEquals(0, sink.getCommittedRows());
+        sink.appendPage(createPage(60, 60));
+        assertEquals(120, sink.getCommittedRows());
+        sink.appendPage(createPage(120, 30));
+        assertEquals(120, sink.getCommittedRows());
+        sink.finish();
+        assertEquals(150, sink.getCommittedRows());
+        assertEquals(150, countRows());
+    }
+
+    @Test
+    public void testAbortRollsBackUncommittedRows() throws SQLException {
+        H2DirectPageSink sink = createSink(AdaptiveTuner.MIN_COMMIT_ROWS);
+        sink.appendPage(createPage(0, 100));
+        sink.appendPage(createPage(100, 50));
+        sink.abort();
+        assertEquals(100, sink.getCommittedRows());
+        assertEquals(100, countRows());
+    }
+
+    private H2DirectPageSink createSink(int commitRows) throws SQLException {
+        TableTuning tuning = new TableTuning();
+        tuning.setCommitRows(commitRows);
+        Connection connection = DriverManager.getConnection(URL);
+        return new H2DirectPageSink(metaInfo, columnHandles, connection, new AdaptiveTuner("test.t", tuning, null, 1), new TableMetrics("t"),
+                TemporalCodec.UNSHIFTED, Dialect.forConnection(connection));
+    }
+
+    private static long countRows() throws SQLException {
+        try (Connection connection = DriverManager.getConnection(URL);
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM \"T\"")) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    /**
+     * 偶数行各列都有值, 奇数行除第一列外都是 NULL
+     */
+    private static Page createPage(int start, int rows) {
+        PageBuilder pageBuilder = new PageBuilder(TYPES);
+        for (int row = start; row < start + rows; row++) {
+            pageBuilder.declarePosition();
+            BIGINT.writeLong(pageBuilder.getBlockBuilder(0), row);
+            for (int channel = 1; channel < TYPES.size(); channel++) {
+                BlockBuilder block = pageBuilder.getBlockBuilder(channel);
+                if (row % 2 == 1) {
+                    block.appendNull();
+                    continue;
+                }
+                Type type = TYPES.get(channel);
+                if (type == INTEGER) {
+                    type.writeLong(block, 7);
+                } else if (type == SHORT_DECIMAL) {
+                    type.writeLong(block, -12345);
+                } else if (type == LONG_DECIMAL) {
+                    type.writeSlice(block, Decimals.encodeUnscaledValue(new BigInteger("123456789012345678901234")));
+                } else if (type == DOUBLE) {
+                    type.writeDouble(block, 0.5);
+                } else if (type == DATE) {
+                    type.writeLong(block, LocalDate.of(2019, 1, 1).toEpochDay());
+                } else if (type == TIMESTAMP) {
+                    type.writeLong(block, TIMESTAMP_MILLIS);
+                } else if (type == BOOLEAN) {
+                    type.writeBoolean(block, true);
+                } else if (type == TIME) {
+                    type.writeLong(block, TIME_MILLIS);
+                } else if (type == VARBINARY) {
+                    type.writeSlice(block, Slices.wrappedBuffer(new byte[] {0, 1, 2}));
+                } else {
+                    type.writeSlice(block, Slices.utf8Slice("名称-" + row + "\t\\"));
+                }
+            }
+        }
+        return pageBuilder.build();
+    }
+}
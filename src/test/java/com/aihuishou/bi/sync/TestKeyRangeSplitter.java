@@ -0,0 +1,236 @@
+package com.aihuishou.bi.sync;
+
+import com.aihuishou.bi.utils.Utils;
+import com.google.common.collect.ImmutableList;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.VarcharType.createVarcharType;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestKeyRangeSplitter {
+    private static final JdbcColumnHandle ID = new JdbcColumnHandle("PUBLIC", "ID", new JdbcTypeHandle(Types.BIGINT, 19, 0), BIGINT);
+    private static final JdbcColumnHandle K = new JdbcColumnHandle("PUBLIC", "K", new JdbcTypeHandle(Types.BIGINT, 19, 0), BIGINT);
+    private static final JdbcColumnHandle CODE = new JdbcColumnHandle("PUBLIC", "CODE", new JdbcTypeHandle(Types.VARCHAR, 16, 0), createVarcharType(16));
+
+    private JdbcDataSource dataSource;
+    private MetaInfo metaInfo;
+
+    @Before
+    public void setUp() throws SQLException {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:splitter;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        execute("DROP TABLE IF EXISTS T");
+        metaInfo = new MetaInfo();
+        metaInfo.setMysqlDb("PUBLIC");
+        metaInfo.setTargetDb("PUBLIC");
+        metaInfo.setTable("T");
+    }
+
+    @Test
+    public void testEvenSplits() throws SQLException {
+        createKeyTable(1, 1000);
+        List<JdbcSplit> splits = getSplits(ImmutableList.of(ID), 4);
+        assertEquals(4, splits.size());
+        assertEquals(ImmutableList.of(
+                range(ID, null, 250L, false),
+                range(ID, 250L, 500L, false),
+                range(ID, 500L, 750L, false),
+                range(ID, 750L, null, false)), getRanges(splits));
+        assertEachRowReadOnce(splits, ID, 1000);
+    }
+
+    @Test
+    public void testMinEqualsMax() throws SQLException {
+        createKeyTable(7, 7);
+        List<JdbcSplit> splits = getSplits(ImmutableList.of(ID), 4);
+        assertEquals(ImmutableList.of(range(ID, null, null, false)), getRanges(splits));
+        assertEquals(ImmutableList.of(7L), read(splits.get(0), ID));
+    }
+
+    /**
+     * 值域比分片数小时, 重复的边界合并, 不产生空区间
+     */
+    @Test
+    public void testKeyRangeSmallerThanSplitCount() throws SQLException {
+        createKeyTable(1, 3);
+        List<JdbcSplit> splits = getSplits(ImmutableList.of(ID), 8);
+        assertEquals(ImmutableList.of(
+                range(ID, null, 2L, false),
+                range(ID, 2L, null, false)), getRanges(splits));
+        assertEachRowReadOnce(splits, ID, 3);
+    }
+
+    @Test
+    public void testEmptyTable() throws SQLException {
+        execute("CREATE TABLE T (ID bigint primary key)");
+        List<JdbcSplit> splits = getSplits(ImmutableList.of(ID), 4);
+        assertEquals(1, splits.size());
+        assertTrue(splits.get(0).getRanges().isEmpty());
+    }
+
+    /**
+     * 首尾区间不设边界, 切分之后写入的、超出原来 MIN/MAX 的行也会被读到
+     */
+    @Test
+    public void testOpenEndedFirstAndLastRanges() throws SQLException {
+        createKeyTable(100, 199);
+        List<JdbcSplit> splits = getSplits(ImmutableList.of(ID), 3);
+        assertEquals(3, splits.size());
+        execute("INSERT INTO T VALUES (-5), (1000000)");
+        List<Long> first = read(splits.get(0), ID);
+        List<Long> last = read(splits.get(splits.size() - 1), ID);
+        assertEquals(-5L, (long) first.get(0));
+        assertEquals(1_000_000L, (long) last.get(last.size() - 1));
+        assertEachRowReadOnce(splits, ID, 102);
+    }
+
+    /**
+     * 主键不是整数时按其它索引的第一列切分, 该列为 NULL 的行只在第一个区间里读取
+     */
+    @Test
+    public void testNullsOnlyInFirstRangeForIndexColumn() throws SQLException {
+        execute("CREATE TABLE T (CODE varchar(16) primary key, K bigint)");
+        execute("CREATE INDEX IDX_K ON T (K)");
+        execute("INSERT INTO T SELECT 'c' || X, CASEWHEN(MOD(X, 10) = 0, NULL, X) FROM SYSTEM_RANGE(1, 1000)");
+        List<JdbcSplit> splits = getSplits(ImmutableList.of(CODE, K), 4);
+        assertEquals(4, splits.size());
+        List<KeyRange> ranges = getRanges(splits);
+        assertEquals(K, ranges.get(0).getColumn());
+        assertTrue(ranges.get(0).isIncludeNulls());
+        for (KeyRange range : ranges.subList(1, ranges.size())) {
+            assertFalse(range.toString(), range.isIncludeNulls());
+        }
+
+        int total = 0;
+        for (int i = 0; i < splits.size(); i++) {
+            List<Long> values = read(splits.get(i), K);
+            assertEquals("split " + i, i == 0 ? 100 : 0, countNulls(values));
+            total += values.size();
+        }
+        assertEquals(1000, total);
+    }
+
+    /**
+     * 主键为整数时不包含 NULL 的分支
+     */
+    @Test
+    public void testPrimaryKeyRangesExcludeNulls() throws SQLException {
+        createKeyTable(1, 100);
+        for (KeyRange range : getRanges(getSplits(ImmutableList.of(ID), 4))) {
+            assertFalse(range.toString(), range.isIncludeNulls());
+        }
+    }
+
+    @Test
+    public void testRangePredicates() throws SQLException {
+        createKeyTable(1, 10);
+        assertEquals(ImmutableList.of(3L, 4L, 5L), read(new JdbcSplit(ImmutableList.of(KeyRange.range(ID, Optional.of(3L), Optional.of(6L), false))), ID));
+        assertEquals(ImmutableList.of(4L, 5L, 6L), read(new JdbcSplit(ImmutableList.of(new KeyRange(ID, Optional.of(3L), false, Optional.of(6L), true, false))), ID));
+        assertEquals(ImmutableList.of(1L, 2L), read(new JdbcSplit(ImmutableList.of(KeyRange.range(ID, Optional.empty(), Optional.of(3L), false))), ID));
+        assertEquals(ImmutableList.of(9L, 10L), read(new JdbcSplit(ImmutableList.of(new KeyRange(ID, Optional.of(8L), false, Optional.empty(), false, false))), ID));
+        assertEquals(ImmutableList.of(), read(new JdbcSplit(ImmutableList.of(KeyRange.range(ID, Optional.of(5L), Optional.of(5L), false))), ID));
+        assertEquals(10, read(JdbcSplit.fullTable(), ID).size());
+        // 多个区间之间为 AND
+        JdbcSplit intersection = new JdbcSplit(ImmutableList.of(KeyRange.range(ID, Optional.of(3L), Optional.empty(), false)))
+                .withRange(KeyRange.range(ID, Optional.empty(), Optional.of(5L), false));
+        assertEquals(ImmutableList.of(3L, 4L), read(intersection, ID));
+    }
+
+    /**
+     * 无界区间不带 NULL 时也排除 NULL, 带 NULL 时只多出 NULL 的行
+     */
+    @Test
+    public void testUnboundedRangeNulls() throws SQLException {
+        execute("CREATE TABLE T (CODE varchar(16) primary key, K bigint)");
+        execute("INSERT INTO T VALUES ('a', 1), ('b', NULL), ('c', 3)");
+        assertEquals(ImmutableList.of(1L, 3L), read(new JdbcSplit(ImmutableList.of(KeyRange.range(K, Optional.empty(), Optional.empty(), false))), K));
+        assertEquals(3, read(new JdbcSplit(ImmutableList.of(KeyRange.range(K, Optional.empty(), Optional.empty(), true))), K).size());
+        List<Long> withNulls = read(new JdbcSplit(ImmutableList.of(KeyRange.range(K, Optional.of(2L), Optional.empty(), true))), K);
+        assertEquals(2, withNulls.size());
+        assertEquals(1, countNulls(withNulls));
+    }
+
+    private void createKeyTable(long min, long max) throws SQLException {
+        execute("CREATE TABLE T (ID bigint primary key)");
+        execute("INSERT INTO T SELECT X FROM SYSTEM_RANGE(" + min + ", " + max + ")");
+    }
+
+    private List<JdbcSplit> getSplits(List<JdbcColumnHandle> columns, int splitCount) throws SQLException {
+        return new KeyRangeSplitter(metaInfo, columns).getSplits(dataSource, splitCount);
+    }
+
+    private static List<KeyRange> getRanges(List<JdbcSplit> splits) {
+        ImmutableList.Builder<KeyRange> ranges = ImmutableList.builder();
+        for (JdbcSplit split : splits) {
+            assertEquals(1, split.getRanges().size());
+            ranges.add(split.getRanges().get(0));
+        }
+        return ranges.build();
+    }
+
+    private static KeyRange range(JdbcColumnHandle column, Long low, Long high, boolean includeNulls) {
+        return KeyRange.range(column, Optional.ofNullable(low), Optional.ofNullable(high), includeNulls);
+    }
+
+    private void assertEachRowReadOnce(List<JdbcSplit> splits, JdbcColumnHandle column, int rows) throws SQLException {
+        List<Long> all = new ArrayList<>();
+        for (JdbcSplit split : splits) {
+            List<Long> values = read(split, column);
+            assertFalse(split.toString(), values.isEmpty());
+            all.addAll(values);
+        }
+        assertEquals(rows, all.size());
+        assertEquals(rows, all.stream().distinct().count());
+    }
+
+    /**
+     * 按列值排序读出, NULL 为 null
+     */
+    private List<Long> read(JdbcSplit split, JdbcColumnHandle column) throws SQLException {
+        List<Long> values = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = new QueryBuilder(Utils.mysql_identifierQuote)
+                     .buildSql(connection, null, "PUBLIC", "T", ImmutableList.of(column), split);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                long value = resultSet.getLong(1);
+                values.add(resultSet.wasNull() ? null : value);
+            }
+        }
+        values.sort(Comparator.nullsFirst(Comparator.naturalOrder()));
+        return values;
+    }
+
+    private static int countNulls(List<Long> values) {
+        int nulls = 0;
+        for (Long value : values) {
+            if (value == null) {
+                nulls++;
+            }
+        }
+        return nulls;
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.aihuishou.bi.sync;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.Optional;
+
+import static com.aihuishou.bi.sync.H2Fixtures.createDataSource;
+import static com.aihuishou.bi.sync.H2Fixtures.execute;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 检查项读取 H2 表中的负载值, 由测试修改; 时钟由测试推进, 每次 poll 前推进一秒, 速率调整与真实时间无关
+ */
+public class TestLoadGovernor {
+    private static final double UNLIMITED = Double.POSITIVE_INFINITY;
+    private static final double DELTA = 0.001;
+
+    private JdbcDataSource dataSource;
+    private FakeTicker ticker;
+    private LoadGovernor.HealthCheck check;
+
+    @Before
+    public void setUp() throws SQLException {
+        dataSource = createDataSource("governor");
+        execute(dataSource, "CREATE TABLE LOAD (V BIGINT)");
+        execute(dataSource, "INSERT INTO LOAD VALUES (0)");
+        ticker = new FakeTicker();
+        check = new LoadGovernor.HealthCheck("load", dataSource, "SELECT V FROM LOAD", "V", 10);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        execute(dataSource, "DROP ALL OBJECTS");
+    }
+
+    /**
+     * 过载时降到这个周期实际速率的一半, 恢复后每个周期放宽 25%; 没有经过数据的维度不变
+     */
+    @Test
+    public void testBackOffToHalfOfMeasuredRateThenRecover() throws SQLException {
+        LoadGovernor governor = createGovernor(0);
+        setLoad(20);
+        governor.acquire(4000, 0);
+        poll(governor, 2);
+        assertEquals(1000, governor.getRowsPerSecond(), DELTA);
+        assertEquals(UNLIMITED, governor.getBytesPerSecond(), DELTA);
+
+        setLoad(0);
+        poll(governor, 1);
+        assertEquals(1250, governor.getRowsPerSecond(), DELTA);
+        poll(governor, 1);
+        assertEquals(1562.5, governor.getRowsPerSecond(), DELTA);
+    }
+
+    /**
+     * 降速不低于下限, 也不会因为实际速率更高而提速
+     */
+    @Test
+    public void testBackOffKeepsMinimumAndNeverRaises() throws SQLException {
+        LoadGovernor governor = createGovernor(0);
+        setLoad(20);
+        governor.acquire(100, 0);
+        poll(governor, 1);
+        assertEquals(100, governor.getRowsPerSecond(), DELTA);
+        // 下限以下不再降, 没有数据的周期不变
+        poll(governor, 1);
+        assertEquals(100, governor.getRowsPerSecond(), DELTA);
+    }
+
+    /**
+     * 配置了上限时恢复到上限为止
+     */
+    @Test
+    public void testRecoverClampsAtMax() throws SQLException {
+        LoadGovernor governor = createGovernor(10_000);
+        assertEquals(10_000, governor.getRowsPerSecond(), DELTA);
+        setLoad(20);
+        governor.acquire(8000, 0);
+        poll(governor, 1);
+        assertEquals(4000, governor.getRowsPerSecond(), DELTA);
+
+        setLoad(0);
+        double[] expected = {5000, 6250, 7812.5, 9765.625, 10_000, 10_000};
+        for (double rate : expected) {
+            poll(governor, 1);
+            assertEquals(rate, governor.getRowsPerSecond(), DELTA);
+        }
+    }
+
+    /**
+     * 没有配置上限时, 限速放宽到实际速率的 4 倍以上即取消
+     */
+    @Test
+    public void testSlackLiftsLimit() throws SQLException {
+        LoadGovernor governor = createGovernor(0);
+        setLoad(20);
+        governor.acquire(2000, 0);
+        poll(governor, 1);
+        assertEquals(1000, governor.getRowsPerSecond(), DELTA);
+
+        setLoad(0);
+        governor.acquire(100, 0);
+        poll(governor, 1);
+        assertEquals(UNLIMITED, governor.getRowsPerSecond(), DELTA);
+    }
+
+    /**
+     * 检查查询的非暂时性错误 (例如不是 MySQL) 之后不再检查, 负载升高也不降速
+     */
+    @Test
+    public void testCheckDisabledOnNonTransientError() throws SQLException {
+        LoadGovernor.HealthCheck broken = new LoadGovernor.HealthCheck("missing", dataSource, "SELECT V FROM MISSING", "V", 10);
+        assertEquals(Optional.empty(), broken.check());
+        execute(dataSource, "CREATE TABLE MISSING (V BIGINT)");
+        execute(dataSource, "INSERT INTO MISSING VALUES (20)");
+        assertEquals(Optional.empty(), broken.check());
+
+        LoadGovernor.HealthCheck working = new LoadGovernor.HealthCheck("missing", dataSource, "SELECT V FROM MISSING", "V", 10);
+        assertEquals(Optional.of("missing 20 > 10"), working.check());
+    }
+
+    private LoadGovernor createGovernor(double maxRowsPerSecond) {
+        return new LoadGovernor("test", maxRowsPerSecond, 0, ImmutableList.of(check), 0, ticker);
+    }
+
+    private void poll(LoadGovernor governor, long seconds) {
+        ticker.advance(SECONDS.toNanos(seconds));
+        governor.poll();
+    }
+
+    private void setLoad(long value) throws SQLException {
+        execute(dataSource, "UPDATE LOAD SET V = " + value);
+    }
+
+    private static final class FakeTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        private void advance(long delta) {
+            nanos += delta;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.aihuishou.bi.sync;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static com.aihuishou.bi.sync.H2Fixtures.createDataSource;
+import static com.aihuishou.bi.sync.H2Fixtures.execute;
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.VarcharType.createVarcharType;
+import static java.lang.String.CASE_INSENSITIVE_ORDER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestM2H2SchemaConverter {
+    private static final List<JdbcColumnHandle> COLUMNS = ImmutableList.of(
+            new JdbcColumnHandle("PUBLIC", "ID", new JdbcTypeHandle(Types.BIGINT, 19, 0), BIGINT),
+            new JdbcColumnHandle("PUBLIC", "A", new JdbcTypeHandle(Types.VARCHAR, 32, 0), createVarcharType(32)),
+            new JdbcColumnHandle("PUBLIC", "B", new JdbcTypeHandle(Types.VARCHAR, 32, 0), createVarcharType(32)));
+
+    private JdbcDataSource target;
+
+    @Before
+    public void setUp() {
+        target = createDataSource("schema_converter");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        execute(target, "DROP ALL OBJECTS");
+    }
+
+    /**
+     * 建表失败时抛出异常, 不再只打印堆栈后继续拷贝
+     */
+    @Test
+    public void testCreateTableFailureIsThrown() {
+        M2H2SchemaConverter schemaConverter = createConverter("MISSING", ImmutableList.of());
+        try {
+            schemaConverter.createTableInTarget(target);
+            fail("expected create table to fail");
+        } catch (SQLException expected) {
+        }
+    }
+
+    /**
+     * 目标表上已有的索引跳过, 只补建缺少的; 重复调用不报错
+     */
+    @Test
+    public void testExistingIndexesSkipped() throws SQLException {
+        M2H2SchemaConverter schemaConverter = createConverter("PUBLIC", ImmutableList.of(
+                index("idx_a", false, "BTREE", "A"),
+                index("idx_b", true, "BTREE", "B")));
+        schemaConverter.createTableInTarget(target);
+        execute(target, "CREATE INDEX T_IDX_A ON T (A)");
+        schemaConverter.createIndexesInTarget(target);
+        schemaConverter.createIndexesInTarget(target);
+        assertEquals(ImmutableSet.of("T_IDX_A", "T_IDX_B"), getIndexNames());
+    }
+
+    /**
+     * MySQL 目标库的普通索引合并到一条 ALTER TABLE, 已有的索引不在其中; 全文索引单独一条
+     */
+    @Test
+    public void testMysqlIndexesInOneAlter() {
+        List<IndexDefinition> indexes = ImmutableList.of(
+                index("idx_a", false, "BTREE", "a"),
+                index("idx_b", true, "BTREE", "b", "a"),
+                index("idx_c", false, "BTREE", "b"),
+                index("ft", false, "FULLTEXT", "a"));
+        assertEquals(ImmutableList.of(
+                "ALTER TABLE `db`.`t` ADD INDEX `idx_a` (`a`), ADD UNIQUE INDEX `idx_b` (`b`, `a`)",
+                "ALTER TABLE `db`.`t` ADD FULLTEXT INDEX `ft` (`a`)"),
+                M2H2SchemaConverter.buildIndexStatements(new MysqlDialect(), true, "db", "t", indexes, caseInsensitive("IDX_C")));
+        assertEquals(ImmutableList.of(),
+                M2H2SchemaConverter.buildIndexStatements(new MysqlDialect(), true, "db", "t", indexes, caseInsensitive("idx_a", "idx_b", "idx_c", "ft")));
+    }
+
+    /**
+     * 前缀长度只有 MySQL 支持, 其他目标库按整列建索引
+     */
+    @Test
+    public void testPrefixLengthsOnlyForMysql() {
+        List<IndexDefinition> indexes = ImmutableList.of(new IndexDefinition("idx_ab", false, "BTREE", ImmutableList.of("a", "b"), ImmutableList.of(Optional.of(10), Optional.empty())));
+        assertEquals(ImmutableList.of("ALTER TABLE `db`.`t` ADD INDEX `idx_ab` (`a`(10), `b`)"),
+                M2H2SchemaConverter.buildIndexStatements(new MysqlDialect(), true, "db", "t", indexes, caseInsensitive()));
+        assertEquals(ImmutableList.of("CREATE INDEX \"T_IDX_AB\" ON \"DB\".\"T\" (\"A\", \"B\")"),
+                M2H2SchemaConverter.buildIndexStatements(new H2Dialect(true), false, "DB", "T", indexes, caseInsensitive()));
+    }
+
+    private static M2H2SchemaConverter createConverter(String targetDb, List<IndexDefinition> indexes) {
+        MetaInfo metaInfo = new MetaInfo();
+        metaInfo.setMysqlDb("PUBLIC");
+        metaInfo.setTargetDb(targetDb);
+        metaInfo.setTable("T");
+        M2H2SchemaConverter schemaConverter = new M2H2SchemaConverter(metaInfo);
+        schemaConverter.useSnapshot(new TableSnapshot("PUBLIC", "T", COLUMNS, ImmutableList.of("ID"), indexes, Optional.empty(), 0, ImmutableList.of()));
+        return schemaConverter;
+    }
+
+    private static IndexDefinition index(String name, boolean unique, String indexType, String... columns) {
+        ImmutableList.Builder<Optional<Integer>> prefixLengths = ImmutableList.builder();
+        for (int i = 0; i < columns.length; i++) {
+            prefixLengths.add(Optional.empty());
+        }
+        return new IndexDefinition(name, unique, indexType, ImmutableList.copyOf(columns), prefixLengths.build());
+    }
+
+    private static Set<String> caseInsensitive(String... names) {
+        Set<String> set = new TreeSet<>(CASE_INSENSITIVE_ORDER);
+        set.addAll(ImmutableList.copyOf(names));
+        return set;
+    }
+
+    /**
+     * 目标表上的二级索引名, 不含主键
+     */
+    private Set<String> getIndexNames() throws SQLException {
+        ImmutableSet.Builder<String> names = ImmutableSet.builder();
+        try (Connection connection = target.getConnection();
+             ResultSet resultSet = connection.getMetaData().getIndexInfo(null, "PUBLIC", "T", false, true)) {
+            while (resultSet.next()) {
+                if (resultSet.getShort("TYPE") != DatabaseMetaData.tableIndexStatistic && !resultSet.getString("INDEX_NAME").startsWith("PRIMARY_KEY")) {
+                    names.add(resultSet.getString("INDEX_NAME"));
+                }
+            }
+        }
+        return names.build();
+    }
+}
@@ -0,0 +1,108 @@
+package com.aihuishou.bi.sync;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestMemoryPool {
+    /**
+     * 预算用完后已有预留的表等待, 没有任何预留的表仍然放行, 即使这一次就超出预算
+     */
+    @Test
+    public void testTagHoldingNothingIsAdmitted() throws InterruptedException {
+        MemoryPool pool = new MemoryPool(100);
+        assertTrue(pool.tryReserve("a", 80, 0));
+        assertFalse(pool.tryReserve("a", 30, 10));
+        assertTrue(pool.tryReserve("b", 500, 0));
+        assertEquals(580, pool.getReservedBytes());
+        assertFalse(pool.tryReserve("b", 1, 0));
+
+        pool.free("b", 500);
+        assertTrue(pool.tryReserve("a", 20, 0));
+        assertEquals(ImmutableMap.of("a", 100L), pool.getReservations());
+    }
+
+    /**
+     * 名下的上限与总预算一样在名下没有预留时放行
+     */
+    @Test
+    public void testTagLimit() throws InterruptedException {
+        MemoryPool pool = new MemoryPool(100);
+        assertTrue(pool.tryReserve("a", 60, 50, 0));
+        assertFalse(pool.tryReserve("a", 1, 50, 0));
+        assertTrue(pool.tryReserve("b", 30, 50, 0));
+        pool.free("a", 60);
+        assertTrue(pool.tryReserve("a", 40, 50, 0));
+        assertFalse(pool.tryReserve("a", 20, 50, 0));
+        assertEquals(ImmutableMap.of("a", 40L, "b", 30L), pool.getReservations());
+    }
+
+    @Test
+    public void testReserveWaitsForFree() throws Exception {
+        MemoryPool pool = new MemoryPool(100);
+        pool.reserve("a", 100);
+        CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> {
+            try {
+                pool.reserve("a", 50);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(waiting.isDone());
+        pool.free("a", 60);
+        waiting.get(10, SECONDS);
+        assertEquals(90, pool.getReservedBytes());
+    }
+
+    /**
+     * 预留转到另一个名下后总量不变, 原来的名下不再持有预留, 在它名下排队的预留放行
+     */
+    @Test
+    public void testTransferAdmitsSourceTag() throws InterruptedException {
+        MemoryPool pool = new MemoryPool(100);
+        pool.reserve("t", 100);
+        assertFalse(pool.tryReserve("t", 50, 0));
+        pool.transfer("t", "t/pending", 100);
+        assertEquals(100, pool.getReservedBytes());
+        assertEquals(ImmutableMap.of("t/pending", 100L), pool.getReservations());
+        assertTrue(pool.tryReserve("t", 50, 0));
+        pool.free("t/pending", 100);
+        pool.free("t", 50);
+        assertEquals(0, pool.getReservedBytes());
+        assertEquals(ImmutableMap.of(), pool.getReservations());
+    }
+
+    /**
+     * 释放的字节数超过预留, 或者释放没有预留的名下, 都是记账错误, 直接报错且不改变预留
+     */
+    @Test
+    public void testFreeUnderflow() throws InterruptedException {
+        MemoryPool pool = new MemoryPool(100);
+        pool.reserve("a", 10);
+        try {
+            pool.free("a", 11);
+            fail("expected free to fail");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            pool.free("b", 1);
+            fail("expected free to fail");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            pool.transfer("a", "a/pending", 11);
+            fail("expected transfer to fail");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(10, pool.getReservedBytes());
+        assertEquals(ImmutableMap.of("a", 10L), pool.getReservations());
+    }
+}
@@ -0,0 +1,31 @@
+package com.aihuishou.bi.sync;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.sql.Types;
+
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.VarbinaryType.VARBINARY;
+import static com.facebook.presto.spi.type.VarcharType.createVarcharType;
+import static org.junit.Assert.assertEquals;
+
+public class TestMysqlLoadDataPageSink {
+    /**
+     * 二进制列读入用户变量后 UNHEX, 其它列直接按列名读入
+     */
+    @Test
+    public void testBinaryColumnsLoadedThroughUnhex() {
+        MetaInfo metaInfo = new MetaInfo();
+        metaInfo.setTargetDb("test");
+        metaInfo.setTable("t");
+        String sql = MysqlLoadDataPageSink.buildLoadSql(metaInfo, ImmutableList.of(
+                new JdbcColumnHandle("test", "id", new JdbcTypeHandle(Types.BIGINT, 0, 0), BIGINT),
+                new JdbcColumnHandle("test", "digest", new JdbcTypeHandle(Types.VARBINARY, 16, 0), VARBINARY),
+                new JdbcColumnHandle("test", "name", new JdbcTypeHandle(Types.VARCHAR, 16, 0), createVarcharType(16)),
+                new JdbcColumnHandle("test", "payload", new JdbcTypeHandle(Types.LONGVARBINARY, 0, 0), VARBINARY)), true);
+        assertEquals("LOAD DATA LOCAL INFILE 'page-stream' REPLACE INTO TABLE `test`.`t` CHARACTER SET utf8mb4"
+                + " FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n'"
+                + " (`id`,@v1,`name`,@v3) SET `digest` = UNHEX(@v1), `payload` = UNHEX(@v3)", sql);
+    }
+}
@@ -0,0 +1,185 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.block.BlockBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.slice.Slice;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestPageBuffer {
+    private static final int ROWS_PER_PAGE = 10;
+    private static final long PAGE_BYTES = createPage(0).getRetainedSizeInBytes();
+
+    private MemoryPool memoryPool;
+    private PageBuffer buffer;
+
+    @Before
+    public void setUp() {
+        memoryPool = new MemoryPool(100 * PAGE_BYTES);
+        buffer = new PageBuffer(memoryPool, "t");
+    }
+
+    /**
+     * 取走的页在 release 之前仍然占用预算, 记在 pending 名下
+     */
+    @Test
+    public void testPolledPageStaysReservedUntilRelease() throws InterruptedException {
+        buffer.put(createPage(0));
+        buffer.put(createPage(1));
+        Page page = buffer.poll();
+        assertEquals(ImmutableMap.of("t", PAGE_BYTES, "t/pending", PAGE_BYTES), memoryPool.getReservations());
+        buffer.release(page);
+        assertEquals(ImmutableMap.of("t", PAGE_BYTES), memoryPool.getReservations());
+        // 重复释放没有影响
+        buffer.release(page);
+        assertEquals(PAGE_BYTES, memoryPool.getReservedBytes());
+    }
+
+    /**
+     * 预算只够一页时, 写入端持有未提交的页不会挡住读取端放入下一页
+     */
+    @Test(timeout = 10_000)
+    public void testUncommittedPagesDoNotBlockReaders() throws InterruptedException {
+        buffer = new PageBuffer(new MemoryPool(PAGE_BYTES), "t");
+        buffer.put(createPage(0));
+        Page first = buffer.poll();
+        buffer.put(createPage(1));
+        assertEquals(1, buffer.size());
+        buffer.release(first);
+    }
+
+    /**
+     * abort 释放还在缓冲区中的页, 已取走的页由写入端释放
+     */
+    @Test
+    public void testAbortFreesQueuedPages() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            buffer.put(createPage(i));
+        }
+        Page page = buffer.poll();
+        buffer.abort();
+        assertEquals(ImmutableMap.of("t/pending", PAGE_BYTES), memoryPool.getReservations());
+        assertNull(buffer.poll());
+        buffer.release(page);
+        assertEquals(0, memoryPool.getReservedBytes());
+    }
+
+    /**
+     * 写入线程在页提交后才释放预留; 每两页提交一次时, 写入时最多持有两页
+     */
+    @Test
+    public void testWriterReleasesPagesAfterCommit() throws InterruptedException {
+        List<Long> pendingBytes = new ArrayList<>();
+        H2Runner runner = createRunner(() -> new FakePageSink(2, Integer.MAX_VALUE, pendingBytes));
+        buffer.addProducer();
+        for (int i = 0; i < 6; i++) {
+            buffer.put(createPage(i));
+        }
+        buffer.producerFinished();
+        runner.start();
+        runner.join();
+        assertNull(runner.getFailure());
+        assertEquals(ImmutableList.of(PAGE_BYTES, 2 * PAGE_BYTES, PAGE_BYTES, 2 * PAGE_BYTES, PAGE_BYTES, 2 * PAGE_BYTES), pendingBytes);
+        assertEquals(0, memoryPool.getReservedBytes());
+    }
+
+    /**
+     * 写入失败时写入线程放弃未提交的页, 中止缓冲区, 预算全部释放
+     */
+    @Test
+    public void testWriterFailureReleasesPendingPages() throws InterruptedException {
+        H2Runner runner = createRunner(() -> new FakePageSink(Integer.MAX_VALUE, 3, new ArrayList<>()));
+        buffer.addProducer();
+        for (int i = 0; i < 5; i++) {
+            buffer.put(createPage(i));
+        }
+        runner.start();
+        runner.join();
+        assertNotNull(runner.getFailure());
+        assertTrue(buffer.isAborted());
+        assertEquals(0, memoryPool.getReservedBytes());
+        assertEquals(ImmutableMap.of(), memoryPool.getReservations());
+    }
+
+    private H2Runner createRunner(Supplier<CommitAwarePageSink> sinks) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:page_buffer");
+        MetaInfo metaInfo = new MetaInfo();
+        metaInfo.setTable("t");
+        List<JdbcColumnHandle> columns = ImmutableList.of(new JdbcColumnHandle("PUBLIC", "ID", new JdbcTypeHandle(Types.BIGINT, 19, 0), BIGINT));
+        return new H2Runner(dataSource, metaInfo, columns, (info, columnHandles, connection, tuner) -> sinks.get(), buffer,
+                new AdaptiveTuner("test.t", new TableTuning(), null, 1), new TableProgress("t", 0, 0));
+    }
+
+    private static Page createPage(int index) {
+        BlockBuilder keys = BIGINT.createBlockBuilder(null, ROWS_PER_PAGE);
+        for (int position = 0; position < ROWS_PER_PAGE; position++) {
+            BIGINT.writeLong(keys, (long) index * ROWS_PER_PAGE + position);
+        }
+        return new Page(keys.build());
+    }
+
+    /**
+     * 每 commitPages 页提交一次, 第 failPage 页 (从 1 开始) 写入失败; 写入每页时记录 pending 名下的预留
+     */
+    private final class FakePageSink implements CommitAwarePageSink {
+        private final int commitPages;
+        private final int failPage;
+        private final List<Long> pendingBytes;
+        private int appendedPages;
+        private long appendedRows;
+        private long committedRows;
+
+        private FakePageSink(int commitPages, int failPage, List<Long> pendingBytes) {
+            this.commitPages = commitPages;
+            this.failPage = failPage;
+            this.pendingBytes = pendingBytes;
+        }
+
+        @Override
+        public CompletableFuture<?> appendPage(Page page) {
+            appendedPages++;
+            if (appendedPages == failPage) {
+                throw new IllegalStateException("sink failed");
+            }
+            pendingBytes.add(memoryPool.getReservations().getOrDefault("t/pending", 0L));
+            appendedRows += page.getPositionCount();
+            if (appendedPages % commitPages == 0) {
+                committedRows = appendedRows;
+            }
+            return NOT_BLOCKED;
+        }
+
+        @Override
+        public CompletableFuture<Collection<Slice>> finish() {
+            committedRows = appendedRows;
+            return completedFuture(ImmutableList.of());
+        }
+
+        @Override
+        public void abort() {
+        }
+
+        @Override
+        public long getCommittedRows() {
+            return committedRows;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.block.ArrayBlockEncoding;
+import com.facebook.presto.spi.block.Block;
+import com.facebook.presto.spi.block.BlockBuilder;
+import com.facebook.presto.spi.block.ByteArrayBlockEncoding;
+import com.facebook.presto.spi.block.DictionaryBlock;
+import com.facebook.presto.spi.block.DictionaryBlockEncoding;
+import com.facebook.presto.spi.block.FixedWidthBlockEncoding;
+import com.facebook.presto.spi.block.IntArrayBlockEncoding;
+import com.facebook.presto.spi.block.LongArrayBlockEncoding;
+import com.facebook.presto.spi.block.RowBlockEncoding;
+import com.facebook.presto.spi.block.RunLengthBlockEncoding;
+import com.facebook.presto.spi.block.RunLengthEncodedBlock;
+import com.facebook.presto.spi.block.ShortArrayBlockEncoding;
+import com.facebook.presto.spi.block.SingleRowBlockEncoding;
+import com.facebook.presto.spi.block.VariableWidthBlockEncoding;
+import com.facebook.presto.spi.type.ArrayType;
+import com.facebook.presto.spi.type.DecimalType;
+import com.facebook.presto.spi.type.RowType;
+import com.facebook.presto.spi.type.Type;
+import com.google.common.collect.ImmutableList;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.BooleanType.BOOLEAN;
+import static com.facebook.presto.spi.type.DateType.DATE;
+import static com.facebook.presto.spi.type.DecimalType.createDecimalType;
+import static com.facebook.presto.spi.type.Decimals.encodeUnscaledValue;
+import static com.facebook.presto.spi.type.DoubleType.DOUBLE;
+import static com.facebook.presto.spi.type.IntegerType.INTEGER;
+import static com.facebook.presto.spi.type.RealType.REAL;
+import static com.facebook.presto.spi.type.SmallintType.SMALLINT;
+import static com.facebook.presto.spi.type.TimeType.TIME;
+import static com.facebook.presto.spi.type.TimestampType.TIMESTAMP;
+import static com.facebook.presto.spi.type.TinyintType.TINYINT;
+import static com.facebook.presto.spi.type.VarbinaryType.VARBINARY;
+import static com.facebook.presto.spi.type.VarcharType.createVarcharType;
+import static java.lang.Float.floatToRawIntBits;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestPageSerde {
+    private static final DecimalType SHORT_DECIMAL = createDecimalType(12, 2);
+    private static final DecimalType LONG_DECIMAL = createDecimalType(30, 4);
+    private static final ArrayType BIGINT_ARRAY = new ArrayType(BIGINT);
+    private static final RowType ROW = RowType.anonymous(ImmutableList.of(BIGINT, createVarcharType(16)));
+    // 拷贝时 StandardReadMappings 产生的所有列类型, 以及 PageSerde 注册的其余编码用到的类型
+    private static final List<Type> TYPES = ImmutableList.of(
+            BOOLEAN, TINYINT, SMALLINT, INTEGER, BIGINT, REAL, DOUBLE, SHORT_DECIMAL, LONG_DECIMAL,
+            createVarcharType(32), VARBINARY, DATE, TIME, TIMESTAMP, BIGINT_ARRAY, ROW);
+    private static final int ROWS = 1000;
+
+    @Test
+    public void testAllColumnTypes() {
+        Page page = createPage(ROWS);
+        assertEncodings(page, ImmutableList.of(
+                ByteArrayBlockEncoding.NAME, ByteArrayBlockEncoding.NAME, ShortArrayBlockEncoding.NAME, IntArrayBlockEncoding.NAME,
+                LongArrayBlockEncoding.NAME, IntArrayBlockEncoding.NAME, LongArrayBlockEncoding.NAME, LongArrayBlockEncoding.NAME,
+                FixedWidthBlockEncoding.NAME, VariableWidthBlockEncoding.NAME, VariableWidthBlockEncoding.NAME, IntArrayBlockEncoding.NAME,
+                LongArrayBlockEncoding.NAME, LongArrayBlockEncoding.NAME, ArrayBlockEncoding.NAME, RowBlockEncoding.NAME));
+        assertRoundTrip(TYPES, page);
+    }
+
+    @Test
+    public void testDictionaryAndRunLengthBlocks() {
+        Block dictionary = createPage(10).getBlock(9);
+        int[] ids = new int[ROWS];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i % 7;
+        }
+        BlockBuilder valueBuilder = BIGINT.createBlockBuilder(null, 1);
+        BIGINT.writeLong(valueBuilder, 42);
+        BlockBuilder nullBuilder = BIGINT.createBlockBuilder(null, 1);
+        nullBuilder.appendNull();
+        Page page = new Page(
+                new DictionaryBlock(dictionary, ids),
+                new RunLengthEncodedBlock(valueBuilder.build(), ROWS),
+                new RunLengthEncodedBlock(nullBuilder.build(), ROWS));
+        assertEncodings(page, ImmutableList.of(DictionaryBlockEncoding.NAME, RunLengthBlockEncoding.NAME, RunLengthBlockEncoding.NAME));
+        assertRoundTrip(ImmutableList.of(createVarcharType(32), BIGINT, BIGINT), page);
+    }
+
+    /**
+     * 行类型中的单行 (SingleRowBlock) 按字段展开为位置, 两个字段都是 bigint
+     */
+    @Test
+    public void testSingleRowBlock() {
+        RowType row = RowType.anonymous(ImmutableList.of(BIGINT, BIGINT));
+        BlockBuilder builder = row.createBlockBuilder(null, 1);
+        BlockBuilder entry = builder.beginBlockEntry();
+        BIGINT.writeLong(entry, 1);
+        entry.appendNull();
+        builder.closeEntry();
+        Block singleRow = row.getObject(builder.build(), 0);
+        Page page = new Page(singleRow);
+        assertEncodings(page, ImmutableList.of(SingleRowBlockEncoding.NAME));
+        assertRoundTrip(ImmutableList.of(BIGINT), page);
+    }
+
+    @Test
+    public void testEmptyPage() {
+        assertRoundTrip(TYPES, createPage(0));
+        assertRoundTrip(ImmutableList.of(), new Page(0));
+    }
+
+    /**
+     * 重复的数据压缩后保存压缩结果, 随机数据压缩效果不够时保存原始数据, 两种都能读回
+     */
+    @Test
+    public void testCompressionIsKeptOnlyWhenSmaller() {
+        Page repetitive = createPage(ROWS);
+        Slice uncompressed = new PageSerde(false).serialize(repetitive);
+        Slice compressed = new PageSerde(true).serialize(repetitive);
+        assertTrue(compressed.length() + " >= " + uncompressed.length(), compressed.length() < uncompressed.length() * 0.8);
+
+        byte[] bytes = new byte[64];
+        Random random = new Random(0);
+        BlockBuilder builder = VARBINARY.createBlockBuilder(null, ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            random.nextBytes(bytes);
+            VARBINARY.writeSlice(builder, Slices.wrappedBuffer(Arrays.copyOf(bytes, bytes.length)));
+        }
+        Page random64 = new Page(builder.build());
+        assertEquals(new PageSerde(false).serialize(random64), new PageSerde(true).serialize(random64));
+        assertRoundTrip(ImmutableList.of(VARBINARY), random64);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownCompression() {
+        PageSerde.create("zstd");
+    }
+
+    private static void assertRoundTrip(List<Type> types, Page page) {
+        for (PageSerde serde : ImmutableList.of(PageSerde.create("none"), PageSerde.create("lz4"))) {
+            Slice serialized = serde.serialize(page);
+            // 读取端不需要知道写入时的压缩配置
+            assertPageEquals(types, page, new PageSerde(false).deserialize(serialized));
+            assertPageEquals(types, page, new PageSerde(true).deserialize(serialized));
+        }
+    }
+
+    static void assertPageEquals(List<Type> types, Page expected, Page actual) {
+        assertEquals(expected.getPositionCount(), actual.getPositionCount());
+        assertEquals(expected.getChannelCount(), actual.getChannelCount());
+        for (int channel = 0; channel < types.size(); channel++) {
+            Type type = types.get(channel);
+            Block expectedBlock = expected.getBlock(channel);
+            Block actualBlock = actual.getBlock(channel);
+            for (int position = 0; position < expected.getPositionCount(); position++) {
+                String message = "channel " + channel + ", position " + position;
+                assertEquals(message, expectedBlock.isNull(position), actualBlock.isNull(position));
+                if (!expectedBlock.isNull(position)) {
+                    assertTrue(message, type.equalTo(expectedBlock, position, actualBlock, position));
+                }
+            }
+        }
+    }
+
+    private static void assertEncodings(Page page, List<String> encodings) {
+        assertEquals(encodings.size(), page.getChannelCount());
+        for (int channel = 0; channel < page.getChannelCount(); channel++) {
+            assertEquals("channel " + channel, encodings.get(channel), page.getBlock(channel).getEncodingName());
+        }
+    }
+
+    /**
+     * 每 3 行中有一行所有列都是 NULL
+     */
+    private static Page createPage(int rows) {
+        BlockBuilder[] builders = new BlockBuilder[TYPES.size()];
+        for (int channel = 0; channel < TYPES.size(); channel++) {
+            builders[channel] = TYPES.get(channel).createBlockBuilder(null, rows);
+        }
+        for (int row = 0; row < rows; row++) {
+            for (int channel = 0; channel < TYPES.size(); channel++) {
+                Type type = TYPES.get(channel);
+                BlockBuilder builder = builders[channel];
+                if (row % 3 == 2) {
+                    builder.appendNull();
+                } else if (type == BOOLEAN) {
+                    type.writeBoolean(builder, row % 2 == 0);
+                } else if (type == TINYINT || type == SMALLINT || type == INTEGER) {
+                    type.writeLong(builder, row % 100 - 50);
+                } else if (type == REAL) {
+                    type.writeLong(builder, floatToRawIntBits(row / 4.0f));
+                } else if (type == DOUBLE) {
+                    type.writeDouble(builder, row / 3.0);
+                } else if (type == LONG_DECIMAL) {
+                    type.writeSlice(builder, encodeUnscaledValue(BigInteger.valueOf(row).multiply(BigInteger.TEN.pow(22)).negate()));
+                } else if (type == DATE) {
+                    type.writeLong(builder, row - 500);
+                } else if (type == TIME) {
+                    type.writeLong(builder, row * 1000L);
+                } else if (type == BIGINT || type == SHORT_DECIMAL || type == TIMESTAMP) {
+                    type.writeLong(builder, row * 1_000_003L - 86_400_000L);
+                } else if (type == VARBINARY) {
+                    type.writeSlice(builder, Slices.wrappedBuffer(new byte[] {(byte) row, 0, (byte) (row >> 8)}));
+                } else if (type == BIGINT_ARRAY) {
+                    BlockBuilder entry = builder.beginBlockEntry();
+                    for (int i = 0; i < row % 4; i++) {
+                        BIGINT.writeLong(entry, row + i);
+                    }
+                    builder.closeEntry();
+                } else if (type == ROW) {
+                    BlockBuilder entry = builder.beginBlockEntry();
+                    // RowType.equalTo 不支持字段为 NULL, 这里的字段都有值
+                    BIGINT.writeLong(entry, row);
+                    createVarcharType(16).writeSlice(entry, Slices.utf8Slice("字段-" + row % 10));
+                    builder.closeEntry();
+                } else {
+                    type.writeSlice(builder, Slices.utf8Slice("名称-" + row % 50));
+                }
+            }
+        }
+        Block[] blocks = new Block[builders.length];
+        for (int channel = 0; channel < builders.length; channel++) {
+            blocks[channel] = builders[channel].build();
+        }
+        return new Page(rows, blocks);
+    }
+}
@@ -0,0 +1,196 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.PageBuilder;
+import com.facebook.presto.spi.type.Type;
+import com.google.common.collect.ImmutableList;
+import io.airlift.slice.Slices;
+import org.junit.Before;
+import org.junit.Test;
+import org.postgresql.copy.CopyIn;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongUnaryOperator;
+
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.VarcharType.createVarcharType;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * COPY 写到进程内的替身: 记录收到的字节和提交、回滚次数, 结束 COPY 时按替身的规则报告行数
+ */
+public class TestPostgresCopyPageSink {
+    private static final List<Type> TYPES = ImmutableList.of(BIGINT, createVarcharType(16));
+
+    private MetaInfo metaInfo;
+    private List<JdbcColumnHandle> columnHandles;
+    private final List<ByteArrayOutputStream> copies = new ArrayList<>();
+    private final AtomicInteger commits = new AtomicInteger();
+    private final AtomicInteger rollbacks = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        metaInfo = new MetaInfo();
+        metaInfo.setMysqlDb("test");
+        metaInfo.setTargetDb("public");
+        metaInfo.setTable("t");
+        columnHandles = ImmutableList.of(
+                new JdbcColumnHandle("test", "id", new JdbcTypeHandle(Types.BIGINT, 0, 0), TYPES.get(0)),
+                new JdbcColumnHandle("test", "name", new JdbcTypeHandle(Types.VARCHAR, 16, 0), TYPES.get(1)));
+        copies.clear();
+        commits.set(0);
+        rollbacks.set(0);
+    }
+
+    @Test
+    public void testCopyPerCommitBatch() {
+        PostgresCopyPageSink sink = createSink(AdaptiveTuner.MIN_COMMIT_ROWS, rows -> rows);
+        sink.appendPage(createPage(0, 60));
+        assertEquals(0, commits.get());
+        sink.appendPage(createPage(60, 60));
+        assertEquals(1, commits.get());
+        assertEquals(120, sink.getCommittedRows());
+        sink.appendPage(createPage(120, 5));
+        sink.finish();
+        assertEquals(2, commits.get());
+        assertEquals(125, sink.getCommittedRows());
+
+        assertEquals(2, copies.size());
+        assertRows(copies.get(0).toByteArray(), 0, 120);
+        assertRows(copies.get(1).toByteArray(), 120, 125);
+    }
+
+    @Test
+    public void testShortCountFailsBeforeCommit() {
+        PostgresCopyPageSink sink = createSink(AdaptiveTuner.MIN_COMMIT_ROWS, rows -> rows - 1);
+        try {
+            sink.appendPage(createPage(0, 100));
+            fail("expected short copy to fail");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("expected 100 rows but copied 99"));
+        }
+        assertEquals(0, commits.get());
+        assertEquals(1, rollbacks.get());
+        assertEquals(0, sink.getCommittedRows());
+    }
+
+    @Test
+    public void testAbortRollsBack() {
+        PostgresCopyPageSink sink = createSink(AdaptiveTuner.MIN_COMMIT_ROWS, rows -> rows);
+        sink.appendPage(createPage(0, 10));
+        sink.abort();
+        assertEquals(0, commits.get());
+        assertEquals(1, rollbacks.get());
+        assertEquals(0, sink.getCommittedRows());
+    }
+
+    /**
+     * @param reported 由发送的行数得到 endCopy 报告的行数
+     */
+    private PostgresCopyPageSink createSink(int commitRows, LongUnaryOperator reported) {
+        TableTuning tuning = new TableTuning();
+        tuning.setCommitRows(commitRows);
+        return new PostgresCopyPageSink(metaInfo, columnHandles, createConnection(), sql -> {
+            assertEquals("COPY \"public\".\"t\" (\"id\",\"name\") FROM STDIN (FORMAT binary)", sql);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            copies.add(output);
+            return createCopyIn(output, () -> reported.applyAsLong(countRows(output.toByteArray())));
+        }, new AdaptiveTuner("test.t", tuning, null, 1), new TableMetrics("t"), TemporalCodec.UNSHIFTED, new PostgresDialect());
+    }
+
+    private Connection createConnection() {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+            if (method.getName().equals("commit")) {
+                commits.incrementAndGet();
+            } else if (method.getName().equals("rollback")) {
+                rollbacks.incrementAndGet();
+            }
+            return null;
+        });
+    }
+
+    private interface RowCount {
+        long get();
+    }
+
+    private static CopyIn createCopyIn(ByteArrayOutputStream output, RowCount rowCount) {
+        boolean[] active = {true};
+        return (CopyIn) Proxy.newProxyInstance(TestPostgresCopyPageSink.class.getClassLoader(), new Class<?>[] {CopyIn.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "writeToCopy":
+                    output.write((byte[]) args[0], (Integer) args[1], (Integer) args[2]);
+                    return null;
+                case "endCopy":
+                    active[0] = false;
+                    return rowCount.get();
+                case "cancelCopy":
+                    active[0] = false;
+                    return null;
+                case "isActive":
+                    return active[0];
+                default:
+                    return null;
+            }
+        });
+    }
+
+    /**
+     * 逐行走完整个二进制流, 校验文件头和文件尾
+     */
+    private static long countRows(byte[] copy) {
+        ByteBuffer buffer = ByteBuffer.wrap(copy);
+        byte[] signature = new byte[11];
+        buffer.get(signature);
+        assertEquals("PGCOPY\n\377\r\n\0", new String(signature, StandardCharsets.ISO_8859_1));
+        buffer.position(buffer.position() + 8);
+        long rows = 0;
+        for (short fields = buffer.getShort(); fields != -1; fields = buffer.getShort()) {
+            assertEquals(TYPES.size(), fields);
+            for (int i = 0; i < fields; i++) {
+                int length = buffer.getInt();
+                buffer.position(buffer.position() + Math.max(length, 0));
+            }
+            rows++;
+        }
+        assertEquals(0, buffer.remaining());
+        return rows;
+    }
+
+    /**
+     * 流中依次为 id 从 start 到 end (不含) 的行, name 与 id 对应
+     */
+    private static void assertRows(byte[] copy, long start, long end) {
+        ByteBuffer buffer = ByteBuffer.wrap(copy);
+        buffer.position(11 + 8);
+        long expected = start;
+        for (short fields = buffer.getShort(); fields != -1; fields = buffer.getShort()) {
+            assertEquals(8, buffer.getInt());
+            assertEquals(expected, buffer.getLong());
+            byte[] name = new byte[buffer.getInt()];
+            buffer.get(name);
+            assertEquals("name-" + expected, new String(name, StandardCharsets.UTF_8));
+            expected++;
+        }
+        assertEquals(end, expected);
+    }
+
+    private static Page createPage(int start, int rows) {
+        PageBuilder pageBuilder = new PageBuilder(TYPES);
+        for (int row = start; row < start + rows; row++) {
+            pageBuilder.declarePosition();
+            BIGINT.writeLong(pageBuilder.getBlockBuilder(0), row);
+            TYPES.get(1).writeSlice(pageBuilder.getBlockBuilder(1), Slices.utf8Slice("name-" + row));
+        }
+        return pageBuilder.build();
+    }
+}
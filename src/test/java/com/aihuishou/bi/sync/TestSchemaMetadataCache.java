@@ -0,0 +1,80 @@
+package com.aihuishou.bi.sync;
+
+import com.google.common.collect.ImmutableList;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+
+import static com.aihuishou.bi.sync.H2Fixtures.createDataSource;
+import static com.aihuishou.bi.sync.H2Fixtures.execute;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class TestSchemaMetadataCache {
+    private JdbcDataSource dataSource;
+    private SchemaMetadataCache cache;
+
+    @Before
+    public void setUp() throws SQLException {
+        dataSource = createDataSource("metadata_cache");
+        execute(dataSource, "CREATE TABLE A (ID BIGINT PRIMARY KEY, NAME VARCHAR(32), PRICE DECIMAL(10, 2))");
+        execute(dataSource, "CREATE TABLE B (ID BIGINT PRIMARY KEY, CREATED TIMESTAMP)");
+        cache = new SchemaMetadataCache(dataSource);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        execute(dataSource, "DROP ALL OBJECTS");
+    }
+
+    /**
+     * 列按定义顺序, 不同表中相同的类型共用一个 JdbcTypeHandle; 不存在的表为空
+     */
+    @Test
+    public void testColumnsInDefinitionOrder() throws SQLException {
+        assertEquals(ImmutableList.of("ID", "NAME", "PRICE"), columnNames("A"));
+        assertEquals(ImmutableList.of("ID", "CREATED"), columnNames("B"));
+        assertEquals(new JdbcTypeHandle(Types.DECIMAL, 10, 2), cache.getColumns("PUBLIC", "A").get(2).getJdbcTypeHandle());
+        assertSame(cache.getColumns("PUBLIC", "A").get(0).getJdbcTypeHandle(), cache.getColumns("PUBLIC", "B").get(0).getJdbcTypeHandle());
+        assertEquals(ImmutableList.of(), cache.getColumns("PUBLIC", "MISSING"));
+    }
+
+    /**
+     * 一个库只读取一次, 之后的表结构变化在 invalidate 之后才可见
+     */
+    @Test
+    public void testInvalidateReloadsSchema() throws SQLException {
+        assertEquals(ImmutableList.of("ID", "CREATED"), columnNames("B"));
+        execute(dataSource, "ALTER TABLE B ADD COLUMN EXTRA INT");
+        execute(dataSource, "CREATE TABLE C (ID BIGINT)");
+        assertEquals(ImmutableList.of("ID", "CREATED"), columnNames("B"));
+        assertEquals(ImmutableList.of(), columnNames("C"));
+
+        cache.invalidate("PUBLIC");
+        assertEquals(ImmutableList.of("ID", "CREATED", "EXTRA"), columnNames("B"));
+        assertEquals(ImmutableList.of("ID"), columnNames("C"));
+    }
+
+    @Test
+    public void testMysqlJdbcTypes() {
+        assertEquals(Types.BIT, SchemaMetadataCache.toJdbcType("tinyint", "tinyint(1)"));
+        assertEquals(Types.TINYINT, SchemaMetadataCache.toJdbcType("tinyint", "tinyint(4) unsigned"));
+        assertEquals(Types.INTEGER, SchemaMetadataCache.toJdbcType("mediumint", "mediumint(8)"));
+        assertEquals(Types.DATE, SchemaMetadataCache.toJdbcType("year", "year(4)"));
+        assertEquals(Types.CHAR, SchemaMetadataCache.toJdbcType("enum", "enum('a','b')"));
+        assertEquals(Types.LONGVARCHAR, SchemaMetadataCache.toJdbcType("mediumtext", "mediumtext"));
+        assertEquals(Types.OTHER, SchemaMetadataCache.toJdbcType("json", "json"));
+    }
+
+    private List<String> columnNames(String table) throws SQLException {
+        return cache.getColumns("PUBLIC", table).stream()
+                .map(JdbcColumnHandle::getColumnName)
+                .collect(toList());
+    }
+}
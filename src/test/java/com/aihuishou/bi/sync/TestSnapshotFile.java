@@ -0,0 +1,221 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.PageBuilder;
+import com.facebook.presto.spi.block.BlockBuilder;
+import com.facebook.presto.spi.type.Type;
+import com.google.common.collect.ImmutableList;
+import io.airlift.slice.Slices;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static com.facebook.presto.spi.type.Decimals.encodeUnscaledValue;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestSnapshotFile {
+    private static final List<JdbcTypeHandle> TYPE_HANDLES = ImmutableList.of(
+            new JdbcTypeHandle(Types.BIGINT, 19, 0),
+            new JdbcTypeHandle(Types.VARCHAR, 32, 0),
+            new JdbcTypeHandle(Types.DECIMAL, 12, 2),
+            new JdbcTypeHandle(Types.DECIMAL, 30, 4),
+            new JdbcTypeHandle(Types.DOUBLE, 22, 0),
+            new JdbcTypeHandle(Types.DATE, 10, 0),
+            new JdbcTypeHandle(Types.TIMESTAMP, 19, 0),
+            new JdbcTypeHandle(Types.BIT, 1, 0),
+            new JdbcTypeHandle(Types.VARBINARY, 16, 0));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPagesRoundTrip() throws IOException {
+        assertPagesRoundTrip("none");
+    }
+
+    @Test
+    public void testCompressedPagesRoundTrip() throws IOException {
+        assertPagesRoundTrip("lz4");
+    }
+
+    /**
+     * 映射长度小于一页或不是页长度的整数倍时, 页和长度前缀都可能跨过映射末尾, 从该处重新映射后读出的页不变
+     */
+    @Test
+    public void testRemapAcrossBoundary() throws IOException {
+        List<Type> types = getColumns("s").stream().map(JdbcColumnHandle::getColumnType).collect(toImmutableList());
+        List<Page> pages = new ArrayList<>();
+        for (int start = 0; start < 1000; start += 100) {
+            pages.add(createPage(types, start, 100 + start % 7));
+        }
+        Path file = folder.getRoot().toPath().resolve(TableSnapshot.getDataFileName(0));
+        try (SnapshotFile.Writer writer = new SnapshotFile.Writer(file, PageSerde.create("none"))) {
+            for (Page page : pages) {
+                writer.append(page);
+            }
+        }
+        long size = Files.size(file);
+        for (long maxMapBytes : new long[] {1, 10, 4099, size / 3, size}) {
+            try (SnapshotFile.Reader reader = new SnapshotFile.Reader(file, maxMapBytes)) {
+                for (Page expected : pages) {
+                    TestPageSerde.assertPageEquals(types, expected, reader.next());
+                }
+                assertNull(reader.next());
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyFile() throws IOException {
+        Path file = folder.getRoot().toPath().resolve(TableSnapshot.getDataFileName(0));
+        try (SnapshotFile.Writer writer = new SnapshotFile.Writer(file, PageSerde.create("none"))) {
+            assertEquals(0, writer.getRows());
+        }
+        try (SnapshotFile.Reader reader = new SnapshotFile.Reader(file)) {
+            assertNull(reader.next());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncatedFile() throws IOException {
+        Path file = folder.getRoot().toPath().resolve(TableSnapshot.getDataFileName(0));
+        try (SnapshotFile.Writer writer = new SnapshotFile.Writer(file, PageSerde.create("none"))) {
+            writer.append(createPage(getColumns("s").stream().map(JdbcColumnHandle::getColumnType).collect(toImmutableList()), 0, 100));
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 10));
+        try (SnapshotFile.Reader reader = new SnapshotFile.Reader(file)) {
+            reader.next();
+        }
+    }
+
+    /**
+     * 列的 Presto 类型不保存, 读回时按 JDBC 类型重新映射, 应与导出时一致
+     */
+    @Test
+    public void testManifestRoundTrip() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        assertFalse(TableSnapshot.exists(directory));
+        List<JdbcColumnHandle> columns = getColumns("shop");
+        List<IndexDefinition> indexes = ImmutableList.of(
+                new IndexDefinition("idx_name", false, "BTREE", ImmutableList.of("C1", "C6"), ImmutableList.of(Optional.of(10), Optional.empty())),
+                new IndexDefinition("uk_amount", true, "BTREE", ImmutableList.of("C2"), ImmutableList.of(Optional.empty())),
+                new IndexDefinition("ft_name", false, "FULLTEXT", ImmutableList.of("C1"), ImmutableList.of(Optional.empty())));
+        List<String> files = ImmutableList.of(TableSnapshot.getDataFileName(0), TableSnapshot.getDataFileName(1));
+        new TableSnapshot("shop", "orders", columns, ImmutableList.of("C0"), indexes, Optional.of("utf8mb4_general_ci"), 12345, files).save(directory);
+        assertTrue(TableSnapshot.exists(directory));
+
+        TableSnapshot snapshot = TableSnapshot.load(directory);
+        assertEquals("shop", snapshot.getSchema());
+        assertEquals("orders", snapshot.getTable());
+        assertEquals(columns.size(), snapshot.getColumns().size());
+        for (int i = 0; i < columns.size(); i++) {
+            JdbcColumnHandle expected = columns.get(i);
+            JdbcColumnHandle actual = snapshot.getColumns().get(i);
+            assertEquals(expected.getColumnName(), actual.getColumnName());
+            assertEquals(expected.getJdbcTypeHandle(), actual.getJdbcTypeHandle());
+            assertEquals(expected.getColumnType(), actual.getColumnType());
+        }
+        assertEquals(ImmutableList.of("C0"), snapshot.getPrimaryKey());
+        assertEquals(indexes.size(), snapshot.getIndexes().size());
+        for (int i = 0; i < indexes.size(); i++) {
+            IndexDefinition expected = indexes.get(i);
+            IndexDefinition actual = snapshot.getIndexes().get(i);
+            assertEquals(expected.getName(), actual.getName());
+            assertEquals(expected.isUnique(), actual.isUnique());
+            assertEquals(expected.getIndexType(), actual.getIndexType());
+            assertEquals(expected.getColumns(), actual.getColumns());
+            assertEquals(expected.getPrefixLengths(), actual.getPrefixLengths());
+        }
+        assertEquals(Optional.of("utf8mb4_general_ci"), snapshot.getCollation());
+        assertEquals(12345, snapshot.getRows());
+        assertEquals(files, snapshot.getFiles());
+
+        new TableSnapshot("shop", "orders", columns, ImmutableList.of(), ImmutableList.of(), Optional.empty(), 0, ImmutableList.of()).save(directory);
+        assertEquals(Optional.empty(), TableSnapshot.load(directory).getCollation());
+    }
+
+    private void assertPagesRoundTrip(String compression) throws IOException {
+        List<Type> types = getColumns("s").stream().map(JdbcColumnHandle::getColumnType).collect(toImmutableList());
+        List<Page> pages = new ArrayList<>();
+        for (int start = 0; start < 4000; start += 1000) {
+            pages.add(createPage(types, start, 1000));
+        }
+        pages.add(createPage(types, 4000, 1));
+
+        Path file = folder.getRoot().toPath().resolve(TableSnapshot.getDataFileName(0));
+        try (SnapshotFile.Writer writer = new SnapshotFile.Writer(file, PageSerde.create(compression))) {
+            for (Page page : pages) {
+                writer.append(page);
+            }
+            assertEquals(4001, writer.getRows());
+            writer.close();
+            assertEquals(Files.size(file), writer.getBytes());
+        }
+
+        try (SnapshotFile.Reader reader = new SnapshotFile.Reader(file)) {
+            for (Page expected : pages) {
+                TestPageSerde.assertPageEquals(types, expected, reader.next());
+            }
+            assertNull(reader.next());
+        }
+    }
+
+    private static List<JdbcColumnHandle> getColumns(String schema) {
+        ImmutableList.Builder<JdbcColumnHandle> columns = ImmutableList.builder();
+        for (int i = 0; i < TYPE_HANDLES.size(); i++) {
+            JdbcTypeHandle typeHandle = TYPE_HANDLES.get(i);
+            columns.add(new JdbcColumnHandle(schema, "C" + i, typeHandle, StandardReadMappings.jdbcTypeToPrestoType(typeHandle).get().getType()));
+        }
+        return columns.build();
+    }
+
+    /**
+     * 每 5 行中有一行除第一列外都是 NULL, 字符串列的内容重复, 开启压缩时能够压缩
+     */
+    private static Page createPage(List<Type> types, int start, int rows) {
+        PageBuilder pageBuilder = new PageBuilder(types);
+        for (int row = start; row < start + rows; row++) {
+            pageBuilder.declarePosition();
+            types.get(0).writeLong(pageBuilder.getBlockBuilder(0), row);
+            for (int channel = 1; channel < types.size(); channel++) {
+                BlockBuilder block = pageBuilder.getBlockBuilder(channel);
+                Type type = types.get(channel);
+                if (row % 5 == 4) {
+                    block.appendNull();
+                } else if (channel == 1) {
+                    type.writeSlice(block, Slices.utf8Slice("名称-" + row % 100));
+                } else if (channel == 2) {
+                    type.writeLong(block, row * 101L - 50_000);
+                } else if (channel == 3) {
+                    type.writeSlice(block, encodeUnscaledValue(BigInteger.valueOf(row).multiply(BigInteger.TEN.pow(20)).negate()));
+                } else if (channel == 4) {
+                    type.writeDouble(block, row / 3.0);
+                } else if (channel == 5) {
+                    type.writeLong(block, row % 30_000 - 10_000);
+                } else if (channel == 6) {
+                    type.writeLong(block, row * 1000L - 86_400_000L);
+                } else if (channel == 7) {
+                    type.writeBoolean(block, row % 2 == 0);
+                } else {
+                    type.writeSlice(block, Slices.wrappedBuffer(new byte[] {(byte) row, 0, (byte) (row >> 8)}));
+                }
+            }
+        }
+        return pageBuilder.build();
+    }
+}
@@ -0,0 +1,217 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.block.BlockBuilder;
+import io.airlift.slice.Slices;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.VarcharType.VARCHAR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestSpillFile {
+    private static final int ROWS_PER_PAGE = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private TableMetrics metrics;
+    private long recordBytes;
+
+    @Before
+    public void setUp() {
+        directory = folder.getRoot().toPath().resolve("spill");
+        metrics = new TableMetrics("t");
+        // 每页序列化后的大小相同, 段的大小按整页数设置
+        recordBytes = Integer.BYTES + new PageSerde(false).serialize(createPage(0)).length();
+    }
+
+    @Test
+    public void testFifoAcrossSegments() throws IOException {
+        SpillFile spill = createSpillFile(3 * recordBytes, Long.MAX_VALUE);
+        assertNull(spill.poll());
+        assertFalse("segments are created on the first spill", Files.exists(directory));
+        for (int page = 0; page < 10; page++) {
+            assertTrue(spill.append(createPage(page)));
+        }
+        assertEquals(10, spill.getPageCount());
+        assertEquals(10 * recordBytes, spill.getFileBytes());
+        assertEquals(4, countSegments());
+        assertEquals(10, metrics.getSpilledPages());
+        assertEquals(10, metrics.getSpillPendingPages());
+
+        for (int page = 0; page < 10; page++) {
+            assertPage(page, spill.poll());
+            // 读到下一个段的第一页时删除上一个段
+            assertEquals("after page " + page, 4 - page / 3, countSegments());
+        }
+        assertNull(spill.poll());
+        assertEquals(0, spill.getPageCount());
+        assertEquals(0, metrics.getSpillPendingPages());
+        assertEquals(0, metrics.getSpillPendingBytes());
+
+        spill.close();
+        assertEquals(0, countSegments());
+    }
+
+    /**
+     * 读取追加中的段: 读完已写入的页后返回 null, 之后追加的页继续按顺序读回
+     */
+    @Test
+    public void testInterleavedAppendAndPoll() throws IOException {
+        SpillFile spill = createSpillFile(4 * recordBytes, Long.MAX_VALUE);
+        int appended = 0;
+        int polled = 0;
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(spill.append(createPage(appended++)));
+            }
+            for (int i = 0; i < 2; i++) {
+                assertPage(polled++, spill.poll());
+            }
+        }
+        while (polled < appended) {
+            assertPage(polled++, spill.poll());
+        }
+        assertNull(spill.poll());
+        // 只剩最后一个段, 等待之后的追加
+        assertEquals(1, countSegments());
+        spill.close();
+        assertEquals(0, countSegments());
+    }
+
+    @Test
+    public void testMaxBytes() {
+        SpillFile spill = createSpillFile(2 * recordBytes, 3 * recordBytes);
+        assertTrue(spill.append(createPage(0)));
+        assertTrue(spill.append(createPage(1)));
+        assertTrue(spill.append(createPage(2)));
+        assertFalse(spill.append(createPage(3)));
+        assertEquals(3, spill.getPageCount());
+
+        // 读完并删除第一个段后又有空间
+        assertPage(0, spill.poll());
+        assertPage(1, spill.poll());
+        assertPage(2, spill.poll());
+        assertTrue(spill.append(createPage(3)));
+        assertPage(3, spill.poll());
+        spill.close();
+    }
+
+    @Test
+    public void testCloseDeletesUnreadSegments() throws IOException {
+        SpillFile spill = createSpillFile(2 * recordBytes, Long.MAX_VALUE);
+        for (int page = 0; page < 5; page++) {
+            spill.append(createPage(page));
+        }
+        assertPage(0, spill.poll());
+        spill.close();
+        assertEquals(0, countSegments());
+        assertEquals(0, spill.getPageCount());
+        assertEquals(0, metrics.getSpillPendingPages());
+        assertNull(spill.poll());
+        try {
+            spill.append(createPage(5));
+            fail("expected append after close to fail");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testCompressedSegments() {
+        SpillFile spill = new SpillFile(directory, "t", PageSerde.create("lz4"), 3 * recordBytes, Long.MAX_VALUE, metrics);
+        for (int page = 0; page < 10; page++) {
+            assertTrue(spill.append(createPage(page)));
+        }
+        assertTrue(spill.getFileBytes() < 10 * recordBytes);
+        for (int page = 0; page < 10; page++) {
+            assertPage(page, spill.poll());
+        }
+        assertNull(spill.poll());
+        spill.close();
+    }
+
+    /**
+     * 内存预算只够一页时, 其余的页写入磁盘, 写入端仍能取回所有页, 关闭后溢出文件删除
+     */
+    @Test
+    public void testPageBufferSpillsWhenMemoryIsFull() throws InterruptedException, IOException {
+        SpillFile spill = createSpillFile(3 * recordBytes, Long.MAX_VALUE);
+        MemoryPool memoryPool = new MemoryPool(createPage(0).getRetainedSizeInBytes());
+        PageBuffer buffer = new PageBuffer(memoryPool, "t", metrics, spill);
+        buffer.addProducer();
+        for (int page = 0; page < 10; page++) {
+            buffer.put(createPage(page));
+        }
+        buffer.producerFinished();
+        assertEquals(10, buffer.size());
+        assertEquals(9, spill.getPageCount());
+        assertEquals(10 * ROWS_PER_PAGE, metrics.getFetchedRows());
+
+        boolean[] seen = new boolean[10];
+        for (int i = 0; i < 10; i++) {
+            Page page = buffer.poll();
+            assertNotNull(page);
+            int index = (int) (BIGINT.getLong(page.getBlock(0), 0) / ROWS_PER_PAGE);
+            assertFalse("page " + index + " returned twice", seen[index]);
+            seen[index] = true;
+            assertPage(index, page);
+            buffer.release(page);
+        }
+        assertNull(buffer.poll());
+        assertEquals(0, memoryPool.getReservedBytes());
+        buffer.close();
+        assertEquals(0, countSegments());
+    }
+
+    private SpillFile createSpillFile(long segmentBytes, long maxBytes) {
+        return new SpillFile(directory, "t", new PageSerde(false), segmentBytes, maxBytes, metrics);
+    }
+
+    private long countSegments() throws IOException {
+        if (!Files.exists(directory)) {
+            return 0;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private static void assertPage(int index, Page page) {
+        assertNotNull("page " + index, page);
+        assertEquals(ROWS_PER_PAGE, page.getPositionCount());
+        for (int position = 0; position < ROWS_PER_PAGE; position++) {
+            long row = (long) index * ROWS_PER_PAGE + position;
+            assertEquals(row, BIGINT.getLong(page.getBlock(0), position));
+            assertEquals("值-" + row % 10, VARCHAR.getSlice(page.getBlock(1), position).toStringUtf8());
+        }
+    }
+
+    /**
+     * 第一列为全局行号, 各页序列化后的长度相同
+     */
+    private static Page createPage(int index) {
+        BlockBuilder keys = BIGINT.createBlockBuilder(null, ROWS_PER_PAGE);
+        BlockBuilder values = VARCHAR.createBlockBuilder(null, ROWS_PER_PAGE);
+        for (int position = 0; position < ROWS_PER_PAGE; position++) {
+            long row = (long) index * ROWS_PER_PAGE + position;
+            BIGINT.writeLong(keys, row);
+            VARCHAR.writeSlice(values, Slices.utf8Slice("值-" + row % 10));
+        }
+        return new Page(keys.build(), values.build());
+    }
+}
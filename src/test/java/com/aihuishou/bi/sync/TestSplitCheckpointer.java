@@ -0,0 +1,287 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.Page;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.slice.Slice;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static com.aihuishou.bi.sync.H2Fixtures.createDataSource;
+import static com.aihuishou.bi.sync.H2Fixtures.execute;
+import static com.aihuishou.bi.sync.H2Fixtures.interceptCommit;
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.VarcharType.createVarcharType;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestSplitCheckpointer {
+    private static final String TABLE = "PUBLIC.T";
+    private static final int ROWS = 2000;
+    private static final long SPLIT_KEY = 1000;
+    private static final int CHUNK_ROWS = 100;
+    private static final int COMMIT_ROWS = 300;
+    private static final List<JdbcColumnHandle> COLUMNS = ImmutableList.of(
+            new JdbcColumnHandle("PUBLIC", "ID", new JdbcTypeHandle(Types.BIGINT, 19, 0), BIGINT),
+            new JdbcColumnHandle("PUBLIC", "NAME", new JdbcTypeHandle(Types.VARCHAR, 32, 0), createVarcharType(32)));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JdbcDataSource source;
+    private JdbcDataSource target;
+    private MetaInfo metaInfo;
+    private String checkpointFile;
+
+    @Before
+    public void setUp() throws SQLException {
+        source = createDataSource("checkpoint_src");
+        target = createDataSource("checkpoint_tgt");
+        for (JdbcDataSource dataSource : ImmutableList.of(source, target)) {
+            execute(dataSource, "DROP TABLE IF EXISTS T");
+            execute(dataSource, "CREATE TABLE T (ID bigint primary key, NAME varchar(32))");
+        }
+        execute(source, "INSERT INTO T SELECT X, 'name' || X FROM SYSTEM_RANGE(1, " + ROWS + ")");
+        metaInfo = new MetaInfo();
+        metaInfo.setMysqlDb("PUBLIC");
+        metaInfo.setTargetDb("PUBLIC");
+        metaInfo.setTable("T");
+        checkpointFile = folder.getRoot().toPath().resolve("checkpoint.properties").toString();
+    }
+
+    /**
+     * 写入端在分片中途失败后, 断点只记录已提交的行; 新进程从断点继续, 不重读已提交的行, 也不丢行
+     */
+    @Test
+    public void testResumeAfterFailedSink() throws Exception {
+        CopyCheckpoint checkpoint = new CopyCheckpoint(checkpointFile);
+        List<CopyCheckpoint.SplitProgress> splits = checkpoint.start(TABLE, ImmutableList.of(
+                KeyRange.range(COLUMNS.get(0), Optional.empty(), Optional.of(SPLIT_KEY), false),
+                KeyRange.range(COLUMNS.get(0), Optional.of(SPLIT_KEY), Optional.empty(), false)));
+        AtomicInteger appendedPages = new AtomicInteger();
+        PageSinkFactory failing = (metaInfo, columnHandles, connection, tuner) ->
+                new FailingPageSink(createDirectSink(metaInfo, columnHandles, connection, tuner), () -> {
+                    if (appendedPages.incrementAndGet() == 8) {
+                        throw new IllegalStateException("sink failed");
+                    }
+                });
+        try {
+            copy(checkpoint, splits, failing, new RetryPolicy(0, 0), new TableMetrics("t"));
+            fail("expected the copy to fail");
+        } catch (RuntimeException expected) {
+        } finally {
+            // 与 Handler 一样, 失败时写出内存中的进度
+            checkpoint.flush();
+        }
+
+        // 新进程读取断点
+        checkpoint = new CopyCheckpoint(checkpointFile);
+        List<CopyCheckpoint.SplitProgress> saved = checkpoint.get(TABLE).get();
+        assertEquals(2, saved.size());
+        List<Long> committed = getIds(target);
+        assertTrue(committed.size() + " rows committed", !committed.isEmpty() && committed.size() < ROWS);
+        long expectedFetched = 0;
+        for (CopyCheckpoint.SplitProgress split : saved) {
+            assertFalse(split.isDone());
+            long low = split.getLow().orElse(1L);
+            long high = split.getHigh().orElse(ROWS + 1L);
+            long resumeAfter = split.getKey().orElse(low - 1);
+            // 断点之前的行都已经在目标表中
+            for (long id = low; id <= resumeAfter; id++) {
+                assertTrue("row " + id + " before checkpoint " + resumeAfter + " is missing", committed.contains(id));
+            }
+            expectedFetched += high - 1 - resumeAfter;
+        }
+        assertTrue(saved.get(0).getKey().isPresent() || saved.get(1).getKey().isPresent());
+
+        List<CopyCheckpoint.SplitProgress> remaining = new ArrayList<>();
+        for (CopyCheckpoint.SplitProgress split : saved) {
+            if (!split.isDone()) {
+                remaining.add(split);
+            }
+        }
+        TableMetrics metrics = new TableMetrics("t");
+        copy(checkpoint, remaining, this::createUpsertSink, new RetryPolicy(0, 0), metrics);
+        assertEquals(expectedFetched, metrics.getFetchedRows());
+        assertTargetEqualsSource();
+        for (CopyCheckpoint.SplitProgress split : new CopyCheckpoint(checkpointFile).get(TABLE).get()) {
+            assertTrue(split.isDone());
+        }
+    }
+
+    /**
+     * 连接在分片中途断开, 写入线程换连接重写未提交的页, 已提交的页不再写入
+     */
+    @Test
+    public void testReplayUncommittedPagesAfterTransientError() throws Exception {
+        AtomicInteger appendedPages = new AtomicInteger();
+        PageSinkFactory failing = (metaInfo, columnHandles, connection, tuner) ->
+                new FailingPageSink(createDirectSink(metaInfo, columnHandles, connection, tuner), () -> {
+                    if (appendedPages.incrementAndGet() == 5) {
+                        throw new RuntimeException(new SQLException("connection reset", "08S01"));
+                    }
+                });
+        TableMetrics metrics = copyFromStart(failing);
+        assertEquals(ROWS, metrics.getFetchedRows());
+        assertEquals(ROWS, metrics.getWrittenRows());
+        assertTargetEqualsSource();
+    }
+
+    /**
+     * commit 报错但实际已经提交, 切换到按主键覆盖的写入端重写, 不产生重复行
+     */
+    @Test
+    public void testReplayWithUpsertAfterFailedCommit() throws Exception {
+        AtomicInteger commits = new AtomicInteger();
+        DataSource lossyCommit = failAfterCommit(target, () -> commits.incrementAndGet() == 2);
+        PageSinkFactory factory = PageSinkFactory.withReplay(this::createDirectSink, this::createUpsertSink);
+        TableMetrics metrics = copyFromStart(factory, lossyCommit);
+        assertEquals(ROWS, metrics.getFetchedRows());
+        assertTargetEqualsSource();
+    }
+
+    private TableMetrics copyFromStart(PageSinkFactory factory) throws Exception {
+        return copyFromStart(factory, target);
+    }
+
+    private TableMetrics copyFromStart(PageSinkFactory factory, DataSource targetDataSource) throws Exception {
+        CopyCheckpoint checkpoint = new CopyCheckpoint(checkpointFile);
+        List<CopyCheckpoint.SplitProgress> splits = checkpoint.start(TABLE, ImmutableList.of(
+                KeyRange.range(COLUMNS.get(0), Optional.empty(), Optional.of(SPLIT_KEY), false),
+                KeyRange.range(COLUMNS.get(0), Optional.of(SPLIT_KEY), Optional.empty(), false)));
+        TableMetrics metrics = new TableMetrics("t");
+        copy(checkpoint, splits, factory, new RetryPolicy(2, 0), metrics, targetDataSource);
+        for (CopyCheckpoint.SplitProgress split : checkpoint.get(TABLE).get()) {
+            assertTrue(split.isDone());
+        }
+        return metrics;
+    }
+
+    private void copy(CopyCheckpoint checkpoint, List<CopyCheckpoint.SplitProgress> splits, PageSinkFactory factory, RetryPolicy retryPolicy, TableMetrics metrics)
+            throws Exception {
+        copy(checkpoint, splits, factory, retryPolicy, metrics, target);
+    }
+
+    /**
+     * 单个写入线程, 写入端的提交顺序与读取顺序一致
+     */
+    private void copy(CopyCheckpoint checkpoint, List<CopyCheckpoint.SplitProgress> splits, PageSinkFactory factory, RetryPolicy retryPolicy, TableMetrics metrics,
+                      DataSource targetDataSource) throws Exception {
+        SplitCheckpointer checkpointer = new SplitCheckpointer(checkpoint, TABLE, COLUMNS.get(0), 0, splits);
+        ImmutableList.Builder<JdbcSplit> jdbcSplits = ImmutableList.builder();
+        for (int i = 0; i < splits.size(); i++) {
+            jdbcSplits.add(new JdbcSplit(ImmutableList.of(checkpointer.getRange(i))));
+        }
+        PageBuffer buffer = new PageBuffer(new MemoryPool(Long.MAX_VALUE), "t", metrics);
+        TableTuning tuning = new TableTuning();
+        tuning.setCommitRows(COMMIT_ROWS);
+        // 没有缓冲区时提交批量不会增大, 每 COMMIT_ROWS 行提交一次
+        AdaptiveTuner tuner = new AdaptiveTuner("test.t", tuning, null, 1);
+        new M2H2DataMigrator(metaInfo, COLUMNS, jdbcSplits.build(), 1, factory, buffer, tuner, new TableProgress("t", ROWS, 0),
+                checkpointer, CHUNK_ROWS, retryPolicy, LoadGovernor.UNLIMITED, LoadGovernor.UNLIMITED)
+                .transferTable(source, targetDataSource);
+    }
+
+    private CommitAwarePageSink createDirectSink(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, Connection connection, AdaptiveTuner tuner) {
+        try {
+            return new H2DirectPageSink(metaInfo, columnHandles, connection, tuner, new TableMetrics("t"), TemporalCodec.UNSHIFTED, Dialect.forConnection(connection));
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private CommitAwarePageSink createUpsertSink(MetaInfo metaInfo, List<JdbcColumnHandle> columnHandles, Connection connection, AdaptiveTuner tuner) {
+        return new JdbcPageSink(metaInfo, columnHandles, connection, tuner, ImmutableList.of("ID"), new TableMetrics("t"), TemporalCodec.UNSHIFTED, ImmutableSet.of());
+    }
+
+    private void assertTargetEqualsSource() throws SQLException {
+        List<Long> ids = getIds(target);
+        assertEquals(ROWS, ids.size());
+        for (int i = 0; i < ROWS; i++) {
+            assertEquals(i + 1L, (long) ids.get(i));
+        }
+        try (Connection connection = target.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM T WHERE NAME = 'name' || ID")) {
+            resultSet.next();
+            assertEquals(ROWS, resultSet.getLong(1));
+        }
+    }
+
+    private static List<Long> getIds(DataSource dataSource) throws SQLException {
+        List<Long> ids = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT ID FROM T ORDER BY ID")) {
+            while (resultSet.next()) {
+                ids.add(resultSet.getLong(1));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @param fail 每次 commit 成功之后调用, 返回 true 时 commit 报错, 而数据已经提交
+     */
+    private static DataSource failAfterCommit(DataSource dataSource, BooleanSupplier fail) {
+        return interceptCommit(dataSource, connection -> {
+            connection.commit();
+            if (fail.getAsBoolean()) {
+                throw new SQLException("connection lost during commit", "08S01");
+            }
+        });
+    }
+
+    /**
+     * 每次 appendPage 之前调用 beforeAppend, 抛出异常时这一页没有写入
+     */
+    private static final class FailingPageSink implements CommitAwarePageSink {
+        private final CommitAwarePageSink delegate;
+        private final Runnable beforeAppend;
+
+        private FailingPageSink(CommitAwarePageSink delegate, Runnable beforeAppend) {
+            this.delegate = delegate;
+            this.beforeAppend = beforeAppend;
+        }
+
+        @Override
+        public CompletableFuture<?> appendPage(Page page) {
+            beforeAppend.run();
+            return delegate.appendPage(page);
+        }
+
+        @Override
+        public CompletableFuture<Collection<Slice>> finish() {
+            return delegate.finish();
+        }
+
+        @Override
+        public void abort() {
+            delegate.abort();
+        }
+
+        @Override
+        public long getCommittedRows() {
+            return delegate.getCommittedRows();
+        }
+    }
+}
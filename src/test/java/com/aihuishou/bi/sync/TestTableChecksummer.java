@@ -0,0 +1,183 @@
+package com.aihuishou.bi.sync;
+
+import com.google.common.collect.ImmutableList;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.List;
+
+import static com.aihuishou.bi.sync.H2Fixtures.createDataSource;
+import static com.aihuishou.bi.sync.H2Fixtures.execute;
+import static com.aihuishou.bi.sync.H2Fixtures.interceptCommit;
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.BooleanType.BOOLEAN;
+import static com.facebook.presto.spi.type.TimeType.TIME;
+import static com.facebook.presto.spi.type.TimestampType.TIMESTAMP;
+import static com.facebook.presto.spi.type.VarcharType.createVarcharType;
+import static java.util.Locale.ENGLISH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestTableChecksummer {
+    private static final String ROWS = "SELECT X, DATEADD('SECOND', X, TIMESTAMP '2019-01-01 00:00:00'), TIME '10:00:00', MOD(X, 2), CASEWHEN(MOD(X, 7) = 0, NULL, 'name' || X)"
+            + " FROM SYSTEM_RANGE(1, 1000)";
+    private static final List<JdbcColumnHandle> COLUMNS = ImmutableList.of(
+            new JdbcColumnHandle("test", "ID", new JdbcTypeHandle(Types.BIGINT, 19, 0), BIGINT),
+            new JdbcColumnHandle("test", "TS", new JdbcTypeHandle(Types.TIMESTAMP, 0, 0), TIMESTAMP),
+            new JdbcColumnHandle("test", "T", new JdbcTypeHandle(Types.TIME, 0, 0), TIME),
+            new JdbcColumnHandle("test", "FLAG", new JdbcTypeHandle(Types.BIT, 1, 0), BOOLEAN),
+            new JdbcColumnHandle("test", "NAME", new JdbcTypeHandle(Types.VARCHAR, 32, 0), createVarcharType(32)));
+
+    private JdbcDataSource source;
+    private JdbcDataSource target;
+
+    @Before
+    public void setUp() throws SQLException {
+        source = createDataSource("checksum_src");
+        target = createDataSource("checksum_tgt");
+        // 目标表按 MysqlDialect 的规则建立: 日期时间带毫秒精度, 布尔为 tinyint
+        createTable(source, "ID bigint primary key, TS timestamp(0), T time(0), FLAG boolean, NAME varchar(32)");
+        createTable(target, "ID bigint primary key, TS timestamp(3), T time(3), FLAG tinyint, NAME varchar(32)");
+        execute(source, "INSERT INTO T " + ROWS);
+        execute(target, "INSERT INTO T " + ROWS);
+    }
+
+    @Test
+    public void testIdenticalTablesHaveEqualChecksums() throws SQLException {
+        TableChecksummer checksummer = createChecksummer();
+        List<JdbcSplit> chunks = checksummer.getChunks(source, 300);
+        assertEquals(4, chunks.size());
+        for (JdbcSplit chunk : chunks) {
+            assertEquals(chunk.toString(), checksummer.getSourceChecksum(source, chunk), checksummer.getTargetChecksum(target, chunk));
+        }
+    }
+
+    @Test
+    public void testChangedRowIsDetected() throws SQLException {
+        execute(target, "UPDATE T SET NAME = 'changed' WHERE ID = 500");
+        TableChecksummer checksummer = createChecksummer();
+        List<JdbcSplit> chunks = checksummer.getChunks(source, 300);
+        int differing = 0;
+        for (JdbcSplit chunk : chunks) {
+            if (!checksummer.getSourceChecksum(source, chunk).equals(checksummer.getTargetChecksum(target, chunk))) {
+                differing++;
+            }
+        }
+        assertEquals(1, differing);
+    }
+
+    /**
+     * 目标端连接与 Connector/J 和 pgjdbc 一样, autocommit 时调用 commit 报错
+     */
+    @Test
+    public void testDeleteTargetChunk() throws SQLException {
+        TableChecksummer checksummer = createChecksummer();
+        JdbcSplit chunk = checksummer.getChunks(source, 300).get(1);
+        assertEquals(300, checksummer.deleteTargetChunk(strictCommit(target, false), chunk));
+        ChunkChecksum emptied = checksummer.getTargetChecksum(target, chunk);
+        assertEquals(new ChunkChecksum(0, 0), emptied);
+        assertNotEquals(checksummer.getSourceChecksum(source, chunk), emptied);
+    }
+
+    @Test
+    public void testDeleteTargetChunkRollsBackWhenCommitFails() throws SQLException {
+        TableChecksummer checksummer = createChecksummer();
+        JdbcSplit chunk = checksummer.getChunks(source, 300).get(1);
+        ChunkChecksum before = checksummer.getTargetChecksum(target, chunk);
+        try {
+            checksummer.deleteTargetChunk(strictCommit(target, true), chunk);
+            fail("expected commit to fail");
+        } catch (CommitFailedException expected) {
+        }
+        assertEquals(before, checksummer.getTargetChecksum(target, chunk));
+    }
+
+    /**
+     * 连接的默认库 (PUBLIC) 中有同名但内容不同的表, 校验和删除都只作用于要同步的库
+     */
+    @Test
+    public void testNonDefaultSchema() throws SQLException {
+        for (JdbcDataSource dataSource : ImmutableList.of(source, target)) {
+            execute(dataSource, "DROP SCHEMA IF EXISTS SHOP CASCADE");
+            execute(dataSource, "CREATE SCHEMA SHOP");
+        }
+        execute(source, "CREATE TABLE SHOP.T (ID bigint primary key, TS timestamp(0), T time(0), FLAG boolean, NAME varchar(32))");
+        execute(target, "CREATE TABLE SHOP.T (ID bigint primary key, TS timestamp(3), T time(3), FLAG tinyint, NAME varchar(32))");
+        execute(source, "INSERT INTO SHOP.T " + ROWS);
+        execute(target, "INSERT INTO SHOP.T " + ROWS);
+        execute(target, "DELETE FROM T WHERE ID > 500");
+
+        TableChecksummer checksummer = createChecksummer("SHOP");
+        List<JdbcSplit> chunks = checksummer.getChunks(source, 300);
+        assertEquals(4, chunks.size());
+        for (JdbcSplit chunk : chunks) {
+            assertEquals(chunk.toString(), checksummer.getSourceChecksum(source, chunk), checksummer.getTargetChecksum(target, chunk));
+        }
+
+        assertEquals(300, checksummer.deleteTargetChunk(strictCommit(target, false), chunks.get(1)));
+        assertEquals(new ChunkChecksum(0, 0), checksummer.getTargetChecksum(target, chunks.get(1)));
+        assertEquals(700, count(target, "SHOP.T"));
+        assertEquals(500, count(target, "T"));
+    }
+
+    /**
+     * 两端都是 MySQL 时在库内按文本计算, 源表与目标表列类型不同的列按 Presto 类型统一渲染
+     */
+    @Test
+    public void testServerSideProjectionNormalizesColumnTypes() {
+        String projection = TableChecksummer.getChecksumProjection(COLUMNS);
+        assertTrue(projection, projection.contains("CONCAT_WS('#', `ID`, LEFT(DATE_FORMAT(`TS`, '%Y-%m-%d %H:%i:%s.%f'), 23), "
+                + "LEFT(TIME_FORMAT(`T`, '%H:%i:%s.%f'), CHAR_LENGTH(TIME_FORMAT(`T`, '%H:%i:%s.%f')) - 3), (`FLAG` <> 0), `NAME`, "
+                + "CONCAT(ISNULL(`ID`), ISNULL(`TS`), ISNULL(`T`), ISNULL(`FLAG`), ISNULL(`NAME`)))"));
+    }
+
+    private TableChecksummer createChecksummer() throws SQLException {
+        return createChecksummer("PUBLIC");
+    }
+
+    private TableChecksummer createChecksummer(String database) throws SQLException {
+        MetaInfo metaInfo = new MetaInfo();
+        metaInfo.setMysqlDb(database);
+        metaInfo.setTargetDb(database.toLowerCase(ENGLISH));
+        metaInfo.setTable("T");
+        return new TableChecksummer(metaInfo, COLUMNS, COLUMNS.get(0), source, target);
+    }
+
+    /**
+     * @param failCommit commit 总是失败
+     */
+    private static DataSource strictCommit(DataSource dataSource, boolean failCommit) {
+        return interceptCommit(dataSource, connection -> {
+            if (connection.getAutoCommit()) {
+                throw new SQLException("Can't call commit when autocommit=true");
+            }
+            if (failCommit) {
+                throw new SQLException("connection lost during commit", "08S01");
+            }
+            connection.commit();
+        });
+    }
+
+    private static void createTable(JdbcDataSource dataSource, String columns) throws SQLException {
+        execute(dataSource, "DROP TABLE IF EXISTS T");
+        execute(dataSource, "CREATE TABLE T (" + columns + ")");
+    }
+
+    private static long count(JdbcDataSource dataSource, String table) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.block.BlockBuilder;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import static com.facebook.presto.spi.type.DateType.DATE;
+import static com.facebook.presto.spi.type.TimestampType.TIMESTAMP;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestTemporalCodec {
+    private static final ZoneId SHANGHAI = ZoneId.of("Asia/Shanghai");
+    private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+    private static final DateTimeFormatter SECONDS_FORMAT = DateTimeFormatter.ofPattern("uuuu-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter MILLIS_FORMAT = DateTimeFormatter.ofPattern("uuuu-MM-dd HH:mm:ss.SSS");
+
+    @Test
+    public void testParseDate() {
+        assertEquals(LocalDate.of(2020, 2, 29).toEpochDay(), TemporalCodec.parseDate(bytes("2020-02-29")));
+        assertEquals(LocalDate.of(2000, 2, 29).toEpochDay(), TemporalCodec.parseDate(bytes("2000-02-29")));
+        assertEquals(-1, TemporalCodec.parseDate(bytes("1969-12-31")));
+        assertEquals(LocalDate.of(1, 1, 1).toEpochDay(), TemporalCodec.parseDate(bytes("0001-01-01")));
+        assertEquals(LocalDate.of(9999, 12, 31).toEpochDay(), TemporalCodec.parseDate(bytes("9999-12-31")));
+        // 零值日期和不存在的日期退回驱动
+        assertEquals(TemporalCodec.INVALID, TemporalCodec.parseDate(bytes("0000-00-00")));
+        assertEquals(TemporalCodec.INVALID, TemporalCodec.parseDate(bytes("2019-00-10")));
+        assertEquals(TemporalCodec.INVALID, TemporalCodec.parseDate(bytes("2019-02-29")));
+        assertEquals(TemporalCodec.INVALID, TemporalCodec.parseDate(bytes("1900-02-29")));
+        assertEquals(TemporalCodec.INVALID, TemporalCodec.parseDate(bytes("2019-04-31")));
+        assertEquals(TemporalCodec.INVALID, TemporalCodec.parseDate(bytes("2019")));
+        assertEquals(TemporalCodec.INVALID, TemporalCodec.parseDate(bytes("2019/01/01")));
+    }
+
+    @Test
+    public void testParseTime() {
+        assertEquals(0, TemporalCodec.parseTime(bytes("00:00:00")));
+        assertEquals(86_399_000, TemporalCodec.parseTime(bytes("23:59:59")));
+        assertEquals(45_296_100, TemporalCodec.parseTime(bytes("12:34:56.1")));
+        // 超过毫秒的小数位截断
+        assertEquals(45_296_123, TemporalCodec.parseTime(bytes("12:34:56.123999")));
+        assertEquals(45_296_123, TemporalCodec.parseTime(bytes("12:34:56.123999999")));
+        assertEquals(TemporalCodec.INVALID, TemporalCodec.parseTime(bytes("12:34:56.1234567891")));
+        assertEquals(TemporalCodec.INVALID, TemporalCodec.parseTime(bytes("12:34:56.")));
+        assertEquals(TemporalCodec.INVALID, TemporalCodec.parseTime(bytes("24:00:00")));
+        assertEquals(TemporalCodec.INVALID, TemporalCodec.parseTime(bytes("838:59:59")));
+        assertEquals(TemporalCodec.INVALID, TemporalCodec.parseTime(bytes("-01:00:00")));
+        assertEquals("00:00:00", TemporalCodec.formatTime(0));
+        assertEquals("23:59:59.999", TemporalCodec.formatTime(86_399_999));
+        assertEquals("12:30:05.120", TemporalCodec.formatTime(TemporalCodec.parseTime(bytes("12:30:05.12"))));
+    }
+
+    /**
+     * 1970 年之前的本地时间为负数, 毫秒部分仍为正
+     */
+    @Test
+    public void testPre1970Timestamps() {
+        assertEquals(-1, TemporalCodec.parseTimestamp(bytes("1969-12-31 23:59:59.999")));
+        assertEquals(-1000, TemporalCodec.parseTimestamp(bytes("1969-12-31 23:59:59")));
+        assertEquals(localMillis(LocalDateTime.of(1900, 1, 1, 0, 0, 0, 1_000_000)), TemporalCodec.parseTimestamp(bytes("1900-01-01 00:00:00.001")));
+        assertEquals(localMillis(LocalDateTime.of(1, 1, 1, 0, 0)), TemporalCodec.parseTimestamp(bytes("0001-01-01 00:00:00")));
+        assertEquals("1969-12-31 23:59:59.999", TemporalCodec.formatTimestamp(-1));
+        assertEquals("1969-12-31 00:00:00", TemporalCodec.formatTimestamp(-86_400_000));
+        assertEquals("1899-12-31 23:59:59.500", TemporalCodec.formatTimestamp(localMillis(LocalDateTime.of(1899, 12, 31, 23, 59, 59, 500_000_000))));
+        assertEquals("1969-12-31", TemporalCodec.formatDate(-1));
+        assertEquals(TemporalCodec.INVALID, TemporalCodec.parseTimestamp(bytes("0000-00-00 00:00:00")));
+    }
+
+    /**
+     * 本地毫秒数格式化后再解析得到原值, 不经过任何时区
+     */
+    @Test
+    public void testLocalMillisRoundTrip() {
+        Random random = new Random(42);
+        long min = localMillis(LocalDateTime.of(1, 1, 1, 0, 0));
+        long max = localMillis(LocalDateTime.of(9999, 12, 31, 23, 59, 59, 999_000_000));
+        for (int i = 0; i < 100_000; i++) {
+            long value = min + (long) (random.nextDouble() * (max - min));
+            String text = TemporalCodec.formatTimestamp(value);
+            LocalDateTime local = TemporalCodec.toLocalDateTime(value);
+            assertEquals(local.format(local.getNano() == 0 ? SECONDS_FORMAT : MILLIS_FORMAT), text);
+            assertEquals(text, value, TemporalCodec.parseTimestamp(bytes(text)));
+            long days = Math.floorDiv(value, 86_400_000L);
+            assertEquals(days, TemporalCodec.parseDate(bytes(TemporalCodec.formatDate(days))));
+        }
+        // 超出 4 位年份时按 LocalDateTime 格式化
+        long farFuture = localMillis(LocalDateTime.of(10000, 1, 1, 0, 0));
+        assertEquals("+10000-01-01T00:00", TemporalCodec.formatTimestamp(farFuture));
+    }
+
+    /**
+     * 夏令时跳过的本地时间原样读取, 与 JVM 时区无关
+     */
+    @Test
+    public void testTextReadMappingKeepsGapTimes() throws SQLException {
+        LongReadFunction readTimestamp = (LongReadFunction) TemporalCodec.textTimestampReadMapping().getReadFunction();
+        assertEquals(localMillis(LocalDateTime.of(2019, 3, 10, 2, 30)), readTimestamp.readLong(text("2019-03-10 02:30:00"), 1));
+        assertEquals(localMillis(LocalDateTime.of(1988, 4, 10, 2, 30)), readTimestamp.readLong(text("1988-04-10 02:30:00.000000"), 1));
+        assertEquals(0, readTimestamp.readLong(text(null), 1));
+        LongReadFunction readDate = (LongReadFunction) TemporalCodec.textDateReadMapping().getReadFunction();
+        assertEquals(LocalDate.of(1960, 5, 1).toEpochDay(), readDate.readLong(text("1960-05-01"), 1));
+    }
+
+    @Test
+    public void testShift() {
+        assertFalse(new TemporalCodec(SHANGHAI, ZoneId.of("PRC")).isShifting());
+        long local = localMillis(LocalDateTime.of(2019, 7, 1, 12, 0));
+        assertEquals(local, new TemporalCodec(SHANGHAI, SHANGHAI).shift(local));
+
+        TemporalCodec codec = new TemporalCodec(SHANGHAI, NEW_YORK);
+        assertTrue(codec.isShifting());
+        assertEquals(localMillis(LocalDateTime.of(2019, 7, 1, 0, 0)), codec.shift(local));
+        assertEquals(localMillis(LocalDateTime.of(2019, 1, 1, 23, 0)), codec.shift(localMillis(LocalDateTime.of(2019, 1, 2, 12, 0))));
+        // 目标库时区的 gap 不会出现在换算结果中: 上海 15:00 为纽约 02:00 EST 的同一时刻, 即 03:00 EDT
+        assertEquals(localMillis(LocalDateTime.of(2019, 3, 10, 3, 0)), codec.shift(localMillis(LocalDateTime.of(2019, 3, 10, 15, 0))));
+        // 1970 年之前
+        assertEquals(localMillis(LocalDateTime.of(1960, 1, 1, 0, 0)), codec.shift(localMillis(LocalDateTime.of(1960, 1, 1, 13, 0))));
+
+        // 源库时区的 gap 按跳过的长度顺延, overlap 取较早的时刻
+        TemporalCodec toUtc = new TemporalCodec(NEW_YORK, ZoneOffset.UTC);
+        assertEquals(localMillis(LocalDateTime.of(2019, 3, 10, 7, 30)), toUtc.shift(localMillis(LocalDateTime.of(2019, 3, 10, 2, 30))));
+        assertEquals(localMillis(LocalDateTime.of(2019, 11, 3, 5, 30)), toUtc.shift(localMillis(LocalDateTime.of(2019, 11, 3, 1, 30))));
+    }
+
+    /**
+     * H2 以文本绑定, gap 中和 1970 年之前的本地时间写入后原样读出
+     */
+    @Test
+    public void testTextBindingRoundTrip() throws SQLException {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:temporal;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        long[] values = {
+                localMillis(LocalDateTime.of(2019, 3, 10, 2, 30)),
+                localMillis(LocalDateTime.of(2019, 11, 3, 1, 30, 0, 250_000_000)),
+                localMillis(LocalDateTime.of(1969, 12, 31, 23, 59, 59, 999_000_000)),
+                localMillis(LocalDateTime.of(1900, 1, 1, 0, 0))};
+        try (Connection connection = dataSource.getConnection()) {
+            TemporalCodec codec = TemporalCodec.UNSHIFTED.forTarget(connection);
+            execute(connection, "DROP TABLE IF EXISTS T");
+            execute(connection, "CREATE TABLE T (ID int, TS timestamp(3), D date)");
+            ColumnBinder timestampBinder = codec.timestampBinder();
+            ColumnBinder dateBinder = codec.dateBinder();
+            try (PreparedStatement statement = connection.prepareStatement("INSERT INTO T VALUES (?, ?, ?)")) {
+                for (int i = 0; i < values.length; i++) {
+                    BlockBuilder timestamps = TIMESTAMP.createBlockBuilder(null, 1);
+                    TIMESTAMP.writeLong(timestamps, values[i]);
+                    BlockBuilder dates = DATE.createBlockBuilder(null, 1);
+                    DATE.writeLong(dates, Math.floorDiv(values[i], 86_400_000L));
+                    statement.setInt(1, i);
+                    timestampBinder.bind(statement, 2, timestamps.build(), 0);
+                    dateBinder.bind(statement, 3, dates.build(), 0);
+                    statement.executeUpdate();
+                }
+            }
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT ID, CAST(TS AS varchar), CAST(D AS varchar) FROM T ORDER BY ID")) {
+                for (long value : values) {
+                    assertTrue(resultSet.next());
+                    assertEquals(value, TemporalCodec.parseTimestamp(bytes(resultSet.getString(2))));
+                    assertEquals(Math.floorDiv(value, 86_400_000L), TemporalCodec.parseDate(bytes(resultSet.getString(3))));
+                }
+                assertFalse(resultSet.next());
+            }
+        }
+    }
+
+    private static long localMillis(LocalDateTime local) {
+        return local.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    /**
+     * 与 MySQL 驱动一样, getBytes 返回日期时间文本
+     */
+    private static ResultSet text(String value) throws SQLException {
+        ResultSet resultSet = new InMemoryResultSet(new Object[][] {{value == null ? null : bytes(value)}}, false);
+        resultSet.next();
+        return resultSet;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(US_ASCII);
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.aihuishou.bi.sync;
+
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.PageBuilder;
+import com.facebook.presto.spi.PrestoException;
+import com.facebook.presto.spi.block.BlockBuilder;
+import com.facebook.presto.spi.type.DecimalType;
+import com.facebook.presto.spi.type.Decimals;
+import com.facebook.presto.spi.type.Type;
+import com.google.common.collect.ImmutableList;
+import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.slice.Slices;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.BooleanType.BOOLEAN;
+import static com.facebook.presto.spi.type.DateType.DATE;
+import static com.facebook.presto.spi.type.DoubleType.DOUBLE;
+import static com.facebook.presto.spi.type.TimeType.TIME;
+import static com.facebook.presto.spi.type.TimestampType.TIMESTAMP;
+import static com.facebook.presto.spi.type.VarbinaryType.VARBINARY;
+import static com.facebook.presto.spi.type.VarcharType.VARCHAR;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+public class TestTsvPageEncoder {
+    @Test
+    public void testNullAndEscaping() {
+        assertEncoded(ImmutableList.of(VARCHAR, VARCHAR), builders -> {
+            VARCHAR.writeSlice(builders.get(0), Slices.utf8Slice("a\tb\nc\\d\re\0f 名称"));
+            builders.get(1).appendNull();
+        }, "a\\tb\\nc\\\\d\\re\\0f 名称\t\\N\n");
+        // 字面量 \N 是两个字符, 不能与 NULL 混淆
+        assertEncoded(ImmutableList.of(VARCHAR), builders -> VARCHAR.writeSlice(builders.get(0), Slices.utf8Slice("\\N")), "\\\\N\n");
+    }
+
+    /**
+     * 二进制列写成十六进制, 不是合法 UTF-8 的字节和 NUL 都不需要转义
+     */
+    @Test
+    public void testBinaryAsHex() {
+        assertEncoded(ImmutableList.of(VARBINARY, VARBINARY, VARBINARY), builders -> {
+            VARBINARY.writeSlice(builders.get(0), Slices.wrappedBuffer(new byte[] {(byte) 0x80, (byte) 0xFF, 0x00, 'x', '\t'}));
+            VARBINARY.writeSlice(builders.get(1), Slices.EMPTY_SLICE);
+            builders.get(2).appendNull();
+        }, "80FF007809\t\t\\N\n");
+    }
+
+    @Test
+    public void testNumbers() {
+        assertEncoded(ImmutableList.of(BIGINT, BIGINT, BOOLEAN, BOOLEAN, DOUBLE), builders -> {
+            BIGINT.writeLong(builders.get(0), -1234567890123L);
+            BIGINT.writeLong(builders.get(1), Long.MIN_VALUE);
+            BOOLEAN.writeBoolean(builders.get(2), true);
+            BOOLEAN.writeBoolean(builders.get(3), false);
+            DOUBLE.writeDouble(builders.get(4), 0.25);
+        }, "-1234567890123\t-9223372036854775808\t1\t0\t0.25\n");
+    }
+
+    @Test
+    public void testDecimals() {
+        DecimalType money = DecimalType.createDecimalType(12, 2);
+        DecimalType integral = DecimalType.createDecimalType(10, 0);
+        DecimalType fraction = DecimalType.createDecimalType(6, 5);
+        DecimalType wide = DecimalType.createDecimalType(30, 4);
+        List<Type> types = ImmutableList.of(money, money, money, integral, fraction, wide, wide);
+        assertEncoded(types, builders -> {
+            money.writeLong(builders.get(0), 12345);
+            money.writeLong(builders.get(1), -5);
+            money.writeLong(builders.get(2), 0);
+            integral.writeLong(builders.get(3), -42);
+            fraction.writeLong(builders.get(4), 123);
+            wide.writeSlice(builders.get(5), Decimals.encodeUnscaledValue(new BigInteger("123456789012345678901234")));
+            wide.writeSlice(builders.get(6), Decimals.encodeUnscaledValue(new BigInteger("-1")));
+        }, "123.45\t-0.05\t0.00\t-42\t0.00123\t12345678901234567890.1234\t-0.0001\n");
+    }
+
+    @Test
+    public void testDateAndTimestamp() {
+        long millis = LocalDateTime.of(2019, 3, 31, 2, 30, 5, 120_000_000).toInstant(ZoneOffset.UTC).toEpochMilli();
+        long midnight = LocalDateTime.of(1969, 12, 31, 0, 0).toInstant(ZoneOffset.UTC).toEpochMilli();
+        assertEncoded(ImmutableList.of(DATE, TIMESTAMP, TIMESTAMP), builders -> {
+            DATE.writeLong(builders.get(0), LocalDate.of(2020, 2, 29).toEpochDay());
+            TIMESTAMP.writeLong(builders.get(1), millis);
+            TIMESTAMP.writeLong(builders.get(2), midnight);
+        }, "2020-02-29\t2019-03-31 02:30:05.120\t1969-12-31 00:00:00\n");
+
+        // 源库与目标库时区不同时输出目标库的本地时间
+        TemporalCodec shifting = new TemporalCodec(ZoneId.of("Asia/Shanghai"), ZoneOffset.UTC);
+        assertEncoded(new TsvPageEncoder(ImmutableList.of(TIMESTAMP), shifting), ImmutableList.of(TIMESTAMP),
+                builders -> TIMESTAMP.writeLong(builders.get(0), millis), "2019-03-30 18:30:05.120\n");
+    }
+
+    @Test(expected = PrestoException.class)
+    public void testUnsupportedType() {
+        new TsvPageEncoder(ImmutableList.of(TIME));
+    }
+
+    private static void assertEncoded(List<Type> types, Consumer<List<BlockBuilder>> row, String expected) {
+        assertEncoded(new TsvPageEncoder(types), types, row, expected);
+    }
+
+    private static void assertEncoded(TsvPageEncoder encoder, List<Type> types, Consumer<List<BlockBuilder>> row, String expected) {
+        PageBuilder pageBuilder = new PageBuilder(types);
+        pageBuilder.declarePosition();
+        ImmutableList.Builder<BlockBuilder> builders = ImmutableList.builder();
+        for (int channel = 0; channel < types.size(); channel++) {
+            builders.add(pageBuilder.getBlockBuilder(channel));
+        }
+        row.accept(builders.build());
+        Page page = pageBuilder.build();
+        DynamicSliceOutput output = new DynamicSliceOutput(64);
+        encoder.encodePage(page, output);
+        assertEquals(expected, output.slice().toString(UTF_8));
+    }
+}
@@ -0,0 +1,41 @@
+package com.aihuishou.bi.sync;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestTuningStore {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() {
+        String file = new File(folder.getRoot(), "tuning.properties").getPath();
+        TableTuning tuning = new TableTuning();
+        tuning.setFetchSize(5000);
+        tuning.setCommitRows(1250);
+        new TuningStore(file).save("davinci.orders", tuning);
+
+        TuningStore reloaded = new TuningStore(file);
+        assertEquals(tuning, reloaded.get("davinci.orders"));
+        // 没有记录的表取调优前的固定值
+        assertEquals(new TableTuning(), reloaded.get("davinci.users"));
+    }
+
+    /**
+     * 路径为空时不写文件, 当前进程内仍然可以读到
+     */
+    @Test
+    public void testInMemory() {
+        TuningStore store = new TuningStore("");
+        TableTuning tuning = new TableTuning();
+        tuning.setFetchSize(200);
+        store.save("davinci.orders", tuning);
+        assertEquals(tuning, store.get("davinci.orders"));
+        assertEquals(0, folder.getRoot().list().length);
+    }
+}
@@ -0,0 +1,119 @@
+package com.aihuishou.bi.sync;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.zone.ZoneOffsetTransition;
+import java.util.Random;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.junit.Assert.assertEquals;
+
+public class TestZoneOffsetTable {
+    private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+    private static final String[] ZONES = {"UTC", "Asia/Shanghai", "America/New_York", "Europe/London", "Australia/Lord_Howe", "America/Sao_Paulo", "Asia/Kolkata"};
+
+    /**
+     * 夏令时开始时跳过的本地时间按跳过的长度往后顺延, 与 ZonedDateTime.of 一致
+     */
+    @Test
+    public void testGap() {
+        ZoneOffsetTable table = ZoneOffsetTable.of(NEW_YORK);
+        // 2019-03-10 02:00 EST 跳到 03:00 EDT
+        assertEquals(epochMillis(LocalDateTime.of(2019, 3, 10, 3, 30), NEW_YORK), table.toEpochMillis(localMillis(LocalDateTime.of(2019, 3, 10, 2, 30))));
+        assertEquals(epochMillis(LocalDateTime.of(2019, 3, 10, 3, 0), NEW_YORK), table.toEpochMillis(localMillis(LocalDateTime.of(2019, 3, 10, 2, 0))));
+        assertEquals(epochMillis(LocalDateTime.of(2019, 3, 10, 1, 59, 59), NEW_YORK) + 1000, table.toEpochMillis(localMillis(LocalDateTime.of(2019, 3, 10, 3, 0))));
+        // gap 中的本地时间不会由 UTC 时刻换算得到
+        long epochMillis = table.toEpochMillis(localMillis(LocalDateTime.of(2019, 3, 10, 2, 30)));
+        assertEquals(localMillis(LocalDateTime.of(2019, 3, 10, 3, 30)), table.toLocalMillis(epochMillis));
+    }
+
+    /**
+     * 夏令时结束时重复的本地时间取较早的时刻
+     */
+    @Test
+    public void testOverlap() {
+        ZoneOffsetTable table = ZoneOffsetTable.of(NEW_YORK);
+        // 2019-11-03 02:00 EDT 回到 01:00 EST, 01:30 出现两次
+        long local = localMillis(LocalDateTime.of(2019, 11, 3, 1, 30));
+        long earlier = LocalDateTime.of(2019, 11, 3, 1, 30).toInstant(ZoneOffset.ofHours(-4)).toEpochMilli();
+        long later = LocalDateTime.of(2019, 11, 3, 1, 30).toInstant(ZoneOffset.ofHours(-5)).toEpochMilli();
+        assertEquals(earlier, table.toEpochMillis(local));
+        assertEquals(local, table.toLocalMillis(earlier));
+        assertEquals(local, table.toLocalMillis(later));
+        assertEquals(later + MINUTES.toMillis(30), table.toEpochMillis(localMillis(LocalDateTime.of(2019, 11, 3, 2, 0))));
+    }
+
+    /**
+     * 1970 年之前的时刻为负数, 也包括 1900 年之前和 2100 年之后退回 ZoneRules 的部分
+     */
+    @Test
+    public void testOutsideTableRange() {
+        for (String zone : ZONES) {
+            ZoneId zoneId = ZoneId.of(zone);
+            ZoneOffsetTable table = ZoneOffsetTable.of(zoneId);
+            for (LocalDateTime local : new LocalDateTime[] {
+                    LocalDateTime.of(1, 1, 1, 0, 0),
+                    LocalDateTime.of(1850, 6, 1, 12, 0),
+                    LocalDateTime.of(1899, 12, 31, 23, 59, 59, 999_000_000),
+                    LocalDateTime.of(1900, 1, 1, 0, 0),
+                    LocalDateTime.of(1941, 7, 1, 0, 0),
+                    LocalDateTime.of(1969, 12, 31, 23, 59, 59, 999_000_000),
+                    LocalDateTime.of(2099, 12, 31, 23, 59, 59),
+                    LocalDateTime.of(2100, 7, 1, 12, 0),
+                    LocalDateTime.of(9999, 12, 31, 23, 59, 59)}) {
+                assertEquals(zone + " " + local, epochMillis(local, zoneId), table.toEpochMillis(localMillis(local)));
+                long epochMillis = epochMillis(local, zoneId);
+                assertEquals(zone + " " + local, localMillis(ZonedDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), zoneId).toLocalDateTime()),
+                        table.toLocalMillis(epochMillis));
+            }
+        }
+    }
+
+    /**
+     * 每次偏移变化前后, 以及随机的时刻, 两个方向都与 java.time 一致
+     */
+    @Test
+    public void testMatchesZoneRules() {
+        Random random = new Random(42);
+        long min = LocalDateTime.of(1800, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC) * 1000;
+        long max = LocalDateTime.of(2200, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC) * 1000;
+        for (String zone : ZONES) {
+            ZoneId zoneId = ZoneId.of(zone);
+            ZoneOffsetTable table = ZoneOffsetTable.of(zoneId);
+            ZoneOffsetTransition transition = zoneId.getRules().nextTransition(Instant.ofEpochMilli(min));
+            while (transition != null && transition.toEpochSecond() * 1000 < max) {
+                long instant = transition.toEpochSecond() * 1000;
+                long local = localMillis(transition.getDateTimeBefore());
+                for (long delta : new long[] {-DAYS.toMillis(1), -MINUTES.toMillis(30), -1, 0, 1, MINUTES.toMillis(30), DAYS.toMillis(1)}) {
+                    assertMatches(zoneId, table, instant + delta, local + delta);
+                }
+                transition = zoneId.getRules().nextTransition(transition.getInstant());
+            }
+            for (int i = 0; i < 10_000; i++) {
+                long value = min + (long) (random.nextDouble() * (max - min));
+                assertMatches(zoneId, table, value, value);
+            }
+        }
+    }
+
+    private static void assertMatches(ZoneId zone, ZoneOffsetTable table, long epochMillis, long localMillis) {
+        LocalDateTime local = TemporalCodec.toLocalDateTime(localMillis);
+        assertEquals(zone + " " + local, epochMillis(local, zone), table.toEpochMillis(localMillis));
+        assertEquals(zone + " " + Instant.ofEpochMilli(epochMillis),
+                localMillis(ZonedDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), zone).toLocalDateTime()), table.toLocalMillis(epochMillis));
+    }
+
+    private static long localMillis(LocalDateTime local) {
+        return local.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static long epochMillis(LocalDateTime local, ZoneId zone) {
+        return ZonedDateTime.of(local, zone).toInstant().toEpochMilli();
+    }
+}